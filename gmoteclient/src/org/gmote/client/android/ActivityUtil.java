@@ -226,7 +226,7 @@ public class ActivityUtil {
       } else {
 
         AbstractPacket reply = (AbstractPacket) msg.obj;
-        if (reply.getCommand() != Command.MEDIA_INFO) {
+        if (reply.getCommand() != Command.MEDIA_INFO && reply.getCommand() != Command.ART_REPLY) {
           cancelDialog();
         }
        
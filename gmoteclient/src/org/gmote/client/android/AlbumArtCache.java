@@ -0,0 +1,57 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.client.android;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The album art that we received from the server, keyed by the hash that the
+ * server sends in MediaMetaInfo. Lets us show the art of an album that we've
+ * seen before without downloading it again.
+ */
+class AlbumArtCache {
+  // Maximum number of bytes of art that we keep in memory.
+  private static final int MAX_ART_BYTES = 2 * 1024 * 1024;
+
+  // Ordered from least to most recently used.
+  private final LinkedHashMap<String, byte[]> art = new LinkedHashMap<String, byte[]>(16,
+      0.75f, true);
+  private int artBytes = 0;
+
+  /**
+   * Returns the art with the given hash, or null if we don't have it.
+   */
+  synchronized byte[] get(String hash) {
+    return art.get(hash);
+  }
+
+  synchronized void put(String hash, byte[] image) {
+    if (image.length > MAX_ART_BYTES || art.containsKey(hash)) {
+      return;
+    }
+    art.put(hash, image);
+    artBytes += image.length;
+
+    // Drop the least recently used art until we are within our budget.
+    Iterator<byte[]> it = art.values().iterator();
+    while (artBytes > MAX_ART_BYTES && it.hasNext()) {
+      artBytes -= it.next().length;
+      it.remove();
+    }
+  }
+}
@@ -27,6 +27,9 @@ import org.gmote.common.FileInfo.FileSource;
 import org.gmote.common.FileInfo.FileType;
 import org.gmote.common.Protocol.Command;
 import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.ListPageReplyPacket;
+import org.gmote.common.packet.ListPageReqPacket;
+import org.gmote.common.packet.ListPageReqPacket.SortOrder;
 import org.gmote.common.packet.ListReplyPacket;
 import org.gmote.common.packet.ListReqPacket;
 import org.gmote.common.packet.SimplePacket;
@@ -50,6 +53,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.Filter;
 import android.widget.Filterable;
@@ -66,10 +70,26 @@ import android.widget.Toast;
  * handles onclick events to launch files.
  *
  */
-public class Browse extends ListActivity implements BaseActivity, RadioGroup.OnCheckedChangeListener {
+public class Browse extends ListActivity implements BaseActivity,
+    RadioGroup.OnCheckedChangeListener, AbsListView.OnScrollListener {
   static final String DEBUG_TAG = "Gmote";
 
-  AbstractPacket reply;
+  // Number of files that we ask for at a time.
+  private static final int PAGE_SIZE = 100;
+  // We ask for the next page once the user scrolls this close to the end of
+  // the files that we have.
+  private static final int PREFETCH_DISTANCE = 20;
+
+  // Every file of the directory that we received so far.
+  private List<FileInfo> receivedFiles = new ArrayList<FileInfo>();
+  // The received files that are shown, which excludes the files that can't be
+  // streamed in stream mode.
+  private List<FileInfo> displayedFiles = new ArrayList<FileInfo>();
+  private FileAdapter fileAdapter = null;
+  // True while we wait for the server to send a page that we asked for.
+  private boolean pageRequested = false;
+  // True if the directory has files past the ones that we received.
+  private boolean moreFilesAvailable = false;
   FileInfo fileInfo = null;
   ActivityUtil mUtil = null;
   private static boolean inGmoteStreamMode = false;
@@ -93,7 +113,14 @@ public class Browse extends ListActivity implements BaseActivity, RadioGroup.OnC
       lastReqWasBaseList = true;
       
     } else {
-      mUtil.send(new ListReqPacket(fileInfo));
+      if (Remote.getInstance().serverSupportsListPages()) {
+        // Ask for the first files only. The rest is fetched as the user
+        // scrolls.
+        pageRequested = true;
+        mUtil.send(new ListPageReqPacket(fileInfo, 0, PAGE_SIZE, SortOrder.NAME));
+      } else {
+        mUtil.send(new ListReqPacket(fileInfo));
+      }
       filePath = fileInfo.getAbsolutePath();
       lastReqWasBaseList = false;  
     }
@@ -222,7 +249,7 @@ public class Browse extends ListActivity implements BaseActivity, RadioGroup.OnC
 
   @Override
   protected void onListItemClick(ListView l, View v, int position, long id) {
-    FileInfo file = ((ListReplyPacket) reply).getFiles()[position];
+    FileInfo file = (FileInfo) getListAdapter().getItem(position);
     if (file.isDirectory()) {
       Intent intent = new Intent(this, Browse.class);
       intent.putExtra(getString(R.string.current_path), file);
@@ -234,7 +261,8 @@ public class Browse extends ListActivity implements BaseActivity, RadioGroup.OnC
       inGmoteStreamMode = gmoteStreamIsChecked();
       
       if (inGmoteStreamMode) {
-        intent.putExtra(getString(R.string.gmote_stream_playlist), reply);
+        intent.putExtra(getString(R.string.gmote_stream_playlist), new ListReplyPacket(
+            receivedFiles.toArray(new FileInfo[receivedFiles.size()])));
       }
       
       intent.putExtra(getString(R.string.gmote_stream_mode), inGmoteStreamMode);
@@ -259,27 +287,49 @@ public class Browse extends ListActivity implements BaseActivity, RadioGroup.OnC
       finish();
     } else if (tempReply.getCommand() == Command.LIST_REPLY) {
       Log.d(DEBUG_TAG, "Browse# got list ");
-      reply = tempReply;
-      displayFiles();
-
-      setContentView(R.layout.file_list);
-      
-      Log.d(DEBUG_TAG, "Browse# setup list ");
-      getListView().setTextFilterEnabled(true);
-      getListView().requestFocus();
-      
-      addButtonListeners();
-      initCorrectRadioButton();
-      writeTitle();
-    } else if (tempReply.getCommand() == Command.MEDIA_INFO){
+      receivedFiles = new ArrayList<FileInfo>(Arrays.asList(((ListReplyPacket) tempReply)
+          .getFiles()));
+      showFileList();
+    } else if (tempReply.getCommand() == Command.LIST_PAGE_REPLY) {
+      ListPageReplyPacket page = (ListPageReplyPacket) tempReply;
+      Log.d(DEBUG_TAG, "Browse# got page at " + page.getOffset());
+      if (page.getOffset() != receivedFiles.size()) {
+        Log.w(DEBUG_TAG, "Browse# ignoring page at " + page.getOffset() + ", expected "
+            + receivedFiles.size());
+        return;
+      }
+      if (page.isLastPage()) {
+        pageRequested = false;
+        moreFilesAvailable = page.isMoreFilesAvailable();
+      }
+      if (page.getOffset() == 0) {
+        receivedFiles.addAll(Arrays.asList(page.getFiles()));
+        showFileList();
+      } else {
+        addFiles(page.getFiles());
+      }
+    } else if (tempReply.getCommand() == Command.MEDIA_INFO
+        || tempReply.getCommand() == Command.ART_REPLY) {
       // Simply ignore this packet.
       return;
     } else {
       Log.e(DEBUG_TAG,"Unexpected packet in browse: " + tempReply.getCommand());
-      return;
     }
-    reply = tempReply;
+  }
+
+  private void showFileList() {
+    displayFiles();
+
+    setContentView(R.layout.file_list);
     
+    Log.d(DEBUG_TAG, "Browse# setup list ");
+    getListView().setTextFilterEnabled(true);
+    getListView().setOnScrollListener(this);
+    getListView().requestFocus();
+    
+    addButtonListeners();
+    initCorrectRadioButton();
+    writeTitle();
   }
 
   class FileAdapterView extends LinearLayout {
@@ -462,25 +512,46 @@ public class Browse extends ListActivity implements BaseActivity, RadioGroup.OnC
   }
 
   private void displayFiles() {
-    
-    if (reply != null) {
-      List<FileInfo> filesToDisplay;
-      if (inGmoteStreamMode) {
-        FileInfo[] allFiles = ((ListReplyPacket) reply).getFiles();
+    displayedFiles = new ArrayList<FileInfo>();
+    for (FileInfo file : receivedFiles) {
+      if (isDisplayed(file)) {
+        displayedFiles.add(file);
+      }
+    }
+    fileAdapter = new FileAdapter(Browse.this, displayedFiles);
+    setListAdapter(fileAdapter);
+  }
 
-        // We can only stream songs that are on the file system.
-        filesToDisplay = new ArrayList<FileInfo>();
-        for (FileInfo file : allFiles) {
-          if (file.getFileSource() == FileSource.FILE_SYSTEM) {
-            filesToDisplay.add(file);
-          }
-        }
-      } else {
-        filesToDisplay = Arrays.asList(((ListReplyPacket) reply).getFiles());
+  /**
+   * Adds a page of files to the end of the list that is shown.
+   */
+  private void addFiles(FileInfo[] files) {
+    for (FileInfo file : files) {
+      receivedFiles.add(file);
+      if (isDisplayed(file)) {
+        displayedFiles.add(file);
       }
-      FileAdapter fileAdapter = new FileAdapter(Browse.this, filesToDisplay);
-      setListAdapter(fileAdapter);
-      
     }
+    if (fileAdapter != null) {
+      fileAdapter.notifyDataSetChanged();
+    }
+  }
+
+  private boolean isDisplayed(FileInfo file) {
+    // We can only stream songs that are on the file system.
+    return !inGmoteStreamMode || file.getFileSource() == FileSource.FILE_SYSTEM;
+  }
+
+  public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+      int totalItemCount) {
+    if (moreFilesAvailable && !pageRequested
+        && firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_DISTANCE) {
+      pageRequested = true;
+      mUtil.send(new ListPageReqPacket(fileInfo, receivedFiles.size(), PAGE_SIZE,
+          SortOrder.NAME));
+    }
+  }
+
+  public void onScrollStateChanged(AbsListView view, int scrollState) {
   }
 }
@@ -28,6 +28,8 @@ import org.gmote.common.FileInfo.FileType;
 import org.gmote.common.Protocol.Command;
 import org.gmote.common.media.MediaMetaInfo;
 import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.ArtReplyPacket;
+import org.gmote.common.packet.ArtReqPacket;
 import org.gmote.common.packet.ListReplyPacket;
 import org.gmote.common.packet.MediaInfoPacket;
 import org.gmote.common.packet.MediaInfoReqPacket;
@@ -66,6 +68,11 @@ import android.widget.Toast;
 public class ButtonControl extends Activity implements BaseActivity {
   private static final String DEBUG_TAG = "Gmote";
   private static Bitmap mBitmap = null;
+  // Hash of the art in mBitmap, if the server sent one.
+  private static String mImageHash = null;
+  private static AlbumArtCache mArtCache = new AlbumArtCache();
+  // Media info that we are showing, while we wait for its art to arrive.
+  private static MediaMetaInfo mMediaMetaAwaitingArt = null;
   private static GmoteMediaPlayer mediaPlayer = null;
   private static boolean inMediaPlayerMode = false;
   private static FileInfo fileInfo;
@@ -292,6 +299,21 @@ public class ButtonControl extends Activity implements BaseActivity {
     System.out.println("ButtonControl got packet");
     if (reply.getCommand() == Command.MEDIA_INFO) {
       updateMediaInfo(((MediaInfoPacket) reply).getMedia());
+    } else if (reply.getCommand() == Command.ART_REPLY) {
+      handleArtReply((ArtReplyPacket) reply);
+    }
+  }
+
+  private synchronized void handleArtReply(ArtReplyPacket reply) {
+    if (reply.getImage() == null) {
+      Log.w(DEBUG_TAG, "ButtonControl# server no longer has art " + reply.getImageHash());
+      return;
+    }
+    mArtCache.put(reply.getImageHash(), reply.getImage());
+    MediaMetaInfo mediaMeta = mMediaMetaAwaitingArt;
+    if (mediaMeta != null && reply.getImageHash().equals(mediaMeta.getImageHash())) {
+      mMediaMetaAwaitingArt = null;
+      updateMediaInfo(mediaMeta);
     }
   }
 
@@ -334,7 +356,8 @@ public class ButtonControl extends Activity implements BaseActivity {
 
   synchronized void updateMediaInfo(MediaMetaInfo mediaMeta) {
     
-    if (mediaMeta == null || mediaMeta.getTitle() == null && mediaMeta.getArtist() == null && mediaMeta.getImage() == null) {
+    if (mediaMeta == null || mediaMeta.getTitle() == null && mediaMeta.getArtist() == null
+        && mediaMeta.getImage() == null && mediaMeta.getImageHash() == null) {
       mMediaInfoView.setVisibility(ActivityUtil.VIEW_GONE);
       mContentView.setBackgroundDrawable(null);
       mMediaImageView.setImageBitmap(null);
@@ -353,6 +376,20 @@ public class ButtonControl extends Activity implements BaseActivity {
       
       try {
         byte[] image = mediaMeta.getImage();
+        String imageHash = mediaMeta.getImageHash();
+        mMediaMetaAwaitingArt = null;
+        if (imageHash != null) {
+          if (image != null) {
+            mArtCache.put(imageHash, image);
+          } else if (!imageHash.equals(mImageHash)) {
+            image = mArtCache.get(imageHash);
+            if (image == null) {
+              // We'll show it once the server sends it.
+              mMediaMetaAwaitingArt = mediaMeta;
+              mUtil.send(new ArtReqPacket(imageHash));
+            }
+          }
+        }
         
         if (image != null) {
           int length = image.length;
@@ -362,6 +399,7 @@ public class ButtonControl extends Activity implements BaseActivity {
             }
             Log.e(ActivityUtil.DEBUG_TAG, "ButtonControl# changing image");
             mBitmap = BitmapFactory.decodeByteArray(image, 0, length);
+            mImageHash = imageHash;
             mMediaImageView.setImageBitmap(mBitmap);
             if (mediaMeta.isShowImageOnBackground()) {
               mContentView.setBackgroundDrawable(new BitmapDrawable(mBitmap));
@@ -372,11 +410,12 @@ public class ButtonControl extends Activity implements BaseActivity {
         } else {
           Log.w(ActivityUtil.DEBUG_TAG, "ButtonControl# null image");
 
-          if (mBitmap != null && !mediaMeta.isImageSameAsPrevious()) {
+          if (mBitmap != null && imageHash == null && !mediaMeta.isImageSameAsPrevious()) {
             mMediaImageView.setImageResource(R.drawable.audio);
             mContentView.setBackgroundDrawable(null);
             mBitmap.recycle();
             mBitmap = null;
+            mImageHash = null;
           }
         }
       } catch (Exception e) {
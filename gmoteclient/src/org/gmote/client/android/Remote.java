@@ -24,6 +24,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import org.gmote.common.DataReceiverIF;
 import org.gmote.common.MulticastClient;
+import org.gmote.common.PacketCodec;
 import org.gmote.common.ServerInfo;
 import org.gmote.common.ServerOutOfDateException;
 import org.gmote.common.TcpConnection;
@@ -167,6 +168,13 @@ public class Remote implements DataReceiverIF {
     return con == null? false : con.isConnected();
   }
 
+  /**
+   * Returns true if the server can send directory listings one page at a time.
+   */
+  public synchronized boolean serverSupportsListPages() {
+    return con != null && con.getCodecVersion() >= PacketCodec.LIST_PAGES_VERSION;
+  }
+
   protected synchronized boolean connect(boolean ignoreErrors) {
     if (callback == null) {
       Log.w(DEBUG_TAG, "Callback is null in connect()");
@@ -48,6 +48,7 @@ public class RemoteDesktop extends Activity implements BaseActivity {
   // tile
   Canvas tileCanvas;
   Rect tileRect;
+  Rect partialTileRect;
   Object waitForTile = new Object();
   int tileSize;
   int tileMaxX;
@@ -105,6 +106,7 @@ public class RemoteDesktop extends Activity implements BaseActivity {
 
     tileCanvas = new Canvas();
     tileRect = new Rect();
+    partialTileRect = new Rect();
     bmRect = new Rect();
 
     gestureDetector = new GestureDetector(gestureListener);
@@ -149,10 +151,27 @@ public class RemoteDesktop extends Activity implements BaseActivity {
       }
     }
   }
-  private synchronized void updateTile(int idx, int idy, byte[] data) {
+  private synchronized void updateTile(TileUpdatePacket update) {
+    int idx = update.getTileIdX();
+    int idy = update.getTileIdY();
+    byte[] data = update.getImageData();
     Log.d(DEBUG_TAG, "updateTile: " + idx +","+ idy);
     tileRect.offsetTo(idx * tileSize, idy * tileSize);
-    tileCanvas.drawBitmap(BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions), null, tileRect, new Paint());
+    Bitmap tileBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+    if (tileBitmap == null) {
+      Log.e(DEBUG_TAG, "Unable to decode tile: " + idx + "," + idy);
+      return;
+    }
+    if (update.isPartialUpdate()) {
+      // Only the part of the tile that changed was sent. Draw it over what we
+      // already have of the tile.
+      int left = tileRect.left + update.getOffsetX();
+      int top = tileRect.top + update.getOffsetY();
+      partialTileRect.set(left, top, left + tileBitmap.getWidth(), top + tileBitmap.getHeight());
+      tileCanvas.drawBitmap(tileBitmap, null, partialTileRect, new Paint());
+    } else {
+      tileCanvas.drawBitmap(tileBitmap, null, tileRect, new Paint());
+    }
     synchronized(waitForTile) {
       waitForTile.notifyAll();
     }
@@ -234,6 +253,8 @@ public class RemoteDesktop extends Activity implements BaseActivity {
     super.onPause();
     Log.d(DEBUG_TAG, "RemoteDesktop# onpause");
 
+    // Stop the server from sending us tiles that nobody is looking at.
+    mUtil.send(TileSetReq.createEmptyTileSet());
     mUtil.onPause();
   }
 
@@ -271,12 +292,17 @@ public class RemoteDesktop extends Activity implements BaseActivity {
       tileSize = ti.getTileSize();
 
       initializeGraphics();
+      // The server stopped sending us tiles when we asked for the screen info,
+      // so ask for the visible ones again.
+      tile1X = -1;
+      tile1Y = -1;
+      prevX = -1;
+      prevY = -1;
       new Thread(new TileReqSenderThread()).start();
       //sendTcpTileReq();
     } else if (reply.getCommand() == Command.TILE_UPDATE) {
       Log.d(DEBUG_TAG, "RemoteDesktop# got tile update ");
-      TileUpdatePacket update = (TileUpdatePacket)reply;
-      updateTile(update.getTileIdX(), update.getTileIdY(), update.getImageData());
+      updateTile((TileUpdatePacket) reply);
     } else {
       Log.e(DEBUG_TAG,"Unexpected packet in RemoteDesktop: " + reply.getCommand());
       return;
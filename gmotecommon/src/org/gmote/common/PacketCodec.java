@@ -0,0 +1,576 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+import org.gmote.common.FileInfo.FileSource;
+import org.gmote.common.FileInfo.FileType;
+import org.gmote.common.Protocol.Command;
+import org.gmote.common.Protocol.MouseEvent;
+import org.gmote.common.media.MediaMetaInfo;
+import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.ArtReplyPacket;
+import org.gmote.common.packet.ArtReqPacket;
+import org.gmote.common.packet.AuthenticationReply;
+import org.gmote.common.packet.AuthenticationReq;
+import org.gmote.common.packet.KeyboardEventPacket;
+import org.gmote.common.packet.LaunchUrlPacket;
+import org.gmote.common.packet.ListPageReplyPacket;
+import org.gmote.common.packet.ListPageReqPacket;
+import org.gmote.common.packet.ListPageReqPacket.SortOrder;
+import org.gmote.common.packet.ListReplyPacket;
+import org.gmote.common.packet.ListReqPacket;
+import org.gmote.common.packet.MediaInfoPacket;
+import org.gmote.common.packet.MediaInfoReqPacket;
+import org.gmote.common.packet.MouseClickPacket;
+import org.gmote.common.packet.MouseMovePacket;
+import org.gmote.common.packet.MouseWheelPacket;
+import org.gmote.common.packet.RunFileReqPacket;
+import org.gmote.common.packet.SearchReplyPacket;
+import org.gmote.common.packet.SearchReqPacket;
+import org.gmote.common.packet.ServerErrorPacket;
+import org.gmote.common.packet.SimplePacket;
+import org.gmote.common.packet.TileClickReq;
+import org.gmote.common.packet.TileInfoReply;
+import org.gmote.common.packet.TileSetReq;
+import org.gmote.common.packet.TileUpdatePacket;
+
+/**
+ * Compact binary encoding of our packets. This replaces java serialization
+ * once both sides have agreed on a codec version during authentication (see
+ * {@link TcpConnection}). Each packet is encoded as a one byte packet type, the
+ * ordinal of its command, followed by the packet's fields. Packets that we
+ * don't know how to encode are wrapped in a java serialized frame so that
+ * every packet can always be sent. Subclasses of the packets below are also
+ * sent as java serialized frames since we would otherwise drop their fields.
+ *
+ * NOTE: The packet type ids as well as the Command and MouseEvent ordinals are
+ * written to the wire. Never re-use a type id and only append new enum
+ * constants to the end of their enum.
+ */
+@SuppressWarnings("deprecation")
+public class PacketCodec {
+
+  /**
+   * The codec version spoken by this build. A value of 0 means that the peer
+   * only understands java serialization.
+   */
+  public static final int VERSION = 5;
+
+  public static final int JAVA_SERIALIZATION = 0;
+
+  /**
+   * First codec version that understands ListPageReqPacket and
+   * ListPageReplyPacket.
+   */
+  public static final int LIST_PAGES_VERSION = 2;
+
+  /**
+   * First codec version that understands SearchReqPacket and
+   * SearchReplyPacket.
+   */
+  public static final int SEARCH_VERSION = 3;
+
+  /**
+   * First codec version that understands ArtReqPacket and ArtReplyPacket. At
+   * this version, a MediaMetaInfo that has an image hash is sent without its
+   * image.
+   */
+  public static final int ART_VERSION = 4;
+
+  /**
+   * First codec version that understands partial TileUpdatePackets, which
+   * only contain the part of a tile that changed.
+   */
+  public static final int TILE_DELTA_VERSION = 5;
+
+  // Packet type ids.
+  private static final byte TYPE_JAVA_SERIALIZED = 0;
+  private static final byte TYPE_SIMPLE = 1;
+  private static final byte TYPE_SERVER_ERROR = 2;
+  private static final byte TYPE_LIST_REQ = 3;
+  private static final byte TYPE_LIST_REPLY = 4;
+  private static final byte TYPE_RUN_FILE_REQ = 5;
+  private static final byte TYPE_MEDIA_INFO_REQ = 6;
+  private static final byte TYPE_MEDIA_INFO = 7;
+  private static final byte TYPE_MOUSE_CLICK = 8;
+  private static final byte TYPE_MOUSE_MOVE = 9;
+  private static final byte TYPE_MOUSE_WHEEL = 10;
+  private static final byte TYPE_KEYBOARD_EVENT = 11;
+  private static final byte TYPE_LAUNCH_URL = 12;
+  private static final byte TYPE_TILE_SET_REQ = 13;
+  private static final byte TYPE_TILE_CLICK_REQ = 14;
+  private static final byte TYPE_TILE_INFO_REPLY = 15;
+  private static final byte TYPE_TILE_UPDATE = 16;
+  private static final byte TYPE_AUTH_REQ = 17;
+  private static final byte TYPE_AUTH_REPLY = 18;
+  private static final byte TYPE_LIST_PAGE_REQ = 19;
+  private static final byte TYPE_LIST_PAGE_REPLY = 20;
+  private static final byte TYPE_SEARCH_REQ = 21;
+  private static final byte TYPE_SEARCH_REPLY = 22;
+  private static final byte TYPE_ART_REQ = 23;
+  private static final byte TYPE_ART_REPLY = 24;
+
+  private static final int NULL_LENGTH = -1;
+  private static final String STRING_ENCODING = "UTF-8";
+
+  // Prevent instantiation.
+  private PacketCodec() {
+  }
+
+  /**
+   * Returns the codec version that should be used when talking to a peer that
+   * supports codec versions up to and including peerVersion.
+   */
+  public static int negotiateVersion(int peerVersion) {
+    return Math.max(JAVA_SERIALIZATION, Math.min(peerVersion, VERSION));
+  }
+
+  /**
+   * Encodes a packet for a peer that speaks the latest codec version.
+   */
+  public static byte[] encode(AbstractPacket packet) throws IOException {
+    return encode(packet, VERSION);
+  }
+
+  /**
+   * Encodes a packet into a byte array. The array does not contain the length
+   * prefix, which is added by the connection when the frame is written.
+   *
+   * @param version the codec version that was negotiated with the peer.
+   * @throws IOException if the packet can't be sent in that version, like a
+   *           partial TileUpdatePacket before TILE_DELTA_VERSION.
+   */
+  public static byte[] encode(AbstractPacket packet, int version) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    if (packet.getClass() == TileUpdatePacket.class) {
+      TileUpdatePacket tile = (TileUpdatePacket) packet;
+      if (tile.isPartialUpdate() && version < TILE_DELTA_VERSION) {
+        // The phone would draw the changed part of the tile as the whole tile.
+        throw new IOException("Partial tile updates need codec version " + TILE_DELTA_VERSION
+            + ", not " + version);
+      }
+      writeHeader(out, TYPE_TILE_UPDATE, packet);
+      out.writeInt(tile.getTileIdX());
+      out.writeInt(tile.getTileIdY());
+      writeBytes(out, tile.getImageData());
+      if (version >= TILE_DELTA_VERSION) {
+        out.writeBoolean(tile.isPartialUpdate());
+        if (tile.isPartialUpdate()) {
+          out.writeInt(tile.getOffsetX());
+          out.writeInt(tile.getOffsetY());
+        }
+      }
+    } else if (packet.getClass() == MediaInfoPacket.class) {
+      writeHeader(out, TYPE_MEDIA_INFO, packet);
+      writeMediaMetaInfo(out, ((MediaInfoPacket) packet).getMedia(), version);
+    } else if (packet.getClass() == ListReplyPacket.class) {
+      writeHeader(out, TYPE_LIST_REPLY, packet);
+      writeFileInfos(out, ((ListReplyPacket) packet).getFiles());
+    } else if (packet.getClass() == ListPageReplyPacket.class) {
+      ListPageReplyPacket page = (ListPageReplyPacket) packet;
+      writeHeader(out, TYPE_LIST_PAGE_REPLY, packet);
+      writeString(out, page.getPath());
+      out.writeInt(page.getOffset());
+      writeFileInfos(out, page.getFiles());
+      out.writeInt(page.getTotalFiles());
+      out.writeBoolean(page.isLastPage());
+      out.writeBoolean(page.isMoreFilesAvailable());
+    } else if (packet.getClass() == SearchReplyPacket.class) {
+      SearchReplyPacket searchReply = (SearchReplyPacket) packet;
+      writeHeader(out, TYPE_SEARCH_REPLY, packet);
+      writeString(out, searchReply.getQuery());
+      out.writeInt(searchReply.getOffset());
+      writeFileInfos(out, searchReply.getFiles());
+      out.writeInt(searchReply.getTotalResults());
+    } else if (packet.getClass() == ArtReplyPacket.class) {
+      ArtReplyPacket artReply = (ArtReplyPacket) packet;
+      writeHeader(out, TYPE_ART_REPLY, packet);
+      writeString(out, artReply.getImageHash());
+      writeBytes(out, artReply.getImage());
+    } else if (packet.getClass() == SimplePacket.class) {
+      writeHeader(out, TYPE_SIMPLE, packet);
+    } else if (packet.getClass() == MouseClickPacket.class) {
+      writeHeader(out, TYPE_MOUSE_CLICK, packet);
+      writeEnum(out, ((MouseClickPacket) packet).getMouseEvent());
+    } else if (packet.getClass() == MouseWheelPacket.class) {
+      writeHeader(out, TYPE_MOUSE_WHEEL, packet);
+      out.writeInt(((MouseWheelPacket) packet).getWheelAmount());
+    } else if (packet.getClass() == KeyboardEventPacket.class) {
+      writeHeader(out, TYPE_KEYBOARD_EVENT, packet);
+      out.writeInt(((KeyboardEventPacket) packet).getKeyCode());
+    } else if (packet.getClass() == MouseMovePacket.class) {
+      MouseMovePacket move = (MouseMovePacket) packet;
+      writeHeader(out, TYPE_MOUSE_MOVE, packet);
+      out.writeShort(move.getDiffX());
+      out.writeShort(move.getDiffY());
+    } else if (packet.getClass() == TileSetReq.class) {
+      TileSetReq tileSet = (TileSetReq) packet;
+      writeHeader(out, TYPE_TILE_SET_REQ, packet);
+      out.writeInt(tileSet.getTile1X());
+      out.writeInt(tileSet.getTile1Y());
+      out.writeInt(tileSet.getTile2X());
+      out.writeInt(tileSet.getTile2Y());
+    } else if (packet.getClass() == TileClickReq.class) {
+      TileClickReq click = (TileClickReq) packet;
+      writeHeader(out, TYPE_TILE_CLICK_REQ, packet);
+      out.writeInt(click.getTileIdX());
+      out.writeInt(click.getTileIdY());
+      out.writeInt(click.getPixelOffsetInTileX());
+      out.writeInt(click.getPixelOffsetInTileY());
+      writeEnum(out, click.getMouseEvent());
+    } else if (packet.getClass() == TileInfoReply.class) {
+      TileInfoReply info = (TileInfoReply) packet;
+      writeHeader(out, TYPE_TILE_INFO_REPLY, packet);
+      out.writeInt(info.getScreenWidth());
+      out.writeInt(info.getScreenHeight());
+      out.writeInt(info.getTileSize());
+    } else if (packet.getClass() == ListReqPacket.class) {
+      ListReqPacket listReq = (ListReqPacket) packet;
+      writeHeader(out, TYPE_LIST_REQ, packet);
+      writeString(out, listReq.getPath());
+      writeFileInfo(out, listReq.getFileInfo());
+    } else if (packet.getClass() == ListPageReqPacket.class) {
+      ListPageReqPacket pageReq = (ListPageReqPacket) packet;
+      writeHeader(out, TYPE_LIST_PAGE_REQ, packet);
+      writeString(out, pageReq.getPath());
+      writeFileInfo(out, pageReq.getFileInfo());
+      out.writeInt(pageReq.getOffset());
+      out.writeInt(pageReq.getLimit());
+      writeEnum(out, pageReq.getSortOrder());
+    } else if (packet.getClass() == SearchReqPacket.class) {
+      SearchReqPacket searchReq = (SearchReqPacket) packet;
+      writeHeader(out, TYPE_SEARCH_REQ, packet);
+      writeString(out, searchReq.getQuery());
+      out.writeInt(searchReq.getOffset());
+      out.writeInt(searchReq.getLimit());
+    } else if (packet.getClass() == ArtReqPacket.class) {
+      writeHeader(out, TYPE_ART_REQ, packet);
+      writeString(out, ((ArtReqPacket) packet).getImageHash());
+    } else if (packet.getClass() == RunFileReqPacket.class) {
+      RunFileReqPacket runReq = (RunFileReqPacket) packet;
+      writeHeader(out, TYPE_RUN_FILE_REQ, packet);
+      writeString(out, runReq.getPathAndFileName());
+      writeFileInfo(out, runReq.getFileInfo());
+    } else if (packet.getClass() == MediaInfoReqPacket.class) {
+      MediaInfoReqPacket infoReq = (MediaInfoReqPacket) packet;
+      writeHeader(out, TYPE_MEDIA_INFO_REQ, packet);
+      writeString(out, infoReq.getPathAndFileName());
+      out.writeBoolean(infoReq.isForceImageUpdate());
+    } else if (packet.getClass() == ServerErrorPacket.class) {
+      ServerErrorPacket error = (ServerErrorPacket) packet;
+      writeHeader(out, TYPE_SERVER_ERROR, packet);
+      out.writeInt(error.getErrorTypeOrdinal());
+      writeString(out, error.getErrorDescription());
+    } else if (packet.getClass() == LaunchUrlPacket.class) {
+      writeHeader(out, TYPE_LAUNCH_URL, packet);
+      writeString(out, ((LaunchUrlPacket) packet).getUrl());
+    } else if (packet.getClass() == AuthenticationReq.class) {
+      AuthenticationReq authReq = (AuthenticationReq) packet;
+      writeHeader(out, TYPE_AUTH_REQ, packet);
+      writeString(out, authReq.getChallenge());
+      writeString(out, authReq.getServerVersion());
+      out.writeInt(authReq.getCodecVersion());
+    } else if (packet.getClass() == AuthenticationReply.class) {
+      AuthenticationReply authReply = (AuthenticationReply) packet;
+      writeHeader(out, TYPE_AUTH_REPLY, packet);
+      writeBytes(out, authReply.getChallengeReply());
+      writeString(out, authReply.getClientVersion());
+      out.writeInt(authReply.getCodecVersion());
+    } else {
+      // We don't know this packet. Fall back to java serialization.
+      out.writeByte(TYPE_JAVA_SERIALIZED);
+      ObjectOutputStream objectOut = new ObjectOutputStream(out);
+      objectOut.writeObject(packet);
+      objectOut.flush();
+    }
+
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a packet that was encoded with {@link #encode(AbstractPacket)}.
+   */
+  public static AbstractPacket decode(byte[] frame) throws IOException {
+    return decode(frame, VERSION);
+  }
+
+  /**
+   * Decodes a packet that was encoded with
+   * {@link #encode(AbstractPacket, int)}. Returns null if the packet type is
+   * unknown, which can happen when talking to a newer peer. The caller should
+   * simply skip the frame in that case.
+   *
+   * @param version the codec version that was negotiated with the peer.
+   */
+  public static AbstractPacket decode(byte[] frame, int version) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+    byte type = in.readByte();
+
+    if (type == TYPE_JAVA_SERIALIZED) {
+      ObjectInputStream objectIn = new ObjectInputStream(in);
+      try {
+        return (AbstractPacket) objectIn.readObject();
+      } catch (ClassNotFoundException e) {
+        throw new StreamCorruptedException("Unable to decode java serialized packet: "
+            + e.getMessage());
+      }
+    }
+
+    Command command = readEnum(in, Command.values());
+    switch (type) {
+      case TYPE_SIMPLE:
+        return new SimplePacket(command);
+      case TYPE_SERVER_ERROR:
+        int errorTypeOrdinal = in.readInt();
+        return new ServerErrorPacket(errorTypeOrdinal, readString(in));
+      case TYPE_LIST_REQ:
+        String listPath = readString(in);
+        FileInfo listFileInfo = readFileInfo(in);
+        return (listFileInfo != null) ? new ListReqPacket(listFileInfo) : new ListReqPacket(listPath);
+      case TYPE_LIST_REPLY:
+        return new ListReplyPacket(readFileInfos(in));
+      case TYPE_LIST_PAGE_REQ:
+        String pagePath = readString(in);
+        FileInfo pageFileInfo = readFileInfo(in);
+        int offset = in.readInt();
+        int limit = in.readInt();
+        SortOrder sortOrder = readEnum(in, SortOrder.values());
+        return (pageFileInfo != null) ? new ListPageReqPacket(pageFileInfo, offset, limit,
+            sortOrder) : new ListPageReqPacket(pagePath, offset, limit, sortOrder);
+      case TYPE_LIST_PAGE_REPLY:
+        String replyPath = readString(in);
+        int replyOffset = in.readInt();
+        FileInfo[] pageFiles = readFileInfos(in);
+        int totalFiles = in.readInt();
+        boolean lastPage = in.readBoolean();
+        return new ListPageReplyPacket(replyPath, replyOffset, pageFiles, totalFiles, lastPage,
+            in.readBoolean());
+      case TYPE_SEARCH_REQ:
+        String query = readString(in);
+        int searchOffset = in.readInt();
+        return new SearchReqPacket(query, searchOffset, in.readInt());
+      case TYPE_SEARCH_REPLY:
+        String repliedQuery = readString(in);
+        int resultsOffset = in.readInt();
+        FileInfo[] results = readFileInfos(in);
+        return new SearchReplyPacket(repliedQuery, resultsOffset, results, in.readInt());
+      case TYPE_ART_REQ:
+        return new ArtReqPacket(readString(in));
+      case TYPE_ART_REPLY:
+        String imageHash = readString(in);
+        return new ArtReplyPacket(imageHash, readBytes(in));
+      case TYPE_RUN_FILE_REQ:
+        String runPath = readString(in);
+        FileInfo runFileInfo = readFileInfo(in);
+        return (runFileInfo != null) ? new RunFileReqPacket(runFileInfo) : new RunFileReqPacket(runPath);
+      case TYPE_MEDIA_INFO_REQ:
+        String mediaPath = readString(in);
+        return new MediaInfoReqPacket(mediaPath, in.readBoolean());
+      case TYPE_MEDIA_INFO:
+        return new MediaInfoPacket(readMediaMetaInfo(in, version));
+      case TYPE_MOUSE_CLICK:
+        return new MouseClickPacket(readEnum(in, MouseEvent.values()));
+      case TYPE_MOUSE_MOVE:
+        short diffX = in.readShort();
+        return new MouseMovePacket(diffX, in.readShort());
+      case TYPE_MOUSE_WHEEL:
+        return new MouseWheelPacket(in.readInt());
+      case TYPE_KEYBOARD_EVENT:
+        return new KeyboardEventPacket(in.readInt());
+      case TYPE_LAUNCH_URL:
+        return new LaunchUrlPacket(readString(in));
+      case TYPE_TILE_SET_REQ:
+        return new TileSetReq(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+      case TYPE_TILE_CLICK_REQ:
+        return new TileClickReq(in.readInt(), in.readInt(), in.readInt(), in.readInt(), readEnum(
+            in, MouseEvent.values()));
+      case TYPE_TILE_INFO_REPLY:
+        return new TileInfoReply(in.readInt(), in.readInt(), in.readInt());
+      case TYPE_TILE_UPDATE:
+        int tileIdX = in.readInt();
+        int tileIdY = in.readInt();
+        byte[] imageData = readBytes(in);
+        if (version >= TILE_DELTA_VERSION && in.readBoolean()) {
+          int offsetX = in.readInt();
+          return new TileUpdatePacket(tileIdX, tileIdY, offsetX, in.readInt(), imageData);
+        }
+        return new TileUpdatePacket(tileIdX, tileIdY, imageData);
+      case TYPE_AUTH_REQ:
+        String challenge = readString(in);
+        String serverVersion = readString(in);
+        return new AuthenticationReq(challenge, serverVersion, in.readInt());
+      case TYPE_AUTH_REPLY:
+        byte[] challengeReply = readBytes(in);
+        String clientVersion = readString(in);
+        return new AuthenticationReply(challengeReply, clientVersion, in.readInt());
+      default:
+        return null;
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out, byte type, AbstractPacket packet)
+      throws IOException {
+    out.writeByte(type);
+    writeEnum(out, packet.getCommand());
+  }
+
+  private static void writeFileInfo(DataOutputStream out, FileInfo file) throws IOException {
+    if (file == null) {
+      out.writeBoolean(false);
+      return;
+    }
+    out.writeBoolean(true);
+    writeString(out, file.fileName);
+    writeString(out, file.absolutePath);
+    writeEnum(out, file.fileType);
+    writeEnum(out, file.fileSource);
+    out.writeBoolean(file.isDirectory);
+  }
+
+  private static FileInfo readFileInfo(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    String fileName = readString(in);
+    String absolutePath = readString(in);
+    FileType fileType = readEnum(in, FileType.values());
+    FileSource fileSource = readEnum(in, FileSource.values());
+    return new FileInfo(fileName, absolutePath, fileType, in.readBoolean(), fileSource);
+  }
+
+  private static void writeFileInfos(DataOutputStream out, FileInfo[] files) throws IOException {
+    if (files == null) {
+      out.writeInt(NULL_LENGTH);
+    } else {
+      out.writeInt(files.length);
+      for (FileInfo file : files) {
+        writeFileInfo(out, file);
+      }
+    }
+  }
+
+  private static FileInfo[] readFileInfos(DataInputStream in) throws IOException {
+    int fileCount = in.readInt();
+    if (fileCount == NULL_LENGTH) {
+      return null;
+    }
+    // Each file takes at least one byte, which protects us from bogus counts.
+    if (fileCount < 0 || fileCount > in.available()) {
+      throw new StreamCorruptedException("Invalid file count: " + fileCount);
+    }
+    FileInfo[] files = new FileInfo[fileCount];
+    for (int i = 0; i < fileCount; i++) {
+      files[i] = readFileInfo(in);
+    }
+    return files;
+  }
+
+  private static void writeMediaMetaInfo(DataOutputStream out, MediaMetaInfo media, int version)
+      throws IOException {
+    if (media == null) {
+      out.writeBoolean(false);
+      return;
+    }
+    boolean sendImageHash = version >= ART_VERSION;
+    out.writeBoolean(true);
+    writeString(out, media.getTitle());
+    writeString(out, media.getArtist());
+    writeString(out, media.getAlbum());
+    // The peer fetches the image by its hash, and only if it doesn't have it.
+    writeBytes(out, sendImageHash && media.getImageHash() != null ? null : media.getImage());
+    out.writeBoolean(media.isShowImageOnBackground());
+    out.writeBoolean(media.isImageSameAsPrevious());
+    if (sendImageHash) {
+      writeString(out, media.getImageHash());
+    }
+  }
+
+  private static MediaMetaInfo readMediaMetaInfo(DataInputStream in, int version)
+      throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    String title = readString(in);
+    String artist = readString(in);
+    String album = readString(in);
+    byte[] image = readBytes(in);
+    MediaMetaInfo media = new MediaMetaInfo(title, artist, album, image, in.readBoolean());
+    media.setImageSameAsPrevious(in.readBoolean());
+    if (version >= ART_VERSION) {
+      media.setImageHash(readString(in));
+    }
+    return media;
+  }
+
+  private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+    out.writeShort(value == null ? NULL_LENGTH : value.ordinal());
+  }
+
+  private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+    int ordinal = in.readShort();
+    if (ordinal == NULL_LENGTH) {
+      return null;
+    }
+    if (ordinal < 0 || ordinal >= values.length) {
+      throw new StreamCorruptedException("Unknown enum ordinal: " + ordinal);
+    }
+    return values[ordinal];
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value == null ? null : value.getBytes(STRING_ENCODING));
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] data = readBytes(in);
+    return data == null ? null : new String(data, STRING_ENCODING);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+    if (data == null) {
+      out.writeInt(NULL_LENGTH);
+    } else {
+      out.writeInt(data.length);
+      out.write(data);
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    if (length < 0 || length > in.available()) {
+      throw new StreamCorruptedException("Invalid field length: " + length);
+    }
+    byte[] data = new byte[length];
+    in.readFully(data);
+    return data;
+  }
+}
@@ -75,6 +75,13 @@ public class Protocol {
     TILE_INFO_REQ(CommandType.R3MOTE_SERVER),
     TILE_INFO_REPLY(CommandType.R3MOTE_SERVER),
     
+    LIST_PAGE_REQ(CommandType.R3MOTE_SERVER), // Device requests part of a directory's content.
+    LIST_PAGE_REPLY(CommandType.R3MOTE_SERVER),
+    SEARCH_REQ(CommandType.R3MOTE_SERVER), // Device searches the media files by name and tags.
+    SEARCH_REPLY(CommandType.R3MOTE_SERVER),
+    ART_REQ(CommandType.R3MOTE_SERVER), // Device asks for album art that it doesn't have yet.
+    ART_REPLY(CommandType.R3MOTE_SERVER),
+    
     ;
     
     
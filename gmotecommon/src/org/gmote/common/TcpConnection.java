@@ -16,6 +16,7 @@
 
 package org.gmote.common;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -52,6 +53,11 @@ import org.gmote.common.security.IncompatibleClientException;
 public class TcpConnection {
   private static final int CONNECTION_ESTABLISH_TIMEOUT = 1000 * 3;
 
+  // Largest packet frame that we accept. The biggest packets that we send are
+  // album art and screen tiles, which are well below this. Anything larger
+  // comes from a corrupt stream and would otherwise make us allocate up to 2GB.
+  private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
   final private static Logger LOGGER = Logger.getLogger(TcpConnection.class
       .getName());
 
@@ -68,6 +74,11 @@ public class TcpConnection {
   private AuthenticationHandler authHandler;
 
   private String sessionId = null;
+
+  // The packet codec version agreed upon during authentication. Until then, and
+  // for peers that predate the binary codec, we use java serialization.
+  private int codecVersion = PacketCodec.JAVA_SERIALIZATION;
+
   /**
    * Constructor typically used when setting up a server. Should call the
    * listenForConnections method after calling this constructor.
@@ -117,6 +128,36 @@ public class TcpConnection {
     return startPacketReceivingThread();
   }
 
+  /**
+   * Takes over a server side connection that was accepted and authenticated
+   * elsewhere (for example by a non-blocking acceptor), tells the client that
+   * the authentication succeeded and starts the thread that receives its
+   * packets.
+   * 
+   * @param connectionInput
+   *          a stream positioned right after the client's authentication
+   *          reply.
+   * @param connectionOutput
+   *          a stream positioned right after the authentication challenge that
+   *          was sent to the client.
+   * @param codecVersion
+   *          the packet codec version that was negotiated with the client.
+   * @return A pointer to the new data handling thread.
+   */
+  public Thread adoptAuthenticatedConnection(Socket connectionSocket,
+      ObjectInputStream connectionInput, ObjectOutputStream connectionOutput,
+      DataReceiverIF receiver, String sessionId, int codecVersion) throws IOException {
+    this.connectionSocket = connectionSocket;
+    this.connectionInput = connectionInput;
+    this.connectionOutput = connectionOutput;
+    this.receiver = receiver;
+
+    sendPacket(new SimplePacket(Command.SUCCESS));
+    this.codecVersion = codecVersion;
+    this.sessionId = sessionId;
+    return startPacketReceivingThread();
+  }
+
   private static ServerSocket getServerInstance(int port) throws IOException {
     if (mServer == null) {
       mServer = new ServerSocket(port);
@@ -244,12 +285,16 @@ public class TcpConnection {
       AuthenticationException, ServerOutOfDateException {
     try {
       AuthenticationReq challenge = (AuthenticationReq) readPacket();
+      int negotiatedCodecVersion = PacketCodec.negotiateVersion(challenge.getCodecVersion());
       sendPacket(authHandler.generateReplyToChallenge(password, challenge
-          .getChallenge()));
+          .getChallenge(), negotiatedCodecVersion));
       AbstractPacket result = readPacket();
       if (result.getCommand() != Command.SUCCESS) {
         throw new AuthenticationException();
       }
+      // The server switches to the negotiated codec right after sending the
+      // success packet.
+      codecVersion = negotiatedCodecVersion;
       if (!authHandler.isVersionCompatible(challenge.getServerVersion())) {
         throw new ServerOutOfDateException("The Gmote server is out of date. Server Version: " + challenge.getServerVersion() + " Client Version: " + authHandler.getAppVersion(), challenge.getServerVersion());
       }
@@ -270,8 +315,9 @@ public class TcpConnection {
     // Perform authentication.
     try {
       String challenge = authHandler.generateServerChallenge();
-      authHandler.performAuthentication(this, password, challenge);
+      int negotiatedCodecVersion = authHandler.performAuthentication(this, password, challenge);
       sendPacket(new SimplePacket(Command.SUCCESS));
+      codecVersion = negotiatedCodecVersion;
       sessionId = challenge;
       return true;
     } catch (AuthenticationException e) {
@@ -305,10 +351,44 @@ public class TcpConnection {
   /**
    * Sends a packet over the network.
    */
-  public void sendPacket(AbstractPacket packet) throws IOException {
-    connectionOutput.writeObject(packet);
+  public synchronized void sendPacket(AbstractPacket packet) throws IOException {
+    if (codecVersion == PacketCodec.JAVA_SERIALIZATION) {
+      connectionOutput.writeObject(packet);
+      connectionOutput.flush();
+      connectionOutput.reset();
+    } else {
+      writeFrame(PacketCodec.encode(packet, codecVersion));
+    }
+  }
+
+  /**
+   * Sends a packet that was already encoded with PacketCodec.encode() for this
+   * connection's codec version. This lets a caller that sends the same packet
+   * on many connections encode it once per codec version.
+   * Connections that still use java serialization ignore the encoded form.
+   */
+  public synchronized void sendPacket(AbstractPacket packet, byte[] encodedPacket)
+      throws IOException {
+    if (codecVersion == PacketCodec.JAVA_SERIALIZATION || encodedPacket == null) {
+      sendPacket(packet);
+    } else {
+      writeFrame(encodedPacket);
+    }
+  }
+
+  /**
+   * Writes a length prefixed frame. We write the frame as primitive data on the
+   * object stream which keeps the stream valid for both sides, without having
+   * to send class descriptors for every packet.
+   */
+  private void writeFrame(byte[] frame) throws IOException {
+    if (frame.length > MAX_FRAME_LENGTH) {
+      // The peer would drop the connection, so fail this packet only.
+      throw new IOException("Packet too large to send: " + frame.length + " bytes");
+    }
+    connectionOutput.writeInt(frame.length);
+    connectionOutput.write(frame);
     connectionOutput.flush();
-    connectionOutput.reset();
   }
 
   /**
@@ -316,7 +396,32 @@ public class TcpConnection {
    * with connectToServerSync().
    */
   public AbstractPacket readPacket() throws IOException, ClassNotFoundException {
-    return (AbstractPacket) connectionInput.readObject();
+    if (codecVersion == PacketCodec.JAVA_SERIALIZATION) {
+      return (AbstractPacket) connectionInput.readObject();
+    }
+
+    AbstractPacket packet = null;
+    while (packet == null) {
+      int frameLength;
+      try {
+        frameLength = connectionInput.readInt();
+      } catch (EOFException e) {
+        // The next item on the stream is not a frame. This happens when the
+        // server rejects an incompatible client, since the error is sent as a
+        // serialized object. readObject() will throw again on a real EOF.
+        return (AbstractPacket) connectionInput.readObject();
+      }
+      if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+        throw new StreamCorruptedException("Invalid frame length: " + frameLength);
+      }
+      byte[] frame = new byte[frameLength];
+      connectionInput.readFully(frame);
+      packet = PacketCodec.decode(frame, codecVersion);
+      if (packet == null) {
+        LOGGER.warning("Received a packet of an unknown type. Ignoring it.");
+      }
+    }
+    return packet;
   }
 
   /**
@@ -328,7 +433,7 @@ public class TcpConnection {
 
     try {
       connectionSocket.setSoTimeout(timeout);
-      return (AbstractPacket) connectionInput.readObject();
+      return readPacket();
     } finally {
       connectionSocket.setSoTimeout(0);
     }
@@ -361,7 +466,7 @@ public class TcpConnection {
       // Receives data sent on the TCP connection.
       try {
         while (true) {
-          AbstractPacket packet = (AbstractPacket) connectionInput.readObject();
+          AbstractPacket packet = readPacket();
           receiver.handleReceiveData(packet, connection);
         }
       } catch (IOException e) {
@@ -393,6 +498,13 @@ public class TcpConnection {
     return connectionSocket.getInetAddress();
   }
 
+  /**
+   * Returns the packet codec version used on this connection.
+   */
+  public int getCodecVersion() {
+    return codecVersion;
+  }
+
   public boolean isConnected() {
     return (connectionSocket == null) ? false : connectionSocket.isConnected()
         && !connectionSocket.isClosed();
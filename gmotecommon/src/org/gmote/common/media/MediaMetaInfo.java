@@ -28,6 +28,10 @@ public class MediaMetaInfo implements Serializable {
   byte[] image = null;
   boolean showImageOnBackground = true;
   boolean imageSameAsPrevious = false; // Used for caching (send image = null and iageIsSame = true)
+  // Identifies the image by its content. Phones that speak PacketCodec.ART_VERSION
+  // receive only this and fetch the image with an ArtReqPacket if they don't
+  // already have it.
+  String imageHash = null;
   
   public MediaMetaInfo(String title, String artist, String album, byte[] image, boolean showImageOnBackground) {
     this.title = title;
@@ -81,6 +85,14 @@ public class MediaMetaInfo implements Serializable {
     this.image = image;
   }
   
+  public String getImageHash() {
+    return imageHash;
+  }
+
+  public void setImageHash(String imageHash) {
+    this.imageHash = imageHash;
+  }
+
   public boolean isShowImageOnBackground() {
     return showImageOnBackground;
   }
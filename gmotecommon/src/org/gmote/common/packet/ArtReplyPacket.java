@@ -0,0 +1,53 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common.packet;
+
+import java.io.Serializable;
+
+import org.gmote.common.Protocol.Command;
+
+/**
+ * A reply to an ArtReqPacket. The image is null if the server no longer has
+ * the requested art.
+ */
+public class ArtReplyPacket extends AbstractPacket implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  String imageHash;
+  byte[] image;
+
+  public ArtReplyPacket(String imageHash, byte[] image) {
+    super(Command.ART_REPLY);
+    this.imageHash = imageHash;
+    this.image = image;
+  }
+
+  public String getImageHash() {
+    return imageHash;
+  }
+
+  public byte[] getImage() {
+    return image;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " imageHash=" + imageHash + " imageLength="
+        + (image == null ? -1 : image.length);
+  }
+}
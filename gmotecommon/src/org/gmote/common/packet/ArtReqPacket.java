@@ -0,0 +1,47 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common.packet;
+
+import java.io.Serializable;
+
+import org.gmote.common.Protocol.Command;
+
+/**
+ * Asks for the album art identified by a hash that was received in a
+ * MediaMetaInfo. Only sent to servers that speak codec version
+ * {@link org.gmote.common.PacketCodec#ART_VERSION} or later.
+ */
+public class ArtReqPacket extends AbstractPacket implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  String imageHash;
+
+  public ArtReqPacket(String imageHash) {
+    super(Command.ART_REQ);
+    this.imageHash = imageHash;
+  }
+
+  public String getImageHash() {
+    return imageHash;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " imageHash=" + imageHash;
+  }
+}
@@ -24,11 +24,19 @@ public class AuthenticationReply extends AbstractPacket {
   
   byte[] challengeReply;
   String clientVersion;
+  // Packet codec version chosen by the client. Older clients don't send this
+  // field, which leaves it at 0 (java serialization).
+  int codecVersion;
   
   public AuthenticationReply(byte[] challengeReply, String clientVersion) {
+    this(challengeReply, clientVersion, 0);
+  }
+
+  public AuthenticationReply(byte[] challengeReply, String clientVersion, int codecVersion) {
     super(Command.AUTH_REPLY);
     this.challengeReply = challengeReply;
     this.clientVersion = clientVersion;
+    this.codecVersion = codecVersion;
   }
   
   public byte[] getChallengeReply() {
@@ -38,4 +46,8 @@ public class AuthenticationReply extends AbstractPacket {
   public String getClientVersion() {
     return clientVersion;
   }
+
+  public int getCodecVersion() {
+    return codecVersion;
+  }
 }
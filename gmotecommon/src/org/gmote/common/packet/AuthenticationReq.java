@@ -24,6 +24,10 @@ public class AuthenticationReq extends AbstractPacket {
 
   String challenge;
   String serverVersion;
+  // Highest packet codec version that the server understands. Servers that
+  // predate the binary codec won't send this field, leaving it at 0 (java
+  // serialization) on the client.
+  int codecVersion;
   
   /**
    * Constructor.
@@ -31,9 +35,18 @@ public class AuthenticationReq extends AbstractPacket {
    * @param serverVersion the version of the server. This may help if we change our authentication mechanism in the future.
    */
   public AuthenticationReq(String challenge, String serverVersion) {
+    this(challenge, serverVersion, 0);
+  }
+
+  /**
+   * Constructor.
+   * @param codecVersion the highest packet codec version that the server supports.
+   */
+  public AuthenticationReq(String challenge, String serverVersion, int codecVersion) {
     super(Command.AUTH_REQ);
     this.challenge = challenge;
     this.serverVersion = serverVersion;
+    this.codecVersion = codecVersion;
   }
   
   public String getChallenge() {
@@ -43,4 +56,8 @@ public class AuthenticationReq extends AbstractPacket {
   public String getServerVersion() {
     return serverVersion;
   }
+
+  public int getCodecVersion() {
+    return codecVersion;
+  }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common.packet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.gmote.common.FileInfo;
+import org.gmote.common.Protocol.Command;
+
+/**
+ * One page of the reply to a ListPageReqPacket.
+ */
+public class ListPageReplyPacket extends AbstractPacket implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Value of totalFiles when the server stopped reading the directory before
+   * counting all of its files.
+   */
+  public static final int UNKNOWN_TOTAL = -1;
+
+  String path;
+  int offset;
+  FileInfo[] files;
+  int totalFiles;
+  boolean lastPage;
+  boolean moreFilesAvailable;
+
+  /**
+   * Constructor.
+   *
+   * @param path The directory that was listed.
+   * @param offset The position of the first file of this page in the sorted
+   *          listing.
+   * @param totalFiles The number of files in the directory, or UNKNOWN_TOTAL.
+   * @param lastPage True if this is the last page sent for the request.
+   * @param moreFilesAvailable True if the directory has files past the ones
+   *          that were requested.
+   */
+  public ListPageReplyPacket(String path, int offset, FileInfo[] files, int totalFiles,
+      boolean lastPage, boolean moreFilesAvailable) {
+    super(Command.LIST_PAGE_REPLY);
+    this.path = path;
+    this.offset = offset;
+    this.files = files;
+    this.totalFiles = totalFiles;
+    this.lastPage = lastPage;
+    this.moreFilesAvailable = moreFilesAvailable;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public FileInfo[] getFiles() {
+    return files;
+  }
+
+  public int getTotalFiles() {
+    return totalFiles;
+  }
+
+  public boolean isLastPage() {
+    return lastPage;
+  }
+
+  public boolean isMoreFilesAvailable() {
+    return moreFilesAvailable;
+  }
+
+  @Override
+  public String toString() {
+    String ret = super.toString();
+    ret += " offset=" + offset + " total=" + totalFiles + " last=" + lastPage + " "
+        + Arrays.deepToString(files);
+    return ret;
+  }
+}
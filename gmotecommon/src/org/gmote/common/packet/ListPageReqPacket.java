@@ -0,0 +1,91 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common.packet;
+
+import java.io.Serializable;
+
+import org.gmote.common.FileInfo;
+import org.gmote.common.Protocol.Command;
+
+/**
+ * A request for part of the content of a directory. The server answers with
+ * one or more ListPageReplyPackets, sent as soon as each page is ready, so
+ * that the phone can show the first files of a large directory without
+ * waiting for the whole listing. Only sent to servers that speak codec version
+ * {@link org.gmote.common.PacketCodec#LIST_PAGES_VERSION} or later.
+ */
+public class ListPageReqPacket extends AbstractPacket implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Limit to use to ask for every file from the offset onwards.
+   */
+  public static final int NO_LIMIT = -1;
+
+  public enum SortOrder {
+    NAME,
+    NAME_DESCENDING
+  }
+
+  String path;
+  FileInfo fileInfo = null;
+  int offset;
+  int limit;
+  SortOrder sortOrder;
+
+  /**
+   * Constructor.
+   *
+   * @param path The path of the directory where the files are located.
+   * @param offset The position, in the sorted listing, of the first file to
+   *          return.
+   * @param limit The maximum number of files to return, or NO_LIMIT.
+   */
+  public ListPageReqPacket(String path, int offset, int limit, SortOrder sortOrder) {
+    super(Command.LIST_PAGE_REQ);
+    this.path = path;
+    this.offset = offset;
+    this.limit = limit;
+    this.sortOrder = sortOrder;
+  }
+
+  public ListPageReqPacket(FileInfo fileInfo, int offset, int limit, SortOrder sortOrder) {
+    this(fileInfo.getAbsolutePath(), offset, limit, sortOrder);
+    this.fileInfo = fileInfo;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public FileInfo getFileInfo() {
+    return fileInfo;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public SortOrder getSortOrder() {
+    return sortOrder;
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common.packet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.gmote.common.FileInfo;
+import org.gmote.common.Protocol.Command;
+
+/**
+ * A reply to a SearchReqPacket, with the matching files ranked from best to
+ * worst.
+ */
+public class SearchReplyPacket extends AbstractPacket implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  String query;
+  int offset;
+  FileInfo[] files;
+  int totalResults;
+
+  public SearchReplyPacket(String query, int offset, FileInfo[] files, int totalResults) {
+    super(Command.SEARCH_REPLY);
+    this.query = query;
+    this.offset = offset;
+    this.files = files;
+    this.totalResults = totalResults;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public FileInfo[] getFiles() {
+    return files;
+  }
+
+  /**
+   * Returns the number of files that matched the query, including the ones
+   * that are not in this reply.
+   */
+  public int getTotalResults() {
+    return totalResults;
+  }
+
+  @Override
+  public String toString() {
+    String ret = super.toString();
+    ret += " query=" + query + " offset=" + offset + " total=" + totalResults + " "
+        + Arrays.deepToString(files);
+    return ret;
+  }
+}
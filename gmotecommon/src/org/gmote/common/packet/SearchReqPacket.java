@@ -0,0 +1,62 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common.packet;
+
+import java.io.Serializable;
+
+import org.gmote.common.Protocol.Command;
+
+/**
+ * A search of the media files under the base paths, by file name, title,
+ * artist and album. Only sent to servers that speak codec version
+ * {@link org.gmote.common.PacketCodec#SEARCH_VERSION} or later.
+ */
+public class SearchReqPacket extends AbstractPacket implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  String query;
+  int offset;
+  int limit;
+
+  /**
+   * Constructor.
+   *
+   * @param query The words to look for. Each word can be the start of a word
+   *          in the file's name or tags.
+   * @param offset The number of results to skip, for fetching the next page.
+   * @param limit The maximum number of results to return.
+   */
+  public SearchReqPacket(String query, int offset, int limit) {
+    super(Command.SEARCH_REQ);
+    this.query = query;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+}
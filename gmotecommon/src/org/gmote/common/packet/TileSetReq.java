@@ -25,6 +25,19 @@ public class TileSetReq extends AbstractPacket implements Serializable{
     this.tile2Y = tile2Y;
   }
 
+  /**
+   * Returns a request for no tiles at all, which the phone sends when it stops
+   * showing the remote desktop. Servers that don't know about it simply find
+   * no tile to update.
+   */
+  public static TileSetReq createEmptyTileSet() {
+    return new TileSetReq(1, 1, 0, 0);
+  }
+
+  public boolean isEmpty() {
+    return tile2X < tile1X || tile2Y < tile1Y;
+  }
+
   public int getTile1X() {
     return tile1X;
   }
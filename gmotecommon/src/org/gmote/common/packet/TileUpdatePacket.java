@@ -6,7 +6,10 @@ import org.gmote.common.Protocol.Command;
 
 /**
  * A packet sent from the server to the client which contains a tile's image
- * data.
+ * data. A partial update only contains the part of the tile that changed,
+ * which the client draws over its copy of the tile at the given offset.
+ * Partial updates are only sent to clients that speak
+ * {@link org.gmote.common.PacketCodec#TILE_DELTA_VERSION} or later.
  * 
  * @author Marc Stogaitis
  * 
@@ -18,6 +21,11 @@ public class TileUpdatePacket extends AbstractPacket implements Serializable{
   private int tileIdX, tileIdY;
 
   private byte[] imageData;
+
+  // Location within the tile of the top left corner of the image, for a
+  // partial update.
+  private boolean partialUpdate = false;
+  private int offsetX, offsetY;
   
   public TileUpdatePacket(int tileIdX, int tileIdY, byte[] imageData) {
     super(Command.TILE_UPDATE);
@@ -26,6 +34,17 @@ public class TileUpdatePacket extends AbstractPacket implements Serializable{
     this.imageData = imageData;
   }
 
+  /**
+   * Creates a partial update, with an image that replaces the part of the tile
+   * whose top left corner is at (offsetX, offsetY).
+   */
+  public TileUpdatePacket(int tileIdX, int tileIdY, int offsetX, int offsetY, byte[] imageData) {
+    this(tileIdX, tileIdY, imageData);
+    this.partialUpdate = true;
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+  }
+
   public int getTileIdX() {
     return tileIdX;
   }
@@ -38,5 +57,17 @@ public class TileUpdatePacket extends AbstractPacket implements Serializable{
     return imageData;
   }
 
+  public boolean isPartialUpdate() {
+    return partialUpdate;
+  }
+
+  public int getOffsetX() {
+    return offsetX;
+  }
+
+  public int getOffsetY() {
+    return offsetY;
+  }
+
   
 }
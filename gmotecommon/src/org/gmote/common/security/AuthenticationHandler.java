@@ -27,6 +27,7 @@ import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.gmote.common.PacketCodec;
 import org.gmote.common.TcpConnection;
 import org.gmote.common.packet.AuthenticationReply;
 import org.gmote.common.packet.AuthenticationReq;
@@ -97,7 +98,21 @@ public class AuthenticationHandler {
    */
   public AuthenticationReply generateReplyToChallenge(String password, String challenge)
       throws NoSuchAlgorithmException, UnsupportedEncodingException {
-    return new AuthenticationReply(computeChallengeResponse(password, challenge), appVersion);
+    return generateReplyToChallenge(password, challenge, PacketCodec.JAVA_SERIALIZATION);
+  }
+
+  /**
+   * Generates a reply that the client should send to an authentication
+   * challenge, telling the server which packet codec version we'd like to use.
+   * 
+   * @param codecVersion
+   *          the codec version negotiated from the server's challenge. See
+   *          {@link PacketCodec#negotiateVersion(int)}.
+   */
+  public AuthenticationReply generateReplyToChallenge(String password, String challenge,
+      int codecVersion) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    return new AuthenticationReply(computeChallengeResponse(password, challenge), appVersion,
+        codecVersion);
   }
   
 
@@ -139,17 +154,26 @@ public class AuthenticationHandler {
     return Long.toString(time) + Long.toString(rndNum);
   }
 
+  /**
+   * Creates the packet that the server sends to pose a challenge to the client.
+   */
+  public AuthenticationReq createChallengePacket(String challenge) {
+    return new AuthenticationReq(challenge, appVersion, PacketCodec.VERSION);
+  }
+
   /**
    * Allows the server to authenticate the client.
    * 
+   * @return the packet codec version that the client agreed to use once the
+   *         authentication is complete.
    * @throws AuthenticationException when there is a problem authenticating the user
    * @throws IncompatibleClientException 
    */
-  public void performAuthentication(TcpConnection con, String expectedPassword, String challenge) throws AuthenticationException, IncompatibleClientException {
+  public int performAuthentication(TcpConnection con, String expectedPassword, String challenge) throws AuthenticationException, IncompatibleClientException {
 
     // Send a challenge to the user.
     try {
-      con.sendPacket(new AuthenticationReq(challenge, appVersion));
+      con.sendPacket(createChallengePacket(challenge));
 
       // Wait for the response.
       LOGGER.info("Waiting for authentication reply");
@@ -162,31 +186,11 @@ public class AuthenticationHandler {
         throw new AuthenticationException();
       }
       
-      String clientVersion = packet.getClientVersion();
-      LOGGER.warning("Authentication attempt: server version = " + appVersion
-          + " - client version = " + clientVersion);
-      
-      
-      if (!isVersionCompatible(clientVersion)) {
-        throw new IncompatibleClientException(
-            "The Gmote client that is on your phone is out of date. Please update your client by going to the Android Market");
-      }
-      
-      final byte[] challengeReply = packet.getChallengeReply();
- 
-      // Determine what the expected response should be.
-      final byte[] expectedChallengeReply = computeChallengeResponse(expectedPassword, challenge);
-
-      if (!Arrays.equals(challengeReply, expectedChallengeReply)) {
-        throw new AuthenticationException();
-      }
+      return verifyAuthenticationReply(packet, expectedPassword, challenge);
 
     } catch (IOException e) {
       LOGGER.log(Level.SEVERE, e.getMessage(), e);
       throw new AuthenticationException();
-    } catch (NoSuchAlgorithmException e) {
-      LOGGER.log(Level.SEVERE, e.getMessage(), e);
-      throw new AuthenticationException();
     } catch (ClassNotFoundException e) {
       LOGGER.log(Level.SEVERE, e.getMessage(), e);
       throw new AuthenticationException();
@@ -196,6 +200,48 @@ public class AuthenticationHandler {
     }
   }
 
+  /**
+   * Verifies a client's reply to the challenge that we sent it. This is split
+   * from {@link #performAuthentication} to allow the server to read the reply
+   * without blocking on the connection.
+   * 
+   * @return the packet codec version that the client agreed to use once the
+   *         authentication is complete.
+   * @throws AuthenticationException if the reply doesn't match the password
+   * @throws IncompatibleClientException if the client is out of date
+   */
+  public int verifyAuthenticationReply(AuthenticationReply packet, String expectedPassword,
+      String challenge) throws AuthenticationException, IncompatibleClientException {
+    String clientVersion = packet.getClientVersion();
+    LOGGER.warning("Authentication attempt: server version = " + appVersion
+        + " - client version = " + clientVersion);
+    
+    
+    if (!isVersionCompatible(clientVersion)) {
+      throw new IncompatibleClientException(
+          "The Gmote client that is on your phone is out of date. Please update your client by going to the Android Market");
+    }
+    
+    final byte[] challengeReply = packet.getChallengeReply();
+
+    // Determine what the expected response should be.
+    final byte[] expectedChallengeReply;
+    try {
+      expectedChallengeReply = computeChallengeResponse(expectedPassword, challenge);
+    } catch (NoSuchAlgorithmException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      throw new AuthenticationException();
+    } catch (UnsupportedEncodingException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      throw new AuthenticationException();
+    }
+
+    if (!Arrays.equals(challengeReply, expectedChallengeReply)) {
+      throw new AuthenticationException();
+    }
+    return PacketCodec.negotiateVersion(packet.getCodecVersion());
+  }
+
   public boolean isVersionCompatible(String hisCurrentVersion) {
     int[] minVersion = convertVersion(hisMinimumVersion);
     int[] hisVersion = convertVersion(hisCurrentVersion);
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Compares the throughput and cpu cost of sending a large file with
+ * GmoteHttpServer.sendFile() against the old way of copying it through a 2KB
+ * buffer. The file is sent over a loopback socket to a reader that discards
+ * it.
+ * <p>
+ * Usage: GmoteHttpServerBenchmark [sizeInMegabytes] [file]. If no file is
+ * given, a temporary file of the given size (2048MB by default) is created.
+ * </p>
+ */
+public class GmoteHttpServerBenchmark {
+  private static final int RUNS = 3;
+
+  public static void main(String[] args) throws Exception {
+    long sizeInMegabytes = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+    File file;
+    boolean deleteFile = false;
+    if (args.length > 1) {
+      file = new File(args[1]);
+    } else {
+      file = createFile(sizeInMegabytes * 1024 * 1024);
+      deleteFile = true;
+    }
+
+    try {
+      System.out.println("Sending " + file.length() / (1024 * 1024) + "MB, best of " + RUNS
+          + " runs");
+      // Warm up the page cache so that both methods read from memory.
+      send(file, false);
+      report("2KB buffer copy", file, false);
+      report("transferTo", file, true);
+    } finally {
+      if (deleteFile) {
+        file.delete();
+      }
+    }
+  }
+
+  private static void report(String name, File file, boolean zeroCopy) throws Exception {
+    long bestWallNanos = Long.MAX_VALUE;
+    long bestCpuNanos = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long[] result = send(file, zeroCopy);
+      bestWallNanos = Math.min(bestWallNanos, result[0]);
+      bestCpuNanos = Math.min(bestCpuNanos, result[1]);
+    }
+    double megabytes = file.length() / (1024.0 * 1024.0);
+    System.out.println(String.format("%-16s %8.1f MB/s  %8d ms cpu", name, megabytes
+        / (bestWallNanos / 1e9), bestCpuNanos / 1000000));
+  }
+
+  /**
+   * Sends the file once over a loopback connection.
+   *
+   * @return the wall time and the sending thread's cpu time, in nanoseconds.
+   */
+  private static long[] send(File file, boolean zeroCopy) throws Exception {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    SocketChannel sender = SocketChannel.open(server.socket().getLocalSocketAddress());
+    final SocketChannel receiver = server.accept();
+    server.close();
+
+    Thread sink = new Thread("BenchmarkSink") {
+      @Override
+      public void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+          while (receiver.read(buffer) >= 0) {
+            buffer.clear();
+          }
+          receiver.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    sink.start();
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long cpuStart = threads.getCurrentThreadCpuTime();
+    long wallStart = System.nanoTime();
+    if (zeroCopy) {
+      new GmoteHttpServer(sender.socket(), null).sendFile(file, 0, file.length(), sender);
+      sender.close();
+    } else {
+      sendFileWithBuffer(file, new BufferedOutputStream(sender.socket().getOutputStream()));
+    }
+    long cpuNanos = threads.getCurrentThreadCpuTime() - cpuStart;
+    sink.join();
+    long wallNanos = System.nanoTime() - wallStart;
+    return new long[] { wallNanos, cpuNanos };
+  }
+
+  /**
+   * The way files used to be sent, kept here for comparison.
+   */
+  private static void sendFileWithBuffer(File file, BufferedOutputStream dataOut)
+      throws IOException {
+    byte[] buf = new byte[2048];
+    InputStream is = new FileInputStream(file);
+    try {
+      int n;
+      while ((n = is.read(buf)) >= 0) {
+        dataOut.write(buf, 0, n);
+      }
+    } finally {
+      is.close();
+    }
+    dataOut.close();
+  }
+
+  private static File createFile(long size) throws IOException {
+    File file = File.createTempFile("gmotebenchmark", ".avi");
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      byte[] block = new byte[1024 * 1024];
+      for (int i = 0; i < block.length; i++) {
+        block[i] = (byte) i;
+      }
+      for (long written = 0; written < size; written += block.length) {
+        out.write(block, 0, (int) Math.min(block.length, size - written));
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+}
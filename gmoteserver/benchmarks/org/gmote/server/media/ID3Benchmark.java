@@ -0,0 +1,430 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.blinkenlights.jid3.ID3Tag;
+import org.blinkenlights.jid3.MP3File;
+import org.blinkenlights.jid3.io.ID3DataInputStream;
+import org.blinkenlights.jid3.io.TextEncoding;
+import org.blinkenlights.jid3.util.ID3Util;
+import org.blinkenlights.jid3.v1.ID3V1Tag;
+import org.blinkenlights.jid3.v1.ID3V1_1Tag;
+import org.blinkenlights.jid3.v2.APICID3V2Frame;
+import org.blinkenlights.jid3.v2.COMMID3V2Frame;
+import org.blinkenlights.jid3.v2.ID3V2Tag;
+import org.blinkenlights.jid3.v2.ID3V2_3_0Tag;
+import org.blinkenlights.jid3.v2.TXXXTextInformationID3V2Frame;
+
+/**
+ * Measures the throughput and the allocation rate of the parts of jid3 that
+ * the server uses on every track change and library scan: reading a song's
+ * tags from disk and from memory, looking up the common fields, writing a tag
+ * and saving it to a song, along with ID3Util.deunsynchronize() and
+ * ID3DataInputStream.readStringToNull() on their own.
+ * <p>
+ * The songs are generated from a fixed seed, so every run measures the same
+ * bytes: a tag with only the common text fields, one with a 512KB picture,
+ * an unsynchronized one with a 64KB picture, one with a few hundred text
+ * frames and a song with only an ID3v1 tag. Each benchmark runs for a fixed
+ * time after a warm up and the best of a few runs is reported.
+ * </p>
+ * <p>
+ * Usage: ID3Benchmark [filter]. Only the benchmarks whose name contains the
+ * filter are run.
+ * </p>
+ */
+public class ID3Benchmark {
+  private static final int RUNS = 5;
+  private static final long WARM_UP_NANOS = 1000000000L;
+  private static final long RUN_NANOS = 500000000L;
+  private static final long SEED = 20090101L;
+
+  private static final int AUDIO_SIZE = 256 * 1024;
+  private static final int STRING_LENGTH = 64;
+
+  /**
+   * A single operation that is repeated for the length of a run.
+   */
+  private abstract static class Benchmark {
+    final String name;
+
+    Benchmark(String name) {
+      this.name = name;
+    }
+
+    abstract void run() throws Exception;
+  }
+
+  /**
+   * A generated song: the bytes of the file and the tag that it was created
+   * with.
+   */
+  private static class Song {
+    final String name;
+    final ID3Tag tag;
+    final byte[] tagBytes;
+    final File file;
+
+    Song(String name, ID3Tag tag, byte[] tagBytes, File file) {
+      this.name = name;
+      this.tag = tag;
+      this.tagBytes = tagBytes;
+      this.file = file;
+    }
+
+    boolean isV1() {
+      return tag instanceof ID3V1Tag;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String filter = args.length > 0 ? args[0] : "";
+    File directory = createTempDirectory();
+    try {
+      Random random = new Random(SEED);
+      List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+      addSongBenchmarks(benchmarks, createV2Song(directory, "text", random, 0, 0, false));
+      addSongBenchmarks(benchmarks, createV2Song(directory, "art", random, 512 * 1024, 0, false));
+      addSongBenchmarks(benchmarks, createV2Song(directory, "unsync", random, 64 * 1024, 0, true));
+      addSongBenchmarks(benchmarks, createV2Song(directory, "manytext", random, 0, 200, false));
+      addSongBenchmarks(benchmarks, createV1Song(directory, "v1only", random));
+      addUtilBenchmarks(benchmarks, random);
+
+      System.out.println("Best of " + RUNS + " runs of " + RUN_NANOS / 1000000 + "ms");
+      for (Benchmark benchmark : benchmarks) {
+        if (benchmark.name.contains(filter)) {
+          report(benchmark);
+        }
+      }
+    } finally {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  private static void report(Benchmark benchmark) throws Exception {
+    run(benchmark, WARM_UP_NANOS);
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    double bestOpsPerSecond = 0;
+    long bestAllocatedBytes = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long allocatedStart = getAllocatedBytes(threads);
+      long start = System.nanoTime();
+      long ops = run(benchmark, RUN_NANOS);
+      long elapsed = System.nanoTime() - start;
+      long allocated = getAllocatedBytes(threads) - allocatedStart;
+      bestOpsPerSecond = Math.max(bestOpsPerSecond, ops / (elapsed / 1e9));
+      bestAllocatedBytes = Math.min(bestAllocatedBytes, allocated / ops);
+    }
+    System.out.println(String.format("%-28s %12.0f ops/s %12d bytes/op", benchmark.name,
+        bestOpsPerSecond, bestAllocatedBytes < 0 ? -1 : bestAllocatedBytes));
+  }
+
+  /**
+   * Repeats the benchmark for the given time and returns the number of times
+   * that it ran.
+   */
+  private static long run(Benchmark benchmark, long nanos) throws Exception {
+    long end = System.nanoTime() + nanos;
+    long ops = 0;
+    do {
+      benchmark.run();
+      ops++;
+    } while (System.nanoTime() < end);
+    return ops;
+  }
+
+  private static void addSongBenchmarks(List<Benchmark> benchmarks, final Song song)
+      throws Exception {
+    benchmarks.add(new Benchmark(song.name + " read file") {
+      @Override
+      void run() throws Exception {
+        if (new MP3File(song.file).getTags().length == 0) {
+          throw new IllegalStateException("Missing tags");
+        }
+      }
+    });
+
+    if (song.isV1()) {
+      final ID3V1Tag tag = (ID3V1Tag) song.tag;
+      benchmarks.add(new Benchmark(song.name + " read tag") {
+        @Override
+        void run() throws Exception {
+          // ID3V1Tag.read() expects the "TAG" marker to have been read already.
+          ID3V1Tag.read(new ByteArrayInputStream(song.tagBytes, 3, song.tagBytes.length - 3));
+        }
+      });
+      benchmarks.add(new Benchmark(song.name + " lookup") {
+        @Override
+        void run() {
+          if (tag.getTitle() == null || tag.getArtist() == null || tag.getAlbum() == null
+              || tag.getGenre() == null) {
+            throw new IllegalStateException("Missing tags");
+          }
+        }
+      });
+    } else {
+      // Look up the fields of a tag that was read, rather than the one that
+      // was created, so that lazily decoded frames are included.
+      final ID3V2Tag tag = readV2Tag(song.tagBytes);
+      benchmarks.add(new Benchmark(song.name + " read tag") {
+        @Override
+        void run() throws Exception {
+          readV2Tag(song.tagBytes);
+        }
+      });
+      benchmarks.add(new Benchmark(song.name + " lookup") {
+        @Override
+        void run() throws Exception {
+          if (tag.getTitle() == null || tag.getArtist() == null || tag.getAlbum() == null
+              || tag.getGenre() == null || tag.getYear() == 0 || tag.getTrackNumber() == 0) {
+            throw new IllegalStateException("Missing tags");
+          }
+        }
+      });
+    }
+
+    benchmarks.add(new Benchmark(song.name + " write tag") {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(song.tagBytes.length + 1024);
+
+      @Override
+      void run() throws Exception {
+        out.reset();
+        write(song.tag, out);
+      }
+    });
+    benchmarks.add(new Benchmark(song.name + " sync file") {
+      int count = 0;
+
+      @Override
+      void run() throws Exception {
+        // Alternate between two titles of the same length so that every sync
+        // changes the file.
+        String title = "Song " + (count++ % 2);
+        if (song.isV1()) {
+          ((ID3V1Tag) song.tag).setTitle(title);
+        } else {
+          ((ID3V2Tag) song.tag).setTitle(title);
+        }
+        MP3File mp3File = new MP3File(song.file);
+        mp3File.setID3Tag(song.tag);
+        mp3File.sync();
+      }
+    });
+  }
+
+  private static void addUtilBenchmarks(List<Benchmark> benchmarks, Random random) {
+    // Random data has a 0xff followed by a byte >= 0xe0 about once every 2KB,
+    // which is roughly what unsynchronization finds in compressed audio and
+    // pictures.
+    final byte[] unsynchronized = ID3Util.unsynchronize(createData(random, 64 * 1024));
+    benchmarks.add(new Benchmark("deunsynchronize 64KB") {
+      @Override
+      void run() {
+        ID3Util.deunsynchronize(unsynchronized);
+      }
+    });
+
+    final byte[] isoStrings = createStrings(random, 16, false);
+    benchmarks.add(new Benchmark("readStringToNull iso") {
+      @Override
+      void run() throws IOException {
+        ID3DataInputStream in = new ID3DataInputStream(new ByteArrayInputStream(isoStrings));
+        for (int i = 0; i < 16; i++) {
+          in.readStringToNull(TextEncoding.ISO_8859_1);
+        }
+      }
+    });
+    final byte[] unicodeStrings = createStrings(random, 16, true);
+    benchmarks.add(new Benchmark("readStringToNull unicode") {
+      @Override
+      void run() throws IOException {
+        ID3DataInputStream in = new ID3DataInputStream(new ByteArrayInputStream(unicodeStrings));
+        for (int i = 0; i < 16; i++) {
+          in.readStringToNull(TextEncoding.UNICODE);
+        }
+      }
+    });
+  }
+
+  private static ID3V2Tag readV2Tag(byte[] tagBytes) throws Exception {
+    // ID3V2Tag.read() expects the "ID3" marker to have been read already.
+    return ID3V2Tag.read(new ByteArrayInputStream(tagBytes, 3, tagBytes.length - 3));
+  }
+
+  private static void write(ID3Tag tag, OutputStream out) throws Exception {
+    if (tag instanceof ID3V1Tag) {
+      ((ID3V1Tag) tag).write(out);
+    } else {
+      ((ID3V2Tag) tag).write(out);
+    }
+  }
+
+  private static Song createV2Song(File directory, String name, Random random, int pictureSize,
+      int extraFrames, boolean unsynchronized) throws Exception {
+    ID3V2_3_0Tag tag = new ID3V2_3_0Tag();
+    tag.setTitle("Benchmark Song");
+    tag.setArtist("Benchmark Artist");
+    tag.setAlbum("Benchmark Album");
+    tag.setYear(2009);
+    tag.setTrackNumber(7, 12);
+    tag.setGenre("Rock");
+    tag.setUnsynchronization(unsynchronized);
+    if (pictureSize > 0) {
+      tag.addAPICFrame(new APICID3V2Frame("image/jpeg", APICID3V2Frame.PictureType.FrontCover,
+          "Cover", createData(random, pictureSize)));
+    }
+    for (int i = 0; i < extraFrames / 2; i++) {
+      tag.addCOMMFrame(new COMMID3V2Frame("eng", "Comment " + i, createString(random)));
+      tag.addTXXXTextInformationFrame(new TXXXTextInformationID3V2Frame("Extra " + i,
+          createString(random)));
+    }
+    return createSong(directory, name, tag);
+  }
+
+  private static Song createV1Song(File directory, String name, Random random)
+      throws Exception {
+    ID3V1_1Tag tag = new ID3V1_1Tag();
+    tag.setTitle("Benchmark Song");
+    tag.setArtist("Benchmark Artist");
+    tag.setAlbum("Benchmark Album");
+    tag.setYear("2009");
+    tag.setGenre(ID3V1Tag.Genre.Rock);
+    tag.setComment("Benchmark");
+    tag.setAlbumTrack(7);
+    return createSong(directory, name, tag);
+  }
+
+  /**
+   * Writes a song made of the tag and some audio frames, with the tag at the
+   * end of the file for ID3v1 and at the start for ID3v2.
+   */
+  private static Song createSong(File directory, String name, ID3Tag tag) throws Exception {
+    ByteArrayOutputStream tagOut = new ByteArrayOutputStream();
+    write(tag, tagOut);
+    byte[] tagBytes = tagOut.toByteArray();
+
+    File file = new File(directory, name + ".mp3");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      if (!(tag instanceof ID3V1Tag)) {
+        out.write(tagBytes);
+      }
+      out.write(createAudio());
+      if (tag instanceof ID3V1Tag) {
+        out.write(tagBytes);
+      }
+    } finally {
+      out.close();
+    }
+    return new Song(name, tag, tagBytes, file);
+  }
+
+  /**
+   * Returns silent MPEG-1 layer III frames (128kbps, 44.1kHz), which is all
+   * that jid3 needs to see after the tag.
+   */
+  private static byte[] createAudio() {
+    byte[] audio = new byte[AUDIO_SIZE];
+    for (int i = 0; i + 4 <= audio.length; i += 417) {
+      audio[i] = (byte) 0xff;
+      audio[i + 1] = (byte) 0xfb;
+      audio[i + 2] = (byte) 0x90;
+      audio[i + 3] = (byte) 0x64;
+    }
+    return audio;
+  }
+
+  private static byte[] createData(Random random, int size) {
+    byte[] data = new byte[size];
+    random.nextBytes(data);
+    return data;
+  }
+
+  private static String createString(Random random) {
+    char[] chars = new char[STRING_LENGTH];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Returns the given number of null terminated strings, in ISO-8859-1 or in
+   * UTF-16 with a byte order mark, the way that they appear in frames.
+   */
+  private static byte[] createStrings(Random random, int count, boolean unicode) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < count; i++) {
+      String string = createString(random);
+      if (unicode) {
+        out.write(0xff);
+        out.write(0xfe);
+        for (int j = 0; j < string.length(); j++) {
+          out.write(string.charAt(j));
+          out.write(0);
+        }
+        out.write(0);
+        out.write(0);
+      } else {
+        for (int j = 0; j < string.length(); j++) {
+          out.write(string.charAt(j));
+        }
+        out.write(0);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread, or -1 if the
+   * JVM can't tell us.
+   */
+  private static long getAllocatedBytes(ThreadMXBean threads) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread
+          .currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static File createTempDirectory() throws IOException {
+    File directory = File.createTempFile("id3benchmark", "");
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new IOException("Could not create " + directory);
+    }
+    return directory;
+  }
+}
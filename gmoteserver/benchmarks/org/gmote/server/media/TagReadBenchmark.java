@@ -0,0 +1,168 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.blinkenlights.jid3.ID3Tag;
+import org.blinkenlights.jid3.v2.APICID3V2Frame;
+import org.blinkenlights.jid3.v2.COMMID3V2Frame;
+import org.blinkenlights.jid3.v2.GEOBID3V2Frame;
+import org.blinkenlights.jid3.v2.ID3V2Tag;
+import org.blinkenlights.jid3.v2.ID3V2_3_0Tag;
+import org.blinkenlights.jid3.v2.PRIVID3V2Frame;
+import org.blinkenlights.jid3.v2.TXXXTextInformationID3V2Frame;
+import org.blinkenlights.jid3.v2.USLTID3V2Frame;
+
+/**
+ * Compares the time and memory that it takes to read the ID3v2 tag of a song
+ * with and without lazy frame decoding, for the two ways that the server uses
+ * tags: reading the title, artist and album (the media index), and reading
+ * those along with the album art as PlayerUtil extracts it (the media info
+ * sent to the phone). The tag is parsed from memory so that only the
+ * decoding is measured.
+ * <p>
+ * Usage: TagReadBenchmark [mp3File]. If no file is given, a tag with a 512KB
+ * picture, lyrics, an embedded object and a few other frames is generated.
+ * </p>
+ */
+public class TagReadBenchmark {
+  private static final int RUNS = 5;
+  private static final int ITERATIONS = 200;
+
+  public static void main(String[] args) throws Exception {
+    byte[] tag = args.length > 0 ? readFile(new File(args[0])) : createTag();
+    if (tag.length < 3 || tag[0] != 'I' || tag[1] != 'D' || tag[2] != '3') {
+      System.out.println("No ID3v2 tag found");
+      return;
+    }
+    System.out.println("Reading a " + tag.length / 1024 + "KB tag, best of " + RUNS + " runs of "
+        + ITERATIONS);
+    report("eager, text", tag, false, false);
+    report("lazy, text", tag, true, false);
+    report("eager, text+art", tag, false, true);
+    report("lazy, text+art", tag, true, true);
+  }
+
+  private static void report(String name, byte[] tag, boolean lazy, boolean readArt)
+      throws Exception {
+    // Warm up.
+    read(tag, lazy, readArt, ITERATIONS);
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long bestNanos = Long.MAX_VALUE;
+    long bestAllocatedBytes = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long allocatedStart = getAllocatedBytes(threads);
+      long start = System.nanoTime();
+      read(tag, lazy, readArt, ITERATIONS);
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+      bestAllocatedBytes = Math.min(bestAllocatedBytes, getAllocatedBytes(threads)
+          - allocatedStart);
+    }
+    System.out.println(String.format("%-16s %8d us/read %10d bytes/read", name, bestNanos
+        / ITERATIONS / 1000, bestAllocatedBytes < 0 ? -1 : bestAllocatedBytes / ITERATIONS));
+  }
+
+  private static void read(byte[] tag, boolean lazy, boolean readArt, int iterations)
+      throws Exception {
+    for (int i = 0; i < iterations; i++) {
+      // ID3V2Tag.read() expects the "ID3" marker to have been read already.
+      ID3V2_3_0Tag parsed = (ID3V2_3_0Tag) ID3V2Tag.read(new ByteArrayInputStream(tag, 3,
+          tag.length - 3), lazy);
+      if (parsed.getTitle() == null || parsed.getArtist() == null || parsed.getAlbum() == null) {
+        throw new IllegalStateException("Missing tags");
+      }
+      if (readArt && PlayerUtil.extractEmbeddedImageData(new ID3Tag[] { parsed }) == null) {
+        throw new IllegalStateException("Missing picture");
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread, or -1 if the
+   * JVM can't tell us.
+   */
+  private static long getAllocatedBytes(ThreadMXBean threads) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread
+          .currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static byte[] createTag() throws Exception {
+    ID3V2_3_0Tag tag = new ID3V2_3_0Tag();
+    tag.setTitle("Benchmark Song");
+    tag.setArtist("Benchmark Artist");
+    tag.setAlbum("Benchmark Album");
+    tag.setYear(2009);
+    tag.setTrackNumber(7, 12);
+    tag.setGenre("Rock");
+    tag.addAPICFrame(new APICID3V2Frame("image/jpeg", APICID3V2Frame.PictureType.FrontCover,
+        "Cover", createData(512 * 1024)));
+    tag.addGEOBFrame(new GEOBID3V2Frame("application/octet-stream", "notes.bin", "Notes",
+        createData(64 * 1024)));
+    tag.addPRIVFrame(new PRIVID3V2Frame("www.example.com", createData(8 * 1024)));
+    StringBuilder lyrics = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      lyrics.append("La la la, line ").append(i).append("\n");
+    }
+    tag.addUSLTFrame(new USLTID3V2Frame("eng", "Lyrics", lyrics.toString()));
+    for (int i = 0; i < 10; i++) {
+      tag.addCOMMFrame(new COMMID3V2Frame("eng", "Comment " + i, "Some comment " + i));
+      tag.addTXXXTextInformationFrame(new TXXXTextInformationID3V2Frame("Extra " + i, "Value "
+          + i));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tag.write(out);
+    return out.toByteArray();
+  }
+
+  private static byte[] createData(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    return data;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    byte[] data = new byte[(int) file.length()];
+    InputStream in = new FileInputStream(file);
+    try {
+      int read = 0;
+      while (read < data.length) {
+        int n = in.read(data, read, data.length - read);
+        if (n < 0) {
+          break;
+        }
+        read += n;
+      }
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+}
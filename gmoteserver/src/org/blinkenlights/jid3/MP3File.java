@@ -25,6 +25,8 @@
 package org.blinkenlights.jid3;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 
 import org.blinkenlights.jid3.io.*;
@@ -38,6 +40,27 @@ import org.blinkenlights.jid3.v2.*;
  */
 public class MP3File extends MediaFile
 {
+    /** Number of bytes read from the start of the file when looking for a v2 tag.  This is enough
+     *  to hold the whole tag of most files that don't have embedded pictures, so that they only
+     *  need a single read.
+     */
+    private static final int INITIAL_V2_READ_SIZE = 16 * 1024;
+    
+    /** Minimum padding given to a v2 tag when the whole file has to be rewritten to make room for it, so that later
+     *  changes to the tag can usually be written in place.
+     */
+    private static final int REWRITE_PADDING_LENGTH = 4096;
+    
+    /** Locks held while a file is written in place or restored from its journal, so that a thread reading the
+     *  file doesn't restore it in the middle of a write by another thread.  FileLocks only keep other processes
+     *  out.  There is one lock per file, by canonical path, for as long as some thread is using it, so that
+     *  writes to different files don't wait for each other.
+     */
+    private static final Map s_oPathToInPlaceWriteLockMap = new HashMap();
+    
+    /** Whether the frames of v2 tags read from this file are only decoded when they are first accessed. */
+    private boolean m_bLazyFrameDecoding = false;
+    
     /** Construct an object representing the MP3 file specified.
      *
      * @param oSourceFile a File pointing to the source MP3 file
@@ -51,6 +74,25 @@ public class MP3File extends MediaFile
     {
         super(oFileSource);
     }
+    
+    /** Set whether the v2 tags read from this file should use lazy frame decoding (default not).  See
+     *  ID3V2Tag.read(InputStream, boolean).
+     *
+     * @param bLazyFrameDecoding whether frames should only be decoded when they are first accessed
+     */
+    public void setLazyFrameDecoding(boolean bLazyFrameDecoding)
+    {
+        m_bLazyFrameDecoding = bLazyFrameDecoding;
+    }
+    
+    /** Check whether the v2 tags read from this file use lazy frame decoding.
+     *
+     * @return true if lazy frame decoding is enabled, false otherwise
+     */
+    public boolean usingLazyFrameDecoding()
+    {
+        return m_bLazyFrameDecoding;
+    }
 
     /* (non-Javadoc)
      * @see org.blinkenlights.id3.MediaFile#sync()
@@ -65,6 +107,9 @@ public class MP3File extends MediaFile
             throw new ID3Exception("This file has an ID3 V2 tag which cannot be written because it does not contain at least one frame.");
         }
 
+        // undo an update of the file which was interrupted, before writing over the same bytes again
+        recoverInterruptedWrite();
+
         if (m_oID3V1Tag != null)
         {
             // need to update the V1 tags
@@ -84,6 +129,24 @@ public class MP3File extends MediaFile
     private void v1Sync()
         throws ID3Exception
     {
+        if (m_oFileSource instanceof FileSource)
+        {
+            // the V1 tag is always at the end of the file, so it can be written without copying the file
+            try
+            {
+                v1SyncInPlace(((FileSource)m_oFileSource).getFile());
+            }
+            catch (ID3Exception e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new ID3Exception("Error processing [" + m_oFileSource.getName() + "].", e);
+            }
+            return;
+        }
+        
         IFileSource oTmpFileSource = null;
         InputStream oSourceIS = null;
         OutputStream oTmpOS = null;
@@ -149,9 +212,10 @@ public class MP3File extends MediaFile
                     {
                         // no V1 tag on this file... copy the rest of it over (3 + 125 = 128 bytes)
                         oTmpOS.write(abyCheckTag);
-                        for (int i=0; i < 125; i++)
+                        int iNumRead = oSourceIS.read(abyBuffer, 0, 125);
+                        if (iNumRead > 0)
                         {
-                            oTmpOS.write(oSourceIS.read());
+                            oTmpOS.write(abyBuffer, 0, iNumRead);
                         }
                     }
 
@@ -172,30 +236,7 @@ public class MP3File extends MediaFile
                 oSourceIS.close();
             }
 
-            // move temp file to original source file
-            if (! m_oFileSource.delete())
-            {
-                //HACK:  This is a hack, to get around the fact that at least some JVMs are buggy, in that files which
-                //       have been closed are hung onto, pending garbage collection.  By suggesting garbage collection,
-                //       the next time, the delete -magically- works.
-                int iFails = 1;
-                int iDelay = 1;
-                while (!m_oFileSource.delete())
-                {
-                    System.gc();    // this will close the open file
-                    Thread.sleep(iDelay);
-                    iFails++;
-                    iDelay *= 2;
-                    if (iFails > 10)
-                    {
-                        throw new ID3Exception("Unable to delete original file.");
-                    }
-                }
-            }
-            if (! oTmpFileSource.renameTo(m_oFileSource))
-            {
-                throw new ID3Exception("Unable to rename temporary file " + oTmpFileSource.toString() + " to " + m_oFileSource.toString() + ".");
-            }
+            replaceWithTempFile(oTmpFileSource);
         }
         catch (ID3Exception e)
         {
@@ -221,6 +262,28 @@ public class MP3File extends MediaFile
         // check first if this tag can be written (ie. unregistered crypto agents, etc.)
         m_oID3V2Tag.sanityCheck();
         
+        if (m_oFileSource instanceof FileSource)
+        {
+            // write the tag in place when it fits, and otherwise copy the file with channel transfers
+            File oFile = ((FileSource)m_oFileSource).getFile();
+            try
+            {
+                if ( ! v2SyncInPlace(oFile))
+                {
+                    v2SyncByCopy(oFile);
+                }
+            }
+            catch (ID3Exception e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new ID3Exception("Error processing [" + m_oFileSource.getName() + "].", e);
+            }
+            return;
+        }
+        
         try
         {
             // open source file for reading
@@ -327,38 +390,504 @@ public class MP3File extends MediaFile
                 oSourceIS.close();
             }
             
-            // move temp file to original source file
-            if (! m_oFileSource.delete())
-            {
-                //HACK:  This is a hack, to get around the fact that at least some JVMs are buggy, in that files which
-                //       have been closed are hung onto, pending garbage collection.  By suggesting garbage collection,
-                //       the next time, the delete -magically- works.
-                int iFails = 1;
-                int iDelay = 1;
-                while (!m_oFileSource.delete())
-                {
-                    System.gc();    // this will close the open file
-                    Thread.sleep(iDelay);
-                    iFails++;
-                    iDelay *= 2;
-                    if (iFails > 10)
+            replaceWithTempFile(oTmpFileSource);
+        }
+        catch (ID3Exception e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new ID3Exception("Error processing [" + m_oFileSource.getName() + "].", e);
+        }
+    }
+
+    /** Write the V1 tag over the existing V1 tag of the file, or append it if the file doesn't have one.
+     *
+     * @param oFile the file being updated
+     */
+    private void v1SyncInPlace(File oFile)
+        throws Exception
+    {
+        ByteArrayOutputStream oTagBAOS = new ByteArrayOutputStream(128);
+        m_oID3V1Tag.write(oTagBAOS);
+        
+        RandomAccessFile oRAF = new RandomAccessFile(oFile, "rw");
+        try
+        {
+            FileChannel oChannel = oRAF.getChannel();
+            long lTagPosition = oChannel.size();
+            if (lTagPosition >= 128)
+            {
+                byte[] abyCheckTag = new byte[3];
+                readFully(oChannel, ByteBuffer.wrap(abyCheckTag), lTagPosition - 128);
+                if ((abyCheckTag[0] == 'T') && (abyCheckTag[1] == 'A') && (abyCheckTag[2] == 'G'))
+                {
+                    lTagPosition -= 128;
+                }
+            }
+            writeInPlace(oFile, oChannel, lTagPosition, oTagBAOS.toByteArray());
+        }
+        finally
+        {
+            oRAF.close();
+        }
+    }
+    
+    /** Write the V2 tag over the existing v2.3.0 tag of the file, if the frames of the new tag fit in the space
+     *  taken by the existing tag.  The padding of the new tag is adjusted so that it takes exactly that space.
+     *
+     * @param oFile the file being updated
+     * @return true if the tag was written, or false if the file has to be rewritten to make room for the tag
+     */
+    private boolean v2SyncInPlace(File oFile)
+        throws Exception
+    {
+        RandomAccessFile oRAF = new RandomAccessFile(oFile, "rw");
+        try
+        {
+            FileChannel oChannel = oRAF.getChannel();
+            byte[] abyHeader = new byte[10];
+            if ((readFully(oChannel, ByteBuffer.wrap(abyHeader), 0) < 10) ||
+                (abyHeader[0] != 'I') || (abyHeader[1] != 'D') || (abyHeader[2] != '3') || (abyHeader[3] != 3))
+            {
+                return false;
+            }
+            int iExistingTagSize = getID3V2TagSize(abyHeader);
+            if (iExistingTagSize > oChannel.size())
+            {
+                return false;
+            }
+            
+            int iPaddingLength = m_oID3V2Tag.getPaddingLength();
+            byte[] abyTag = getID3V2TagBytes();
+            int iNewPaddingLength = iExistingTagSize - (abyTag.length - iPaddingLength);
+            if (iNewPaddingLength < Math.min(iPaddingLength, ID3V2Tag.getDefaultPaddingLength()))
+            {
+                return false;
+            }
+            if (iNewPaddingLength != iPaddingLength)
+            {
+                m_oID3V2Tag.setPaddingLength(iNewPaddingLength);
+                try
+                {
+                    abyTag = getID3V2TagBytes();
+                }
+                finally
+                {
+                    m_oID3V2Tag.setPaddingLength(iPaddingLength);
+                }
+            }
+            if (abyTag.length != iExistingTagSize)
+            {
+                return false;
+            }
+            
+            writeInPlace(oFile, oChannel, 0, abyTag);
+            return true;
+        }
+        finally
+        {
+            oRAF.close();
+        }
+    }
+    
+    /** Write the V2 tag followed by the audio of the file to a temporary file, which then replaces the file.  The
+     *  audio is copied with channel transfers, and the tag is given at least REWRITE_PADDING_LENGTH bytes of
+     *  padding, so that the next update of the tag can usually be written in place.
+     *
+     * @param oFile the file being updated
+     */
+    private void v2SyncByCopy(File oFile)
+        throws Exception
+    {
+        IFileSource oTmpFileSource = null;
+        boolean bCopied = false;
+        
+        RandomAccessFile oSourceRAF = new RandomAccessFile(oFile, "r");
+        try
+        {
+            // skip over the existing tag, if there is one
+            FileChannel oSourceChannel = oSourceRAF.getChannel();
+            long lAudioPosition = 0;
+            byte[] abyHeader = new byte[10];
+            if ((readFully(oSourceChannel, ByteBuffer.wrap(abyHeader), 0) == 10) &&
+                (abyHeader[0] == 'I') && (abyHeader[1] == 'D') && (abyHeader[2] == '3'))
+            {
+                if (abyHeader[3] > 4)
+                {
+                    throw new ID3Exception("Will not overwrite tag of version greater than 2.4.0.");
+                }
+                lAudioPosition = Math.min(getID3V2TagSize(abyHeader), oSourceChannel.size());
+            }
+            
+            int iPaddingLength = m_oID3V2Tag.getPaddingLength();
+            byte[] abyTag;
+            m_oID3V2Tag.setPaddingLength(Math.max(iPaddingLength, REWRITE_PADDING_LENGTH));
+            try
+            {
+                abyTag = getID3V2TagBytes();
+            }
+            finally
+            {
+                m_oID3V2Tag.setPaddingLength(iPaddingLength);
+            }
+            
+            // create temporary file to work with
+            try
+            {
+                oTmpFileSource = m_oFileSource.createTempFile("id3.", ".tmp");
+            }
+            catch (Exception e)
+            {
+                throw new ID3Exception("Unable to create temporary file.", e);
+            }
+            
+            FileOutputStream oTmpFOS = new FileOutputStream(((FileSource)oTmpFileSource).getFile());
+            try
+            {
+                FileChannel oTmpChannel = oTmpFOS.getChannel();
+                ByteBuffer oTagBuffer = ByteBuffer.wrap(abyTag);
+                while (oTagBuffer.hasRemaining())
+                {
+                    oTmpChannel.write(oTagBuffer);
+                }
+                long lAudioLength = oSourceChannel.size() - lAudioPosition;
+                long lCopied = 0;
+                while (lCopied < lAudioLength)
+                {
+                    long lTransferred = oSourceChannel.transferTo(lAudioPosition + lCopied, lAudioLength - lCopied, oTmpChannel);
+                    if (lTransferred <= 0)
                     {
-                        throw new ID3Exception("Unable to delete original file.");
+                        throw new ID3Exception("Error copying [" + m_oFileSource.getName() + "] to temporary file.");
                     }
+                    lCopied += lTransferred;
                 }
+                
+                // the new file must be on disk before it replaces the original
+                oTmpChannel.force(true);
+                bCopied = true;
             }
-            if (! oTmpFileSource.renameTo(m_oFileSource))
+            finally
             {
-                throw new ID3Exception("Unable to rename temporary file " + oTmpFileSource.toString() + " to " + m_oFileSource.toString() + ".");
+                oTmpFOS.close();
             }
         }
-        catch (ID3Exception e)
+        finally
         {
-            throw e;
+            oSourceRAF.close();
+            if (( ! bCopied) && (oTmpFileSource != null))
+            {
+                oTmpFileSource.delete();
+            }
         }
-        catch (Exception e)
+        
+        replaceWithTempFile(oTmpFileSource);
+    }
+    
+    /** Get the bytes of the V2 tag as it will be written to the file.
+     */
+    private byte[] getID3V2TagBytes()
+        throws ID3Exception
+    {
+        ByteArrayOutputStream oTagBAOS = new ByteArrayOutputStream();
+        m_oID3V2Tag.write(oTagBAOS);
+        return oTagBAOS.toByteArray();
+    }
+    
+    /** Get the size of a V2 tag, including its 10 byte header.
+     *
+     * @param abyHeader the header of the tag
+     * @return the size of the tag
+     */
+    private static int getID3V2TagSize(byte[] abyHeader)
+    {
+        // the size in the header is a 28 bit "sync safe" integer, and doesn't include the header
+        return 10 + (((abyHeader[6] & 0x7f) << 21) | ((abyHeader[7] & 0x7f) << 14) |
+                     ((abyHeader[8] & 0x7f) << 7) | (abyHeader[9] & 0x7f));
+    }
+    
+    /** Overwrite part of a file, after saving the bytes that are overwritten to a journal file next to it.  If
+     *  the write is interrupted, the next read or sync() of the file puts the saved bytes back (see
+     *  recoverInPlaceWrite()).
+     *
+     * @param oFile the file being updated
+     * @param oChannel a channel open for writing to the file
+     * @param lPosition the position at which to write, which may be the end of the file
+     * @param abyData the bytes to write
+     */
+    private static void writeInPlace(File oFile, FileChannel oChannel, long lPosition, byte[] abyData)
+        throws IOException
+    {
+        InPlaceWriteLock oInPlaceWriteLock = acquireInPlaceWriteLock(oFile);
+        try
         {
-            throw new ID3Exception("Error processing [" + m_oFileSource.getName() + "].", e);
+            synchronized (oInPlaceWriteLock)
+            {
+                FileLock oFileLock = lockForInPlaceWrite(oChannel);
+                try
+                {
+                    writeJournal(oFile, oChannel, lPosition, abyData.length);
+                    
+                    ByteBuffer oBuffer = ByteBuffer.wrap(abyData);
+                    while (oBuffer.hasRemaining())
+                    {
+                        oChannel.write(oBuffer, lPosition + oBuffer.position());
+                    }
+                    oChannel.force(true);
+                    
+                    getJournalFile(oFile).delete();
+                }
+                finally
+                {
+                    oFileLock.release();
+                }
+            }
+        }
+        finally
+        {
+            releaseInPlaceWriteLock(oInPlaceWriteLock);
+        }
+    }
+    
+    /** The lock of a file in s_oPathToInPlaceWriteLockMap, and the number of threads using it. */
+    private static class InPlaceWriteLock
+    {
+        private String m_sPath;
+        private int m_iUsers = 0;
+        
+        InPlaceWriteLock(String sPath)
+        {
+            m_sPath = sPath;
+        }
+    }
+    
+    /** Get the lock for in place writes to a file, which must be released with releaseInPlaceWriteLock() once
+     *  the caller is done with it.
+     */
+    private static InPlaceWriteLock acquireInPlaceWriteLock(File oFile)
+        throws IOException
+    {
+        String sPath = oFile.getCanonicalPath();
+        synchronized (s_oPathToInPlaceWriteLockMap)
+        {
+            InPlaceWriteLock oInPlaceWriteLock = (InPlaceWriteLock)s_oPathToInPlaceWriteLockMap.get(sPath);
+            if (oInPlaceWriteLock == null)
+            {
+                oInPlaceWriteLock = new InPlaceWriteLock(sPath);
+                s_oPathToInPlaceWriteLockMap.put(sPath, oInPlaceWriteLock);
+            }
+            oInPlaceWriteLock.m_iUsers++;
+            
+            return oInPlaceWriteLock;
+        }
+    }
+    
+    private static void releaseInPlaceWriteLock(InPlaceWriteLock oInPlaceWriteLock)
+    {
+        synchronized (s_oPathToInPlaceWriteLockMap)
+        {
+            oInPlaceWriteLock.m_iUsers--;
+            if (oInPlaceWriteLock.m_iUsers == 0)
+            {
+                s_oPathToInPlaceWriteLockMap.remove(oInPlaceWriteLock.m_sPath);
+            }
+        }
+    }
+    
+    /** Save the bytes of a file which are about to be overwritten to its journal file, along with the length of
+     *  the file, so that the file can be put back as it was.
+     *
+     * @param oFile the file being updated
+     * @param oChannel a channel open for writing to the file
+     * @param lPosition the position at which the file will be written
+     * @param iLength the number of bytes which will be written
+     */
+    static void writeJournal(File oFile, FileChannel oChannel, long lPosition, int iLength)
+        throws IOException
+    {
+        long lFileLength = oChannel.size();
+        byte[] abyOriginal = new byte[(int)Math.min(iLength, lFileLength - lPosition)];
+        readFully(oChannel, ByteBuffer.wrap(abyOriginal), lPosition);
+        
+        FileOutputStream oJournalFOS = new FileOutputStream(getJournalFile(oFile));
+        try
+        {
+            DataOutputStream oJournalDOS = new DataOutputStream(new BufferedOutputStream(oJournalFOS));
+            oJournalDOS.writeLong(lFileLength);
+            oJournalDOS.writeLong(lPosition);
+            oJournalDOS.writeInt(abyOriginal.length);
+            oJournalDOS.write(abyOriginal);
+            oJournalDOS.flush();
+            oJournalFOS.getFD().sync();
+        }
+        finally
+        {
+            oJournalFOS.close();
+        }
+    }
+    
+    /** Lock a file against in place writes by other processes, waiting for the current one to finish.  Only a
+     *  byte past any real file length is locked, because some platforms don't allow locked bytes to be read, and
+     *  reading the file doesn't need the lock unless it has to be restored.
+     */
+    private static FileLock lockForInPlaceWrite(FileChannel oChannel)
+        throws IOException
+    {
+        return oChannel.lock(Long.MAX_VALUE - 1, 1, false);
+    }
+    
+    /** Put back the bytes saved in the journal of the file of this object, if an earlier write to it was
+     *  interrupted.  This is done before the file is read or written, so that neither sees half of a tag.  It
+     *  costs a check for the journal file on every read, which is an extra round trip on a network share.
+     *
+     * @throws ID3Exception if the journal exists but the file could not be restored from it
+     */
+    private void recoverInterruptedWrite()
+        throws ID3Exception
+    {
+        if (m_oFileSource instanceof FileSource)
+        {
+            recoverInPlaceWrite(((FileSource)m_oFileSource).getFile());
+        }
+    }
+    
+    /** Put back the bytes saved in the journal file of a file, if an earlier write to the file was interrupted.
+     *  A write which is still going on, in this process or another one, is waited for rather than undone.
+     *
+     * @param oFile the file being updated
+     * @throws ID3Exception if the journal exists but the file could not be restored from it
+     */
+    private static void recoverInPlaceWrite(File oFile)
+        throws ID3Exception
+    {
+        File oJournalFile = getJournalFile(oFile);
+        if ( ! oJournalFile.exists())
+        {
+            return;
+        }
+        
+        try
+        {
+            InPlaceWriteLock oInPlaceWriteLock = acquireInPlaceWriteLock(oFile);
+            try
+            {
+                synchronized (oInPlaceWriteLock)
+                {
+                    RandomAccessFile oRAF = new RandomAccessFile(oFile, "rw");
+                    try
+                    {
+                        FileChannel oChannel = oRAF.getChannel();
+                        FileLock oFileLock = lockForInPlaceWrite(oChannel);
+                        try
+                        {
+                            // the write we were waiting for may have completed
+                            if (oJournalFile.exists())
+                            {
+                                restoreFromJournal(oJournalFile, oChannel);
+                                oJournalFile.delete();
+                            }
+                        }
+                        finally
+                        {
+                            oFileLock.release();
+                        }
+                    }
+                    finally
+                    {
+                        oRAF.close();
+                    }
+                }
+            }
+            finally
+            {
+                releaseInPlaceWriteLock(oInPlaceWriteLock);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ID3Exception("Unable to restore [" + oFile.getName() + "] from " + oJournalFile + ".", e);
+        }
+    }
+    
+    private static void restoreFromJournal(File oJournalFile, FileChannel oChannel)
+        throws IOException
+    {
+        DataInputStream oJournalDIS = new DataInputStream(new BufferedInputStream(new FileInputStream(oJournalFile)));
+        try
+        {
+            long lFileLength = oJournalDIS.readLong();
+            long lPosition = oJournalDIS.readLong();
+            int iLength = oJournalDIS.readInt();
+            if ((iLength < 0) || (iLength > oJournalFile.length()))
+            {
+                throw new EOFException();
+            }
+            byte[] abyOriginal = new byte[iLength];
+            oJournalDIS.readFully(abyOriginal);
+            
+            ByteBuffer oBuffer = ByteBuffer.wrap(abyOriginal);
+            while (oBuffer.hasRemaining())
+            {
+                oChannel.write(oBuffer, lPosition + oBuffer.position());
+            }
+            oChannel.truncate(lFileLength);
+            oChannel.force(true);
+        }
+        catch (EOFException e)
+        {
+            // the journal itself was not completely written, so the file was never changed
+        }
+        finally
+        {
+            oJournalDIS.close();
+        }
+    }
+    
+    /** Get the journal file used while the given file is updated in place.
+     */
+    private static File getJournalFile(File oFile)
+    {
+        return new File(oFile.getPath() + ".id3journal");
+    }
+    
+    /** Replace the source file with a temporary file holding its new contents.  Where the platform allows it, the
+     *  temporary file is renamed over the source file, so that the song is never missing from disk.  Otherwise,
+     *  the source file has to be deleted first.
+     *
+     * @param oTmpFileSource the temporary file
+     */
+    private void replaceWithTempFile(IFileSource oTmpFileSource)
+        throws Exception
+    {
+        if (oTmpFileSource.renameTo(m_oFileSource))
+        {
+            return;
+        }
+        
+        // the original file must be deleted before the temp file can be moved to it
+        if (! m_oFileSource.delete())
+        {
+            //HACK:  This is a hack, to get around the fact that at least some JVMs are buggy, in that files which
+            //       have been closed are hung onto, pending garbage collection.  By suggesting garbage collection,
+            //       the next time, the delete -magically- works.
+            int iFails = 1;
+            int iDelay = 1;
+            while (!m_oFileSource.delete())
+            {
+                System.gc();    // this will close the open file
+                Thread.sleep(iDelay);
+                iFails++;
+                iDelay *= 2;
+                if (iFails > 10)
+                {
+                    throw new ID3Exception("Unable to delete original file.");
+                }
+            }
+        }
+        if (! oTmpFileSource.renameTo(m_oFileSource))
+        {
+            throw new ID3Exception("Unable to rename temporary file " + oTmpFileSource.toString() + " to " + m_oFileSource.toString() + ".");
         }
     }
 
@@ -368,17 +897,51 @@ public class MP3File extends MediaFile
     public ID3Tag[] getTags()
         throws ID3Exception
     {
+        recoverInterruptedWrite();
+        
         List oID3TagList = new ArrayList();
         
+        ID3V1Tag oID3V1Tag;
+        ID3V2Tag oID3V2Tag;
+        if (m_oFileSource instanceof FileSource)
+        {
+            // open the file only once, and read just the tags at each end of it
+            try
+            {
+                RandomAccessFile oRAF = ((FileSource)m_oFileSource).getRandomAccessFile();
+                try
+                {
+                    FileChannel oChannel = oRAF.getChannel();
+                    oID3V1Tag = readID3V1Tag(oChannel);
+                    oID3V2Tag = readID3V2Tag(oChannel);
+                }
+                finally
+                {
+                    oRAF.close();
+                }
+            }
+            catch (ID3Exception e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new ID3Exception("Error reading tags from file.", e);
+            }
+        }
+        else
+        {
+            oID3V1Tag = getID3V1Tag();
+            oID3V2Tag = getID3V2Tag();
+        }
+        
         // get ID3V1Tag if they exist
-        ID3V1Tag oID3V1Tag = getID3V1Tag();
         if (oID3V1Tag != null)
         {
             oID3TagList.add(oID3V1Tag);
         }
         
         // get ID3V2Tag if they exist
-        ID3V2Tag oID3V2Tag = getID3V2Tag();
         if (oID3V2Tag != null)
         {
             oID3TagList.add(oID3V2Tag);
@@ -386,10 +949,80 @@ public class MP3File extends MediaFile
         
         return (ID3Tag[])oID3TagList.toArray(new ID3Tag[0]);
     }
+    
+    /** Read the v1 tag, if any, from the last 128 bytes of the file with a single positioned read.
+     */
+    private ID3V1Tag readID3V1Tag(FileChannel oChannel)
+        throws IOException, ID3Exception
+    {
+        long lFileLength = oChannel.size();
+        if (lFileLength < 128)
+        {
+            return null;
+        }
+        byte[] abyTag = new byte[128];
+        if (readFully(oChannel, ByteBuffer.wrap(abyTag), lFileLength - 128) < 128)
+        {
+            return null;
+        }
+        if ((abyTag[0] == 'T') && (abyTag[1] == 'A') && (abyTag[2] == 'G'))
+        {
+            return ID3V1Tag.read(new ByteArrayInputStream(abyTag, 3, 125));
+        }
+        else
+        {
+            return null;
+        }
+    }
+    
+    /** Read the v2 tag, if any, from the start of the file.  The header and the tag are read together
+     *  when the tag fits in INITIAL_V2_READ_SIZE, and the rest of a larger tag takes one more read.
+     */
+    private ID3V2Tag readID3V2Tag(FileChannel oChannel)
+        throws IOException, ID3Exception
+    {
+        byte[] abyHead = new byte[(int)Math.min(INITIAL_V2_READ_SIZE, oChannel.size())];
+        int iRead = readFully(oChannel, ByteBuffer.wrap(abyHead), 0);
+        if ((iRead < 10) || (abyHead[0] != 'I') || (abyHead[1] != 'D') || (abyHead[2] != '3'))
+        {
+            return null;
+        }
+        int iTagSize = getID3V2TagSize(abyHead);
+        byte[] abyTag = abyHead;
+        if (iTagSize > iRead)
+        {
+            abyTag = new byte[iTagSize];
+            System.arraycopy(abyHead, 0, abyTag, 0, iRead);
+            readFully(oChannel, ByteBuffer.wrap(abyTag, iRead, iTagSize - iRead), iRead);
+        }
+        return ID3V2Tag.read(new ByteArrayInputStream(abyTag, 3, abyTag.length - 3), m_bLazyFrameDecoding);
+    }
+    
+    /** Fill the buffer from the given position of the channel, stopping early only at the end of the file.
+     *
+     * @return the number of bytes read
+     */
+    private static int readFully(FileChannel oChannel, ByteBuffer oBuffer, long lPosition)
+        throws IOException
+    {
+        int iTotal = 0;
+        while (oBuffer.hasRemaining())
+        {
+            int iRead = oChannel.read(oBuffer, lPosition + iTotal);
+            if (iRead < 0)
+            {
+                break;
+            }
+            iTotal += iRead;
+        }
+        return iTotal;
+    }
 
     public ID3V1Tag getID3V1Tag()
         throws ID3Exception
     {
+        recoverInterruptedWrite();
+        
         try
         {
             InputStream oSourceIS = new BufferedInputStream(m_oFileSource.getInputStream());
@@ -429,8 +1062,35 @@ public class MP3File extends MediaFile
     public ID3V2Tag getID3V2Tag()
         throws ID3Exception
     {
+        recoverInterruptedWrite();
+        
         //TODO: We're only checking for v2.3.0 tags here now.  We'd otherwise have to find
         //      the "ID3" identifier in the file first.
+        if (m_oFileSource instanceof FileSource)
+        {
+            // read the tag with positioned reads, as getTags() does
+            try
+            {
+                RandomAccessFile oRAF = ((FileSource)m_oFileSource).getRandomAccessFile();
+                try
+                {
+                    return readID3V2Tag(oRAF.getChannel());
+                }
+                finally
+                {
+                    oRAF.close();
+                }
+            }
+            catch (ID3Exception e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new ID3Exception("Error reading tags from file.", e);
+            }
+        }
+        
         try
         {
             InputStream oSourceIS = new BufferedInputStream(m_oFileSource.getInputStream());
@@ -443,7 +1103,7 @@ public class MP3File extends MediaFile
                 oSourceID3DIS.readFully(abyCheckTag);
                 if ((abyCheckTag[0] == 'I') && (abyCheckTag[1] == 'D') && (abyCheckTag[2] == '3'))
                 {
-                    return ID3V2Tag.read(oSourceID3DIS);
+                    return ID3V2Tag.read(oSourceID3DIS, m_bLazyFrameDecoding);
                 }
                 else
                 {
@@ -465,6 +1125,25 @@ public class MP3File extends MediaFile
         }
     }
     
+    /** Get the picture of the first attached picture (APIC) frame in the v2 tag of this file.  When lazy frame
+     *  decoding is used, the picture is not copied out of the tag data that was read from the file (see
+     *  ID3V2_3_0Tag.getFirstPictureData()).
+     *
+     * @return a read-only buffer holding the picture data, or null if the file has no picture
+     * @throws ID3Exception if an error occurs while reading the tag
+     */
+    public ByteBuffer getPictureData()
+        throws ID3Exception
+    {
+        ID3V2Tag oID3V2Tag = getID3V2Tag();
+        if (oID3V2Tag instanceof ID3V2_3_0Tag)
+        {
+            return ((ID3V2_3_0Tag)oID3V2Tag).getFirstPictureData();
+        }
+        
+        return null;
+    }
+    
     public void removeTags()
         throws ID3Exception
     {
@@ -540,9 +1219,10 @@ public class MP3File extends MediaFile
                     {
                         // no V1 tag on this file... copy the rest of it over (3 + 125 = 128 bytes)
                         oTmpOS.write(abyCheckTag);
-                        for (int i=0; i < 125; i++)
+                        int iNumRead = oSourceIS.read(abyBuffer, 0, 125);
+                        if (iNumRead > 0)
                         {
-                            oTmpOS.write(oSourceIS.read());
+                            oTmpOS.write(abyBuffer, 0, iNumRead);
                         }
                     }
 
@@ -559,30 +1239,7 @@ public class MP3File extends MediaFile
                 oSourceIS.close();
             }
             
-            // move temp file to original source file
-            if (! m_oFileSource.delete())
-            {
-                //HACK:  This is a hack, to get around the fact that at least some JVMs are buggy, in that files which
-                //       have been closed are hung onto, pending garbage collection.  By suggesting garbage collection,
-                //       the next time, the delete -magically- works.
-                int iFails = 1;
-                int iDelay = 1;
-                while (!m_oFileSource.delete())
-                {
-                    System.gc();    // this will close the open file
-                    Thread.sleep(iDelay);
-                    iFails++;
-                    iDelay *= 2;
-                    if (iFails > 10)
-                    {
-                        throw new ID3Exception("Unable to delete original file.");
-                    }
-                }
-            }
-            if (! oTmpFileSource.renameTo(m_oFileSource))
-            {
-                throw new ID3Exception("Unable to rename temporary file " + oTmpFileSource.toString() + " to " + m_oFileSource.toString() + ".");
-            }
+            replaceWithTempFile(oTmpFileSource);
         }
         catch (ID3Exception e)
         {
@@ -695,30 +1352,7 @@ public class MP3File extends MediaFile
                 oSourceIS.close();
             }
             
-            // move temp file to original source file
-            if (! m_oFileSource.delete())
-            {
-                //HACK:  This is a hack, to get around the fact that at least some JVMs are buggy, in that files which
-                //       have been closed are hung onto, pending garbage collection.  By suggesting garbage collection,
-                //       the next time, the delete -magically- works.
-                int iFails = 1;
-                int iDelay = 1;
-                while (!m_oFileSource.delete())
-                {
-                    System.gc();    // this will close the open file
-                    Thread.sleep(iDelay);
-                    iFails++;
-                    iDelay *= 2;
-                    if (iFails > 10)
-                    {
-                        throw new ID3Exception("Unable to delete original file.");
-                    }
-                }
-            }
-            if (! oTmpFileSource.renameTo(m_oFileSource))
-            {
-                throw new ID3Exception("Unable to rename temporary file " + oTmpFileSource.toString() + " to " + m_oFileSource.toString() + ".");
-            }
+            replaceWithTempFile(oTmpFileSource);
         }
         catch (ID3Exception e)
         {
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.blinkenlights.jid3;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+import org.blinkenlights.jid3.v1.*;
+import org.blinkenlights.jid3.v2.*;
+
+/**
+ * Checks that a file whose tag was being written in place when the write was interrupted is put back as it was
+ * the next time it is read or written.
+ */
+public class MP3FileTest extends TestCase
+{
+    private File m_oFile;
+    private byte[] m_abyOriginal;
+    
+    protected void setUp()
+        throws Exception
+    {
+        m_oFile = File.createTempFile("mp3filetest", ".mp3");
+        
+        // some fake audio, with a v2 tag in front of it and a v1 tag after it
+        byte[] abyAudio = new byte[64 * 1024];
+        for (int i=0; i < abyAudio.length; i++)
+        {
+            abyAudio[i] = (byte)(i * 31);
+        }
+        FileOutputStream oFOS = new FileOutputStream(m_oFile);
+        try
+        {
+            oFOS.write(abyAudio);
+        }
+        finally
+        {
+            oFOS.close();
+        }
+        MP3File oMP3File = new MP3File(m_oFile);
+        oMP3File.setID3Tag(createV2Tag("Before"));
+        oMP3File.setID3Tag(new ID3V1_1Tag());
+        oMP3File.sync();
+        
+        m_abyOriginal = readFile(m_oFile);
+    }
+    
+    protected void tearDown()
+    {
+        m_oFile.delete();
+        getJournalFile().delete();
+    }
+    
+    public void testInterruptedV2WriteIsUndoneWhenReading()
+        throws Exception
+    {
+        // the journal was written, but only half of the new tag made it to the file
+        byte[] abyNewTag = new byte[1024];
+        Arrays.fill(abyNewTag, (byte)0xff);
+        simulateInterruptedWrite(0, abyNewTag, abyNewTag.length / 2);
+        assertFalse(Arrays.equals(m_abyOriginal, readFile(m_oFile)));
+        
+        assertEquals("Before", getV2Tag(new MP3File(m_oFile).getTags()).getTitle());
+        assertTrue(Arrays.equals(m_abyOriginal, readFile(m_oFile)));
+        assertFalse(getJournalFile().exists());
+    }
+    
+    public void testInterruptedAppendIsUndone()
+        throws Exception
+    {
+        // the v1 tag was being appended to the end of the file
+        simulateInterruptedWrite(m_abyOriginal.length, new byte[128], 60);
+        assertEquals(m_abyOriginal.length + 60, m_oFile.length());
+        
+        new MP3File(m_oFile).getID3V2Tag();
+        assertTrue(Arrays.equals(m_abyOriginal, readFile(m_oFile)));
+        assertFalse(getJournalFile().exists());
+    }
+    
+    public void testInterruptedWriteIsUndoneBeforeWriting()
+        throws Exception
+    {
+        byte[] abyNewTag = new byte[1024];
+        simulateInterruptedWrite(0, abyNewTag, abyNewTag.length / 2);
+        
+        MP3File oMP3File = new MP3File(m_oFile);
+        oMP3File.setID3Tag(createV2Tag("After"));
+        oMP3File.sync();
+        
+        assertEquals("After", getV2Tag(new MP3File(m_oFile).getTags()).getTitle());
+        assertEquals(m_abyOriginal.length, m_oFile.length());
+        assertFalse(getJournalFile().exists());
+    }
+    
+    public void testIncompleteJournalIsIgnored()
+        throws Exception
+    {
+        // the journal wasn't completely written, so the file was never touched
+        simulateInterruptedWrite(0, new byte[1024], 0);
+        RandomAccessFile oJournalRAF = new RandomAccessFile(getJournalFile(), "rw");
+        try
+        {
+            oJournalRAF.setLength(100);
+        }
+        finally
+        {
+            oJournalRAF.close();
+        }
+        
+        assertEquals("Before", getV2Tag(new MP3File(m_oFile).getTags()).getTitle());
+        assertTrue(Arrays.equals(m_abyOriginal, readFile(m_oFile)));
+        assertFalse(getJournalFile().exists());
+    }
+    
+    public void testCompletedWriteLeavesNoJournal()
+        throws Exception
+    {
+        MP3File oMP3File = new MP3File(m_oFile);
+        oMP3File.setID3Tag(createV2Tag("After"));
+        oMP3File.sync();
+        
+        assertFalse(getJournalFile().exists());
+        assertEquals(m_abyOriginal.length, m_oFile.length());
+        assertEquals("After", getV2Tag(new MP3File(m_oFile).getTags()).getTitle());
+    }
+    
+    /** Do what MP3File does when writing in place, but stop after iWritten bytes of the new data. */
+    private void simulateInterruptedWrite(long lPosition, byte[] abyData, int iWritten)
+        throws IOException
+    {
+        RandomAccessFile oRAF = new RandomAccessFile(m_oFile, "rw");
+        try
+        {
+            FileChannel oChannel = oRAF.getChannel();
+            MP3File.writeJournal(m_oFile, oChannel, lPosition, abyData.length);
+            oChannel.write(ByteBuffer.wrap(abyData, 0, iWritten), lPosition);
+        }
+        finally
+        {
+            oRAF.close();
+        }
+        assertTrue(getJournalFile().exists());
+    }
+    
+    private File getJournalFile()
+    {
+        return new File(m_oFile.getPath() + ".id3journal");
+    }
+    
+    private static ID3V2_3_0Tag createV2Tag(String sTitle)
+        throws ID3Exception
+    {
+        ID3V2_3_0Tag oTag = new ID3V2_3_0Tag();
+        oTag.setTitle(sTitle);
+        oTag.setArtist("Artist");
+        
+        return oTag;
+    }
+    
+    private static ID3V2_3_0Tag getV2Tag(ID3Tag[] aoTags)
+    {
+        for (int i=0; i < aoTags.length; i++)
+        {
+            if (aoTags[i] instanceof ID3V2_3_0Tag)
+            {
+                return (ID3V2_3_0Tag)aoTags[i];
+            }
+        }
+        fail("No v2 tag");
+        return null;
+    }
+    
+    private static byte[] readFile(File oFile)
+        throws IOException
+    {
+        byte[] abyData = new byte[(int)oFile.length()];
+        DataInputStream oDIS = new DataInputStream(new FileInputStream(oFile));
+        try
+        {
+            oDIS.readFully(abyData);
+        }
+        finally
+        {
+            oDIS.close();
+        }
+        
+        return abyData;
+    }
+}
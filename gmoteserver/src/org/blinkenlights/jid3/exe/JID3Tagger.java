@@ -26,6 +26,7 @@ package org.blinkenlights.jid3.exe;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.blinkenlights.jid3.*;
 import org.blinkenlights.jid3.v1.*;
@@ -38,6 +39,11 @@ import org.blinkenlights.jid3.util.*;
  */
 public class JID3Tagger
 {
+    /** Default number of files which are tagged at the same time, when tagging more than one file.  Tagging a file is
+     *  mostly waiting for the disk, so a few threads keep a disk busy, while more mostly compete for the same disk.
+     */
+    private static final int DEFAULT_THREAD_COUNT = 4;
+    
     private Map m_oCmdLineMap = null;
     
     /** Creates a new instance of JID3Tagger */
@@ -46,15 +52,79 @@ public class JID3Tagger
         m_oCmdLineMap = oCmdLineMap;
     }
     
+    /** Get the files named on the command line, along with the files in any directories named and the files
+     *  listed in the file given with --list.
+     */
+    private File[] getFiles()
+        throws IOException
+    {
+        List oFileList = new ArrayList();
+        
+        String[] asFilename = (String[])m_oCmdLineMap.get("filenames");
+        for (int i=0; i < asFilename.length; i++)
+        {
+            addFiles(new File(asFilename[i]), oFileList);
+        }
+        
+        if (m_oCmdLineMap.containsKey("list"))
+        {
+            BufferedReader oListReader = new BufferedReader(new FileReader((String)m_oCmdLineMap.get("list")));
+            try
+            {
+                String sFilename;
+                while ((sFilename = oListReader.readLine()) != null)
+                {
+                    if (sFilename.trim().length() > 0)
+                    {
+                        addFiles(new File(sFilename.trim()), oFileList);
+                    }
+                }
+            }
+            finally
+            {
+                oListReader.close();
+            }
+        }
+        
+        return (File[])oFileList.toArray(new File[0]);
+    }
+    
+    /** Add a file to the list, or if it is a directory, all of the MP3 files under it.
+     */
+    private static void addFiles(File oFile, List oFileList)
+    {
+        if (oFile.isDirectory())
+        {
+            File[] aoChild = oFile.listFiles();
+            if (aoChild == null)
+            {
+                System.err.println("Unable to list [" + oFile + "].");
+                return;
+            }
+            Arrays.sort(aoChild);
+            for (int i=0; i < aoChild.length; i++)
+            {
+                if (aoChild[i].isDirectory() || aoChild[i].getName().toLowerCase().endsWith(".mp3"))
+                {
+                    addFiles(aoChild[i], oFileList);
+                }
+            }
+        }
+        else
+        {
+            oFileList.add(oFile);
+        }
+    }
+    
     private void display()
         throws Exception
     {
-        String[] asFilename = (String[])m_oCmdLineMap.get("filenames");
+        File[] aoFile = getFiles();
         
-        for (int i=0; i < asFilename.length; i++)
+        for (int i=0; i < aoFile.length; i++)
         {
-            System.out.println("\n[" + asFilename[i] + "]");
-            File oSourceFile = new File(asFilename[i]);
+            System.out.println("\n[" + aoFile[i] + "]");
+            File oSourceFile = aoFile[i];
             MP3File oMP3File = new MP3File(oSourceFile);
             
             ID3Tag[] aoTag = oMP3File.getTags();
@@ -80,92 +150,200 @@ public class JID3Tagger
     private void tag()
         throws Exception
     {
-        String[] asFilename = (String[])m_oCmdLineMap.get("filenames");
+        File[] aoFile = getFiles();
         
-        for (int i=0; i < asFilename.length; i++)
+        if (aoFile.length == 1)
         {
-            File oSourceFile = new File(asFilename[i]);
-            MP3File oMP3File = new MP3File(oSourceFile);
-            
-            if (m_oCmdLineMap.containsKey("1"))
+            tag(aoFile[0]);
+        }
+        else
+        {
+            tagBatch(aoFile);
+        }
+    }
+    
+    /** Tag many files at once, on a fixed number of threads.  A file which can't be tagged is reported, and does
+     *  not stop the other files from being tagged.
+     */
+    private void tagBatch(File[] aoFile)
+        throws InterruptedException
+    {
+        int iThreadCount = DEFAULT_THREAD_COUNT;
+        if (m_oCmdLineMap.containsKey("threads"))
+        {
+            iThreadCount = ((Integer)m_oCmdLineMap.get("threads")).intValue();
+        }
+        iThreadCount = Math.max(1, Math.min(iThreadCount, aoFile.length));
+        System.out.println("Tagging " + aoFile.length + " files on " + iThreadCount + " threads.");
+        
+        final BatchProgress oBatchProgress = new BatchProgress(aoFile.length);
+        ExecutorService oExecutorService = Executors.newFixedThreadPool(iThreadCount);
+        try
+        {
+            for (int i=0; i < aoFile.length; i++)
             {
-                ID3V1_1Tag oID3V1_1Tag = new ID3V1_1Tag();
-                if (m_oCmdLineMap.containsKey("album"))
-                {
-                    oID3V1_1Tag.setAlbum((String)m_oCmdLineMap.get("album"));
-                }
-                if (m_oCmdLineMap.containsKey("artist"))
-                {
-                    oID3V1_1Tag.setArtist((String)m_oCmdLineMap.get("artist"));
-                }
-                if (m_oCmdLineMap.containsKey("comment"))
+                final File oSourceFile = aoFile[i];
+                oExecutorService.execute(new Runnable()
                 {
-                    oID3V1_1Tag.setComment((String)m_oCmdLineMap.get("comment"));
-                }
-                if (m_oCmdLineMap.containsKey("genre"))
-                {
-                    String sGenre = (String)m_oCmdLineMap.get("genre");
-                    oID3V1_1Tag.setGenre(ID3V1Tag.Genre.lookupGenre(sGenre));
-                }
-                if (m_oCmdLineMap.containsKey("title"))
-                {
-                    oID3V1_1Tag.setTitle((String)m_oCmdLineMap.get("title"));
-                }
-                if (m_oCmdLineMap.containsKey("year"))
-                {
-                    oID3V1_1Tag.setYear(((Integer)m_oCmdLineMap.get("year")).toString());
-                }
-                if (m_oCmdLineMap.containsKey("track"))
-                {
-                    oID3V1_1Tag.setAlbumTrack(((Integer)m_oCmdLineMap.get("track")).intValue());
-                }
-                oMP3File.setID3Tag(oID3V1_1Tag);
+                    public void run()
+                    {
+                        boolean bTagged = false;
+                        try
+                        {
+                            tag(oSourceFile);
+                            bTagged = true;
+                        }
+                        catch (Exception e)
+                        {
+                            System.err.println("Tag failed for [" + oSourceFile + "]: " + e.getMessage());
+                        }
+                        oBatchProgress.fileDone(bTagged);
+                    }
+                });
             }
-            if (m_oCmdLineMap.containsKey("2"))
+        }
+        finally
+        {
+            oExecutorService.shutdown();
+        }
+        oExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        
+        System.out.println(oBatchProgress.getSummary());
+    }
+    
+    private void tag(File oSourceFile)
+        throws Exception
+    {
+        MP3File oMP3File = new MP3File(oSourceFile);
+        
+        if (m_oCmdLineMap.containsKey("1"))
+        {
+            ID3V1_1Tag oID3V1_1Tag = new ID3V1_1Tag();
+            if (m_oCmdLineMap.containsKey("album"))
             {
-                ID3V2_3_0Tag oID3V2_3_0Tag = new ID3V2_3_0Tag();
-                //HACK: Need to have padding at the end of the tag, or Winamp won't see the last frame (at least 6 bytes seem to be required).
-                oID3V2_3_0Tag.setPaddingLength(16);
-                if (m_oCmdLineMap.containsKey("album"))
-                {
-                    oID3V2_3_0Tag.setAlbum((String)m_oCmdLineMap.get("album"));
-                }
-                if (m_oCmdLineMap.containsKey("artist"))
-                {
-                    oID3V2_3_0Tag.setArtist((String)m_oCmdLineMap.get("artist"));
-                }
-                if (m_oCmdLineMap.containsKey("comment"))
-                {
-                    oID3V2_3_0Tag.setComment((String)m_oCmdLineMap.get("comment"));
-                }
-                if (m_oCmdLineMap.containsKey("genre"))
-                {
-                    oID3V2_3_0Tag.setGenre((String)m_oCmdLineMap.get("genre"));
-                }
-                oMP3File.setID3Tag(oID3V2_3_0Tag);
-                if (m_oCmdLineMap.containsKey("title"))
-                {
-                    oID3V2_3_0Tag.setTitle((String)m_oCmdLineMap.get("title"));
-                }
-                if (m_oCmdLineMap.containsKey("year"))
+                oID3V1_1Tag.setAlbum((String)m_oCmdLineMap.get("album"));
+            }
+            if (m_oCmdLineMap.containsKey("artist"))
+            {
+                oID3V1_1Tag.setArtist((String)m_oCmdLineMap.get("artist"));
+            }
+            if (m_oCmdLineMap.containsKey("comment"))
+            {
+                oID3V1_1Tag.setComment((String)m_oCmdLineMap.get("comment"));
+            }
+            if (m_oCmdLineMap.containsKey("genre"))
+            {
+                String sGenre = (String)m_oCmdLineMap.get("genre");
+                oID3V1_1Tag.setGenre(ID3V1Tag.Genre.lookupGenre(sGenre));
+            }
+            if (m_oCmdLineMap.containsKey("title"))
+            {
+                oID3V1_1Tag.setTitle((String)m_oCmdLineMap.get("title"));
+            }
+            if (m_oCmdLineMap.containsKey("year"))
+            {
+                oID3V1_1Tag.setYear(((Integer)m_oCmdLineMap.get("year")).toString());
+            }
+            if (m_oCmdLineMap.containsKey("track"))
+            {
+                oID3V1_1Tag.setAlbumTrack(((Integer)m_oCmdLineMap.get("track")).intValue());
+            }
+            oMP3File.setID3Tag(oID3V1_1Tag);
+        }
+        if (m_oCmdLineMap.containsKey("2"))
+        {
+            ID3V2_3_0Tag oID3V2_3_0Tag = new ID3V2_3_0Tag();
+            //HACK: Need to have padding at the end of the tag, or Winamp won't see the last frame (at least 6 bytes seem to be required).
+            oID3V2_3_0Tag.setPaddingLength(16);
+            if (m_oCmdLineMap.containsKey("album"))
+            {
+                oID3V2_3_0Tag.setAlbum((String)m_oCmdLineMap.get("album"));
+            }
+            if (m_oCmdLineMap.containsKey("artist"))
+            {
+                oID3V2_3_0Tag.setArtist((String)m_oCmdLineMap.get("artist"));
+            }
+            if (m_oCmdLineMap.containsKey("comment"))
+            {
+                oID3V2_3_0Tag.setComment((String)m_oCmdLineMap.get("comment"));
+            }
+            if (m_oCmdLineMap.containsKey("genre"))
+            {
+                oID3V2_3_0Tag.setGenre((String)m_oCmdLineMap.get("genre"));
+            }
+            oMP3File.setID3Tag(oID3V2_3_0Tag);
+            if (m_oCmdLineMap.containsKey("title"))
+            {
+                oID3V2_3_0Tag.setTitle((String)m_oCmdLineMap.get("title"));
+            }
+            if (m_oCmdLineMap.containsKey("year"))
+            {
+                oID3V2_3_0Tag.setYear(((Integer)m_oCmdLineMap.get("year")).intValue());
+            }
+            if (m_oCmdLineMap.containsKey("track"))
+            {
+                if (m_oCmdLineMap.containsKey("total"))
                 {
-                    oID3V2_3_0Tag.setYear(((Integer)m_oCmdLineMap.get("year")).intValue());
+                    oID3V2_3_0Tag.setTrackNumber(((Integer)m_oCmdLineMap.get("track")).intValue(),
+                                                 ((Integer)m_oCmdLineMap.get("total")).intValue());
                 }
-                if (m_oCmdLineMap.containsKey("track"))
+                else
                 {
-                    if (m_oCmdLineMap.containsKey("total"))
-                    {
-                        oID3V2_3_0Tag.setTrackNumber(((Integer)m_oCmdLineMap.get("track")).intValue(),
-                                                     ((Integer)m_oCmdLineMap.get("total")).intValue());
-                    }
-                    else
-                    {
-                        oID3V2_3_0Tag.setTrackNumber(((Integer)m_oCmdLineMap.get("track")).intValue());
-                    }
+                    oID3V2_3_0Tag.setTrackNumber(((Integer)m_oCmdLineMap.get("track")).intValue());
                 }
             }
+        }
+        
+        oMP3File.sync();
+    }
+    
+    /** Keeps count of the files tagged in a batch, and prints how far along the batch is every few seconds.
+     */
+    private static class BatchProgress
+    {
+        private static final long REPORT_INTERVAL_MILLIS = 5000;
+        
+        private int m_iTotalFiles;
+        private int m_iDoneFiles = 0;
+        private int m_iFailedFiles = 0;
+        private long m_lStartMillis;
+        private long m_lLastReportMillis;
+        
+        public BatchProgress(int iTotalFiles)
+        {
+            m_iTotalFiles = iTotalFiles;
+            m_lStartMillis = System.currentTimeMillis();
+            m_lLastReportMillis = m_lStartMillis;
+        }
+        
+        public synchronized void fileDone(boolean bTagged)
+        {
+            m_iDoneFiles++;
+            if ( ! bTagged)
+            {
+                m_iFailedFiles++;
+            }
             
-            oMP3File.sync();
+            long lNowMillis = System.currentTimeMillis();
+            if (lNowMillis - m_lLastReportMillis >= REPORT_INTERVAL_MILLIS)
+            {
+                m_lLastReportMillis = lNowMillis;
+                System.out.println(m_iDoneFiles + "/" + m_iTotalFiles + " files done, " + m_iFailedFiles + " failed, " +
+                                   getFilesPerSecond(lNowMillis) + " files/s");
+            }
+        }
+        
+        public synchronized String getSummary()
+        {
+            long lNowMillis = System.currentTimeMillis();
+            return "Tagged " + (m_iDoneFiles - m_iFailedFiles) + " of " + m_iTotalFiles + " files (" + m_iFailedFiles +
+                   " failed) in " + ((lNowMillis - m_lStartMillis) / 1000.0) + " s, " + getFilesPerSecond(lNowMillis) +
+                   " files/s";
+        }
+        
+        private long getFilesPerSecond(long lNowMillis)
+        {
+            return (m_iDoneFiles * 1000L) / Math.max(1, lNowMillis - m_lStartMillis);
         }
     }
     
@@ -177,7 +355,10 @@ public class JID3Tagger
         if (args.length == 0)
         {
             System.out.println("JID3 library version " + ID3Util.getVersion() + "\n\n" + ID3Util.getLicense());            
-            String sHelp = "Usage: java -jar jid3.jar <options> filename [filename...]\n" +
+            String sHelp = "Usage: java -jar jid3.jar <options> filename|directory [filename|directory...]\n" +
+                           "\n" +
+                           " Directories are searched for .mp3 files.  When more than one file is tagged, the\n" +
+                           " files are tagged in parallel, and a file which fails does not stop the others.\n" +
                            "\n" +
                            " Options:\n\n" +
                            "  --display                 Display tags contained in specified file(s)\n" +
@@ -189,7 +370,9 @@ public class JID3Tagger
                            "  --genre=<genre>           Set genre value (specify as string)\n" +
                            "  --title=<title>           Set title value\n" +
                            "  --track=<track>[/<total>] Set track value (total tracks optional for v2.3.0)\n" +
-                           "  --year=<year>             Set year value";
+                           "  --year=<year>             Set year value\n" +
+                           "  --list=<file>             Also process the files named in <file>, one per line\n" +
+                           "  --threads=<threads>       Number of files tagged at once (default " + DEFAULT_THREAD_COUNT + ")";
             System.out.println("\n\n" + sHelp);
         }
         else
@@ -280,6 +463,25 @@ public class JID3Tagger
                     throw new ID3Exception("Invalid track value specified.");
                 }
             }
+            else if (args[i].startsWith("--list="))
+            {
+                oMap.put("list", args[i].replaceFirst("--list=", ""));
+            }
+            else if (args[i].startsWith("--threads="))
+            {
+                try
+                {
+                    oMap.put("threads", Integer.valueOf(args[i].replaceFirst("--threads=", "")));
+                }
+                catch (Exception e)
+                {
+                    throw new ID3Exception("Invalid thread count specified.");
+                }
+                if (((Integer)oMap.get("threads")).intValue() < 1)
+                {
+                    throw new ID3Exception("Invalid thread count specified.");
+                }
+            }
             else if (args[i].equals("--display"))
             {
                 oMap.put("display", Boolean.TRUE);
@@ -301,7 +503,7 @@ public class JID3Tagger
         }
         
         // add filenames
-        if (oFilenameList.size() == 0)
+        if ((oFilenameList.size() == 0) && ( ! oMap.containsKey("list")))
         {
             throw new ID3Exception("At least one filename must be specified.");
         }
@@ -70,6 +70,27 @@ public class FileSource implements IFileSource
         return new FileOutputStream(m_oFile);
     }
     
+    /** Open the file for reading at arbitrary positions, so that the tags at each end of the file
+     *  can be read without streaming through the audio in between.
+     *
+     * @return a read-only random access file, which the caller must close
+     * @throws FileNotFoundException if the file cannot be opened
+     */
+    public RandomAccessFile getRandomAccessFile()
+        throws FileNotFoundException
+    {
+        return new RandomAccessFile(m_oFile, "r");
+    }
+    
+    /** Get the file that this source refers to, so that it can be updated in place.
+     *
+     * @return the file
+     */
+    public File getFile()
+    {
+        return m_oFile;
+    }
+    
     public long length()
     {
         return m_oFile.length();
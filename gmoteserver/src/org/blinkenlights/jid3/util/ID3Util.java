@@ -129,7 +129,8 @@ public class ID3Util
     }
     
     /** Check if a byte array will require unsynchronization before being written as a tag.
-     * If the byte array contains any $FF bytes, then it will require unsynchronization.
+     * If the byte array contains any $FF bytes followed by a byte >=224 (a false sync), then it will
+     * require unsynchronization.
      *
      * @param abySource the byte array to be examined
      * @return true if unsynchronization is required, false otherwise
@@ -150,6 +151,8 @@ public class ID3Util
     /** Unsynchronize an array of bytes.
      * In order to prevent a media player from incorrectly interpreting the contents of a tag, all $FF bytes
      * followed by a byte with value >=224 must be followed by a $00 byte (thus, $FF $F0 sequences become $FF $00 $F0).
+     * $FF $00 sequences also become $FF $00 $00, so that they are not mistaken for an unsynchronized pair when
+     * de-unsynchronizing.
      *
      * NOTE:  Unsynchronization is not always necessary, if no false sync patterns exist in the data.  Only if the
      *        length of the returned byte array is greater than that of the source array, was an unsynchronization
@@ -174,19 +177,15 @@ public class ID3Util
                 // if byte is $FF, we must check the following byte if there is one
                 if (oBAIS.available() > 0)
                 {
-                    oBAIS.mark(1);  // remember where we were, if we don't need to unsynchronize
+                    oBAIS.mark(1);  // only peek, since the next byte may itself be an $FF which needs checking
                     int iNextVal = oBAIS.read();
-                    if (iNextVal >= 224)
+                    oBAIS.reset();
+                    if ((iNextVal >= 224) || (iNextVal == 0))
                     {
                         // we need to unsynchronize here
                         oBAOS.write(0);
-                        oBAOS.write(iNextVal);
                         bUnsynchronizationUsed = true;
                     }
-                    else
-                    {
-                        oBAIS.reset();
-                    }
                 }
             }
         }
@@ -222,8 +221,13 @@ public class ID3Util
             oBAOS.write(iVal);
             if (iVal == 0xff)
             {
-                // we are skipping (what should be) a $00 byte (otherwise, GIGO)
-                oBAIS.read();
+                // skip the $00 byte inserted after this one, if any (an $FF which was followed by a byte
+                // other than $00 or one >=224 was left alone by unsynchronization)
+                oBAIS.mark(1);
+                if (oBAIS.read() != 0)
+                {
+                    oBAIS.reset();
+                }
             }
         }
         
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.blinkenlights.jid3.util;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that unsynchronizing and then de-unsynchronizing tag data gives back the original bytes, for the byte
+ * sequences which unsynchronization has to escape.
+ */
+public class ID3UtilTest extends TestCase
+{
+    public void testFalseSyncIsEscaped()
+    {
+        assertRoundTrip(bytes(0xff, 0xe0), bytes(0xff, 0x00, 0xe0));
+        assertRoundTrip(bytes(0x01, 0xff, 0xfb, 0x02), bytes(0x01, 0xff, 0x00, 0xfb, 0x02));
+    }
+    
+    public void testFFZeroIsEscaped()
+    {
+        // otherwise the $00 would be taken for an inserted byte, and dropped
+        assertRoundTrip(bytes(0xff, 0x00), bytes(0xff, 0x00, 0x00));
+        assertRoundTrip(bytes(0xff, 0x00, 0xff, 0xe0), bytes(0xff, 0x00, 0x00, 0xff, 0x00, 0xe0));
+    }
+    
+    public void testConsecutiveFFs()
+    {
+        // the second $FF has to be checked too, even though it follows an $FF
+        assertRoundTrip(bytes(0xff, 0xff, 0xe0), bytes(0xff, 0x00, 0xff, 0x00, 0xe0));
+        assertRoundTrip(bytes(0xff, 0xff, 0x01), bytes(0xff, 0x00, 0xff, 0x01));
+    }
+    
+    public void testTrailingFF()
+    {
+        // a zero byte is appended when the data was unsynchronized and ends with an $FF
+        assertRoundTrip(bytes(0xff, 0xe0, 0x01, 0xff), bytes(0xff, 0x00, 0xe0, 0x01, 0xff, 0x00));
+        // but the data is left alone when it didn't need unsynchronization
+        assertRoundTrip(bytes(0x01, 0xff), bytes(0x01, 0xff));
+    }
+    
+    public void testFFNotNeedingUnsynchronizationIsKept()
+    {
+        assertRoundTrip(bytes(0xff, 0x01, 0xff, 0xdf), bytes(0xff, 0x01, 0xff, 0xdf));
+        assertFalse(ID3Util.requiresUnsynchronization(bytes(0xff, 0x01, 0xff, 0xdf)));
+        assertTrue(ID3Util.requiresUnsynchronization(bytes(0x01, 0xff, 0xe0)));
+    }
+    
+    public void testRandomDataRoundTrip()
+    {
+        Random oRandom = new Random(20);
+        for (int i=0; i < 100; i++)
+        {
+            byte[] abyData = new byte[oRandom.nextInt(4096)];
+            for (int j=0; j < abyData.length; j++)
+            {
+                // plenty of $FF bytes, and of the bytes that follow them in false syncs
+                switch (oRandom.nextInt(4))
+                {
+                    case 0: abyData[j] = (byte)0xff; break;
+                    case 1: abyData[j] = 0; break;
+                    case 2: abyData[j] = (byte)(0xe0 + oRandom.nextInt(32)); break;
+                    default: abyData[j] = (byte)oRandom.nextInt(256); break;
+                }
+            }
+            byte[] abyUnsynchronized = ID3Util.unsynchronize(abyData);
+            
+            assertFalse(ID3Util.requiresUnsynchronization(abyUnsynchronized));
+            assertTrue(Arrays.equals(abyData, ID3Util.deunsynchronize(abyUnsynchronized)));
+        }
+    }
+    
+    private static void assertRoundTrip(byte[] abyData, byte[] abyExpectedUnsynchronized)
+    {
+        byte[] abyUnsynchronized = ID3Util.unsynchronize(abyData);
+        
+        assertEquals(ID3Util.convertBytesToHexString(abyExpectedUnsynchronized, true),
+                     ID3Util.convertBytesToHexString(abyUnsynchronized, true));
+        assertEquals(ID3Util.convertBytesToHexString(abyData, true),
+                     ID3Util.convertBytesToHexString(ID3Util.deunsynchronize(abyUnsynchronized), true));
+    }
+    
+    private static byte[] bytes(int... aiValues)
+    {
+        byte[] abyBytes = new byte[aiValues.length];
+        for (int i=0; i < aiValues.length; i++)
+        {
+            abyBytes[i] = (byte)aiValues[i];
+        }
+        
+        return abyBytes;
+    }
+}
@@ -23,7 +23,6 @@
 package org.blinkenlights.jid3.v2;
 
 import java.io.*;
-import java.lang.reflect.*;
 import java.util.*;
 import java.util.zip.*;
 
@@ -364,104 +363,25 @@ abstract public class ID3V2Frame implements ID3Subject, ID3Visitable
             
             // create a frame object here based on what we've read
             ID3V2Frame oID3V2Frame;
-            if (sFrameId.startsWith("T"))
+            FrameType oFrameType = FrameType.lookup(abyFrameId);
+            if (oFrameType != null)
             {
-                // text information frame
-                String sClassName = "org.blinkenlights.jid3.v2." + sFrameId + "TextInformationID3V2Frame";
-                
-                // if this class exists, then create such an object
-                try
-                {
-                    Class oID3V2FrameClass = Class.forName(sClassName);
-                    Class[] aoArgClassTypes = { InputStream.class };
-                    Constructor oConstructor = oID3V2FrameClass.getConstructor(aoArgClassTypes);
-                    Object[] aoConstructorArgs = { new ByteArrayInputStream(abyFrameData) };
-                    oID3V2Frame = (ID3V2Frame)oConstructor.newInstance(aoConstructorArgs);
-                }
-                catch (ClassNotFoundException e)
-                {
-                    // unknown frame type
-                    oID3V2Frame = new UnknownTextInformationID3V2Frame(sFrameId, new ByteArrayInputStream(abyFrameData));
-                }
-                catch (NoSuchMethodException e)
-                {
-                    // unknown frame type
-                    oID3V2Frame = new UnknownTextInformationID3V2Frame(sFrameId, new ByteArrayInputStream(abyFrameData));
-                }
-                catch (InvocationTargetException e)
-                {
-                    // constructor threw an exception
-                    if (e.getCause() instanceof Exception)
-                    {
-                        throw (Exception)e.getCause();
-                    }
-                    else
-                    {
-                        throw e;
-                    }
-                }
+                oID3V2Frame = oFrameType.read(new ByteArrayInputStream(abyFrameData));
+            }
+            else if (sFrameId.startsWith("T"))
+            {
+                // unknown text information frame
+                oID3V2Frame = new UnknownTextInformationID3V2Frame(sFrameId, new ByteArrayInputStream(abyFrameData));
             }
             else if (sFrameId.startsWith("W"))
             {
-                // URL link frame
-                String sClassName = "org.blinkenlights.jid3.v2." + sFrameId + "UrlLinkID3V2Frame";
-                
-                // if this class exists, then create such an object
-                try
-                {
-                    Class oID3V2FrameClass = Class.forName(sClassName);
-                    Class[] aoArgClassTypes = { InputStream.class };
-                    Constructor oConstructor = oID3V2FrameClass.getConstructor(aoArgClassTypes);
-                    Object[] aoConstructorArgs = { new ByteArrayInputStream(abyFrameData) };
-                    oID3V2Frame = (ID3V2Frame)oConstructor.newInstance(aoConstructorArgs);
-                }
-                catch (ClassNotFoundException e)
-                {
-                    // unknown frame type
-                    oID3V2Frame = new UnknownUrlLinkID3V2Frame(sFrameId, new ByteArrayInputStream(abyFrameData));
-                }
-                catch (NoSuchMethodException e)
-                {
-                    // unknown frame type
-                    oID3V2Frame = new UnknownUrlLinkID3V2Frame(sFrameId, new ByteArrayInputStream(abyFrameData));
-                }
-                catch (InvocationTargetException e)
-                {
-                    // constructor threw an exception
-                    if (e.getCause() instanceof Exception)
-                    {
-                        throw (Exception)e.getCause();
-                    }
-                    else
-                    {
-                        throw e;
-                    }
-                }
+                // unknown URL link frame
+                oID3V2Frame = new UnknownUrlLinkID3V2Frame(sFrameId, new ByteArrayInputStream(abyFrameData));
             }
             else
             {
-                // unique frame
-                String sClassName = "org.blinkenlights.jid3.v2." + sFrameId + "ID3V2Frame";
-                
-                // if this class exists, then create such an object
-                try
-                {
-                    Class oID3V2FrameClass = Class.forName(sClassName);
-                    Class[] aoArgClassTypes = { InputStream.class };
-                    Constructor oConstructor = oID3V2FrameClass.getConstructor(aoArgClassTypes);
-                    Object[] aoConstructorArgs = { new ByteArrayInputStream(abyFrameData) };
-                    oID3V2Frame = (ID3V2Frame)oConstructor.newInstance(aoConstructorArgs);
-                }
-                catch (ClassNotFoundException e)
-                {
-                    // unknown frame
-                    oID3V2Frame = new UnknownID3V2Frame(sFrameId, abyFrameData);
-                }
-                catch (NoSuchMethodException e)
-                {
-                    // unknown frame type
-                    oID3V2Frame = new UnknownID3V2Frame(sFrameId, abyFrameData);
-                }
+                // unknown frame
+                oID3V2Frame = new UnknownID3V2Frame(sFrameId, abyFrameData);
             }
 
             // set flags applicable to all v2 frames
@@ -494,6 +414,391 @@ abstract public class ID3V2Frame implements ID3Subject, ID3Visitable
         }
     }
 
+    /** A frame type defined in the v2.3.0 spec, which knows how to read frames of that type and store them in a tag.
+     *  Frame types are looked up by frame id, so that reading a tag doesn't require any reflection.
+     */
+    static abstract class FrameType
+    {
+        /** Frame ids as big-endian ints, sorted, along with the type for each one. */
+        private static int[] s_aiFrameIds = new int[0];
+        private static FrameType[] s_aoFrameTypes = new FrameType[0];
+        
+        private Class m_oFrameClass;
+        
+        FrameType(Class oFrameClass)
+        {
+            m_oFrameClass = oFrameClass;
+        }
+        
+        /** Read a frame of this type from its data, following the frame header. */
+        abstract ID3V2Frame read(InputStream oIS) throws ID3Exception;
+        
+        /** Store a frame of this type in a tag. */
+        abstract void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception;
+        
+        /** Check whether a frame can be stored by this type.  Frames created for an unknown id can't be. */
+        boolean accepts(ID3V2Frame oFrame)
+        {
+            return m_oFrameClass.isInstance(oFrame);
+        }
+        
+        /** Get the class of the frames of this type. */
+        Class getFrameClass()
+        {
+            return m_oFrameClass;
+        }
+        
+        /** Get the ids of all of the frame types, in the order they are looked up in.
+         *
+         * @return the four character frame ids
+         */
+        static String[] getFrameIds()
+        {
+            String[] asFrameIds = new String[s_aiFrameIds.length];
+            for (int i=0; i < s_aiFrameIds.length; i++)
+            {
+                int iFrameId = s_aiFrameIds[i];
+                asFrameIds[i] = new String(new byte[] { (byte)(iFrameId >> 24), (byte)(iFrameId >> 16),
+                                                        (byte)(iFrameId >> 8), (byte)iFrameId });
+            }
+            
+            return asFrameIds;
+        }
+        
+        /** Look up the type of a frame.
+         *
+         * @param abyFrameId the four byte frame id
+         * @return the type of the frame, or null if it isn't defined in the v2.3.0 spec
+         */
+        static FrameType lookup(byte[] abyFrameId)
+        {
+            int iFrameId = ((abyFrameId[0] & 0xff) << 24) | ((abyFrameId[1] & 0xff) << 16) |
+                           ((abyFrameId[2] & 0xff) << 8) | (abyFrameId[3] & 0xff);
+            int iIndex = Arrays.binarySearch(s_aiFrameIds, iFrameId);
+            
+            return (iIndex >= 0) ? s_aoFrameTypes[iIndex] : null;
+        }
+        
+        private static void register(String sFrameId, FrameType oFrameType)
+        {
+            byte[] abyFrameId = sFrameId.getBytes();
+            int iFrameId = ((abyFrameId[0] & 0xff) << 24) | ((abyFrameId[1] & 0xff) << 16) |
+                           ((abyFrameId[2] & 0xff) << 8) | (abyFrameId[3] & 0xff);
+            int iIndex = -(Arrays.binarySearch(s_aiFrameIds, iFrameId) + 1);
+            
+            int[] aiFrameIds = new int[s_aiFrameIds.length + 1];
+            FrameType[] aoFrameTypes = new FrameType[s_aoFrameTypes.length + 1];
+            System.arraycopy(s_aiFrameIds, 0, aiFrameIds, 0, iIndex);
+            System.arraycopy(s_aoFrameTypes, 0, aoFrameTypes, 0, iIndex);
+            aiFrameIds[iIndex] = iFrameId;
+            aoFrameTypes[iIndex] = oFrameType;
+            System.arraycopy(s_aiFrameIds, iIndex, aiFrameIds, iIndex + 1, s_aiFrameIds.length - iIndex);
+            System.arraycopy(s_aoFrameTypes, iIndex, aoFrameTypes, iIndex + 1, s_aoFrameTypes.length - iIndex);
+            s_aiFrameIds = aiFrameIds;
+            s_aoFrameTypes = aoFrameTypes;
+        }
+        
+        static
+        {
+        register("AENC", new FrameType(AENCID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new AENCID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addAENCFrame((AENCID3V2Frame)oFrame); }
+        });
+        register("APIC", new FrameType(APICID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new APICID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addAPICFrame((APICID3V2Frame)oFrame); }
+        });
+        register("COMM", new FrameType(COMMID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new COMMID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addCOMMFrame((COMMID3V2Frame)oFrame); }
+        });
+        register("COMR", new FrameType(COMRID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new COMRID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setCOMRFrame((COMRID3V2Frame)oFrame); }
+        });
+        register("ENCR", new FrameType(ENCRID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new ENCRID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addENCRFrame((ENCRID3V2Frame)oFrame); }
+        });
+        register("EQUA", new FrameType(EQUAID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new EQUAID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setEQUAFrame((EQUAID3V2Frame)oFrame); }
+        });
+        register("ETCO", new FrameType(ETCOID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new ETCOID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setETCOFrame((ETCOID3V2Frame)oFrame); }
+        });
+        register("GEOB", new FrameType(GEOBID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new GEOBID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addGEOBFrame((GEOBID3V2Frame)oFrame); }
+        });
+        register("GRID", new FrameType(GRIDID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new GRIDID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addGRIDFrame((GRIDID3V2Frame)oFrame); }
+        });
+        register("IPLS", new FrameType(IPLSID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new IPLSID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setIPLSFrame((IPLSID3V2Frame)oFrame); }
+        });
+        register("LINK", new FrameType(LINKID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new LINKID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addLINKFrame((LINKID3V2Frame)oFrame); }
+        });
+        register("MCDI", new FrameType(MCDIID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new MCDIID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setMCDIFrame((MCDIID3V2Frame)oFrame); }
+        });
+        register("MLLT", new FrameType(MLLTID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new MLLTID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setMLLTFrame((MLLTID3V2Frame)oFrame); }
+        });
+        register("OWNE", new FrameType(OWNEID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new OWNEID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setOWNEFrame((OWNEID3V2Frame)oFrame); }
+        });
+        register("PCNT", new FrameType(PCNTID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new PCNTID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setPCNTFrame((PCNTID3V2Frame)oFrame); }
+        });
+        register("POPM", new FrameType(POPMID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new POPMID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addPOPMFrame((POPMID3V2Frame)oFrame); }
+        });
+        register("POSS", new FrameType(POSSID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new POSSID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setPOSSFrame((POSSID3V2Frame)oFrame); }
+        });
+        register("PRIV", new FrameType(PRIVID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new PRIVID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addPRIVFrame((PRIVID3V2Frame)oFrame); }
+        });
+        register("RBUF", new FrameType(RBUFID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new RBUFID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setRBUFFrame((RBUFID3V2Frame)oFrame); }
+        });
+        register("RVAD", new FrameType(RVADID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new RVADID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setRVADFrame((RVADID3V2Frame)oFrame); }
+        });
+        register("RVRB", new FrameType(RVRBID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new RVRBID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setRVRBFrame((RVRBID3V2Frame)oFrame); }
+        });
+        register("SYLT", new FrameType(SYLTID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new SYLTID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addSYLTFrame((SYLTID3V2Frame)oFrame); }
+        });
+        register("SYTC", new FrameType(SYTCID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new SYTCID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setSYTCFrame((SYTCID3V2Frame)oFrame); }
+        });
+        register("TALB", new FrameType(TALBTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TALBTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTALBTextInformationFrame((TALBTextInformationID3V2Frame)oFrame); }
+        });
+        register("TBPM", new FrameType(TBPMTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TBPMTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTBPMTextInformationFrame((TBPMTextInformationID3V2Frame)oFrame); }
+        });
+        register("TCOM", new FrameType(TCOMTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TCOMTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTCOMTextInformationFrame((TCOMTextInformationID3V2Frame)oFrame); }
+        });
+        register("TCON", new FrameType(TCONTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TCONTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTCONTextInformationFrame((TCONTextInformationID3V2Frame)oFrame); }
+        });
+        register("TCOP", new FrameType(TCOPTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TCOPTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTCOPTextInformationFrame((TCOPTextInformationID3V2Frame)oFrame); }
+        });
+        register("TDAT", new FrameType(TDATTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TDATTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTDATTextInformationFrame((TDATTextInformationID3V2Frame)oFrame); }
+        });
+        register("TDLY", new FrameType(TDLYTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TDLYTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTDLYTextInformationFrame((TDLYTextInformationID3V2Frame)oFrame); }
+        });
+        register("TENC", new FrameType(TENCTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TENCTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTENCTextInformationFrame((TENCTextInformationID3V2Frame)oFrame); }
+        });
+        register("TEXT", new FrameType(TEXTTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TEXTTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTEXTTextInformationFrame((TEXTTextInformationID3V2Frame)oFrame); }
+        });
+        register("TFLT", new FrameType(TFLTTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TFLTTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTFLTTextInformationFrame((TFLTTextInformationID3V2Frame)oFrame); }
+        });
+        register("TIME", new FrameType(TIMETextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TIMETextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTIMETextInformationFrame((TIMETextInformationID3V2Frame)oFrame); }
+        });
+        register("TIT1", new FrameType(TIT1TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TIT1TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTIT1TextInformationFrame((TIT1TextInformationID3V2Frame)oFrame); }
+        });
+        register("TIT2", new FrameType(TIT2TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TIT2TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTIT2TextInformationFrame((TIT2TextInformationID3V2Frame)oFrame); }
+        });
+        register("TIT3", new FrameType(TIT3TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TIT3TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTIT3TextInformationFrame((TIT3TextInformationID3V2Frame)oFrame); }
+        });
+        register("TKEY", new FrameType(TKEYTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TKEYTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTKEYTextInformationFrame((TKEYTextInformationID3V2Frame)oFrame); }
+        });
+        register("TLAN", new FrameType(TLANTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TLANTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTLANTextInformationFrame((TLANTextInformationID3V2Frame)oFrame); }
+        });
+        register("TLEN", new FrameType(TLENTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TLENTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTLENTextInformationFrame((TLENTextInformationID3V2Frame)oFrame); }
+        });
+        register("TMED", new FrameType(TMEDTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TMEDTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTMEDTextInformationFrame((TMEDTextInformationID3V2Frame)oFrame); }
+        });
+        register("TOAL", new FrameType(TOALTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TOALTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTOALTextInformationFrame((TOALTextInformationID3V2Frame)oFrame); }
+        });
+        register("TOFN", new FrameType(TOFNTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TOFNTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTOFNTextInformationFrame((TOFNTextInformationID3V2Frame)oFrame); }
+        });
+        register("TOLY", new FrameType(TOLYTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TOLYTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTOLYTextInformationFrame((TOLYTextInformationID3V2Frame)oFrame); }
+        });
+        register("TOPE", new FrameType(TOPETextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TOPETextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTOPETextInformationFrame((TOPETextInformationID3V2Frame)oFrame); }
+        });
+        register("TORY", new FrameType(TORYTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TORYTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTORYTextInformationFrame((TORYTextInformationID3V2Frame)oFrame); }
+        });
+        register("TOWN", new FrameType(TOWNTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TOWNTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTOWNTextInformationFrame((TOWNTextInformationID3V2Frame)oFrame); }
+        });
+        register("TPE1", new FrameType(TPE1TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TPE1TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTPE1TextInformationFrame((TPE1TextInformationID3V2Frame)oFrame); }
+        });
+        register("TPE2", new FrameType(TPE2TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TPE2TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTPE2TextInformationFrame((TPE2TextInformationID3V2Frame)oFrame); }
+        });
+        register("TPE3", new FrameType(TPE3TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TPE3TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTPE3TextInformationFrame((TPE3TextInformationID3V2Frame)oFrame); }
+        });
+        register("TPE4", new FrameType(TPE4TextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TPE4TextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTPE4TextInformationFrame((TPE4TextInformationID3V2Frame)oFrame); }
+        });
+        register("TPOS", new FrameType(TPOSTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TPOSTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTPOSTextInformationFrame((TPOSTextInformationID3V2Frame)oFrame); }
+        });
+        register("TPUB", new FrameType(TPUBTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TPUBTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTPUBTextInformationFrame((TPUBTextInformationID3V2Frame)oFrame); }
+        });
+        register("TRCK", new FrameType(TRCKTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TRCKTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTRCKTextInformationFrame((TRCKTextInformationID3V2Frame)oFrame); }
+        });
+        register("TRDA", new FrameType(TRDATextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TRDATextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTRDATextInformationFrame((TRDATextInformationID3V2Frame)oFrame); }
+        });
+        register("TRSN", new FrameType(TRSNTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TRSNTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTRSNTextInformationFrame((TRSNTextInformationID3V2Frame)oFrame); }
+        });
+        register("TRSO", new FrameType(TRSOTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TRSOTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTRSOTextInformationFrame((TRSOTextInformationID3V2Frame)oFrame); }
+        });
+        register("TSIZ", new FrameType(TSIZTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TSIZTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTSIZTextInformationFrame((TSIZTextInformationID3V2Frame)oFrame); }
+        });
+        register("TSRC", new FrameType(TSRCTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TSRCTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTSRCTextInformationFrame((TSRCTextInformationID3V2Frame)oFrame); }
+        });
+        register("TSSE", new FrameType(TSSETextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TSSETextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTSSETextInformationFrame((TSSETextInformationID3V2Frame)oFrame); }
+        });
+        register("TXXX", new FrameType(TXXXTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TXXXTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addTXXXTextInformationFrame((TXXXTextInformationID3V2Frame)oFrame); }
+        });
+        register("TYER", new FrameType(TYERTextInformationID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new TYERTextInformationID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setTYERTextInformationFrame((TYERTextInformationID3V2Frame)oFrame); }
+        });
+        register("UFID", new FrameType(UFIDID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new UFIDID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addUFIDFrame((UFIDID3V2Frame)oFrame); }
+        });
+        register("USER", new FrameType(USERID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new USERID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setUSERFrame((USERID3V2Frame)oFrame); }
+        });
+        register("USLT", new FrameType(USLTID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new USLTID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addUSLTFrame((USLTID3V2Frame)oFrame); }
+        });
+        register("WCOM", new FrameType(WCOMUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WCOMUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addWCOMUrlLinkFrame((WCOMUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WCOP", new FrameType(WCOPUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WCOPUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setWCOPUrlLinkFrame((WCOPUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WOAF", new FrameType(WOAFUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WOAFUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setWOAFUrlLinkFrame((WOAFUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WOAR", new FrameType(WOARUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WOARUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addWOARUrlLinkFrame((WOARUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WOAS", new FrameType(WOASUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WOASUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setWOASUrlLinkFrame((WOASUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WORS", new FrameType(WORSUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WORSUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setWORSUrlLinkFrame((WORSUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WPAY", new FrameType(WPAYUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WPAYUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setWPAYUrlLinkFrame((WPAYUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WPUB", new FrameType(WPUBUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WPUBUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.setWPUBUrlLinkFrame((WPUBUrlLinkID3V2Frame)oFrame); }
+        });
+        register("WXXX", new FrameType(WXXXUrlLinkID3V2Frame.class) {
+            ID3V2Frame read(InputStream oIS) throws ID3Exception { return new WXXXUrlLinkID3V2Frame(oIS); }
+            void store(ID3V2Frame oFrame, ID3V2_3_0Tag oTag) throws ID3Exception { oTag.addWXXXUrlLinkFrame((WXXXUrlLinkID3V2Frame)oFrame); }
+        });
+        }
+    }
+
     /** Write the header of this frame to an output stream.
      *
      * @param oOS the output stream to write to
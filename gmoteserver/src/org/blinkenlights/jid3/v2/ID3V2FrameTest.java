@@ -0,0 +1,195 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.blinkenlights.jid3.v2;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.regex.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the table of frame types against the reflective lookup that ID3V2Frame.read() and
+ * ID3V2_3_0Tag.storeID3V2Frame() used before it, which found the class of a frame from its id, and the method to
+ * store it from the class.
+ */
+public class ID3V2FrameTest extends TestCase
+{
+    private static final Pattern FRAME_CLASS_PATTERN = Pattern.compile("([A-Z0-9]{4})(TextInformation|UrlLink)?ID3V2Frame\\.class");
+    
+    /** Frame data to read every frame type from.  Most frame types can read at least one of these. */
+    private static final byte[][] FRAME_DATA = {
+        new byte[0],
+        { 0, 'a', 'b', 'c' },
+        { 0, 'a', 0, 'b', 'c' },
+        { 0, 'e', 'n', 'g', 'a', 0, 'b', 'c' },
+        { 'h', 't', 't', 'p', ':', '/', '/', 'x', '.', 'c', 'o', 'm' },
+        { 'a', 0, 1, 2, 3, 4, 5, 6, 7, 8 },
+    };
+    
+    public void testTableMatchesReflectiveLookup()
+        throws Exception
+    {
+        Set oFrameIds = findFrameClassIds();
+        oFrameIds.addAll(Arrays.asList(ID3V2Frame.FrameType.getFrameIds()));
+        // ids that neither lookup knows about
+        oFrameIds.add("TZZZ");
+        oFrameIds.add("WZZZ");
+        oFrameIds.add("ZZZZ");
+        
+        int iFrameTypeCount = 0;
+        Iterator oIter = oFrameIds.iterator();
+        while (oIter.hasNext())
+        {
+            String sFrameId = (String)oIter.next();
+            Class oReflectiveClass = findReflectiveFrameClass(sFrameId);
+            ID3V2Frame.FrameType oFrameType = ID3V2Frame.FrameType.lookup(sFrameId.getBytes());
+            
+            if (oReflectiveClass == null)
+            {
+                assertNull(sFrameId, oFrameType);
+                continue;
+            }
+            assertNotNull(sFrameId, oFrameType);
+            assertEquals(sFrameId, oReflectiveClass, oFrameType.getFrameClass());
+            assertNotNull(sFrameId, findReflectiveStoreMethod(sFrameId, oReflectiveClass));
+            iFrameTypeCount++;
+        }
+        assertEquals(ID3V2Frame.FrameType.getFrameIds().length, iFrameTypeCount);
+    }
+    
+    public void testTableReadsSameFramesAsReflection()
+        throws Exception
+    {
+        String[] asFrameIds = ID3V2Frame.FrameType.getFrameIds();
+        for (int i=0; i < asFrameIds.length; i++)
+        {
+            Constructor oConstructor = findReflectiveFrameClass(asFrameIds[i]).getConstructor(new Class[] { InputStream.class });
+            ID3V2Frame.FrameType oFrameType = ID3V2Frame.FrameType.lookup(asFrameIds[i].getBytes());
+            
+            for (int j=0; j < FRAME_DATA.length; j++)
+            {
+                String sMessage = asFrameIds[i] + " from data " + j;
+                Object oExpected;
+                try
+                {
+                    oExpected = oConstructor.newInstance(new Object[] { new ByteArrayInputStream(FRAME_DATA[j]) });
+                }
+                catch (InvocationTargetException e)
+                {
+                    oExpected = e.getCause().getClass();
+                }
+                Object oActual;
+                try
+                {
+                    oActual = oFrameType.read(new ByteArrayInputStream(FRAME_DATA[j]));
+                }
+                catch (Exception e)
+                {
+                    oActual = e.getClass();
+                }
+                
+                if (oExpected instanceof Class)
+                {
+                    assertEquals(sMessage, oExpected, oActual);
+                }
+                else
+                {
+                    assertEquals(sMessage, oExpected.getClass(), oActual.getClass());
+                    assertEquals(sMessage, oExpected.toString(), oActual.toString());
+                }
+            }
+        }
+    }
+    
+    /** Find the ids of all frame classes in this package, the way Class.forName() would find them by name. */
+    private static Set findFrameClassIds()
+        throws Exception
+    {
+        File oPackageDirectory = new File(ID3V2Frame.class.getResource("ID3V2Frame.class").toURI()).getParentFile();
+        String[] asFileNames = oPackageDirectory.list();
+        
+        Set oFrameIds = new TreeSet();
+        for (int i=0; i < asFileNames.length; i++)
+        {
+            Matcher oMatcher = FRAME_CLASS_PATTERN.matcher(asFileNames[i]);
+            if (oMatcher.matches())
+            {
+                oFrameIds.add(oMatcher.group(1));
+            }
+        }
+        assertFalse(oFrameIds.isEmpty());
+        
+        return oFrameIds;
+    }
+    
+    /** The class that ID3V2Frame.read() used to instantiate for a frame id, or null if it made an unknown frame. */
+    private static Class findReflectiveFrameClass(String sFrameId)
+    {
+        String sClassName;
+        if (sFrameId.startsWith("T"))
+        {
+            sClassName = "org.blinkenlights.jid3.v2." + sFrameId + "TextInformationID3V2Frame";
+        }
+        else if (sFrameId.startsWith("W"))
+        {
+            sClassName = "org.blinkenlights.jid3.v2." + sFrameId + "UrlLinkID3V2Frame";
+        }
+        else
+        {
+            sClassName = "org.blinkenlights.jid3.v2." + sFrameId + "ID3V2Frame";
+        }
+        
+        try
+        {
+            Class oFrameClass = Class.forName(sClassName);
+            oFrameClass.getConstructor(new Class[] { InputStream.class });
+            
+            return oFrameClass;
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+    
+    /** The method that ID3V2_3_0Tag.storeID3V2Frame() used to call to store a frame, or null if there was none. */
+    private static Method findReflectiveStoreMethod(String sFrameId, Class oFrameClass)
+    {
+        String[] asMethodPrefix = { "add", "set" };
+        String[] asMethodSuffix = { "Frame", "TextInformationFrame", "UrlLinkFrame" };
+        for (int i=0; i < asMethodSuffix.length; i++)
+        {
+            for (int j=0; j < asMethodPrefix.length; j++)
+            {
+                try
+                {
+                    return ID3V2_3_0Tag.class.getMethod(asMethodPrefix[j] + sFrameId + asMethodSuffix[i],
+                                                        new Class[] { oFrameClass });
+                }
+                catch (NoSuchMethodException e) {}
+            }
+        }
+        
+        return null;
+    }
+}
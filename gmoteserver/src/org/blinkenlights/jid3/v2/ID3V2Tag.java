@@ -123,7 +123,7 @@ abstract public class ID3V2Tag extends ID3Tag
         return sbText.toString();
     }
 
-    /** Read a tag from an input stream.
+    /** Read a tag from an input stream, decoding all of its frames.
      *
      * @param oIS the input stream from which to read a tag
      * @return the tag read
@@ -131,6 +131,24 @@ abstract public class ID3V2Tag extends ID3Tag
      */
     public static ID3V2Tag read(InputStream oIS)
         throws ID3Exception
+    {
+        return read(oIS, false);
+    }
+    
+    /** Read a tag from an input stream.  When reading a tag with lazy frame decoding, only the frame headers are
+     *  read, and each frame is decoded the first time a method of the tag needs it.  For example, getTitle() only
+     *  decodes the TIT2 frame, so a large attached picture or lyrics frame costs nothing unless it is asked for.
+     *  Lazy decoding is not used in strict mode, where invalid frames must be reported while reading.  A frame
+     *  which turns out to be invalid when it is decoded is left out of the tag, as it is when reading without
+     *  strict mode, and any other error decoding it is logged.
+     *
+     * @param oIS the input stream from which to read a tag
+     * @param bLazyFrameDecoding whether frames should only be decoded when they are first accessed
+     * @return the tag read
+     * @throws ID3Exception if an error occurs while reading the tag
+     */
+    public static ID3V2Tag read(InputStream oIS, boolean bLazyFrameDecoding)
+        throws ID3Exception
     {
         try
         {
@@ -143,7 +161,7 @@ abstract public class ID3V2Tag extends ID3Tag
             if (iMinorVersion == 3)
             {
                 // there is a tag, we must read it
-                ID3V2Tag oID3V2Tag = ID3V2_3_0Tag.internalRead(oID3DIS);
+                ID3V2Tag oID3V2Tag = ID3V2_3_0Tag.internalRead(oID3DIS, bLazyFrameDecoding);
                 
                 return oID3V2Tag;
             }
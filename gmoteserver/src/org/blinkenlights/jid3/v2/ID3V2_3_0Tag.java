@@ -25,8 +25,9 @@
 package org.blinkenlights.jid3.v2;
 
 import java.io.*;
-import java.lang.reflect.*;
+import java.nio.*;
 import java.util.*;
+import java.util.logging.*;
 import java.util.zip.*;
 import java.security.*;
 
@@ -42,6 +43,8 @@ import org.blinkenlights.jid3.util.*;
  */
 public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
 {
+    private static final Logger s_oLogger = Logger.getLogger(ID3V2_3_0Tag.class.getName());
+    
     /** Containers for frames for which there can be more than one in a tag. */
     protected SortedMap m_oAENCOwnerIdentifierToFrameMap = null;
     protected SortedMap m_oAPICDescriptionToFrameMap = null;
@@ -63,6 +66,11 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
     protected List m_oEncryptedFrameList = null;
     protected List m_oUnknownFrameList = null;
     
+    /** Frames which were read in lazy mode, but have not been decoded yet, and the tag data they are found in. */
+    private List m_oPendingFrameList = null;
+    private byte[] m_abyPendingFrameData = null;
+    private boolean m_bDecodingPendingFrames = false;
+    
     public ID3V2_3_0Tag()
     {
         super(false, false, false);
@@ -131,10 +139,11 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
     /** Internal method to read a tag from an input stream.
      *
      * @param oID3DIS the input stream to read a tag from
+     * @param bLazyFrameDecoding whether frames should only be decoded when they are first accessed
      * @return an ID3V2_3_0Tag object read from the input stream
      * @throws ID3Exception if an error occurs while reading the tag
      */
-    static ID3V2Tag internalRead(ID3DataInputStream oID3DIS)
+    static ID3V2Tag internalRead(ID3DataInputStream oID3DIS, boolean bLazyFrameDecoding)
         throws ID3Exception
     {
         ArrayList oEncryptedFrameList = new ArrayList();
@@ -223,53 +232,61 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
             }
             
             // read individual frames and store them
-            ByteArrayInputStream oFrameBAIS = new ByteArrayInputStream(abyFrameData);
-            ID3DataInputStream oFrameID3DIS = new ID3DataInputStream(oFrameBAIS);
             int iPaddingLength = 0;
-            while (oFrameID3DIS.available() > 4)
+            if (bLazyFrameDecoding && ( ! ID3Tag.usingStrict()))
             {
-                try
+                // only note where each frame is, they will be decoded when needed
+                iPaddingLength = oID3V2_3_0Tag.scanPendingFrames(abyFrameData, oEncryptedFrameList);
+            }
+            else
+            {
+                ByteArrayInputStream oFrameBAIS = new ByteArrayInputStream(abyFrameData);
+                ID3DataInputStream oFrameID3DIS = new ID3DataInputStream(oFrameBAIS);
+                while (oFrameID3DIS.available() > 4)
                 {
-                    ID3V2Frame oID3V2Frame = ID3V2Frame.read(oFrameID3DIS);
-                    if (oID3V2Frame != null)
+                    try
                     {
-                        if (oID3V2Frame instanceof EncryptedID3V2Frame)
+                        ID3V2Frame oID3V2Frame = ID3V2Frame.read(oFrameID3DIS);
+                        if (oID3V2Frame != null)
                         {
-                            // store this encrypted frame for later (we have to do two passes.. because the encryption
-                            // details may come after the encrypted frame, in the tag)
-                            oEncryptedFrameList.add(oID3V2Frame);
+                            if (oID3V2Frame instanceof EncryptedID3V2Frame)
+                            {
+                                // store this encrypted frame for later (we have to do two passes.. because the encryption
+                                // details may come after the encrypted frame, in the tag)
+                                oEncryptedFrameList.add(oID3V2Frame);
+                            }
+                            else
+                            {
+                                storeID3V2Frame(oID3V2Frame, oID3V2_3_0Tag);
+                            }
                         }
                         else
                         {
-                            storeID3V2Frame(oID3V2Frame, oID3V2_3_0Tag);
+                            // we tried to read a tag and saw there wasn't one there, which means we read one byte of padding
+                            iPaddingLength += 4;
+
+                            break;
                         }
                     }
-                    else
+                    catch (ID3Exception ie)
                     {
-                        // we tried to read a tag and saw there wasn't one there, which means we read one byte of padding
-                        iPaddingLength += 4;
-
-                        break;
-                    }
-                }
-                catch (ID3Exception ie)
-                {
-                    // if we are using strict reading, then this exception gets rethrown, otherwise it is ignored
-                    if (ie instanceof InvalidFrameID3Exception)
-                    {
-                        if (ID3Tag.usingStrict())
+                        // if we are using strict reading, then this exception gets rethrown, otherwise it is ignored
+                        if (ie instanceof InvalidFrameID3Exception)
+                        {
+                            if (ID3Tag.usingStrict())
+                            {
+                                throw ie;
+                            }
+                        }
+                        else
                         {
                             throw ie;
                         }
                     }
-                    else
-                    {
-                        throw ie;
-                    }
                 }
+                // all remaining bytes are padding (could be zero)
+                iPaddingLength += oFrameID3DIS.available();
             }
-            // all remaining bytes are padding (could be zero)
-            iPaddingLength += oFrameID3DIS.available();
             
             // set padding length
             oID3V2_3_0Tag.m_iPaddingLength = iPaddingLength;
@@ -314,41 +331,257 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
         }
     }
     
-    /** Store a frame in this tag, using reflection to search for an appropriate mathod.
+    /** Scan the frame headers of a tag being read in lazy mode, noting the position of each frame so that it can be
+     *  decoded later.  Encrypted frames are still decoded right away, as they would be when not in lazy mode.
      *
-     * @param oID3V2Frame the frame to be stored
-     * @param oID3V2_3_0Tag the tag object to store the frame in
-     * @throws Exception if there was an exception in the frame constructor, it is thrown from this method
+     * @param abyFrameData the frames of the tag, after de-unsynchronization
+     * @param oEncryptedFrameList the list to which encrypted frames are added
+     * @return the length of the padding following the frames
+     * @throws Exception if a frame header is invalid
      */
-    private static void storeID3V2Frame(ID3V2Frame oID3V2Frame, ID3V2_3_0Tag oID3V2_3_0Tag)
+    private int scanPendingFrames(byte[] abyFrameData, List oEncryptedFrameList)
         throws Exception
     {
-        // search for the available method which can add this frame to the tag
-        String sMethodName = null;
-        Method oMethod = null;
-        String[] asMethodSuffix = { "Frame", "TextInformationFrame", "UrlLinkFrame" };
-        for (int i=0; i < asMethodSuffix.length; i++)
+        m_oPendingFrameList = new ArrayList();
+        m_abyPendingFrameData = abyFrameData;
+        
+        int iOffset = 0;
+        while ((abyFrameData.length - iOffset) > 4)
         {
-            try
+            String sFrameId = new String(abyFrameData, iOffset, 4);
+            
+            // padding, or the MP3ext bug described in ID3V2Frame.read()
+            if ((abyFrameData[iOffset] == 0) || sFrameId.equals("MP3e"))
             {
-                sMethodName = "add" + new String(oID3V2Frame.getFrameId()) + asMethodSuffix[i];
-                oMethod = oID3V2_3_0Tag.getClass().getMethod(sMethodName, new Class[] { oID3V2Frame.getClass() });
-                oMethod.invoke(oID3V2_3_0Tag, new Object[] { oID3V2Frame });
-                return;
+                break;
             }
-            catch (NoSuchMethodException e) {}
-            catch (IllegalAccessException e) {}
-            catch (InvocationTargetException e) { throw (Exception)e.getCause(); }
-            try
+            if ((abyFrameData.length - iOffset) < 10)
+            {
+                throw new ID3Exception("Frame [" + sFrameId + "] header extends past the end of the tag.");
+            }
+            int iFrameSize = ((abyFrameData[iOffset+4] & 0xff) << 24) | ((abyFrameData[iOffset+5] & 0xff) << 16) |
+                             ((abyFrameData[iOffset+6] & 0xff) << 8) | (abyFrameData[iOffset+7] & 0xff);
+            if ((iFrameSize < 0) || (iFrameSize > (abyFrameData.length - iOffset - 10)))
+            {
+                throw new ID3Exception("Frame [" + sFrameId + "] extends past the end of the tag.");
+            }
+            int iFrameLength = 10 + iFrameSize;
+            
+            boolean bEncryptionFlag = ((abyFrameData[iOffset+9] & 0x40) != 0);
+            if (bEncryptionFlag)
+            {
+                try
+                {
+                    ID3V2Frame oID3V2Frame = readFrame(abyFrameData, iOffset, iFrameLength);
+                    if (oID3V2Frame instanceof EncryptedID3V2Frame)
+                    {
+                        oEncryptedFrameList.add(oID3V2Frame);
+                    }
+                    else if (oID3V2Frame != null)
+                    {
+                        storeID3V2Frame(oID3V2Frame, this);
+                    }
+                }
+                catch (InvalidFrameID3Exception e) {}
+            }
+            else
+            {
+                m_oPendingFrameList.add(new PendingFrame(sFrameId, iOffset, iFrameLength));
+            }
+            
+            iOffset += iFrameLength;
+        }
+        
+        if (m_oPendingFrameList.isEmpty())
+        {
+            m_oPendingFrameList = null;
+            m_abyPendingFrameData = null;
+        }
+        else
+        {
+            // decode pending frames whenever the containers they are to be stored in are accessed
+            m_oFrameIdToFrameMap = new LazyFrameMap(m_oFrameIdToFrameMap, null);
+            m_oAENCOwnerIdentifierToFrameMap = new LazyFrameMap(m_oAENCOwnerIdentifierToFrameMap, "AENC");
+            m_oAPICDescriptionToFrameMap = new LazyFrameMap(m_oAPICDescriptionToFrameMap, "APIC");
+            m_oCOMMLanguageAndContentDescriptorToFrameMap = new LazyFrameMap(m_oCOMMLanguageAndContentDescriptorToFrameMap, "COMM");
+            m_oENCRMethodToFrameMap = new LazyFrameMap(m_oENCRMethodToFrameMap, "ENCR");
+            m_oGEOBContentDescriptorToFrameMap = new LazyFrameMap(m_oGEOBContentDescriptorToFrameMap, "GEOB");
+            m_oGRIDGroupSymbolToFrameMap = new LazyFrameMap(m_oGRIDGroupSymbolToFrameMap, "GRID");
+            m_oLINKContentsToFrameMap = new LazyFrameMap(m_oLINKContentsToFrameMap, "LINK");
+            m_oPRIVContentsToFrameMap = new LazyFrameMap(m_oPRIVContentsToFrameMap, "PRIV");
+            m_oPOPMEmailToFrameMap = new LazyFrameMap(m_oPOPMEmailToFrameMap, "POPM");
+            m_oSYLTLanguageAndContentDescriptorToFrameMap = new LazyFrameMap(m_oSYLTLanguageAndContentDescriptorToFrameMap, "SYLT");
+            m_oTXXXDescriptionToFrameMap = new LazyFrameMap(m_oTXXXDescriptionToFrameMap, "TXXX");
+            m_oUFIDOwnerIdentifierToFrameMap = new LazyFrameMap(m_oUFIDOwnerIdentifierToFrameMap, "UFID");
+            m_oUSLTLanguageAndContentDescriptorToFrameMap = new LazyFrameMap(m_oUSLTLanguageAndContentDescriptorToFrameMap, "USLT");
+            m_oWCOMUrlToFrameMap = new LazyFrameMap(m_oWCOMUrlToFrameMap, "WCOM");
+            m_oWOARUrlToFrameMap = new LazyFrameMap(m_oWOARUrlToFrameMap, "WOAR");
+            m_oWXXXDescriptionToFrameMap = new LazyFrameMap(m_oWXXXDescriptionToFrameMap, "WXXX");
+        }
+        
+        return abyFrameData.length - iOffset;
+    }
+    
+    /** Decode frames which were read in lazy mode, and store them in this tag.
+     *
+     * @param sFrameId the id of the frames to be decoded, or null to decode all pending frames
+     */
+    private void decodePendingFrames(String sFrameId)
+    {
+        // storing a frame accesses the containers of this tag, which must not decode any further frames
+        if ((m_oPendingFrameList == null) || m_bDecodingPendingFrames)
+        {
+            return;
+        }
+        
+        m_bDecodingPendingFrames = true;
+        try
+        {
+            Iterator oIter = m_oPendingFrameList.iterator();
+            while (oIter.hasNext())
+            {
+                PendingFrame oPendingFrame = (PendingFrame)oIter.next();
+                if ((sFrameId != null) && ( ! sFrameId.equals(oPendingFrame.m_sFrameId)))
+                {
+                    continue;
+                }
+                oIter.remove();
+                
+                try
+                {
+                    ID3V2Frame oID3V2Frame = readFrame(m_abyPendingFrameData, oPendingFrame.m_iOffset, oPendingFrame.m_iLength);
+                    if (oID3V2Frame != null)
+                    {
+                        storeID3V2Frame(oID3V2Frame, this);
+                    }
+                }
+                catch (InvalidFrameID3Exception e)
+                {
+                    // invalid frames are left out when not reading in strict mode, which lazy decoding never is
+                }
+                catch (Exception e)
+                {
+                    // a tag read eagerly would have failed, but the methods accessing this frame have no way to
+                    // report the problem, so log it and leave the frame out
+                    s_oLogger.log(Level.WARNING, "Error decoding frame [" + oPendingFrame.m_sFrameId + "].", e);
+                }
+            }
+            
+            if (m_oPendingFrameList.isEmpty())
+            {
+                m_oPendingFrameList = null;
+                m_abyPendingFrameData = null;
+            }
+        }
+        finally
+        {
+            m_bDecodingPendingFrames = false;
+        }
+    }
+    
+    private static ID3V2Frame readFrame(byte[] abyFrameData, int iOffset, int iLength)
+        throws ID3Exception
+    {
+        ByteArrayInputStream oFrameBAIS = new ByteArrayInputStream(abyFrameData, iOffset, iLength);
+        
+        return ID3V2Frame.read(new ID3DataInputStream(oFrameBAIS));
+    }
+    
+    /** The position of a frame read in lazy mode, within the tag data. */
+    private static class PendingFrame
+    {
+        private String m_sFrameId;
+        private int m_iOffset;
+        private int m_iLength;
+        
+        PendingFrame(String sFrameId, int iOffset, int iLength)
+        {
+            m_sFrameId = sFrameId;
+            m_iOffset = iOffset;
+            m_iLength = iLength;
+        }
+    }
+    
+    /** A frame container for tags read in lazy mode, which decodes the pending frames belonging in it before
+     *  it is accessed.  The container for single frames is keyed by frame id, so a lookup of a single key
+     *  only needs the frames with that id to be decoded.
+     */
+    private class LazyFrameMap implements SortedMap
+    {
+        private Map m_oMap;
+        private String m_sFrameId;
+        
+        /**
+         * @param oMap the container being wrapped
+         * @param sFrameId the id of all frames stored in the container, or null for the single frame container
+         */
+        LazyFrameMap(Map oMap, String sFrameId)
+        {
+            m_oMap = oMap;
+            m_sFrameId = sFrameId;
+        }
+        
+        private Map decoded()
+        {
+            decodePendingFrames(m_sFrameId);
+            
+            return m_oMap;
+        }
+        
+        private Map decoded(Object oKey)
+        {
+            if ((m_sFrameId == null) && (oKey instanceof String))
             {
-                sMethodName = "set" + new String(oID3V2Frame.getFrameId()) + asMethodSuffix[i];
-                oMethod = oID3V2_3_0Tag.getClass().getMethod(sMethodName, new Class[] { oID3V2Frame.getClass() });
-                oMethod.invoke(oID3V2_3_0Tag, new Object[] { oID3V2Frame });
-                return;
+                decodePendingFrames((String)oKey);
+                
+                return m_oMap;
             }
-            catch (NoSuchMethodException e) {}
-            catch (IllegalAccessException e) {}
-            catch (InvocationTargetException e) { throw (Exception)e.getCause(); }
+            
+            return decoded();
+        }
+        
+        private SortedMap sortedDecoded()
+        {
+            return (SortedMap)decoded();
+        }
+        
+        public int size() { return decoded().size(); }
+        public boolean isEmpty() { return decoded().isEmpty(); }
+        public boolean containsKey(Object oKey) { return decoded(oKey).containsKey(oKey); }
+        public boolean containsValue(Object oValue) { return decoded().containsValue(oValue); }
+        public Object get(Object oKey) { return decoded(oKey).get(oKey); }
+        public Object put(Object oKey, Object oValue) { return decoded(oKey).put(oKey, oValue); }
+        public Object remove(Object oKey) { return decoded(oKey).remove(oKey); }
+        public void putAll(Map oMap) { decoded().putAll(oMap); }
+        public void clear() { decoded().clear(); }
+        public Set keySet() { return decoded().keySet(); }
+        public Collection values() { return decoded().values(); }
+        public Set entrySet() { return decoded().entrySet(); }
+        public Comparator comparator() { return sortedDecoded().comparator(); }
+        public SortedMap subMap(Object oFromKey, Object oToKey) { return sortedDecoded().subMap(oFromKey, oToKey); }
+        public SortedMap headMap(Object oToKey) { return sortedDecoded().headMap(oToKey); }
+        public SortedMap tailMap(Object oFromKey) { return sortedDecoded().tailMap(oFromKey); }
+        public Object firstKey() { return sortedDecoded().firstKey(); }
+        public Object lastKey() { return sortedDecoded().lastKey(); }
+        public boolean equals(Object oOther) { return decoded().equals(oOther); }
+        public int hashCode() { return decoded().hashCode(); }
+        public String toString() { return decoded().toString(); }
+    }
+    
+    /** Store a frame in this tag, using the method for its frame type.
+     *
+     * @param oID3V2Frame the frame to be stored
+     * @param oID3V2_3_0Tag the tag object to store the frame in
+     * @throws Exception if the frame could not be stored
+     */
+    private static void storeID3V2Frame(ID3V2Frame oID3V2Frame, ID3V2_3_0Tag oID3V2_3_0Tag)
+        throws Exception
+    {
+        ID3V2Frame.FrameType oFrameType = ID3V2Frame.FrameType.lookup(oID3V2Frame.getFrameId());
+        if ((oFrameType != null) && oFrameType.accepts(oID3V2Frame))
+        {
+            oFrameType.store(oID3V2Frame, oID3V2_3_0Tag);
+            return;
         }
         
         // if we're here, this frame is unknown
@@ -482,6 +715,7 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
             }
             
             // Unknown frames
+            decodePendingFrames(null);
             oIter = m_oUnknownFrameList.iterator();
             while (oIter.hasNext())
             {
@@ -1187,6 +1421,8 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
      */
     public UnknownID3V2Frame[] getUnknownFrames()
     {
+        decodePendingFrames(null);
+        
         return (UnknownID3V2Frame[])m_oUnknownFrameList.toArray(new UnknownID3V2Frame[0]);
     }
     
@@ -1293,6 +1529,92 @@ public class ID3V2_3_0Tag extends ID3V2Tag implements ID3Observer, ID3Visitable
         return (APICID3V2Frame[])m_oAPICDescriptionToFrameMap.values().toArray(new APICID3V2Frame[0]);
     }
     
+    /** Get the picture data of the first APIC frame in this tag, in the order used by getAPICFrames().  When this tag
+     *  was read in lazy mode and its APIC frames have not been decoded yet, the returned buffer is a view of the tag
+     *  data as it was read, so that a large picture is neither decoded nor copied.
+     *
+     * @return a read-only buffer holding the picture data, or null if this tag has no APIC frames
+     */
+    public ByteBuffer getFirstPictureData()
+    {
+        ByteBuffer oPictureData = getPendingPictureData();
+        if (oPictureData != null)
+        {
+            return oPictureData;
+        }
+        
+        APICID3V2Frame[] aoAPIC = getAPICFrames();
+        if (aoAPIC.length == 0)
+        {
+            return null;
+        }
+        
+        return ByteBuffer.wrap(aoAPIC[0].getPictureData()).asReadOnlyBuffer();
+    }
+    
+    /** Find the picture data of the first APIC frame, without decoding it, when all APIC frames of this tag are still
+     *  pending.
+     *
+     * @return a view of the picture data, or null if the APIC frames have to be decoded to find it
+     */
+    private ByteBuffer getPendingPictureData()
+    {
+        if ((m_oPendingFrameList == null) || m_bDecodingPendingFrames ||
+            ( ! ((LazyFrameMap)m_oAPICDescriptionToFrameMap).m_oMap.isEmpty()))
+        {
+            return null;
+        }
+        
+        String sFirstDescription = null;
+        ByteBuffer oFirstPictureData = null;
+        Iterator oIter = m_oPendingFrameList.iterator();
+        while (oIter.hasNext())
+        {
+            PendingFrame oPendingFrame = (PendingFrame)oIter.next();
+            if ( ! oPendingFrame.m_sFrameId.equals("APIC"))
+            {
+                continue;
+            }
+            if ((m_abyPendingFrameData[oPendingFrame.m_iOffset + 9] & 0x80) != 0)
+            {
+                // compressed
+                return null;
+            }
+            
+            // read the fields preceding the picture, as the APIC frame constructor does
+            int iDataOffset = oPendingFrame.m_iOffset + 10;
+            int iDataLength = oPendingFrame.m_iLength - 10;
+            ByteArrayInputStream oFrameBAIS = new ByteArrayInputStream(m_abyPendingFrameData, iDataOffset, iDataLength);
+            ID3DataInputStream oFrameDataID3DIS = new ID3DataInputStream(oFrameBAIS);
+            String sDescription;
+            try
+            {
+                TextEncoding oTextEncoding = TextEncoding.getTextEncoding(oFrameDataID3DIS.readUnsignedByte());
+                while (oFrameDataID3DIS.readUnsignedByte() != 0)
+                {
+                    // mime type
+                }
+                oFrameDataID3DIS.readUnsignedByte();    // picture type
+                sDescription = oFrameDataID3DIS.readStringToNull(oTextEncoding);
+            }
+            catch (Exception e)
+            {
+                return null;
+            }
+            
+            // a later frame with the same description replaces an earlier one when they are stored
+            if ((sFirstDescription == null) || (sDescription.compareTo(sFirstDescription) <= 0))
+            {
+                int iPictureLength = oFrameBAIS.available();
+                int iPictureOffset = iDataOffset + iDataLength - iPictureLength;
+                sFirstDescription = sDescription;
+                oFirstPictureData = ByteBuffer.wrap(m_abyPendingFrameData, iPictureOffset, iPictureLength).slice().asReadOnlyBuffer();
+            }
+        }
+        
+        return oFirstPictureData;
+    }
+    
     /** Remove a specific APIC frame from this tag.
      *
      * @param sDescription the description which uniquely identifies the frame to be removed
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.blinkenlights.jid3.v2;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+import org.blinkenlights.jid3.*;
+
+/**
+ * Checks that a tag read with lazy frame decoding has the same frames as the same tag read eagerly, whatever
+ * order its frames are accessed in.
+ */
+public class ID3V2_3_0TagTest extends TestCase
+{
+    private byte[] m_abyTag;
+    
+    protected void setUp()
+        throws Exception
+    {
+        ID3V2_3_0Tag oTag = new ID3V2_3_0Tag();
+        oTag.setTitle("Paranoid Android");
+        oTag.setArtist("Radiohead");
+        oTag.setAlbum("OK Computer");
+        oTag.setYear(1997);
+        oTag.setTrackNumber(2, 12);
+        oTag.setGenre("Rock");
+        oTag.addAPICFrame(new APICID3V2Frame("image/jpeg", APICID3V2Frame.PictureType.FrontCover, "Cover",
+                                             createData(64 * 1024)));
+        oTag.addAPICFrame(new APICID3V2Frame("image/png", APICID3V2Frame.PictureType.BackCover, "Back",
+                                             createData(1024)));
+        oTag.addGEOBFrame(new GEOBID3V2Frame("application/octet-stream", "notes.bin", "Notes", createData(4096)));
+        oTag.addPRIVFrame(new PRIVID3V2Frame("www.example.com", createData(512)));
+        oTag.addUSLTFrame(new USLTID3V2Frame("eng", "Lyrics", "Please could you stop the noise"));
+        for (int i=0; i < 5; i++)
+        {
+            oTag.addCOMMFrame(new COMMID3V2Frame("eng", "Comment " + i, "Some comment " + i));
+            oTag.addTXXXTextInformationFrame(new TXXXTextInformationID3V2Frame("Extra " + i, "Value " + i));
+        }
+        
+        ByteArrayOutputStream oBAOS = new ByteArrayOutputStream();
+        oTag.write(oBAOS);
+        m_abyTag = oBAOS.toByteArray();
+    }
+    
+    public void testLazyTagHasSameFrames()
+        throws Exception
+    {
+        ID3V2_3_0Tag oEagerTag = read(m_abyTag, false);
+        ID3V2_3_0Tag oLazyTag = read(m_abyTag, true);
+        
+        assertEquals(oEagerTag.getTitle(), oLazyTag.getTitle());
+        assertEquals(oEagerTag.getArtist(), oLazyTag.getArtist());
+        assertEquals(oEagerTag.getAlbum(), oLazyTag.getAlbum());
+        assertEquals(oEagerTag.getYear(), oLazyTag.getYear());
+        assertEquals(oEagerTag.getTrackNumber(), oLazyTag.getTrackNumber());
+        assertEquals(oEagerTag.getTotalTracks(), oLazyTag.getTotalTracks());
+        assertEquals(oEagerTag.getGenre(), oLazyTag.getGenre());
+        assertFramesEqual(oEagerTag.getAPICFrames(), oLazyTag.getAPICFrames());
+        assertFramesEqual(oEagerTag.getGEOBFrames(), oLazyTag.getGEOBFrames());
+        assertFramesEqual(oEagerTag.getPRIVFrames(), oLazyTag.getPRIVFrames());
+        assertFramesEqual(oEagerTag.getUSLTFrames(), oLazyTag.getUSLTFrames());
+        assertFramesEqual(oEagerTag.getCOMMFrames(), oLazyTag.getCOMMFrames());
+        assertFramesEqual(oEagerTag.getTXXXTextInformationFrames(), oLazyTag.getTXXXTextInformationFrames());
+        
+        // every frame has been decoded by now, and the two tags must write the same bytes
+        assertTrue(Arrays.equals(write(oEagerTag), write(oLazyTag)));
+    }
+    
+    public void testLazyTagWritesSameBytesWithoutAccessingFrames()
+        throws Exception
+    {
+        assertTrue(Arrays.equals(write(read(m_abyTag, false)), write(read(m_abyTag, true))));
+        assertEquals(read(m_abyTag, false).toString(), read(m_abyTag, true).toString());
+    }
+    
+    public void testLazyTagDecodesOnlyTheFramesAccessed()
+        throws Exception
+    {
+        ID3V2_3_0Tag oLazyTag = read(m_abyTag, true);
+        
+        assertEquals("Radiohead", oLazyTag.getArtist());
+        // frames added after reading go along with the ones still pending
+        oLazyTag.setArtist("Thom Yorke");
+        oLazyTag.addCOMMFrame(new COMMID3V2Frame("eng", "Comment 5", "Some comment 5"));
+        
+        ID3V2_3_0Tag oEagerTag = read(m_abyTag, false);
+        oEagerTag.setArtist("Thom Yorke");
+        oEagerTag.addCOMMFrame(new COMMID3V2Frame("eng", "Comment 5", "Some comment 5"));
+        
+        assertTrue(Arrays.equals(write(oEagerTag), write(oLazyTag)));
+    }
+    
+    public void testInvalidFrameIsLeftOutOfLazyTag()
+        throws Exception
+    {
+        // give the first TXXX frame an unknown text encoding
+        byte[] abyTag = (byte[])m_abyTag.clone();
+        int iOffset = new String(abyTag, "ISO-8859-1").indexOf("TXXX");
+        abyTag[iOffset + 10] = 7;
+        
+        ID3V2_3_0Tag oEagerTag = read(abyTag, false);
+        ID3V2_3_0Tag oLazyTag = read(abyTag, true);
+        
+        assertEquals(4, oEagerTag.getTXXXTextInformationFrames().length);
+        assertFramesEqual(oEagerTag.getTXXXTextInformationFrames(), oLazyTag.getTXXXTextInformationFrames());
+        assertTrue(Arrays.equals(write(oEagerTag), write(oLazyTag)));
+    }
+    
+    private static ID3V2_3_0Tag read(byte[] abyTag, boolean bLazyFrameDecoding)
+        throws ID3Exception
+    {
+        // ID3V2Tag.read() expects the "ID3" marker to have been read already
+        return (ID3V2_3_0Tag)ID3V2Tag.read(new ByteArrayInputStream(abyTag, 3, abyTag.length - 3), bLazyFrameDecoding);
+    }
+    
+    private static byte[] write(ID3V2_3_0Tag oTag)
+        throws ID3Exception
+    {
+        ByteArrayOutputStream oBAOS = new ByteArrayOutputStream();
+        oTag.write(oBAOS);
+        
+        return oBAOS.toByteArray();
+    }
+    
+    private static void assertFramesEqual(ID3V2Frame[] aoExpected, ID3V2Frame[] aoActual)
+    {
+        assertEquals(aoExpected.length, aoActual.length);
+        for (int i=0; i < aoExpected.length; i++)
+        {
+            assertEquals(aoExpected[i], aoActual[i]);
+        }
+    }
+    
+    private static byte[] createData(int iLength)
+    {
+        byte[] abyData = new byte[iLength];
+        for (int i=0; i < iLength; i++)
+        {
+            abyData[i] = (byte)(i * 31);
+        }
+        
+        return abyData;
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gmote.common.FileInfo.FileSource;
+import org.gmote.common.FileInfo.FileType;
+import org.gmote.common.Protocol.Command;
+import org.gmote.common.Protocol.MouseEvent;
+import org.gmote.common.Protocol.ServerErrorType;
+import org.gmote.common.media.MediaMetaInfo;
+import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.ArtReplyPacket;
+import org.gmote.common.packet.ArtReqPacket;
+import org.gmote.common.packet.AuthenticationReply;
+import org.gmote.common.packet.AuthenticationReq;
+import org.gmote.common.packet.KeyboardEventPacket;
+import org.gmote.common.packet.LaunchUrlPacket;
+import org.gmote.common.packet.ListPageReplyPacket;
+import org.gmote.common.packet.ListPageReqPacket;
+import org.gmote.common.packet.ListPageReqPacket.SortOrder;
+import org.gmote.common.packet.ListReplyPacket;
+import org.gmote.common.packet.ListReqPacket;
+import org.gmote.common.packet.MediaInfoPacket;
+import org.gmote.common.packet.MediaInfoReqPacket;
+import org.gmote.common.packet.MouseClickPacket;
+import org.gmote.common.packet.MouseMovePacket;
+import org.gmote.common.packet.MouseWheelPacket;
+import org.gmote.common.packet.RunFileReqPacket;
+import org.gmote.common.packet.SearchReplyPacket;
+import org.gmote.common.packet.SearchReqPacket;
+import org.gmote.common.packet.ServerErrorPacket;
+import org.gmote.common.packet.SimplePacket;
+import org.gmote.common.packet.TileClickReq;
+import org.gmote.common.packet.TileInfoReply;
+import org.gmote.common.packet.TileSetReq;
+import org.gmote.common.packet.TileUpdatePacket;
+
+/**
+ * Checks that every packet survives a round trip through each codec version
+ * that a connection can negotiate. Version 0 is the java serialization that
+ * TcpConnection uses with peers that predate the binary codec.
+ */
+public class PacketCodecTest extends TestCase {
+
+  private static final FileInfo SONG = new FileInfo("song.mp3", "/music/song.mp3",
+      FileType.MUSIC, false, FileSource.FILE_SYSTEM);
+  private static final FileInfo FOLDER = new FileInfo("M\u00fasica", "/music/M\u00fasica", null,
+      true, FileSource.MEDIA_LIBRARY);
+
+  /**
+   * Returns one packet of every type that the codec knows, filled with values
+   * that differ from the defaults.
+   */
+  private static List<AbstractPacket> createPackets() {
+    List<AbstractPacket> packets = new ArrayList<AbstractPacket>();
+    packets.add(new SimplePacket(Command.PLAY));
+    packets.add(new SimplePacket(Command.TILE_INFO_REQ));
+    packets.add(new ServerErrorPacket(ServerErrorType.INCOMPATIBLE_CLIENT.ordinal(), "Too old"));
+    packets.add(new ListReqPacket("/music"));
+    packets.add(new ListReqPacket(FOLDER));
+    packets.add(new ListReplyPacket(new FileInfo[] { SONG, FOLDER }));
+    packets.add(new ListReplyPacket(new FileInfo[0]));
+    packets.add(new ListReplyPacket(null));
+    packets.add(new ListPageReqPacket("/music", 50, 25, SortOrder.NAME_DESCENDING));
+    packets.add(new ListPageReqPacket(FOLDER, 0, ListPageReqPacket.NO_LIMIT, SortOrder.NAME));
+    packets.add(new ListPageReplyPacket("/music", 50, new FileInfo[] { SONG }, 51, true, false));
+    packets.add(new SearchReqPacket("beatles yesterday", 10, 20));
+    packets.add(new SearchReplyPacket("beatles", 10, new FileInfo[] { SONG, FOLDER }, 12));
+    packets.add(new ArtReqPacket("0a1b2c"));
+    packets.add(new ArtReplyPacket("0a1b2c", createData(1000)));
+    packets.add(new ArtReplyPacket("0a1b2c", null));
+    packets.add(new RunFileReqPacket("/music/song.mp3"));
+    packets.add(new RunFileReqPacket(SONG));
+    packets.add(new MediaInfoReqPacket("/music/song.mp3", true));
+    packets.add(new MediaInfoPacket(new MediaMetaInfo("Title", "Artist", "Album", createData(300),
+        false)));
+    packets.add(new MediaInfoPacket(new MediaMetaInfo(null, null, null, null, true)));
+    packets.add(new MediaInfoPacket(null));
+    packets.add(new MouseClickPacket(MouseEvent.RIGHT_CLICK));
+    packets.add(new MouseMovePacket((short) -120, (short) 300));
+    packets.add(new MouseWheelPacket(-3));
+    packets.add(new KeyboardEventPacket('\u00e9'));
+    packets.add(new LaunchUrlPacket("http://www.gmote.org/?q=\u00fc"));
+    packets.add(new TileSetReq(1, 2, 5, 7));
+    packets.add(new TileClickReq(3, 4, 100, 200, MouseEvent.DOUBLE_CLICK));
+    packets.add(new TileInfoReply(1920, 1080, 256));
+    packets.add(new TileUpdatePacket(3, 4, createData(5000)));
+    packets.add(new AuthenticationReq("challenge", "2.0.0", PacketCodec.VERSION));
+    packets.add(new AuthenticationReply(createData(20), "2.0.0", PacketCodec.VERSION));
+    return packets;
+  }
+
+  public void testRoundTripInEveryVersion() throws Exception {
+    for (int version = PacketCodec.JAVA_SERIALIZATION; version <= PacketCodec.VERSION; version++) {
+      for (AbstractPacket packet : createPackets()) {
+        String message = packet.getClass().getSimpleName() + " in version " + version;
+        if (version != PacketCodec.JAVA_SERIALIZATION) {
+          assertTrue(message + " should not need java serialization",
+              PacketCodec.encode(packet, version)[0] != 0);
+        }
+        assertFieldsEqual(message, packet, roundTrip(packet, version));
+      }
+    }
+  }
+
+  public void testPartialTileUpdate() throws Exception {
+    TileUpdatePacket partial = new TileUpdatePacket(3, 4, 16, 32, createData(500));
+    for (int version = PacketCodec.JAVA_SERIALIZATION; version <= PacketCodec.VERSION; version++) {
+      if (version == PacketCodec.JAVA_SERIALIZATION || version >= PacketCodec.TILE_DELTA_VERSION) {
+        assertFieldsEqual("version " + version, partial, roundTrip(partial, version));
+      } else {
+        // Sending the changed part of the tile as a whole tile would corrupt
+        // the phone's copy of the screen.
+        try {
+          PacketCodec.encode(partial, version);
+          fail("Expected an IOException in version " + version);
+        } catch (IOException e) {
+          // Expected.
+        }
+        TileUpdatePacket full = new TileUpdatePacket(3, 4, createData(500));
+        assertFieldsEqual("version " + version, full, roundTrip(full, version));
+      }
+    }
+  }
+
+  public void testImageHash() throws Exception {
+    MediaMetaInfo media = new MediaMetaInfo("Title", "Artist", "Album", createData(300), true);
+    media.setImageHash("0a1b2c");
+    MediaInfoPacket packet = new MediaInfoPacket(media);
+    for (int version = PacketCodec.JAVA_SERIALIZATION; version <= PacketCodec.VERSION; version++) {
+      MediaMetaInfo decoded = ((MediaInfoPacket) roundTrip(packet, version)).getMedia();
+      assertEquals("Title", decoded.getTitle());
+      if (version == PacketCodec.JAVA_SERIALIZATION) {
+        assertFieldsEqual("version " + version, media, decoded);
+      } else if (version >= PacketCodec.ART_VERSION) {
+        // The phone fetches the image by its hash.
+        assertNull(decoded.getImage());
+        assertEquals("0a1b2c", decoded.getImageHash());
+      } else {
+        assertFieldsEqual("version " + version, media.getImage(), decoded.getImage());
+        assertNull(decoded.getImageHash());
+      }
+    }
+  }
+
+  /**
+   * Packets that the codec doesn't know, like subclasses of the packets above,
+   * are sent as java serialized frames.
+   */
+  public void testJavaSerializedFrame() throws Exception {
+    ExtendedPacket packet = new ExtendedPacket("extra");
+    byte[] frame = PacketCodec.encode(packet, PacketCodec.VERSION);
+    assertEquals(0, frame[0]);
+    assertFieldsEqual("ExtendedPacket", packet, PacketCodec.decode(frame, PacketCodec.VERSION));
+  }
+
+  public void testUnknownPacketType() throws Exception {
+    assertNull(PacketCodec.decode(new byte[] { 127, 0, 0 }, PacketCodec.VERSION));
+  }
+
+  public void testCorruptFieldLength() throws Exception {
+    byte[] frame = PacketCodec.encode(new LaunchUrlPacket("http://www.gmote.org"));
+    // The url length comes right after the type and the command.
+    frame[3] = 0x7f;
+    try {
+      PacketCodec.decode(frame);
+      fail("Expected a StreamCorruptedException");
+    } catch (StreamCorruptedException e) {
+      // Expected.
+    }
+  }
+
+  private static class ExtendedPacket extends SimplePacket {
+    private static final long serialVersionUID = 1L;
+    final String extra;
+
+    ExtendedPacket(String extra) {
+      super(Command.SUCCESS);
+      this.extra = extra;
+    }
+  }
+
+  /**
+   * Sends a packet through the same encoding that a TcpConnection uses for
+   * the given codec version.
+   */
+  private static AbstractPacket roundTrip(AbstractPacket packet, int version) throws Exception {
+    if (version != PacketCodec.JAVA_SERIALIZATION) {
+      return PacketCodec.decode(PacketCodec.encode(packet, version), version);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(packet);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    return (AbstractPacket) in.readObject();
+  }
+
+  /**
+   * Compares two objects field by field, since our packets don't implement
+   * equals().
+   */
+  private static void assertFieldsEqual(String message, Object expected, Object actual)
+      throws IllegalAccessException {
+    if (expected == null || actual == null) {
+      assertSame(message, expected, actual);
+      return;
+    }
+    assertEquals(message, expected.getClass(), actual.getClass());
+    Class<?> type = expected.getClass();
+    if (type.isArray()) {
+      assertEquals(message, Array.getLength(expected), Array.getLength(actual));
+      for (int i = 0; i < Array.getLength(expected); i++) {
+        assertFieldsEqual(message + "[" + i + "]", Array.get(expected, i), Array.get(actual, i));
+      }
+    } else if (type.isEnum() || type.getName().startsWith("java.")) {
+      assertEquals(message, expected, actual);
+    } else {
+      for (; type != Object.class; type = type.getSuperclass()) {
+        for (Field field : type.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            field.setAccessible(true);
+            assertFieldsEqual(message + "." + field.getName(), field.get(expected), field
+                .get(actual));
+          }
+        }
+      }
+    }
+  }
+
+  private static byte[] createData(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    return data;
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gmote.common.FileInfo;
+import org.gmote.common.FileInfo.FileSource;
+import org.gmote.common.Protocol.Command;
+import org.gmote.common.Protocol.CommandType;
+import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.ListPageReqPacket;
+import org.gmote.common.packet.ListReqPacket;
+
+/**
+ * Runs the commands received from the phones on independent lanes. Each lane
+ * has a single thread, so commands on the same lane run in the order in which
+ * they were received, while a slow command (such as vlc taking its time to open
+ * a file) only holds up its own lane. Each lane has a bounded queue. Once it is
+ * full, new commands for that lane are rejected instead of piling up.
+ */
+class CommandLanes {
+  private static final Logger LOGGER = Logger.getLogger(CommandLanes.class.getName());
+
+  // Maximum number of commands that can wait on a lane.
+  private static final int MAX_QUEUED_COMMANDS = 64;
+  // Commands that wait longer than this before running get logged.
+  private static final long SLOW_WAIT_MILLIS = 1000;
+  // How often the queue depth and wait times of the lanes get logged.
+  private static final long STATISTICS_INTERVAL_MILLIS = 60 * 1000;
+
+  enum Lane {
+    // Mouse and keyboard events. These need to stay responsive.
+    INPUT,
+    // File browsing and server settings.
+    BROWSE,
+    // Running files, controlling the media player, browsing its library and
+    // fetching media info.
+    MEDIA_CONTROL,
+    // Tile requests from the visual touchpad.
+    VISUAL_TOUCHPAD
+  }
+
+  private final Map<Lane, LaneExecutor> lanes = new EnumMap<Lane, LaneExecutor>(Lane.class);
+  private volatile long lastStatisticsTime = System.currentTimeMillis();
+
+  CommandLanes() {
+    for (Lane lane : Lane.values()) {
+      lanes.put(lane, new LaneExecutor(lane));
+    }
+  }
+
+  /**
+   * Returns the lane on which a packet should run. The media players aren't
+   * thread safe, so the requests that read a player's library run on the same
+   * lane as the commands that control the player.
+   */
+  static Lane laneFor(AbstractPacket packet) {
+    FileInfo fileInfo = null;
+    if (packet instanceof ListReqPacket) {
+      fileInfo = ((ListReqPacket) packet).getFileInfo();
+    } else if (packet instanceof ListPageReqPacket) {
+      fileInfo = ((ListPageReqPacket) packet).getFileInfo();
+    }
+    if (fileInfo != null && fileInfo.getFileSource() == FileSource.MEDIA_LIBRARY) {
+      return Lane.MEDIA_CONTROL;
+    }
+    return laneFor(packet.getCommand());
+  }
+
+  /**
+   * Returns the lane on which a command should run.
+   */
+  static Lane laneFor(Command command) {
+    if (command.getCommandType() == CommandType.MEDIA_PLAYER) {
+      return Lane.MEDIA_CONTROL;
+    }
+
+    switch (command) {
+    case MOUSE_MOVE_REQ:
+    case MOUSE_CLICK_REQ:
+    case MOUSE_WHEEL_REQ:
+    case KEYBOARD_EVENT_REQ:
+      return Lane.INPUT;
+    case RUN:
+    case MEDIA_INFO_REQ:
+    case BASE_LIST_REQ: // Includes the media player's library.
+      return Lane.MEDIA_CONTROL;
+    case TILE_SET_REQ:
+    case TILE_CLICK_REQ:
+    case TILE_INFO_REQ:
+      return Lane.VISUAL_TOUCHPAD;
+    default:
+      return Lane.BROWSE;
+    }
+  }
+
+  /**
+   * Queues a command on a lane.
+   *
+   * @return false if the lane is full and the command was not queued.
+   */
+  boolean submit(Lane lane, Runnable command) {
+    long now = System.currentTimeMillis();
+    if (now - lastStatisticsTime > STATISTICS_INTERVAL_MILLIS) {
+      lastStatisticsTime = now;
+      LOGGER.info("Command lanes: " + this);
+    }
+    try {
+      lanes.get(lane).execute(new QueuedCommand(lane, command));
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the number of commands waiting to run on a lane.
+   */
+  int getQueueDepth(Lane lane) {
+    return lanes.get(lane).getQueue().size();
+  }
+
+  /**
+   * Returns the average time, in milliseconds, that commands on this lane
+   * waited before running.
+   */
+  long getAverageWaitMillis(Lane lane) {
+    LaneExecutor executor = lanes.get(lane);
+    long commandsRun = executor.commandsRun.get();
+    if (commandsRun == 0) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(executor.totalWaitNanos.get() / commandsRun);
+  }
+
+  /**
+   * Returns the longest time, in milliseconds, that a command on this lane
+   * waited before running.
+   */
+  long getMaxWaitMillis(Lane lane) {
+    return TimeUnit.NANOSECONDS.toMillis(lanes.get(lane).maxWaitNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stats = new StringBuilder();
+    for (Lane lane : Lane.values()) {
+      stats.append(lane).append(": queued=").append(getQueueDepth(lane)).append(" avgWait=")
+          .append(getAverageWaitMillis(lane)).append("ms maxWait=").append(
+              getMaxWaitMillis(lane)).append("ms ");
+    }
+    return stats.toString();
+  }
+
+  /**
+   * Single threaded executor for one lane, which keeps track of how long
+   * commands wait in its queue.
+   */
+  private static class LaneExecutor extends ThreadPoolExecutor {
+    private final AtomicLong commandsRun = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    LaneExecutor(final Lane lane) {
+      super(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+          MAX_QUEUED_COMMANDS), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "CommandLane-" + lane);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      long waitNanos = System.nanoTime() - ((QueuedCommand) r).queuedAt;
+      commandsRun.incrementAndGet();
+      totalWaitNanos.addAndGet(waitNanos);
+      long max = maxWaitNanos.get();
+      while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+        max = maxWaitNanos.get();
+      }
+      if (waitNanos > TimeUnit.MILLISECONDS.toNanos(SLOW_WAIT_MILLIS)) {
+        LOGGER.warning("Command on lane " + ((QueuedCommand) r).lane + " waited "
+            + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms before running");
+      }
+    }
+  }
+
+  private static class QueuedCommand implements Runnable {
+    private final Lane lane;
+    private final Runnable command;
+    private final long queuedAt = System.nanoTime();
+
+    QueuedCommand(Lane lane, Runnable command) {
+      this.lane = lane;
+      this.command = command;
+    }
+
+    public void run() {
+      try {
+        command.run();
+      } catch (RuntimeException e) {
+        // Don't let a single bad command take down the lane's thread.
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      }
+    }
+  }
+}
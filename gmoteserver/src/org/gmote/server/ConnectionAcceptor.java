@@ -0,0 +1,539 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gmote.common.DataReceiverIF;
+import org.gmote.common.PasswordProvider;
+import org.gmote.common.TcpConnection;
+import org.gmote.common.Protocol.Command;
+import org.gmote.common.Protocol.ServerErrorType;
+import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.AuthenticationReply;
+import org.gmote.common.packet.ServerErrorPacket;
+import org.gmote.common.packet.SimplePacket;
+import org.gmote.common.security.AuthenticationException;
+import org.gmote.common.security.AuthenticationHandler;
+import org.gmote.common.security.IncompatibleClientException;
+
+/**
+ * Accepts tcp connections on all of our ports from a single selector thread.
+ * The java stream header, the authentication challenge and the client's reply
+ * are all exchanged without blocking, so a slow or hostile client can't hold
+ * up other connection attempts. Authenticated sessions are then handed to a
+ * small pool of workers which start a regular {@link TcpConnection}, and http
+ * requests are handed to {@link GmoteHttpServer}.
+ */
+class ConnectionAcceptor implements Runnable {
+  private static final Logger LOGGER = Logger.getLogger(ConnectionAcceptor.class.getName());
+
+  // Time that a client has to send the java stream header (or an http request).
+  private static final int STREAM_HEADER_TIMEOUT = 1000 * 3;
+  // Time that a client has to reply to our authentication challenge.
+  private static final int AUTHENTICATION_TIMEOUT = 1000 * 10;
+  // Time to wait before closing a connection that failed authentication. This
+  // slows down password guessing.
+  private static final int AUTHENTICATION_FAILURE_DELAY = 1000;
+  // The authentication reply is small. Anything bigger than this is garbage.
+  private static final int MAX_HANDSHAKE_SIZE = 16 * 1024;
+  private static final int STREAM_HEADER_SIZE = 4;
+  private static final int SESSION_WORKERS = 4;
+
+  private final TcpConnectionHandler connectionHandler;
+  private final DataReceiverIF dataReceiver;
+  private final AuthenticationHandler authHandler;
+  private final PasswordProvider passProvider;
+
+  private final Selector selector;
+  private final ScheduledExecutorService workers = Executors
+      .newScheduledThreadPool(SESSION_WORKERS);
+
+  // Server channels, keyed by port, that still need to be registered with the
+  // selector. Registration must be done by the selector thread.
+  private final Map<Integer, ServerSocketChannel> serverChannels = new HashMap<Integer, ServerSocketChannel>();
+  private final Queue<ServerSocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<ServerSocketChannel>();
+
+  // Connections that have left the selector and are waiting for their channel
+  // to be deregistered before being handed off.
+  private final List<Handshake> pendingHandoffs = new ArrayList<Handshake>();
+
+  ConnectionAcceptor(TcpConnectionHandler connectionHandler, DataReceiverIF dataReceiver,
+      AuthenticationHandler authHandler, PasswordProvider passProvider) throws IOException {
+    this.connectionHandler = connectionHandler;
+    this.dataReceiver = dataReceiver;
+    this.authHandler = authHandler;
+    this.passProvider = passProvider;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Starts accepting connections on a port. This binds the port right away so
+   * that the caller sees any BindException.
+   */
+  synchronized void listenOnPort(int port) throws IOException {
+    if (serverChannels.containsKey(port)) {
+      return;
+    }
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.socket().bind(new InetSocketAddress(port));
+      serverChannel.configureBlocking(false);
+    } catch (IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+    LOGGER.info("Waiting for TCP connections on port: " + port);
+    serverChannels.put(port, serverChannel);
+    pendingRegistrations.add(serverChannel);
+    selector.wakeup();
+  }
+
+  public void run() {
+    while (true) {
+      try {
+        if (selector.selectedKeys().isEmpty()) {
+          selector.select(STREAM_HEADER_TIMEOUT);
+        }
+        registerServerChannels();
+
+        for (SelectionKey key : selector.selectedKeys()) {
+          handleKey(key);
+        }
+        selector.selectedKeys().clear();
+
+        closeExpiredHandshakes();
+        handOffConnections();
+      } catch (Exception e) {
+        // Catching all exceptions since this is the top layer of our acceptor
+        // and it must keep running.
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      }
+    }
+  }
+
+  private void registerServerChannels() throws IOException {
+    ServerSocketChannel serverChannel;
+    while ((serverChannel = pendingRegistrations.poll()) != null) {
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+  }
+
+  private void handleKey(SelectionKey key) {
+    if (!key.isValid()) {
+      return;
+    }
+    if (key.isAcceptable()) {
+      acceptConnection((ServerSocketChannel) key.channel());
+      return;
+    }
+
+    Handshake handshake = (Handshake) key.attachment();
+    try {
+      if (key.isWritable()) {
+        handshake.writePendingData();
+      }
+      if (key.isValid() && key.isReadable()) {
+        handshake.readData();
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Handshake with " + handshake.getRemoteAddress() + " failed: "
+          + e.getMessage(), e);
+      closeChannel(key);
+    }
+  }
+
+  private void acceptConnection(ServerSocketChannel serverChannel) {
+    try {
+      SocketChannel channel;
+      while ((channel = serverChannel.accept()) != null) {
+        channel.configureBlocking(false);
+        Handshake handshake = new Handshake(channel);
+        handshake.key = channel.register(selector, SelectionKey.OP_READ, handshake);
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    }
+  }
+
+  private void closeExpiredHandshakes() {
+    long now = System.currentTimeMillis();
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.attachment() instanceof Handshake
+          && ((Handshake) key.attachment()).deadline < now) {
+        LOGGER.warning("Closing connection from " + ((Handshake) key.attachment()).getRemoteAddress()
+            + " since it took too long to authenticate");
+        closeChannel(key);
+      }
+    }
+  }
+
+  /**
+   * Hands connections that finished their handshake to workers. A channel can
+   * only go back to blocking mode once its cancelled key was removed from the
+   * selector, which happens during the next select.
+   */
+  private void handOffConnections() throws IOException {
+    if (pendingHandoffs.isEmpty()) {
+      return;
+    }
+    selector.selectNow();
+    for (final Handshake handshake : pendingHandoffs) {
+      try {
+        handshake.channel.configureBlocking(true);
+        workers.execute(new Runnable() {
+          public void run() {
+            handshake.complete();
+          }
+        });
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        closeQuietly(handshake.channel.socket());
+      }
+    }
+    pendingHandoffs.clear();
+  }
+
+  private void closeChannel(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Outcome of a handshake, which tells the worker what to do with the
+   * connection.
+   */
+  private enum HandshakeResult {
+    HTTP_REQUEST, AUTHENTICATED, AUTHENTICATION_FAILURE, INCOMPATIBLE_CLIENT
+  }
+
+  /**
+   * State of a single connection that is going through the handshake.
+   */
+  private class Handshake {
+    private final SocketChannel channel;
+    private SelectionKey key;
+    private final ByteBuffer received = ByteBuffer.allocate(MAX_HANDSHAKE_SIZE);
+    private ByteBuffer pendingData = null;
+    private long deadline = System.currentTimeMillis() + STREAM_HEADER_TIMEOUT;
+
+    private String challenge = null;
+    private HandshakeResult result;
+    private int codecVersion;
+    private String errorMessage;
+
+    Handshake(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    Object getRemoteAddress() {
+      return channel.socket().getRemoteSocketAddress();
+    }
+
+    void readData() throws IOException {
+      if (channel.read(received) < 0) {
+        throw new EOFException("Connection closed by client");
+      }
+
+      if (challenge == null) {
+        if (received.position() < STREAM_HEADER_SIZE) {
+          return;
+        }
+        if (!isJavaStreamHeader()) {
+          // This may be an HTTP request. Try to handle it.
+          finish(HandshakeResult.HTTP_REQUEST);
+          return;
+        }
+        sendChallenge();
+      }
+
+      AuthenticationReply reply;
+      try {
+        reply = readAuthenticationReply();
+      } catch (ClassNotFoundException e) {
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        finish(HandshakeResult.AUTHENTICATION_FAILURE);
+        return;
+      } catch (ClassCastException e) {
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        finish(HandshakeResult.AUTHENTICATION_FAILURE);
+        return;
+      }
+
+      if (reply != null) {
+        LOGGER.info("Authentication reply received.");
+        verifyReply(reply);
+      } else if (!received.hasRemaining()) {
+        throw new IOException("Authentication reply is too large");
+      }
+    }
+
+    private boolean isJavaStreamHeader() {
+      return received.getShort(0) == ObjectStreamConstants.STREAM_MAGIC
+          && received.getShort(2) == ObjectStreamConstants.STREAM_VERSION;
+    }
+
+    private void sendChallenge() throws IOException {
+      challenge = authHandler.generateServerChallenge();
+      deadline = System.currentTimeMillis() + AUTHENTICATION_TIMEOUT;
+
+      // Mirrors what TcpConnection.sendPacket() writes on a new connection. The
+      // stream is reset after the challenge so that the worker can continue it
+      // with a fresh stream (see ContinuedObjectOutputStream).
+      ByteArrayOutputStream challengeData = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(challengeData);
+      out.writeObject(authHandler.createChallengePacket(challenge));
+      out.flush();
+      out.reset();
+      out.flush();
+
+      pendingData = ByteBuffer.wrap(challengeData.toByteArray());
+      writePendingData();
+    }
+
+    void writePendingData() throws IOException {
+      if (pendingData == null) {
+        return;
+      }
+      channel.write(pendingData);
+      if (pendingData.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      } else {
+        pendingData = null;
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    /**
+     * Tries to deserialize the authentication reply from the data that was
+     * received so far. Returns null if more data is needed.
+     */
+    private AuthenticationReply readAuthenticationReply() throws IOException,
+        ClassNotFoundException {
+      if (received.position() <= STREAM_HEADER_SIZE) {
+        return null;
+      }
+      try {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(received.array(), 0,
+            received.position()));
+        return (AuthenticationReply) in.readObject();
+      } catch (EOFException e) {
+        return null;
+      }
+    }
+
+    private void verifyReply(AuthenticationReply reply) {
+      try {
+        codecVersion = authHandler.verifyAuthenticationReply(reply, passProvider.fetchPassword(),
+            challenge);
+        finish(HandshakeResult.AUTHENTICATED);
+      } catch (AuthenticationException e) {
+        LOGGER.log(Level.WARNING, "Authentication of client failed: " + getRemoteAddress());
+        finish(HandshakeResult.AUTHENTICATION_FAILURE);
+      } catch (IncompatibleClientException e) {
+        LOGGER.log(Level.WARNING, "Authentication of client failed: " + e.getMessage());
+        errorMessage = e.getMessage();
+        finish(HandshakeResult.INCOMPATIBLE_CLIENT);
+      }
+    }
+
+    private void finish(HandshakeResult result) {
+      this.result = result;
+      key.cancel();
+      pendingHandoffs.add(this);
+    }
+
+    /**
+     * Called from a worker thread once the channel is back in blocking mode.
+     */
+    void complete() {
+      Socket socket = channel.socket();
+      try {
+        if (result == HandshakeResult.HTTP_REQUEST) {
+          LOGGER.warning("Connection is not a java object stream: trying to handle it as an HTTP request");
+          GmoteHttpServer httpServer = new GmoteHttpServer(socket, new SequenceInputStream(
+              receivedData(), socket.getInputStream()));
+          httpServer.handleHttpRequestAsync(connectionHandler.getLatestSessionIds());
+          return;
+        }
+
+        ObjectOutputStream output = new ContinuedObjectOutputStream(new ChannelOutputStream(
+            channel));
+        if (result == HandshakeResult.AUTHENTICATED) {
+          ObjectInputStream objectInput = new ObjectInputStream(new BufferedInputStream(
+              new SequenceInputStream(receivedData(), new ChannelInputStream(channel))));
+          // Read the reply again so that this stream is positioned after it.
+          objectInput.readObject();
+
+          TcpConnection con = new TcpConnection(authHandler);
+          con.adoptAuthenticatedConnection(socket, objectInput, output, dataReceiver, challenge,
+              codecVersion);
+          connectionHandler.sessionEstablished(con);
+        } else if (result == HandshakeResult.AUTHENTICATION_FAILURE) {
+          sendPacket(output, new ServerErrorPacket(ServerErrorType.AUTHENTICATION_FAILURE
+              .ordinal(), "Authentication Failed. You may have entered the wrong password."));
+          workers.schedule(new Runnable() {
+            public void run() {
+              closeQuietly(channel.socket());
+            }
+          }, AUTHENTICATION_FAILURE_DELAY, TimeUnit.MILLISECONDS);
+        } else {
+          // Sending a 'success' packet followed by an error packet. This is due
+          // to backwards compatibility since <= 1.2 clients don't expect to
+          // receive update notifications.
+          sendPacket(output, new SimplePacket(Command.SUCCESS));
+          sendPacket(output, new ServerErrorPacket(ServerErrorType.INCOMPATIBLE_CLIENT.ordinal(),
+              errorMessage));
+          closeQuietly(socket);
+        }
+      } catch (Exception e) {
+        // Catching all exceptions since this is the top layer of the worker.
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        closeQuietly(socket);
+      }
+    }
+
+    private InputStream receivedData() {
+      return new ByteArrayInputStream(received.array(), 0, received.position());
+    }
+
+    private void sendPacket(ObjectOutputStream output, AbstractPacket packet) throws IOException {
+      output.writeObject(packet);
+      output.flush();
+      output.reset();
+    }
+  }
+
+  /**
+   * Continues an object stream whose header was already sent during the
+   * handshake. The handshake's stream was reset, so there is no other state to
+   * carry over.
+   */
+  private static class ContinuedObjectOutputStream extends ObjectOutputStream {
+    ContinuedObjectOutputStream(OutputStream out) throws IOException {
+      super(out);
+    }
+
+    @Override
+    protected void writeStreamHeader() {
+      // The header was already sent.
+    }
+  }
+
+  /**
+   * Reads directly from a blocking channel. We don't use the socket's own
+   * streams since on older jvms they share a lock between reads and writes,
+   * which would block packets from being sent while the data receiver thread
+   * waits for the next packet.
+   */
+  private static class ChannelInputStream extends InputStream {
+    private final SocketChannel channel;
+
+    ChannelInputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] data = new byte[1];
+      int n = read(data, 0, 1);
+      return (n < 0) ? -1 : data[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      return channel.read(ByteBuffer.wrap(data, offset, length));
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Writes directly to a blocking channel. See {@link ChannelInputStream}.
+   */
+  private static class ChannelOutputStream extends OutputStream {
+    private final SocketChannel channel;
+
+    ChannelOutputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.gmote.common.FileInfo;
+
+/**
+ * Remembers the sorted content of the directories that the phones browse, since
+ * listing a big directory on a network drive can take seconds. A listing is
+ * reused for as long as the directory's modification time doesn't change,
+ * which happens whenever a file is added, removed or renamed in it. Checking
+ * the modification time is a single file system call, no matter how many
+ * files the directory holds.
+ */
+class DirectoryListingCache {
+  private static final Logger LOGGER = Logger.getLogger(DirectoryListingCache.class.getName());
+
+  // Maximum number of files, across all directories, that we keep in memory.
+  private static final int MAX_CACHED_FILES = 50000;
+  // Maximum number of directories that we keep statistics for.
+  private static final int MAX_DIRECTORIES = 1000;
+
+  // Some file systems only store modification times to the nearest couple of
+  // seconds. A directory that changed this recently could change again without
+  // its modification time moving, so we don't cache it.
+  private static final long MODIFICATION_TIME_GRANULARITY = 2000;
+
+  private static DirectoryListingCache instance = null;
+
+  // Guarded by 'this'. Ordered from least to most recently used.
+  private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<String, Listing>(16,
+      0.75f, true);
+  private int cachedFiles = 0;
+
+  static synchronized DirectoryListingCache instance() {
+    if (instance == null) {
+      instance = new DirectoryListingCache();
+    }
+    return instance;
+  }
+
+  private static class Listing {
+    FileInfo[] files;
+    long lastModified;
+    int hits = 0;
+    int builds = 0;
+    long lastBuildMillis;
+  }
+
+  /**
+   * Returns the cached content of a directory, or null if we don't have it or
+   * if the directory changed since it was listed.
+   */
+  FileInfo[] getListing(File directory, boolean showAllFiles) {
+    String key = createKey(directory, showAllFiles);
+    long lastModified = directory.lastModified();
+    synchronized (this) {
+      Listing listing = listings.get(key);
+      if (listing == null || listing.files == null) {
+        return null;
+      }
+      if (listing.lastModified != lastModified) {
+        LOGGER.info("Directory changed since it was last listed: " + directory);
+        cachedFiles -= listing.files.length;
+        listing.files = null;
+        return null;
+      }
+      listing.hits++;
+      return listing.files;
+    }
+  }
+
+  /**
+   * Adds the content of a directory to the cache.
+   *
+   * @param lastModified
+   *          the modification time of the directory, read before it was
+   *          listed.
+   * @param buildMillis
+   *          how long it took to list the directory.
+   */
+  synchronized void putListing(File directory, boolean showAllFiles, long lastModified,
+      FileInfo[] files, long buildMillis) {
+    String key = createKey(directory, showAllFiles);
+    Listing listing = listings.get(key);
+    if (listing == null) {
+      listing = new Listing();
+      listings.put(key, listing);
+    } else if (listing.files != null) {
+      cachedFiles -= listing.files.length;
+    }
+    listing.builds++;
+    listing.lastBuildMillis = buildMillis;
+    LOGGER.info("Listed " + directory + " (" + files.length + " files) in " + buildMillis
+        + "ms. Hits: " + listing.hits + ", builds: " + listing.builds);
+
+    if (System.currentTimeMillis() - lastModified < MODIFICATION_TIME_GRANULARITY
+        || files.length > MAX_CACHED_FILES) {
+      listing.files = null;
+      evictListings();
+      return;
+    }
+
+    listing.files = files;
+    listing.lastModified = lastModified;
+    cachedFiles += files.length;
+    evictListings();
+  }
+
+  /**
+   * Returns a description of how well the cache is doing for each directory
+   * that it knows about.
+   */
+  synchronized String getStatistics() {
+    StringBuilder statistics = new StringBuilder();
+    statistics.append("Cached files: ").append(cachedFiles).append("\n");
+    for (Map.Entry<String, Listing> entry : listings.entrySet()) {
+      Listing listing = entry.getValue();
+      statistics.append(entry.getKey()).append(": hits=").append(listing.hits).append(
+          " builds=").append(listing.builds).append(" lastBuild=").append(
+          listing.lastBuildMillis).append("ms cached=").append(listing.files != null).append(
+          "\n");
+    }
+    return statistics.toString();
+  }
+
+  /**
+   * Drops the least recently used listings until we are within our memory
+   * budget. Must be called while holding the lock on 'this'.
+   */
+  private void evictListings() {
+    Iterator<Listing> it = listings.values().iterator();
+    while ((cachedFiles > MAX_CACHED_FILES || listings.size() > MAX_DIRECTORIES) && it.hasNext()) {
+      Listing listing = it.next();
+      if (listing.files != null) {
+        cachedFiles -= listing.files.length;
+      }
+      it.remove();
+    }
+  }
+
+  private static String createKey(File directory, boolean showAllFiles) {
+    return directory.getAbsolutePath() + (showAllFiles ? "|all" : "|playable");
+  }
+}
@@ -23,11 +23,10 @@ import java.awt.MediaTracker;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -35,10 +34,19 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,9 +66,13 @@ import com.sun.image.codec.jpeg.JPEGImageEncoder;
 /**
  * A server that responds to HTTP requests. It doesn't listen for connections
  * like a typical server as we instead share the port used by GmoteServer.
- * TcpConnection.java will handle connection routing between HTTP packets and
- * Gmote java packets. It will call this class when it notices an HTTP
+ * ConnectionAcceptor.java will handle connection routing between HTTP packets
+ * and Gmote java packets. It will call this class when it notices an HTTP
  * connection.
+ * <p>
+ * We speak enough HTTP/1.1 for media players to stream and seek efficiently:
+ * GET and HEAD requests, single byte ranges and persistent connections.
+ * </p>
  * 
  * @author Marc Stogaitis
  */
@@ -68,12 +80,36 @@ public class GmoteHttpServer {
   private static final Logger LOGGER = Logger.getLogger(GmoteHttpServer.class.getName());
 
   private static final int HTTP_OK = 200;
+  private static final int HTTP_PARTIAL_CONTENT = 206;
+  private static final int HTTP_BAD_REQUEST = 400;
+  private static final int HTTP_FORBIDDEN = 403;
   private static final int HTTP_NOT_FOUND = 404;
+  private static final int HTTP_BAD_METHOD = 405;
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+  // Images are scaled down so that neither side is bigger than this.
+  private static final int THUMBNAIL_SIZE = 500;
+
+  // Time that a persistent connection can stay idle between two requests.
+  private static final int KEEP_ALIVE_TIMEOUT = 1000 * 15;
+
+  // Returned by extractRange() when the requested range is past the end of the
+  // file.
+  private static final long[] UNSATISFIABLE_RANGE = new long[0];
 
   private Socket connectionSocket;
+
+  // Stream to read the request from. It may start with bytes that were already
+  // read from the socket while we were figuring out the type of connection.
+  private InputStream connectionInput;
   
-  public GmoteHttpServer(Socket connectionSocket) {
+  public GmoteHttpServer(Socket connectionSocket) throws IOException {
+    this(connectionSocket, connectionSocket.getInputStream());
+  }
+
+  public GmoteHttpServer(Socket connectionSocket, InputStream connectionInput) {
     this.connectionSocket = connectionSocket;
+    this.connectionInput = connectionInput;
   }
   
   public void handleHttpRequestAsync(List<String> latestSessionIds) {
@@ -82,6 +118,8 @@ public class GmoteHttpServer {
   }
 
   /**
+   * Handles requests on the connection until the client closes it, asks us to
+   * close it, or leaves it idle for too long.
    * 
    * @param latestSessionIds
    *          List of the last 5 session ids that we have seen. We keep more
@@ -92,52 +130,142 @@ public class GmoteHttpServer {
    * @throws InterruptedException 
    * @throws ImageFormatException 
    */
-  private void handleHttpRequest(List<String> latestSessionIds) throws ImageFormatException, InterruptedException {
-    
-    try {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
-      List<String> header = extractHeader(reader);
-      String requestedUrl = extractFile(header.get(0));
-      
-      String[] urlSplit = requestedUrl.split("\\?");
-      if (urlSplit.length < 2 || urlSplit[1].indexOf("=") < 0) {
-        LOGGER.warning("Encountered a malformed url. It's missing a session param. Ignoring request: " + requestedUrl);
+  private void handleHttpRequests(List<String> latestSessionIds) throws ImageFormatException,
+      InterruptedException, IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(connectionInput));
+    WritableByteChannel dataOut = getOutputChannel();
+    connectionSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+
+    boolean keepAlive = true;
+    while (keepAlive) {
+      List<String> header;
+      try {
+        header = extractHeader(reader);
+      } catch (SocketTimeoutException e) {
+        LOGGER.info("Http connection was idle for too long.");
         return;
       }
-      
-      String sessionId = getParamValue("sessionId", urlSplit[1]);
-      if (sessionId == null || !latestSessionIds.contains(sessionId)) {
-        LOGGER.warning("Encountered a malformed url. It has an incorrect session param. Ignoring request: " + requestedUrl + " -- expected: " + latestSessionIds);
+      if (header.isEmpty()) {
+        // The client closed the connection.
         return;
       }
-      
-      File file = new File(urlSplit[0]);
-      
-      if (!file.exists()) {
-        throw new FileNotFoundException("The file was not found: " + file.getName());
-      }
-      
-      if (!downloadOfFileIsAllowed(file)) {
-        throw new FileNotFoundException("The user is not authorized to download this type of file. Please make sure that the file is in the base-paths and that the file type of the file is in the supported_filetypes.txt file");
-      }
-      
-      long startingByte = extractRange(header);
-      
-      PrintWriter ps = new PrintWriter(connectionSocket.getOutputStream());
-      printHeaders(file, startingByte,  ps);
-      
-      if (SupportedFiletypeSettings.fileNameToFileType(file.getName()) == FileType.IMAGE) {
-        sendImage(file, new BufferedOutputStream(connectionSocket.getOutputStream()));
-      } else {
-        sendFile(file, startingByte, new BufferedOutputStream(connectionSocket.getOutputStream()));
+      keepAlive = handleHttpRequest(header, latestSessionIds, dataOut);
+    }
+  }
+
+  /**
+   * Handles a single request.
+   * 
+   * @return true if the connection should be kept open for further requests.
+   */
+  private boolean handleHttpRequest(List<String> header, List<String> latestSessionIds,
+      WritableByteChannel dataOut) throws ImageFormatException, InterruptedException,
+      IOException {
+    String[] requestLine = header.get(0).split(" ");
+    if (requestLine.length < 3) {
+      LOGGER.warning("Encountered a malformed request line. Ignoring request: " + header.get(0));
+      sendError(HTTP_BAD_REQUEST, false, dataOut);
+      return false;
+    }
+    String method = requestLine[0];
+    boolean keepAlive = isKeepAlive(requestLine[2], getHeaderValue("Connection", header));
+    if (!method.equals("GET") && !method.equals("HEAD")) {
+      LOGGER.warning("Unsupported http method: " + method);
+      sendError(HTTP_BAD_METHOD, false, dataOut);
+      return false;
+    }
+
+    String requestedUrl;
+    try {
+      requestedUrl = extractFile(header.get(0));
+    } catch (MalformedURLException e) {
+      sendError(HTTP_NOT_FOUND, false, dataOut);
+      return false;
+    }
+
+    String[] urlSplit = requestedUrl.split("\\?");
+    if (urlSplit.length < 2 || urlSplit[1].indexOf("=") < 0) {
+      LOGGER.warning("Encountered a malformed url. It's missing a session param. Ignoring request: " + requestedUrl);
+      sendError(HTTP_FORBIDDEN, false, dataOut);
+      return false;
+    }
+
+    String sessionId = getParamValue("sessionId", urlSplit[1]);
+    if (sessionId == null || !latestSessionIds.contains(sessionId)) {
+      LOGGER.warning("Encountered a malformed url. It has an incorrect session param. Ignoring request: " + requestedUrl + " -- expected: " + latestSessionIds);
+      sendError(HTTP_FORBIDDEN, false, dataOut);
+      return false;
+    }
+
+    File file = new File(urlSplit[0]);
+
+    if (!file.exists() || file.isDirectory()) {
+      LOGGER.warning("The file was not found: " + file.getName());
+      sendError(HTTP_NOT_FOUND, keepAlive, dataOut);
+      return keepAlive;
+    }
+
+    if (!downloadOfFileIsAllowed(file)) {
+      LOGGER.warning("The user is not authorized to download this type of file. Please make sure that the file is in the base-paths and that the file type of the file is in the supported_filetypes.txt file");
+      sendError(HTTP_NOT_FOUND, keepAlive, dataOut);
+      return keepAlive;
+    }
+
+    boolean sendBody = method.equals("GET");
+    List<String> fields = new ArrayList<String>();
+    fields.add("Last-Modified: " + formatDate(new Date(file.lastModified())));
+
+    if (SupportedFiletypeSettings.fileNameToFileType(file.getName()) == FileType.IMAGE) {
+      // Images are scaled down before being sent, so ranges don't apply to
+      // them.
+      byte[] imageData = getThumbnail(file);
+      fields.add("Content-Type: image/jpeg");
+      fields.add("Content-Length: " + imageData.length);
+      sendHeaders(HTTP_OK, fields, keepAlive, dataOut);
+      if (sendBody) {
+        writeFully(ByteBuffer.wrap(imageData), dataOut);
       }
-      
-      
-    } catch (UnsupportedEncodingException e) {
-      LOGGER.log(Level.SEVERE, e.getMessage(), e);
-    } catch (IOException e) {
-      LOGGER.log(Level.SEVERE, e.getMessage(), e);
-    } 
+      return keepAlive;
+    }
+
+    long fileLength = file.length();
+    long[] range = extractRange(getHeaderValue("Range", header), fileLength);
+    if (range == UNSATISFIABLE_RANGE) {
+      fields.add("Content-Range: bytes */" + fileLength);
+      fields.add("Content-Length: 0");
+      sendHeaders(HTTP_RANGE_NOT_SATISFIABLE, fields, keepAlive, dataOut);
+      return keepAlive;
+    }
+
+    long firstByte = 0;
+    long lastByte = fileLength - 1;
+    int status = HTTP_OK;
+    if (range != null) {
+      firstByte = range[0];
+      lastByte = range[1];
+      status = HTTP_PARTIAL_CONTENT;
+      fields.add("Content-Range: bytes " + firstByte + "-" + lastByte + "/" + fileLength);
+    }
+    fields.add("Accept-Ranges: bytes");
+    fields.add("Content-Length: " + (lastByte - firstByte + 1));
+    fields.add("Content-Type: " + getContentType(file));
+    sendHeaders(status, fields, keepAlive, dataOut);
+    if (sendBody) {
+      sendFile(file, firstByte, lastByte - firstByte + 1, dataOut);
+    }
+    return keepAlive;
+  }
+
+  /**
+   * Returns true if the client wants to keep the connection open after the
+   * request. This is the default in HTTP/1.1, while HTTP/1.0 clients have to
+   * ask for it.
+   */
+  private boolean isKeepAlive(String httpVersion, String connectionHeader) {
+    if (httpVersion.equals("HTTP/1.1")) {
+      return !"close".equalsIgnoreCase(connectionHeader);
+    }
+    return "keep-alive".equalsIgnoreCase(connectionHeader);
   }
 
   /**
@@ -163,23 +291,55 @@ public class GmoteHttpServer {
     return false;
   }
 
-  private long extractRange(List<String> headers) {
-    
-    String headerValue = getHeaderValue("Range", headers);
-    if (headerValue == null) {
-      return 0;
+  /**
+   * Parses the value of a Range header. We support a single range, either
+   * closed ("bytes=500-999"), open ended ("bytes=500-") or a suffix
+   * ("bytes=-500"). Requests for several ranges get the whole file, which the
+   * spec allows.
+   * 
+   * @return the first and last byte to send, null if the whole file should be
+   *         sent, or UNSATISFIABLE_RANGE if the range starts past the end of the
+   *         file.
+   */
+  static long[] extractRange(String headerValue, long fileLength) {
+    if (headerValue == null || !headerValue.startsWith("bytes=")) {
+      return null;
     }
-    if (headerValue.startsWith("bytes=")) {
-      headerValue = headerValue.substring("bytes=".length());
-      String fields[] = headerValue.split("-");
-      try {
-        return Long.parseLong(fields[0]);
-      } catch (NumberFormatException e) {
-        LOGGER.log(Level.SEVERE, e.getMessage(), e);
-        return 0;
+    headerValue = headerValue.substring("bytes=".length()).trim();
+    int dash = headerValue.indexOf('-');
+    if (dash < 0 || headerValue.indexOf(',') >= 0) {
+      return null;
+    }
+
+    try {
+      String start = headerValue.substring(0, dash).trim();
+      String end = headerValue.substring(dash + 1).trim();
+      if (start.length() == 0) {
+        // Suffix range: the last 'n' bytes of the file.
+        long suffixLength = Long.parseLong(end);
+        if (suffixLength <= 0 || fileLength == 0) {
+          return UNSATISFIABLE_RANGE;
+        }
+        return new long[] { Math.max(0, fileLength - suffixLength), fileLength - 1 };
+      }
+
+      long firstByte = Long.parseLong(start);
+      long lastByte = fileLength - 1;
+      if (end.length() != 0) {
+        lastByte = Long.parseLong(end);
+        if (lastByte < firstByte) {
+          // Syntactically invalid, which means the header should be ignored.
+          return null;
+        }
+      }
+      if (firstByte >= fileLength) {
+        return UNSATISFIABLE_RANGE;
       }
+      return new long[] { firstByte, Math.min(lastByte, fileLength - 1) };
+    } catch (NumberFormatException e) {
+      LOGGER.log(Level.WARNING, e.getMessage(), e);
+      return null;
     }
-    return 0;
   }
   
   private String getParamValue(String paramName, String fullParam) {
@@ -196,17 +356,19 @@ public class GmoteHttpServer {
 
   private String getHeaderValue(String fieldName, List<String> headers) {
     for (String header : headers) {
-      LOGGER.info("Header: " + header);
-      if (header.startsWith(fieldName + ":") ) {
+      // Header names are case insensitive.
+      if (header.regionMatches(true, 0, fieldName + ":", 0, fieldName.length() + 1)) {
         return header.substring(header.indexOf(":") + 1).trim();
       }
     }
     return null;
   }
+
   private List<String> extractHeader(BufferedReader reader) throws IOException {
     String line = null;
     List<String> header = new ArrayList<String>();
     while ((line = reader.readLine()) != null && !(line.length()==0)) {
+      LOGGER.info("Header: " + line);
       header.add(line);
     }
     return header;
@@ -232,37 +394,140 @@ public class GmoteHttpServer {
     return fileName;
   }
 
-  void sendFile(File targ, long startingByte, BufferedOutputStream dataOut) throws IOException {
-    LOGGER.info("Sending file: " + targ.getAbsolutePath() + " offset: " + startingByte);
-    byte[] buf = new byte[2048];
-    
-    InputStream is = null;
-    
-    if (targ.isDirectory()) {
-      // listDirectory(targ, ps);
-      return;
-    } else {
-      is = new FileInputStream(targ.getAbsolutePath());
-      if (startingByte != 0) {
-        long bytesSkipped = is.skip(startingByte);
-        LOGGER.info("bytesSkipped = " + bytesSkipped);
-      }
+
+  /**
+   * Returns a channel that writes to our socket. Sockets that were accepted
+   * through a channel let us write to that channel directly, which is what
+   * allows files to be sent without copying them through the java heap.
+   */
+  private WritableByteChannel getOutputChannel() throws IOException {
+    if (connectionSocket.getChannel() != null) {
+      return connectionSocket.getChannel();
     }
+    return Channels.newChannel(connectionSocket.getOutputStream());
+  }
 
+  /**
+   * Sends 'length' bytes of a file, starting at 'startingByte'. We hand the
+   * file to the operating system with transferTo(), starting at the requested
+   * position. When 'dataOut' is a socket channel, the data goes from the file
+   * to the socket without ever being copied into the java heap.
+   */
+  void sendFile(File targ, long startingByte, long length, WritableByteChannel dataOut)
+      throws IOException {
+    LOGGER.info("Sending file: " + targ.getAbsolutePath() + " offset: " + startingByte
+        + " length: " + length);
+
+    FileChannel fileChannel = new FileInputStream(targ.getAbsolutePath()).getChannel();
     try {
-      int n;
-      while ((n = is.read(buf)) >= 0) {
-        dataOut.write(buf, 0, n);
+      long position = startingByte;
+      long end = Math.min(startingByte + length, fileChannel.size());
+      while (position < end) {
+        long bytesSent = fileChannel.transferTo(position, end - position, dataOut);
+        if (bytesSent <= 0) {
+          // The file got shorter while we were sending it.
+          LOGGER.warning("Stopped sending file at offset " + position + " of " + end);
+          throw new IOException("Unable to send the whole file: " + targ.getName());
+        }
+        position += bytesSent;
       }
     } finally {
       LOGGER.info("Done sending file");
-      is.close();
+      fileChannel.close();
     }
-    dataOut.close();
-    LOGGER.info("Print stream closed");
+  }
+
+  private void sendError(int status, boolean keepAlive, WritableByteChannel dataOut)
+      throws IOException {
+    List<String> fields = new ArrayList<String>();
+    fields.add("Content-Length: 0");
+    sendHeaders(status, fields, keepAlive, dataOut);
+  }
+
+  private void sendHeaders(int status, List<String> fields, boolean keepAlive,
+      WritableByteChannel dataOut) throws IOException {
+    StringBuilder headers = new StringBuilder();
+    headers.append("HTTP/1.1 ").append(status).append(" ").append(getReasonPhrase(status))
+        .append("\r\n");
+    headers.append("Server: GmoteHttpServer\r\n");
+    headers.append("Date: ").append(formatDate(new Date())).append("\r\n");
+    for (String field : fields) {
+      headers.append(field).append("\r\n");
+    }
+    headers.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+    headers.append("\r\n");
+    writeFully(ByteBuffer.wrap(headers.toString().getBytes("ISO-8859-1")), dataOut);
+  }
+
+  private static String getReasonPhrase(int status) {
+    switch (status) {
+    case HTTP_OK:
+      return "OK";
+    case HTTP_PARTIAL_CONTENT:
+      return "Partial Content";
+    case HTTP_BAD_REQUEST:
+      return "Bad Request";
+    case HTTP_FORBIDDEN:
+      return "Forbidden";
+    case HTTP_NOT_FOUND:
+      return "Not Found";
+    case HTTP_BAD_METHOD:
+      return "Method Not Allowed";
+    case HTTP_RANGE_NOT_SATISFIABLE:
+      return "Requested Range Not Satisfiable";
+    default:
+      return "Unknown";
+    }
+  }
+
+  private static void writeFully(ByteBuffer buffer, WritableByteChannel dataOut)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      dataOut.write(buffer);
+    }
+  }
+
+  /**
+   * Formats a date the way http expects it (RFC 1123).
+   */
+  private static String formatDate(Date date) {
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(date);
+  }
+
+  private String getContentType(File targ) {
+    String name = targ.getName();
+    String ct = MimeTypeResolver.findMimeType(name);
+    if (ct.equals(MimeTypeResolver.UNKNOWN_MIME_TYPE)) {
+      FileType type = SupportedFiletypeSettings.fileNameToFileType(name);
+      if (type == FileType.MUSIC) {
+        ct = "audio/unknown";
+      } else if (type == FileType.VIDEO) {
+        ct = "video/unknown";
+      } else {
+        ct = MimeTypeResolver.findMimeTypeSlow(targ);
+      }
+    }
+    LOGGER.info("Mime type is: " + ct);
+    return ct;
   }
   
-  private void sendImage(File originalImagePath, BufferedOutputStream dataOut) throws InterruptedException, ImageFormatException, IOException {
+  /**
+   * Returns a version of the image scaled down to a size that suits the phone,
+   * as a jpeg. Thumbnails are cached so that we only scale each image once.
+   */
+  private byte[] getThumbnail(final File originalImagePath) throws InterruptedException,
+      IOException {
+    return ThumbnailCache.instance().getThumbnail(originalImagePath, THUMBNAIL_SIZE,
+        new Callable<byte[]>() {
+          public byte[] call() throws Exception {
+            return createThumbnail(originalImagePath);
+          }
+        });
+  }
+
+  private byte[] createThumbnail(File originalImagePath) throws InterruptedException, ImageFormatException, IOException {
     LOGGER.info("Converting image to smaller scale");
  // load image from INFILE
     Image image = Toolkit.getDefaultToolkit().getImage(originalImagePath.getAbsolutePath());
@@ -276,7 +541,7 @@ public class GmoteHttpServer {
     
     int thumbWidth = imageWidth;
     int thumbHeight = imageHeight;
-    int MAX_SIZE = 500;
+    int MAX_SIZE = THUMBNAIL_SIZE;
     if (imageWidth > MAX_SIZE || imageHeight > MAX_SIZE) {
       double imageRatio = (double)imageWidth / (double)imageHeight;
       if (imageWidth > imageHeight) {
@@ -299,6 +564,7 @@ public class GmoteHttpServer {
       RenderingHints.VALUE_INTERPOLATION_BILINEAR);
     graphics2D.drawImage(image, 0, 0, thumbWidth, thumbHeight, null);
     
+    ByteArrayOutputStream dataOut = new ByteArrayOutputStream();
     if (PlatformUtil.isLinux()) {
       ImageIO.write(thumbImage, "JPEG", dataOut);
     } else {
@@ -310,8 +576,8 @@ public class GmoteHttpServer {
       encoder.encode(thumbImage, param);
     }
     
-    dataOut.close();
-    LOGGER.info("Done sending image");
+    LOGGER.info("Done converting image");
+    return dataOut.toByteArray();
   }
 
   public static BufferedImage shrink(BufferedImage image, int n) {
@@ -329,49 +595,6 @@ public class GmoteHttpServer {
     return shrunkImage;
   }
 
-  boolean printHeaders(File targ, long startingByte, PrintWriter pw) throws IOException {
-    boolean ret = false;
-
-    if (!targ.exists()) {
-      pw.println("HTTP/1.0 " + HTTP_NOT_FOUND + " not found");
-      
-      ret = false;
-    } else {
-      pw.println("HTTP/1.0 " + HTTP_OK + " OK");
-      
-      ret = true;
-    }
-
-    pw.println("Server: GmoteHttpServer");
-    pw.println("Date: " + (new Date()));
-    if (ret) {
-      long fileLength = targ.length();
-      if (startingByte != 0) {
-        pw.println("Content-range: bytes" + startingByte + "-" + (fileLength - 1) + "/" + fileLength); 
-      }
-      pw.println("Content-length: " + (fileLength - startingByte));
-      pw.println("Last Modified: " + (new Date(targ.lastModified())));
-      String name = targ.getName();
-      String ct = MimeTypeResolver.findMimeType(name);
-      if (ct.equals(MimeTypeResolver.UNKNOWN_MIME_TYPE)) {
-        FileType type = SupportedFiletypeSettings.fileNameToFileType(name);
-        if (type == FileType.MUSIC) {
-          ct = "audio/unknown";
-        } else if (type == FileType.VIDEO) {
-          ct = "video/unknown";
-        } else {
-          ct = MimeTypeResolver.findMimeTypeSlow(targ);
-        }
-      }
-      LOGGER.info("Mime type is: " + ct);
-      pw.println("Content-type: " + ct);
-      
-    }
-    pw.println();
-    pw.flush();
-    return ret;
-  }
-  
   public class HttpConnectionHandler implements Runnable {
 
     private List<String> latestSessionIds;
@@ -382,7 +605,7 @@ public class GmoteHttpServer {
 
     public void run() {
       try {
-        handleHttpRequest(latestSessionIds);
+        handleHttpRequests(latestSessionIds);
         LOGGER.info("Done handlerequest(). Closing connection.");
       } catch (Exception ex) {
         // Catching all exceptions since this is the top layer of our app.
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import junit.framework.TestCase;
+
+public class GmoteHttpServerTest extends TestCase {
+  private static final long FILE_LENGTH = 1000;
+
+  public void testNoRange() {
+    assertNull(GmoteHttpServer.extractRange(null, FILE_LENGTH));
+    assertNull(GmoteHttpServer.extractRange("items=0-10", FILE_LENGTH));
+  }
+
+  public void testClosedRange() {
+    assertRange(0, 499, "bytes=0-499");
+    assertRange(500, 999, "bytes=500-999");
+    assertRange(10, 10, "bytes= 10 - 10");
+  }
+
+  public void testClosedRangePastEndIsTruncated() {
+    assertRange(500, 999, "bytes=500-5000");
+  }
+
+  public void testOpenEndedRange() {
+    assertRange(500, 999, "bytes=500-");
+    assertRange(999, 999, "bytes=999-");
+  }
+
+  public void testSuffixRange() {
+    assertRange(900, 999, "bytes=-100");
+    // Asking for more than the whole file gets the whole file.
+    assertRange(0, 999, "bytes=-5000");
+  }
+
+  public void testUnsatisfiableRange() {
+    assertUnsatisfiable("bytes=1000-");
+    assertUnsatisfiable("bytes=2000-3000");
+    assertUnsatisfiable("bytes=-0");
+    assertEquals(0, GmoteHttpServer.extractRange("bytes=-100", 0).length);
+  }
+
+  public void testInvalidRangeIsIgnored() {
+    // The last byte comes before the first one.
+    assertNull(GmoteHttpServer.extractRange("bytes=500-100", FILE_LENGTH));
+    assertNull(GmoteHttpServer.extractRange("bytes=abc-", FILE_LENGTH));
+    assertNull(GmoteHttpServer.extractRange("bytes=500", FILE_LENGTH));
+    assertNull(GmoteHttpServer.extractRange("bytes=-", FILE_LENGTH));
+  }
+
+  public void testMultipleRangesGetWholeFile() {
+    assertNull(GmoteHttpServer.extractRange("bytes=0-10,20-30", FILE_LENGTH));
+  }
+
+  private static void assertRange(long firstByte, long lastByte, String headerValue) {
+    long[] range = GmoteHttpServer.extractRange(headerValue, FILE_LENGTH);
+    assertNotNull(headerValue, range);
+    assertEquals(headerValue, 2, range.length);
+    assertEquals(headerValue, firstByte, range[0]);
+    assertEquals(headerValue, lastByte, range[1]);
+  }
+
+  private static void assertUnsatisfiable(String headerValue) {
+    long[] range = GmoteHttpServer.extractRange(headerValue, FILE_LENGTH);
+    assertNotNull(headerValue, range);
+    assertEquals(headerValue, 0, range.length);
+  }
+}
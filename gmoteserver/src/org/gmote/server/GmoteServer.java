@@ -40,16 +40,24 @@ import org.gmote.common.media.MediaMetaInfo;
 import org.gmote.common.packet.AbstractPacket;
 import org.gmote.common.packet.KeyboardEventPacket;
 import org.gmote.common.packet.LaunchUrlPacket;
+import org.gmote.common.packet.ListPageReqPacket;
 import org.gmote.common.packet.ListReplyPacket;
 import org.gmote.common.packet.ListReqPacket;
 import org.gmote.common.packet.MouseClickPacket;
 import org.gmote.common.packet.MouseMovePacket;
 import org.gmote.common.packet.MouseWheelPacket;
 import org.gmote.common.packet.RunFileReqPacket;
+import org.gmote.common.packet.SearchReplyPacket;
+import org.gmote.common.packet.SearchReqPacket;
 import org.gmote.common.packet.ServerErrorPacket;
 import org.gmote.common.packet.SimplePacket;
 import org.gmote.common.packet.TileClickReq;
 import org.gmote.common.packet.TileSetReq;
+import org.gmote.server.CommandLanes.Lane;
+import org.gmote.server.SessionRegistry.Subscription;
+import org.gmote.server.media.AlbumArtCache;
+import org.gmote.server.media.MediaIndex;
+import org.gmote.server.media.MediaIndex.SearchResults;
 import org.gmote.server.media.MediaInfoUpdater;
 import org.gmote.server.media.MediaPlayerInterface;
 import org.gmote.server.media.MediaPlayerManager;
@@ -67,12 +75,18 @@ public class GmoteServer implements DataReceiverIF {
   private static final Logger LOGGER = Logger.getLogger(GmoteServer.class.getName());
   static final String VERSION = "2.0.2";
   static final String MINIMUM_CLIENT_VERSION = "2.0.0";
+  // Most search results that we send in a single reply.
+  private static final int MAX_SEARCH_RESULTS = 200;
+  // How long we wait for the media player to start playing a file.
+  private static final long MEDIA_RUNNER_TIMEOUT_MILLIS = 20 * 1000;
 
   private GmoteServerUi serverUi;
 
   MediaPlayerManager mediaPlayerManager;
   MediaPlayerInterface activeMediaPlayer = null;
 
+  private final CommandLanes commandLanes = new CommandLanes();
+
   /**
    * Starts the server.
    * 
@@ -104,16 +118,41 @@ public class GmoteServer implements DataReceiverIF {
     mediaPlayerManager = MediaPlayerManager.getInstance();
     mediaPlayerManager.initialize(arguments);
 
+    // Index the media files in the background.
+    MediaIndex.instance().start();
+
     // Start the tcp threads that will handle connections.
     TcpConnectionHandler.instance(this).listenOnAllIpAddresses();
   }
 
 
   /**
-   * Called when a packet is received from the user.
+   * Called when a packet is received from the user. The packet is queued on
+   * the lane that handles its type of command.
    */
-  public synchronized void handleReceiveData(AbstractPacket packet, TcpConnection connection) {
+  public void handleReceiveData(final AbstractPacket packet, final TcpConnection connection) {
     LOGGER.info("Received command: " + packet.toString());
+    Lane lane = CommandLanes.laneFor(packet);
+    boolean queued = commandLanes.submit(lane, new Runnable() {
+      public void run() {
+        processCommand(packet, connection);
+      }
+    });
+
+    if (!queued) {
+      LOGGER.warning("Lane " + lane + " is full. Dropping command: " + packet + ". "
+          + commandLanes);
+      if (lane != Lane.INPUT) {
+        sendPacket(connection, new ServerErrorPacket(ServerErrorType.UNSPECIFIED_ERROR.ordinal(),
+            "The server is busy. Please try again."));
+      }
+    }
+  }
+
+  /**
+   * Handles a packet received from the user. Called from the command's lane.
+   */
+  private void processCommand(AbstractPacket packet, TcpConnection connection) {
     Command command = packet.getCommand();
 
     AbstractPacket returnPacket = null;
@@ -159,10 +198,7 @@ public class GmoteServer implements DataReceiverIF {
         File file = new File(path);
         if (file.exists()) {
           if (ServerUtil.instance().isDvdDrive(file) && ServerUtil.instance().driveHasDvd(file)) {
-            returnPacket = new SimplePacket(Command.PLAY_DVD);
-            sendPacket(connection, returnPacket);
-            returnPacket = null;
-            runMedia(new FileInfo(path, path, FileType.DVD_DRIVE, false, FileSource.FILE_SYSTEM));
+            playDvd(path, connection);
           } else {
             returnPacket = createListFilesPacket(path);
           }
@@ -171,6 +207,25 @@ public class GmoteServer implements DataReceiverIF {
         }
       }
 
+    } else if (command == Command.LIST_PAGE_REQ) {
+      // Return part of a list of files, one page at a time.
+      ListPageReqPacket pageReqPacket = (ListPageReqPacket) packet;
+      try {
+        returnPacket = createListPagePacket(pageReqPacket, connection);
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      }
+
+    } else if (command == Command.SEARCH_REQ) {
+      SearchReqPacket searchReq = (SearchReqPacket) packet;
+      long startTime = System.nanoTime();
+      SearchResults results = MediaIndex.instance().search(searchReq.getQuery(),
+          searchReq.getOffset(), Math.min(searchReq.getLimit(), MAX_SEARCH_RESULTS));
+      LOGGER.info("Search for '" + searchReq.getQuery() + "' found " + results.getTotalResults()
+          + " files in " + (System.nanoTime() - startTime) / 1000000 + "ms");
+      returnPacket = new SearchReplyPacket(searchReq.getQuery(), searchReq.getOffset(), results
+          .getFiles(), results.getTotalResults());
+
     } else if (command == Command.RUN) {
       // Run a file in its default application.
       FileInfo fileInfo = ((RunFileReqPacket) packet).getFileInfo();
@@ -211,14 +266,26 @@ public class GmoteServer implements DataReceiverIF {
       DefaultSettings.instance().setSetting(DefaultSettingsEnum.SHOW_ALL_FILES, "false");
     } else if (command == Command.MEDIA_INFO_REQ) {
       returnPacket = MediaInfoUpdater.instance().handleMediaInfoReq(packet);
+    } else if (command == Command.ART_REQ) {
+      returnPacket = AlbumArtCache.instance().handleArtReq(packet);
     } else if (command == Command.LAUNCH_URL_REQ) {
       String url = ((LaunchUrlPacket) packet).getUrl();
       BrowserLauncherUtil.openURL(url);  
     } else if (command == Command.TILE_SET_REQ) {
-      VisualTouchpad.instance().tileUpdateRequest((TileSetReq) packet);
+      TileSetReq tileSet = (TileSetReq) packet;
+      if (tileSet.isEmpty()) {
+        // The phone left the remote desktop.
+        SessionRegistry.instance().unsubscribe(connection, Subscription.TILES);
+      } else {
+        SessionRegistry.instance().subscribe(connection, Subscription.TILES);
+        VisualTouchpad.instance().tileUpdateRequest(tileSet);
+      }
     } else if (command == Command.TILE_CLICK_REQ) {
       VisualTouchpad.instance().tileClickRequest((TileClickReq) packet);
     } else if (command == Command.TILE_INFO_REQ) {
+      // The phone is (re)opening the remote desktop. It asks for the tiles that
+      // it shows once it knows the size of the screen.
+      SessionRegistry.instance().unsubscribe(connection, Subscription.TILES);
       returnPacket = VisualTouchpad.instance().createScreenInfoReply();
       VisualTouchpad.instance().clearTileImages();
     }
@@ -300,9 +367,11 @@ public class GmoteServer implements DataReceiverIF {
     Thread t = new Thread(runner, "MediaRunner");
     t.start();
     try {
-      t.join();//20 * 1000);
+      t.join(MEDIA_RUNNER_TIMEOUT_MILLIS);
       if (t.isAlive()) {
-        // Kill the thread if it's still alive.
+        // Kill the thread if it's still alive, so that the media lane can move
+        // on to the next command.
+        LOGGER.warning("The media player did not start " + fileInfo + " in time. Reloading it.");
         t.interrupt();
         reloadActiveMediaPlayer();
       }
@@ -321,42 +390,127 @@ public class GmoteServer implements DataReceiverIF {
     return returnPacket;
   }
 
+  /**
+   * Tells the phone that we are playing the dvd, and queues it on the media
+   * lane so that it runs in order with the other media commands.
+   */
+  private void playDvd(String path, TcpConnection connection) {
+    final FileInfo dvdInfo = new FileInfo(path, path, FileType.DVD_DRIVE, false,
+        FileSource.FILE_SYSTEM);
+    boolean queued = commandLanes.submit(Lane.MEDIA_CONTROL, new Runnable() {
+      public void run() {
+        runMedia(dvdInfo);
+      }
+    });
+
+    if (queued) {
+      sendPacket(connection, new SimplePacket(Command.PLAY_DVD));
+    } else {
+      LOGGER.warning("Lane " + Lane.MEDIA_CONTROL + " is full. Not playing the dvd in " + path
+          + ". " + commandLanes);
+      sendPacket(connection, new ServerErrorPacket(ServerErrorType.UNSPECIFIED_ERROR.ordinal(),
+          "The server is busy. Please try again."));
+    }
+  }
+
+  /**
+   * Sends the requested part of a directory to the phone. Every page but the
+   * last one is sent from here. The last one is returned.
+   */
+  private AbstractPacket createListPagePacket(ListPageReqPacket pageReqPacket,
+      TcpConnection connection) throws IOException {
+    ListPager pager = new ListPager(connection, pageReqPacket);
+    FileInfo fileInfo = pageReqPacket.getFileInfo();
+    if (fileInfo != null && fileInfo.getFileSource() == FileSource.MEDIA_LIBRARY) {
+      List<FileInfo> libraryFiles = mediaPlayerManager.getMediaPlayer(FileType.MUSIC)
+          .getLibrarySubFiles(fileInfo);
+      return pager.pageSortedFiles(libraryFiles.toArray(new FileInfo[libraryFiles.size()]));
+    }
+
+    String path = pageReqPacket.getPath();
+    File file = new File(path);
+    if (!file.exists()) {
+      return createFileNotExistErrorPacket();
+    }
+    if (ServerUtil.instance().isDvdDrive(file) && ServerUtil.instance().driveHasDvd(file)) {
+      playDvd(path, connection);
+      return null;
+    }
+
+    boolean showAllFiles = isShowAllFiles();
+    FileInfo[] knownFileInfo = getKnownListing(file, showAllFiles);
+    if (knownFileInfo != null) {
+      return pager.pageSortedFiles(knownFileInfo);
+    }
+    return pager.pageDirectory(file, createListingFilter(showAllFiles));
+  }
+
   /**
    * Creates a packet with the list of the files in the current directory.
    */
   ListReplyPacket createListFilesPacket(String directory) {
     File file = new File(directory);
-    FileFilter filter = new FileFilter() {
+    boolean showAllFiles = isShowAllFiles();
+
+    FileInfo[] knownFileInfo = getKnownListing(file, showAllFiles);
+    if (knownFileInfo != null) {
+      return new ListReplyPacket(knownFileInfo);
+    }
+
+    DirectoryListingCache listingCache = DirectoryListingCache.instance();
+    long lastModified = file.lastModified();
+    long startTime = System.currentTimeMillis();
+    File[] listOfFiles = file.listFiles(createListingFilter(showAllFiles));
+    if (listOfFiles == null) {
+      LOGGER.warning("Unable to list the content of: " + directory);
+      return new ListReplyPacket(new FileInfo[0]);
+    }
+    FileInfo[] fileInfo = convertFileListToFileInfo(listOfFiles);
+    Arrays.sort(fileInfo);
+    long listingMillis = System.currentTimeMillis() - startTime;
+    listingCache.putListing(file, showAllFiles, lastModified, fileInfo, listingMillis);
+    ListReplyPacket packet = new ListReplyPacket(fileInfo);
+    return packet;
+  }
+
+  /**
+   * Returns the content of a directory from the media index or from the
+   * listing cache, or null if neither of them has an up to date listing.
+   */
+  private FileInfo[] getKnownListing(File directory, boolean showAllFiles) {
+    FileInfo[] fileInfo = MediaIndex.instance().getListing(directory, showAllFiles);
+    if (fileInfo == null) {
+      fileInfo = DirectoryListingCache.instance().getListing(directory, showAllFiles);
+    }
+    return fileInfo;
+  }
+
+  private boolean isShowAllFiles() {
+    return DefaultSettings.instance().getSetting(DefaultSettingsEnum.SHOW_ALL_FILES)
+        .equalsIgnoreCase("true");
+  }
+
+  /**
+   * Returns a filter that accepts the files that should be shown on the phone.
+   */
+  private FileFilter createListingFilter(final boolean showAllFiles) {
+    return new FileFilter() {
       public boolean accept(File arg0) {
 
         if (arg0.isHidden()) {
           return false;
         }
 
-        if (arg0.isDirectory()) {
-          return true;
-        }
-
+        // Check the name first, since it doesn't need to access the disk.
         String name = arg0.getName().toLowerCase();
-        if (SupportedFiletypeSettings.fileNameToFileType(name) != FileType.UNKNOWN) {
-          return true;
-        }
-
-        boolean showAllFiles = DefaultSettings.instance().getSetting(
-            DefaultSettingsEnum.SHOW_ALL_FILES).equalsIgnoreCase("true");
-        if (showAllFiles) {
+        if (showAllFiles
+            || SupportedFiletypeSettings.fileNameToFileType(name) != FileType.UNKNOWN) {
           return true;
         }
 
-        return false;
+        return arg0.isDirectory();
       }
     };
-
-    File[] listOfFiles = file.listFiles(filter);
-    FileInfo[] fileInfo = convertFileListToFileInfo(listOfFiles);
-    Arrays.sort(fileInfo);
-    ListReplyPacket packet = new ListReplyPacket(fileInfo);
-    return packet;
   }
 
   private FileInfo[] convertFileListToFileInfo(File[] files) {
@@ -395,6 +549,10 @@ public class GmoteServer implements DataReceiverIF {
   }
 
   private void reloadActiveMediaPlayer() {
+    if (activeMediaPlayer == null) {
+      // We got stuck before a player was chosen.
+      return;
+    }
     activeMediaPlayer = mediaPlayerManager
         .reloadMediaPlayer(activeMediaPlayer.getClass().getName());
   }
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.gmote.common.FileInfo;
+import org.gmote.common.TcpConnection;
+import org.gmote.common.packet.ListPageReplyPacket;
+import org.gmote.common.packet.ListPageReqPacket;
+import org.gmote.common.packet.ListPageReqPacket.SortOrder;
+
+/**
+ * Answers a ListPageReqPacket by sending the requested part of a directory in
+ * pages of PAGE_SIZE files. Each page is sent as soon as it is full, so the
+ * phone can show the first files while we look at the rest. When the
+ * directory isn't in the DirectoryListingCache, we only sort its file names:
+ * files are filtered in sorted order, FileInfos are only created for the files
+ * that were asked for, and we stop reading as soon as the request is
+ * satisfied. This keeps the cost of a request proportional to the number of
+ * files that it returns rather than to the size of the directory.
+ */
+class ListPager {
+  private static final Logger LOGGER = Logger.getLogger(ListPager.class.getName());
+
+  static final int PAGE_SIZE = 100;
+
+  private final TcpConnection connection;
+  private final String path;
+  private final int offset;
+  // Position, in the sorted listing, right after the last requested file.
+  private final long end;
+  private final boolean descending;
+
+  private List<FileInfo> page = new ArrayList<FileInfo>(PAGE_SIZE);
+  private int pageOffset;
+
+  ListPager(TcpConnection connection, ListPageReqPacket request) {
+    this.connection = connection;
+    this.path = request.getPath();
+    this.offset = Math.max(0, request.getOffset());
+    this.end = request.getLimit() < 0 ? Long.MAX_VALUE : (long) offset + request.getLimit();
+    this.descending = request.getSortOrder() == SortOrder.NAME_DESCENDING;
+    this.pageOffset = offset;
+  }
+
+  /**
+   * Pages through files that are already sorted by name, such as a cached
+   * listing.
+   *
+   * @return the last page, which the caller should send.
+   */
+  ListPageReplyPacket pageSortedFiles(FileInfo[] files) throws IOException {
+    int total = files.length;
+    int last = (int) Math.min(end, total);
+    for (int i = offset; i < last; i++) {
+      addFile(files[descending ? total - 1 - i : i]);
+    }
+    return createLastPage(total, last < total);
+  }
+
+  /**
+   * Pages through the files of a directory that are accepted by the filter.
+   *
+   * @return the last page, which the caller should send.
+   */
+  ListPageReplyPacket pageDirectory(File directory, FileFilter filter) throws IOException {
+    String[] names = directory.list();
+    if (names == null) {
+      LOGGER.warning("Unable to list the content of: " + directory);
+      return createLastPage(0, false);
+    }
+    SortKey[] keys = new SortKey[names.length];
+    for (int i = 0; i < names.length; i++) {
+      keys[i] = new SortKey(names[i]);
+    }
+    Arrays.sort(keys);
+
+    int matches = 0;
+    for (int i = 0; i < keys.length; i++) {
+      File file = new File(directory, keys[descending ? keys.length - 1 - i : i].name);
+      if (!filter.accept(file)) {
+        continue;
+      }
+      if (matches >= end) {
+        // There is at least one more file, which is all the phone needs to
+        // know. Don't bother filtering the rest.
+        return createLastPage(ListPageReplyPacket.UNKNOWN_TOTAL, true);
+      }
+      if (matches >= offset) {
+        addFile(ServerUtil.instance().fileInfoFromFile(file));
+      }
+      matches++;
+    }
+    return createLastPage(matches, false);
+  }
+
+  private void addFile(FileInfo file) throws IOException {
+    page.add(file);
+    if (page.size() == PAGE_SIZE) {
+      connection.sendPacket(new ListPageReplyPacket(path, pageOffset, page
+          .toArray(new FileInfo[page.size()]), ListPageReplyPacket.UNKNOWN_TOTAL, false, true));
+      pageOffset += page.size();
+      page.clear();
+    }
+  }
+
+  private ListPageReplyPacket createLastPage(int totalFiles, boolean moreFilesAvailable) {
+    return new ListPageReplyPacket(path, pageOffset, page.toArray(new FileInfo[page.size()]),
+        totalFiles, true, moreFilesAvailable);
+  }
+
+  /**
+   * A file name along with the key that FileInfo sorts it by, so that we
+   * don't lower case the name on every comparison.
+   */
+  private static class SortKey implements Comparable<SortKey> {
+    private final String name;
+    private final String lowerCaseName;
+
+    SortKey(String name) {
+      this.name = name;
+      this.lowerCaseName = name.toLowerCase();
+    }
+
+    public int compareTo(SortKey other) {
+      return lowerCaseName.compareTo(other.lowerCaseName);
+    }
+  }
+}
@@ -29,6 +29,7 @@ import javax.swing.JOptionPane;
 
 import org.gmote.common.MulticastClient;
 import org.gmote.common.Protocol.UdpPacketTypes;
+import org.gmote.server.SessionRegistry.Subscription;
 import org.gmote.server.settings.PreferredPorts;
 
 
@@ -54,7 +55,6 @@ public class MulticastServerThread implements Runnable {
   // The listening port of the current socket.
   private int socketListeningPort;
   
-  private static InetAddress connectedClientIp = null;
   /**
    * Creates a thread that will send out discovery notifications. We explicitly
    * listen on each local interface since this resolves the following bug which
@@ -155,8 +155,8 @@ public class MulticastServerThread implements Runnable {
 
   /**
    * Handles a mouse move request from the client. In order to accept the mouse
-   * move event, the client must have an active tcp connection with our server
-   * (we verify this by matching the ip address).
+   * move event, one of the clients that have an active tcp connection with our
+   * server must be using this ip address.
    * 
    * TODO(mstogaitis): Consider a better security mechanism such as signing the
    * mouse packets with the password.
@@ -184,16 +184,12 @@ public class MulticastServerThread implements Runnable {
     } else {
       LOGGER
           .warning("Received a mouse move request from an ip who is not connected to us: packetIp="
-              + clientAddress + " tcpConnectionIp=" + connectedClientIp + ". Ignoring the packet.");
+              + clientAddress + ". Ignoring the packet.");
     }
   }
   
-  private static synchronized boolean isCorrectIp(InetAddress clientAddress) {
-    return clientAddress.equals(connectedClientIp);
-  }
-
-  public static synchronized void setConnectedClientIp(InetAddress clientIp) {
-    connectedClientIp = clientIp;
+  private static boolean isCorrectIp(InetAddress clientAddress) {
+    return SessionRegistry.instance().isSubscribed(clientAddress, Subscription.INPUT);
   }
   
   /**
@@ -132,14 +132,21 @@ public abstract class ServerUtil {
   }
 
   public FileInfo fileInfoFromFile(File file) {
+    return fileInfoFromFile(file, file.isDirectory());
+  }
+
+  /**
+   * Same as fileInfoFromFile(File), for when we already know whether the file
+   * is a directory. Doesn't access the disk.
+   */
+  public FileInfo fileInfoFromFile(File file, boolean isDirectory) {
     String fileName = file.getName();
-    boolean isDirectory = file.isDirectory();
     String absolutePath = file.getAbsolutePath();
     FileType fileType = null;
     if (!isDirectory) {
       fileType = SupportedFiletypeSettings.fileNameToFileType(fileName);
     } else {
-      if (folderIsRippedDvd(file)) {
+      if (fileName.equalsIgnoreCase(VIDEO_TS)) {
         // Handle ripped dvd's as if they were media files.
         isDirectory = false;
         fileType = FileType.VIDEO;
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gmote.common.PacketCodec;
+import org.gmote.common.TcpConnection;
+import org.gmote.common.packet.AbstractPacket;
+
+/**
+ * Keeps track of every phone that is connected to the server, and of the
+ * updates that each one wants to receive. Anything that pushes data to the
+ * phones without being asked (media info, visual touchpad tiles) publishes it
+ * here so that all connected phones get it, instead of only the last one to log
+ * in. Each phone has its own sender thread, so a phone on a slow network
+ * doesn't hold up the packets of the others.
+ */
+public class SessionRegistry {
+  private static final Logger LOGGER = Logger.getLogger(SessionRegistry.class.getName());
+
+  // Number of published packets that a phone can fall behind by before we
+  // give up on it. Writes to a phone that went out of wifi range block until
+  // the socket times out, which can take minutes.
+  static final int MAX_PENDING_PACKETS = 512;
+
+  private static SessionRegistry instance = null;
+
+  /**
+   * The kinds of data that a session can subscribe to.
+   */
+  public enum Subscription {
+    // Updates about the media that is currently playing.
+    MEDIA_INFO,
+    // Screen tiles of the visual touchpad.
+    TILES,
+    // Mouse packets sent over udp.
+    INPUT
+  }
+
+  private Map<TcpConnection, Session> sessions = new ConcurrentHashMap<TcpConnection, Session>();
+
+  private final ThreadFactory senderThreadFactory = new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "SessionSender");
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  // Private constructor to prevent instantiation.
+  private SessionRegistry() {
+
+  }
+
+  public static synchronized SessionRegistry instance() {
+    if (instance == null) {
+      instance = new SessionRegistry();
+    }
+    return instance;
+  }
+
+  /**
+   * Adds a newly authenticated connection, subscribed to media info and input.
+   * Tiles are only sent once the phone asks for them.
+   */
+  public void addSession(TcpConnection con) {
+    // Sessions that only subscribe to input are never written to, so this is
+    // where we notice that they went away.
+    for (TcpConnection existing : sessions.keySet()) {
+      if (!existing.isConnected()) {
+        removeSession(existing);
+      }
+    }
+
+    sessions.put(con, new Session(con));
+    LOGGER.info("Session added for " + con.getConnectedClientAddress() + ". Sessions: "
+        + sessions.size());
+  }
+
+  /**
+   * Removes a connection from the registry and closes it. Packets that were
+   * published to it but not sent yet are dropped.
+   */
+  public void removeSession(TcpConnection con) {
+    Session session = sessions.remove(con);
+    if (session != null) {
+      session.close();
+      LOGGER.info("Session removed for " + con.getConnectedClientAddress() + ". Sessions: "
+          + sessions.size());
+    }
+    con.closeConnection();
+  }
+
+  public void subscribe(TcpConnection con, Subscription subscription) {
+    Session session = sessions.get(con);
+    if (session != null) {
+      session.subscriptions.add(subscription);
+    }
+  }
+
+  public void unsubscribe(TcpConnection con, Subscription subscription) {
+    Session session = sessions.get(con);
+    if (session != null) {
+      session.subscriptions.remove(subscription);
+    }
+  }
+
+  /**
+   * Returns true if at least one connected session wants this kind of data.
+   */
+  public boolean hasSubscribers(Subscription subscription) {
+    for (Session session : sessions.values()) {
+      if (session.subscriptions.contains(subscription) && session.con.isConnected()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if every connected session that wants this kind of data
+   * speaks at least the given codec version, so that packets which only that
+   * version understands can be published.
+   */
+  public boolean allSubscribersSupport(Subscription subscription, int codecVersion) {
+    for (Session session : sessions.values()) {
+      TcpConnection con = session.con;
+      if (session.subscriptions.contains(subscription) && con.isConnected()
+          && con.getCodecVersion() < codecVersion) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if a connected session from this address wants this kind of
+   * data. Used to validate udp packets, which aren't tied to a connection.
+   */
+  public boolean isSubscribed(InetAddress clientAddress, Subscription subscription) {
+    for (Session session : sessions.values()) {
+      TcpConnection con = session.con;
+      if (session.subscriptions.contains(subscription) && con.isConnected()
+          && clientAddress.equals(con.getConnectedClientAddress())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues a packet for every session that subscribed to it and returns
+   * without waiting for the packet to be sent. The packet is encoded at most
+   * once per codec version, no matter how many sessions receive it. Each
+   * session sends its packets in the order in which they were published.
+   * Sessions that have disconnected, that fail to receive the packet, or that
+   * fall more than MAX_PENDING_PACKETS behind, are removed.
+   *
+   * @return the number of sessions that the packet was queued for.
+   */
+  public int publish(Subscription subscription, AbstractPacket packet) {
+    // Indexed by codec version.
+    byte[][] encodedPackets = new byte[PacketCodec.VERSION + 1][];
+    boolean[] encodeFailed = new boolean[PacketCodec.VERSION + 1];
+    int queued = 0;
+    for (Session session : sessions.values()) {
+      TcpConnection con = session.con;
+      if (!session.subscriptions.contains(subscription)) {
+        continue;
+      }
+      if (!con.isConnected()) {
+        removeSession(con);
+        continue;
+      }
+      int version = con.getCodecVersion();
+      if (encodeFailed[version]) {
+        continue;
+      }
+      if (encodedPackets[version] == null && version != PacketCodec.JAVA_SERIALIZATION) {
+        try {
+          encodedPackets[version] = PacketCodec.encode(packet, version);
+        } catch (IOException e) {
+          // Skip the sessions that use this codec version. Sessions that use
+          // another version may still be able to receive the packet.
+          LOGGER.log(Level.WARNING, e.getMessage(), e);
+          encodeFailed[version] = true;
+          continue;
+        }
+      }
+      if (session.send(packet, encodedPackets[version])) {
+        queued++;
+      } else {
+        LOGGER.warning("Session for " + con.getConnectedClientAddress() + " has "
+            + MAX_PENDING_PACKETS + " unsent packets. Dropping it.");
+        removeSession(con);
+      }
+    }
+    return queued;
+  }
+
+  /**
+   * Waits until every session that wants this kind of data has sent the
+   * packets that were published to it, or until the timeout expires.
+   *
+   * @return false if the timeout expired.
+   */
+  public boolean awaitDelivery(Subscription subscription, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    for (Session session : sessions.values()) {
+      if (session.subscriptions.contains(subscription) && !session.awaitIdle(deadline)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A connected phone, the data that it subscribed to, and the thread that
+   * sends it what is published.
+   */
+  private class Session {
+    final TcpConnection con;
+    final Set<Subscription> subscriptions = Collections.synchronizedSet(EnumSet.of(
+        Subscription.MEDIA_INFO, Subscription.INPUT));
+    final ExecutorService sender = Executors.newSingleThreadExecutor(senderThreadFactory);
+    // Guarded by 'this'.
+    private int pendingPackets = 0;
+
+    Session(TcpConnection con) {
+      this.con = con;
+    }
+
+    /**
+     * Queues a packet to be sent. Returns false if too many packets are
+     * already waiting.
+     */
+    boolean send(final AbstractPacket packet, final byte[] encodedPacket) {
+      synchronized (this) {
+        if (pendingPackets >= MAX_PENDING_PACKETS) {
+          return false;
+        }
+        pendingPackets++;
+      }
+      try {
+        sender.execute(new Runnable() {
+          public void run() {
+            try {
+              con.sendPacket(packet, encodedPacket);
+            } catch (IOException e) {
+              LOGGER.log(Level.SEVERE, e.getMessage(), e);
+              removeSession(con);
+            } finally {
+              packetSent();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // The session was removed in the meantime.
+        packetSent();
+      }
+      return true;
+    }
+
+    synchronized void close() {
+      sender.shutdownNow();
+      // The packets that were still queued will never be sent.
+      notifyAll();
+    }
+
+    private synchronized void packetSent() {
+      pendingPackets--;
+      if (pendingPackets == 0) {
+        notifyAll();
+      }
+    }
+
+    /**
+     * Waits until there are no more packets to send, or until the deadline.
+     * Returns false if the deadline passed first.
+     */
+    synchronized boolean awaitIdle(long deadline) throws InterruptedException {
+      while (pendingPackets > 0 && !sender.isShutdown()) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return false;
+        }
+        wait(remaining);
+      }
+      return true;
+    }
+  }
+}
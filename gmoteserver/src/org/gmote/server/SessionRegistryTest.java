@@ -0,0 +1,207 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.gmote.common.PacketCodec;
+import org.gmote.common.TcpConnection;
+import org.gmote.common.Protocol.Command;
+import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.SimplePacket;
+import org.gmote.common.packet.TileUpdatePacket;
+import org.gmote.server.SessionRegistry.Subscription;
+
+public class SessionRegistryTest extends TestCase {
+  private SessionRegistry registry = SessionRegistry.instance();
+  private List<FakeConnection> connections = new ArrayList<FakeConnection>();
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (FakeConnection con : connections) {
+      con.unblock();
+      registry.removeSession(con);
+    }
+  }
+
+  public void testSubscribeAndUnsubscribe() throws Exception {
+    FakeConnection con = addSession();
+    assertFalse(registry.hasSubscribers(Subscription.TILES));
+    assertEquals(0, registry.publish(Subscription.TILES, new SimplePacket(Command.TILE_UPDATE)));
+
+    registry.subscribe(con, Subscription.TILES);
+    assertTrue(registry.hasSubscribers(Subscription.TILES));
+    assertEquals(1, registry.publish(Subscription.TILES, new SimplePacket(Command.TILE_UPDATE)));
+    assertTrue(registry.awaitDelivery(Subscription.TILES, 1000));
+    assertEquals(1, con.getReceived().size());
+
+    registry.unsubscribe(con, Subscription.TILES);
+    assertFalse(registry.hasSubscribers(Subscription.TILES));
+    assertEquals(0, registry.publish(Subscription.TILES, new SimplePacket(Command.TILE_UPDATE)));
+    // Still subscribed to what every session gets.
+    assertTrue(registry.hasSubscribers(Subscription.MEDIA_INFO));
+  }
+
+  public void testPublishInOrderToEverySubscriber() throws Exception {
+    FakeConnection first = addSession();
+    FakeConnection second = addSession();
+    registry.publish(Subscription.MEDIA_INFO, new SimplePacket(Command.PLAY));
+    registry.publish(Subscription.MEDIA_INFO, new SimplePacket(Command.PAUSE));
+    assertTrue(registry.awaitDelivery(Subscription.MEDIA_INFO, 1000));
+    for (FakeConnection con : new FakeConnection[] { first, second }) {
+      assertEquals(2, con.getReceived().size());
+      assertEquals(Command.PLAY, con.getReceived().get(0).getCommand());
+      assertEquals(Command.PAUSE, con.getReceived().get(1).getCommand());
+    }
+  }
+
+  public void testSlowSessionDoesNotHoldUpOthers() throws Exception {
+    FakeConnection slow = addSession();
+    FakeConnection fast = addSession();
+    slow.block();
+    registry.publish(Subscription.MEDIA_INFO, new SimplePacket(Command.PLAY));
+    assertTrue(fast.awaitReceived(1));
+    assertFalse(registry.awaitDelivery(Subscription.MEDIA_INFO, 100));
+
+    slow.unblock();
+    assertTrue(registry.awaitDelivery(Subscription.MEDIA_INFO, 1000));
+    assertEquals(1, slow.getReceived().size());
+  }
+
+  public void testStuckSessionIsRemoved() throws Exception {
+    FakeConnection stuck = addSession();
+    FakeConnection fast = addSession();
+    stuck.block();
+    for (int i = 0; i < SessionRegistry.MAX_PENDING_PACKETS; i++) {
+      assertEquals(2, registry.publish(Subscription.MEDIA_INFO, new SimplePacket(Command.PLAY)));
+    }
+    assertFalse(stuck.isClosed());
+    assertEquals(1, registry.publish(Subscription.MEDIA_INFO, new SimplePacket(Command.PLAY)));
+    assertTrue(stuck.isClosed());
+    assertTrue(fast.awaitReceived(SessionRegistry.MAX_PENDING_PACKETS + 1));
+  }
+
+  public void testDisconnectedSessionIsRemoved() throws Exception {
+    FakeConnection con = addSession();
+    con.closeConnection();
+    assertEquals(0, registry.publish(Subscription.MEDIA_INFO, new SimplePacket(Command.PLAY)));
+    assertFalse(registry.hasSubscribers(Subscription.MEDIA_INFO));
+  }
+
+  public void testPacketThatOneVersionCantEncodeGoesToTheOthers() throws Exception {
+    FakeConnection old = addSession(PacketCodec.TILE_DELTA_VERSION - 1);
+    FakeConnection current = addSession(PacketCodec.VERSION);
+    registry.subscribe(old, Subscription.TILES);
+    registry.subscribe(current, Subscription.TILES);
+    TileUpdatePacket partial = new TileUpdatePacket(1, 2, 3, 4, new byte[] { 1, 2, 3 });
+    assertEquals(1, registry.publish(Subscription.TILES, partial));
+    assertTrue(current.awaitReceived(1));
+    assertTrue(registry.awaitDelivery(Subscription.TILES, 1000));
+    assertEquals(0, old.getReceived().size());
+    assertFalse(old.isClosed());
+  }
+
+  private FakeConnection addSession() {
+    return addSession(PacketCodec.VERSION);
+  }
+
+  private FakeConnection addSession(int codecVersion) {
+    FakeConnection con = new FakeConnection(codecVersion);
+    connections.add(con);
+    registry.addSession(con);
+    return con;
+  }
+
+  /**
+   * A connection that records the packets sent to it, and that can be made
+   * to block like a phone that stopped reading.
+   */
+  private static class FakeConnection extends TcpConnection {
+    private final List<AbstractPacket> received = Collections
+        .synchronizedList(new ArrayList<AbstractPacket>());
+    private volatile CountDownLatch blocker = new CountDownLatch(0);
+    private volatile boolean closed = false;
+    private final int codecVersion;
+
+    FakeConnection(int codecVersion) {
+      super(null);
+      this.codecVersion = codecVersion;
+    }
+
+    void block() {
+      blocker = new CountDownLatch(1);
+    }
+
+    void unblock() {
+      blocker.countDown();
+    }
+
+    List<AbstractPacket> getReceived() {
+      return received;
+    }
+
+    boolean awaitReceived(int count) throws InterruptedException {
+      for (int i = 0; i < 100 && received.size() < count; i++) {
+        Thread.sleep(10);
+      }
+      return received.size() >= count;
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+
+    @Override
+    public void sendPacket(AbstractPacket packet, byte[] encodedPacket) {
+      try {
+        blocker.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // The session was removed.
+      }
+      assertNotNull(encodedPacket);
+      received.add(packet);
+    }
+
+    @Override
+    public void closeConnection() {
+      closed = true;
+      unblock();
+    }
+
+    @Override
+    public boolean isConnected() {
+      return !closed;
+    }
+
+    @Override
+    public int getCodecVersion() {
+      return codecVersion;
+    }
+
+    @Override
+    public InetAddress getConnectedClientAddress() {
+      return null;
+    }
+  }
+}
@@ -16,12 +16,12 @@
 
 package org.gmote.server;
 
-import java.io.StreamCorruptedException;
+import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,7 +33,6 @@ import org.gmote.common.PasswordProvider;
 import org.gmote.common.TcpConnection;
 import org.gmote.common.security.AuthenticationHandler;
 import org.gmote.server.media.MediaInfoUpdater;
-import org.gmote.server.visualtouchpad.VisualTouchpad;
 
 public class TcpConnectionHandler {
   private static final Logger LOGGER = Logger.getLogger(TcpConnectionHandler.class.getName());
@@ -47,6 +46,13 @@ public class TcpConnectionHandler {
   
   private UpnpUtil upnpUtil = new UpnpUtil();
 
+  // Circular list that will contain the last 5 session ids. It is read by the
+  // http server threads.
+  private List<String> latestSessionIds = Collections
+      .synchronizedList(new ArrayList<String>(MAX_OLD_SESSION_IDS));
+
+  private ConnectionAcceptor acceptor = null;
+
   private TcpConnectionHandler() {
     
   }
@@ -69,7 +75,21 @@ public class TcpConnectionHandler {
   public synchronized void addConnectionListener(InetAddress address) {
     addressListeningOn.add(address.getHostAddress().toLowerCase());
     int port = upnpUtil.getPort(address);
-    new Thread(new ConnectionReceiverThread(port)).start();
+    try {
+      getAcceptor().listenOnPort(port);
+    } catch (BindException e) {
+      // The port is already in use. We'll exit.
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      String errorMessage = "Unable to use port: "
+          + port
+          + ". There may be an instance of"
+          + " Gmote already running. Please close it and try again. For more help, please visit:\nhttp://www.gmote.org";
+      LOGGER.warning(errorMessage);
+      JOptionPane.showMessageDialog(null, errorMessage);
+      System.exit(1);
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    }
   }
   
   public synchronized boolean isListeningOnAddress(InetAddress address) {
@@ -81,20 +101,13 @@ public class TcpConnectionHandler {
       addConnectionListener(address);
     }
   }
-  
-  private class ConnectionReceiverThread implements Runnable {
-
-    private int tcpPort;
-
-    public ConnectionReceiverThread(int tcpPort) {
-      this.tcpPort = tcpPort;
-    }
-
-    @Override
-    public void run() {
-      // Circular list that will contain the last 5 session ids.
-      List<String> latestSessionIds = new ArrayList<String>(MAX_OLD_SESSION_IDS);
 
+  /**
+   * Returns the acceptor that handles incoming connections on all of our
+   * ports, starting it if needed.
+   */
+  private ConnectionAcceptor getAcceptor() throws IOException {
+    if (acceptor == null) {
       PasswordProvider passProvider = new PasswordProvider() {
         public String fetchPassword() {
           return StringEncrypter.readPasswordFromFile();
@@ -104,56 +117,31 @@ public class TcpConnectionHandler {
       AuthenticationHandler authHandler = new AuthenticationHandler(GmoteServer.VERSION,
           GmoteServer.MINIMUM_CLIENT_VERSION);
 
-      while (true) {
-        TcpConnection con = null;
-        try {
-          LOGGER.info("Waiting for TCP connection on port: " + tcpPort);
-          con = new TcpConnection(authHandler);
-          Thread thread = con.listenForConnections(tcpPort, dataReceiver, passProvider);
-          if (thread != null) {
-            MediaInfoUpdater.instance().setClientConnection(con);
-            MulticastServerThread.setConnectedClientIp(con.getConnectedClientAddress());
-            addToSessionList(con.getSessionId(), latestSessionIds);
-            VisualTouchpad.instance().setConnection(con);
-          }
-        } catch (StreamCorruptedException e) {
-          // This may be an HTTP request. Try to handle it.
-          LOGGER
-              .warning("Encountered a StreamCorruptedException: trying to handle it as an HTTP request");
-          Socket connectionSocket;
-          if (con != null && (connectionSocket = con.getConnectionSocket()) != null) {
-            GmoteHttpServer httpServer = new GmoteHttpServer(connectionSocket);
-            httpServer.handleHttpRequestAsync(latestSessionIds);
-          } else {
-            LOGGER.log(Level.SEVERE,
-                "Unable to handle StreamCorruptedException: " + e.getMessage(), e);
-          }
+      acceptor = new ConnectionAcceptor(this, dataReceiver, authHandler, passProvider);
+      new Thread(acceptor, "ConnectionAcceptor").start();
+    }
+    return acceptor;
+  }
 
-        } catch (BindException e) {
-          // The port is already in use. We'll exit.
-          LOGGER.log(Level.SEVERE, e.getMessage(), e);
-          String errorMessage = "Unable to use port: "
-              + tcpPort
-              + ". There may be an instance of"
-              + " Gmote already running. Please close it and try again. For more help, please visit:\nhttp://www.gmote.org";
-          LOGGER.warning(errorMessage);
-          JOptionPane.showMessageDialog(null, errorMessage);
-          System.exit(1);
-        } catch (Exception e) {
-          // Catching all exceptions since this is the top layer of our app and
-          // we'll try to recover from these exceptions.
-          LOGGER.log(Level.SEVERE, e.getMessage(), e);
-        }
-      }
+  /**
+   * Called by the acceptor once a client has successfully authenticated.
+   */
+  void sessionEstablished(TcpConnection con) {
+    SessionRegistry.instance().addSession(con);
+    addToSessionList(con.getSessionId());
+    MediaInfoUpdater.instance().clientConnected();
+  }
 
-    }
+  List<String> getLatestSessionIds() {
+    return latestSessionIds;
+  }
 
-    private void addToSessionList(String sessionId, List<String> latestSessionIds) {
+  private void addToSessionList(String sessionId) {
+    synchronized (latestSessionIds) {
       if (latestSessionIds.size() >= MAX_OLD_SESSION_IDS) {
         latestSessionIds.remove(0);
       }
       latestSessionIds.add(sessionId);
     }
-
   }
 }
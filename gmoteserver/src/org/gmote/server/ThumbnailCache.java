@@ -0,0 +1,300 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gmote.server.settings.SystemPaths;
+
+/**
+ * Keeps scaled down copies of images on disk so that we don't have to decode
+ * and re-encode a large photo every time the phone displays it. Thumbnails are
+ * keyed by the image's path, modification time and size, so an image that
+ * changes gets a new thumbnail. The least recently used thumbnails are deleted
+ * once the cache gets too big.
+ */
+class ThumbnailCache {
+  private static final Logger LOGGER = Logger.getLogger(ThumbnailCache.class.getName());
+
+  // Maximum amount of disk space used by the thumbnails.
+  private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+  private static final String THUMBNAIL_EXTENSION = ".jpg";
+
+  private static ThumbnailCache instance = null;
+
+  private final File cacheDirectory;
+
+  // Thumbnails on disk and their size, from least to most recently used.
+  // Guarded by 'this'.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f,
+      true);
+  private long cacheBytes = 0;
+
+  // Thumbnails that are being created. A second request for the same image
+  // waits for the first one instead of decoding the image again.
+  private final ConcurrentHashMap<String, FutureTask<byte[]>> pendingThumbnails =
+      new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong totalCreateNanos = new AtomicLong();
+
+  ThumbnailCache(File cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+    loadEntries();
+  }
+
+  static synchronized ThumbnailCache instance() {
+    if (instance == null) {
+      instance = new ThumbnailCache(new File(SystemPaths.THUMBNAIL_CACHE.getFullPath()));
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the thumbnail of an image, calling 'thumbnailCreator' to make it if
+   * it isn't in the cache.
+   */
+  byte[] getThumbnail(File image, int size, Callable<byte[]> thumbnailCreator)
+      throws IOException, InterruptedException {
+    String key = createKey(image, size);
+    byte[] thumbnail = readThumbnail(key);
+    if (thumbnail != null) {
+      hits.incrementAndGet();
+      return thumbnail;
+    }
+
+    FutureTask<byte[]> task = new FutureTask<byte[]>(new ThumbnailTask(key, thumbnailCreator));
+    FutureTask<byte[]> pendingTask = pendingThumbnails.putIfAbsent(key, task);
+    if (pendingTask == null) {
+      misses.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        pendingThumbnails.remove(key);
+      }
+      pendingTask = task;
+    } else {
+      hits.incrementAndGet();
+    }
+
+    try {
+      return pendingTask.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      IOException ioException = new IOException("Unable to create thumbnail: " + image.getName());
+      ioException.initCause(cause);
+      throw ioException;
+    }
+  }
+
+  /**
+   * Returns the fraction of requests that were served without creating a
+   * thumbnail.
+   */
+  double getHitRate() {
+    long total = hits.get() + misses.get();
+    return total == 0 ? 0 : (double) hits.get() / total;
+  }
+
+  /**
+   * Returns the average time, in milliseconds, that it took to create a
+   * thumbnail.
+   */
+  long getAverageCreateMillis() {
+    long created = misses.get();
+    return created == 0 ? 0 : totalCreateNanos.get() / created / 1000000;
+  }
+
+  private class ThumbnailTask implements Callable<byte[]> {
+    private final String key;
+    private final Callable<byte[]> thumbnailCreator;
+
+    ThumbnailTask(String key, Callable<byte[]> thumbnailCreator) {
+      this.key = key;
+      this.thumbnailCreator = thumbnailCreator;
+    }
+
+    public byte[] call() throws Exception {
+      long start = System.nanoTime();
+      byte[] thumbnail = thumbnailCreator.call();
+      long createNanos = System.nanoTime() - start;
+      totalCreateNanos.addAndGet(createNanos);
+      LOGGER.info("Created thumbnail in " + createNanos / 1000000 + "ms. Hit rate: "
+          + Math.round(getHitRate() * 100) + "%, average creation time: "
+          + getAverageCreateMillis() + "ms");
+
+      try {
+        writeThumbnail(key, thumbnail);
+      } catch (IOException e) {
+        // We can still send the thumbnail, we just won't have it next time.
+        LOGGER.log(Level.WARNING, e.getMessage(), e);
+      }
+      return thumbnail;
+    }
+  }
+
+  private byte[] readThumbnail(String key) {
+    synchronized (this) {
+      if (entries.get(key) == null) {
+        return null;
+      }
+    }
+
+    File file = new File(cacheDirectory, key + THUMBNAIL_EXTENSION);
+    try {
+      byte[] thumbnail = new byte[(int) file.length()];
+      InputStream in = new FileInputStream(file);
+      try {
+        int offset = 0;
+        while (offset < thumbnail.length) {
+          int read = in.read(thumbnail, offset, thumbnail.length - offset);
+          if (read < 0) {
+            throw new IOException("Thumbnail is shorter than expected: " + file);
+          }
+          offset += read;
+        }
+      } finally {
+        in.close();
+      }
+      // Remember when it was last used, for when we reload the cache.
+      file.setLastModified(System.currentTimeMillis());
+      return thumbnail;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, e.getMessage(), e);
+      synchronized (this) {
+        Long size = entries.remove(key);
+        if (size != null) {
+          cacheBytes -= size;
+        }
+      }
+      return null;
+    }
+  }
+
+  private void writeThumbnail(String key, byte[] thumbnail) throws IOException {
+    cacheDirectory.mkdirs();
+    // Write to a temporary file first so that nobody reads a partial thumbnail.
+    File tempFile = File.createTempFile(key, ".tmp", cacheDirectory);
+    OutputStream out = new FileOutputStream(tempFile);
+    try {
+      out.write(thumbnail);
+    } finally {
+      out.close();
+    }
+
+    File file = new File(cacheDirectory, key + THUMBNAIL_EXTENSION);
+    file.delete();
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      throw new IOException("Unable to add thumbnail to the cache: " + file);
+    }
+
+    synchronized (this) {
+      Long previousSize = entries.put(key, Long.valueOf(thumbnail.length));
+      if (previousSize != null) {
+        cacheBytes -= previousSize;
+      }
+      cacheBytes += thumbnail.length;
+      evictEntries();
+    }
+  }
+
+  /**
+   * Deletes the least recently used thumbnails until the cache fits in its
+   * maximum size. Must be called while holding the lock on 'this'.
+   */
+  private void evictEntries() {
+    Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+    while (cacheBytes > MAX_CACHE_BYTES && it.hasNext()) {
+      Map.Entry<String, Long> entry = it.next();
+      new File(cacheDirectory, entry.getKey() + THUMBNAIL_EXTENSION).delete();
+      cacheBytes -= entry.getValue();
+      it.remove();
+    }
+  }
+
+  /**
+   * Loads the thumbnails that are already on disk, using their modification
+   * time as the time they were last used.
+   */
+  private synchronized void loadEntries() {
+    File[] files = cacheDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      public int compare(File f1, File f2) {
+        return Long.valueOf(f1.lastModified()).compareTo(Long.valueOf(f2.lastModified()));
+      }
+    });
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(THUMBNAIL_EXTENSION)) {
+        entries.put(name.substring(0, name.length() - THUMBNAIL_EXTENSION.length()), Long
+            .valueOf(file.length()));
+        cacheBytes += file.length();
+      } else {
+        // Left over from a write that didn't complete.
+        file.delete();
+      }
+    }
+    evictEntries();
+  }
+
+  private static String createKey(File image, int size) {
+    String key = image.getAbsolutePath() + "|" + image.lastModified() + "|" + size;
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      byte[] hash = digest.digest(key.getBytes("UTF-8"));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : hash) {
+        hex.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import org.gmote.common.media.MediaMetaInfo;
+import org.gmote.common.packet.AbstractPacket;
+import org.gmote.common.packet.ArtReplyPacket;
+import org.gmote.common.packet.ArtReqPacket;
+
+/**
+ * Keeps the album art that we sent to the phone, keyed by a hash of the
+ * original image. The phone caches art by the same hash, so that switching
+ * back to an album it has already shown costs a few bytes instead of the
+ * whole image. Art that is larger than the phone's screen is shrunk before
+ * it's stored.
+ */
+public class AlbumArtCache {
+  private static final Logger LOGGER = Logger.getLogger(AlbumArtCache.class.getName());
+
+  // Maximum width or height of the art that we send to the phone.
+  private static final int MAX_ART_SIZE = 480;
+  // Maximum number of bytes of art that we keep in memory.
+  private static final int MAX_ART_BYTES = 8 * 1024 * 1024;
+  // The phone takes images this small to mean "keep showing the current art"
+  // (see ItunesCommandHandler), so we leave them alone.
+  private static final int MAX_MARKER_SIZE = 10;
+
+  private static AlbumArtCache instance = null;
+
+  // Guarded by 'this'. Ordered from least to most recently used.
+  private final LinkedHashMap<String, byte[]> art = new LinkedHashMap<String, byte[]>(16,
+      0.75f, true);
+  private long artBytes = 0;
+
+  public static synchronized AlbumArtCache instance() {
+    if (instance == null) {
+      instance = new AlbumArtCache();
+    }
+    return instance;
+  }
+
+  /**
+   * Stores the image of a media info in the cache, and updates the media info
+   * with the hash of the image and with the image as we stored it. A hash that
+   * the media info already has, like the one MediaMetaInfoCache computes for
+   * embedded art, is used as is. Images that are too small to store are sent
+   * without a hash.
+   */
+  public void storeImage(MediaMetaInfo mediaInfo) {
+    byte[] image = mediaInfo.getImage();
+    if (image == null || image.length <= MAX_MARKER_SIZE) {
+      mediaInfo.setImageHash(null);
+      return;
+    }
+    String hash = mediaInfo.getImageHash();
+    if (hash == null) {
+      hash = createHash(ByteBuffer.wrap(image));
+    }
+    byte[] storedImage = get(hash);
+    if (storedImage == null) {
+      storedImage = shrink(image);
+      put(hash, storedImage);
+    }
+    mediaInfo.setImageHash(hash);
+    mediaInfo.setImage(storedImage);
+  }
+
+  /**
+   * Returns the art that was stored with a given hash, or null if we don't
+   * have it (anymore).
+   */
+  public synchronized byte[] get(String hash) {
+    return hash == null ? null : art.get(hash);
+  }
+
+  /**
+   * Answers a phone that asks for art that it doesn't have.
+   */
+  public AbstractPacket handleArtReq(AbstractPacket packet) {
+    String hash = ((ArtReqPacket) packet).getImageHash();
+    byte[] image = get(hash);
+    if (image == null) {
+      LOGGER.info("Art was requested but is no longer cached: " + hash);
+    }
+    return new ArtReplyPacket(hash, image);
+  }
+
+  private synchronized void put(String hash, byte[] image) {
+    if (image.length > MAX_ART_BYTES) {
+      return;
+    }
+    art.put(hash, image);
+    artBytes += image.length;
+
+    // Drop the least recently used art until we are within our budget.
+    Iterator<byte[]> it = art.values().iterator();
+    while (artBytes > MAX_ART_BYTES && it.hasNext()) {
+      artBytes -= it.next().length;
+      it.remove();
+    }
+  }
+
+  /**
+   * Returns the image scaled down to MAX_ART_SIZE as a JPEG, or the image
+   * itself if it's small enough already or if we can't decode it.
+   */
+  private static byte[] shrink(byte[] image) {
+    try {
+      BufferedImage original = ImageIO.read(new ByteArrayInputStream(image));
+      if (original == null) {
+        return image;
+      }
+      int width = original.getWidth();
+      int height = original.getHeight();
+      if (width <= MAX_ART_SIZE && height <= MAX_ART_SIZE) {
+        return image;
+      }
+      double scale = (double) MAX_ART_SIZE / Math.max(width, height);
+      int scaledWidth = Math.max(1, (int) (width * scale));
+      int scaledHeight = Math.max(1, (int) (height * scale));
+      BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight,
+          BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = scaled.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(original, 0, 0, scaledWidth, scaledHeight, null);
+      graphics.dispose();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      if (!ImageIO.write(scaled, "JPEG", out) || out.size() >= image.length) {
+        return image;
+      }
+      LOGGER.info("Shrunk album art from " + width + "x" + height + " (" + image.length
+          + " bytes) to " + scaledWidth + "x" + scaledHeight + " (" + out.size() + " bytes)");
+      return out.toByteArray();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to shrink album art", e);
+      return image;
+    }
+  }
+
+  /**
+   * Returns the hash that art is stored under. Consumes the buffer.
+   */
+  static String createHash(ByteBuffer image) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // Every java runtime has SHA-1.
+      throw new IllegalStateException(e);
+    }
+    digest.update(image);
+    byte[] hash = digest.digest();
+    StringBuilder hex = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,663 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.blinkenlights.jid3.MP3File;
+import org.gmote.common.FileInfo;
+import org.gmote.common.FileInfo.FileType;
+import org.gmote.common.media.MediaMetaInfo;
+import org.gmote.server.ServerUtil;
+import org.gmote.server.settings.BaseMediaPaths;
+import org.gmote.server.settings.SupportedFiletypeSettings;
+import org.gmote.server.settings.SystemPaths;
+
+/**
+ * Index of the files under the base media paths, along with the tags of the
+ * songs, so that we can list or search directories without going to the
+ * disk. The index is saved to disk and the base paths are
+ * rescanned in the background every RESCAN_PERIOD.
+ * <p>
+ * Rescans are incremental. The files of a directory whose modification time
+ * didn't change are reused as they are, only its sub directories are visited.
+ * Files of a changed directory are checked, and a song's tags are only read
+ * again if its size or modification time changed. Editing a file in place
+ * doesn't change the modification time of its directory, so every
+ * FULL_SCAN_PERIOD'th rescan checks every file. We don't get notified when
+ * files change, so a directory that is found to have changed while the phone
+ * browses it is rescanned right away, and the caller falls back to the disk
+ * in the meantime.
+ * </p>
+ */
+public class MediaIndex {
+  private static final Logger LOGGER = Logger.getLogger(MediaIndex.class.getName());
+
+  private static final int SCAN_THREADS = 4;
+  private static final long RESCAN_PERIOD = 15 * 60 * 1000;
+  // Number of rescans between two scans that check every file.
+  private static final int FULL_SCAN_PERIOD = 8;
+
+  // Written at the start of the index file. Change it whenever the format
+  // changes so that old files get ignored.
+  private static final int FILE_FORMAT_VERSION = 1;
+  // Longest tag that we keep. writeUTF() can't handle more than 64KB anyways.
+  private static final int MAX_TAG_LENGTH = 1024;
+
+  private static final byte FLAG_DIRECTORY = 1;
+  private static final byte FLAG_HAS_TAGS = 2;
+
+  private static MediaIndex instance = null;
+
+  private final File indexFile;
+
+  // Indexed directories, by absolute path.
+  private final Map<String, IndexedDirectory> directories =
+      new ConcurrentHashMap<String, IndexedDirectory>();
+
+  // Directories that are queued to be rescanned on their own.
+  private final Set<String> pendingRescans = Collections.synchronizedSet(new HashSet<String>());
+
+  // Updates of the directories and the search index are made while holding
+  // this lock so that the two always agree.
+  private final Object updateLock = new Object();
+  private final SearchIndex searchIndex = new SearchIndex();
+
+  private final ExecutorService scanExecutor;
+  private final AtomicBoolean scanning = new AtomicBoolean(false);
+  private volatile int scanGeneration = 0;
+  private Timer rescanTimer = null;
+
+  MediaIndex(File indexFile) {
+    this.indexFile = indexFile;
+    scanExecutor = Executors.newFixedThreadPool(SCAN_THREADS, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "MediaIndexScanner");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+  }
+
+  public static synchronized MediaIndex instance() {
+    if (instance == null) {
+      instance = new MediaIndex(new File(SystemPaths.MEDIA_INDEX.getFullPath()));
+    }
+    return instance;
+  }
+
+  /**
+   * Loads the saved index and starts rescanning the base paths in the
+   * background.
+   */
+  public synchronized void start() {
+    if (rescanTimer != null) {
+      return;
+    }
+    rescanTimer = new Timer("MediaIndexTimer", true);
+    rescanTimer.schedule(new TimerTask() {
+      private boolean loaded = false;
+
+      @Override
+      public void run() {
+        if (!loaded) {
+          load();
+          loaded = true;
+        }
+        rescan();
+      }
+    }, 0, RESCAN_PERIOD);
+  }
+
+  /**
+   * Returns the sorted content of a directory, the same way that
+   * GmoteServer would list it from the disk, or null if the directory isn't
+   * indexed or changed since it was scanned.
+   */
+  public FileInfo[] getListing(File directory, boolean showAllFiles) {
+    String path = directory.getAbsolutePath();
+    IndexedDirectory indexed = directories.get(path);
+    if (indexed == null) {
+      return null;
+    }
+    if (indexed.lastModified != directory.lastModified()) {
+      rescanLater(directory);
+      return null;
+    }
+
+    List<FileInfo> files = new ArrayList<FileInfo>(indexed.files.length);
+    for (IndexedFile file : indexed.files) {
+      if (showAllFiles || file.isDirectory()
+          || SupportedFiletypeSettings.fileNameToFileType(file.name.toLowerCase()) != FileType.UNKNOWN) {
+        files.add(file.toFileInfo(path));
+      }
+    }
+    return files.toArray(new FileInfo[files.size()]);
+  }
+
+  /**
+   * Searches the names and tags of the indexed files. See SearchIndex for how
+   * files are matched and ranked.
+   *
+   * @param offset the number of results to skip.
+   * @param limit the maximum number of results to return.
+   */
+  public SearchResults search(String query, int offset, int limit) {
+    return searchIndex.search(query, offset, limit);
+  }
+
+  public int getDirectoryCount() {
+    return directories.size();
+  }
+
+  /**
+   * Rescans every base path, and saves the index once done. Does nothing if a
+   * scan is already running.
+   */
+  public void rescan() {
+    if (!scanning.compareAndSet(false, true)) {
+      LOGGER.info("The media index is already being scanned");
+      return;
+    }
+    try {
+      long startTime = System.currentTimeMillis();
+      int generation = scanGeneration + 1;
+      scanGeneration = generation;
+      Scan scan = new Scan(generation, generation % FULL_SCAN_PERIOD == 1);
+      for (FileInfo basePath : BaseMediaPaths.getInstance().getBasePaths()) {
+        // Discs come and go, there is no point in indexing them.
+        if (basePath.getFileType() == FileType.DVD_DRIVE) {
+          continue;
+        }
+        File directory = new File(basePath.getAbsolutePath());
+        if (directory.isDirectory()) {
+          scan.submit(directory);
+        }
+      }
+      scan.await();
+
+      // Directories that we didn't see were removed, or are no longer under a
+      // base path.
+      for (Map.Entry<String, IndexedDirectory> entry : directories.entrySet()) {
+        if (entry.getValue().generation < generation) {
+          removeDirectory(entry.getKey(), generation);
+        }
+      }
+      LOGGER.info("Scanned " + scan.directoriesScanned + " directories and " + scan.filesScanned
+          + " files in " + (System.currentTimeMillis() - startTime) + "ms. Read the tags of "
+          + scan.tagsRead + " songs.");
+      save();
+    } catch (InterruptedException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    } finally {
+      scanning.set(false);
+    }
+  }
+
+  /**
+   * Queues a directory to be rescanned on its own, without its sub
+   * directories.
+   */
+  private void rescanLater(final File directory) {
+    final String path = directory.getAbsolutePath();
+    if (!pendingRescans.add(path)) {
+      return;
+    }
+    LOGGER.info("Directory changed since it was indexed: " + directory);
+    scanExecutor.execute(new Runnable() {
+      public void run() {
+        try {
+          scanDirectory(directory, null);
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        } finally {
+          pendingRescans.remove(path);
+        }
+      }
+    });
+  }
+
+  /**
+   * Updates the index of a directory, submitting its sub directories to the
+   * scan if there is one.
+   */
+  private void scanDirectory(File directory, Scan scan) {
+    String path = directory.getAbsolutePath();
+    IndexedDirectory previous = directories.get(path);
+    long lastModified = directory.lastModified();
+
+    int generation = (scan != null) ? scan.generation : scanGeneration;
+    if (previous != null && previous.lastModified == lastModified
+        && (scan == null || !scan.checkAllFiles)) {
+      // No file was added or removed, so we don't look at the files again.
+      // Their sub directories can still have changed.
+      if (scan != null) {
+        for (IndexedFile file : previous.files) {
+          if (file.isDirectory() && file.toFileInfo(path).isDirectory()) {
+            scan.submit(new File(directory, file.name));
+          }
+        }
+      }
+      putDirectory(path, new IndexedDirectory(lastModified, previous.files, generation));
+      if (scan != null) {
+        scan.directoriesScanned.incrementAndGet();
+      }
+      return;
+    }
+
+    Map<String, IndexedFile> previousFiles = new HashMap<String, IndexedFile>();
+    String[] names;
+    if (previous != null) {
+      for (IndexedFile file : previous.files) {
+        previousFiles.put(file.name, file);
+      }
+    }
+    if (previous != null && previous.lastModified == lastModified) {
+      // No file was added or removed, no need to list the directory again.
+      names = previousFiles.keySet().toArray(new String[previousFiles.size()]);
+    } else {
+      names = directory.list();
+      if (names == null) {
+        removeDirectory(path, generation);
+        return;
+      }
+    }
+
+    List<IndexedFile> files = new ArrayList<IndexedFile>(names.length);
+    for (String name : names) {
+      File file = new File(directory, name);
+      IndexedFile indexed = scanFile(file, previousFiles.get(name), scan);
+      if (indexed == null) {
+        continue;
+      }
+      files.add(indexed);
+      if (scan != null && indexed.isDirectory() && indexed.toFileInfo(path).isDirectory()) {
+        scan.submit(file);
+      }
+    }
+
+    IndexedFile[] sortedFiles = files.toArray(new IndexedFile[files.size()]);
+    Arrays.sort(sortedFiles, new Comparator<IndexedFile>() {
+      public int compare(IndexedFile f1, IndexedFile f2) {
+        return f1.name.toLowerCase().compareTo(f2.name.toLowerCase());
+      }
+    });
+    putDirectory(path, new IndexedDirectory(lastModified, sortedFiles, generation));
+    if (scan != null) {
+      scan.directoriesScanned.incrementAndGet();
+      scan.filesScanned.addAndGet(sortedFiles.length);
+    }
+  }
+
+  /**
+   * Returns the index entry of a file, reusing the previous one if the file
+   * didn't change. Returns null for hidden files and files that went away.
+   */
+  private IndexedFile scanFile(File file, IndexedFile previous, Scan scan) {
+    if (file.isHidden()) {
+      return null;
+    }
+    long lastModified = file.lastModified();
+    if (lastModified == 0) {
+      return null;
+    }
+    long size = file.length();
+    if (previous != null && previous.lastModified == lastModified && previous.size == size) {
+      return previous;
+    }
+
+    boolean isDirectory = file.isDirectory();
+    byte flags = isDirectory ? FLAG_DIRECTORY : 0;
+    String title = null;
+    String artist = null;
+    String album = null;
+    if (!isDirectory && file.getName().toLowerCase().endsWith(".mp3")) {
+      try {
+        // We only need a few frames of the tags, so don't decode the others.
+        MP3File mp3File = new MP3File(file);
+        mp3File.setLazyFrameDecoding(true);
+        MediaMetaInfo info = PlayerUtil.getSongMetaInfo(mp3File);
+        title = truncateTag(info.getTitle());
+        artist = truncateTag(info.getArtist());
+        album = truncateTag(info.getAlbum());
+        flags |= FLAG_HAS_TAGS;
+        if (scan != null) {
+          scan.tagsRead.incrementAndGet();
+        }
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Unable to read the tags of " + file + ": " + e.getMessage(), e);
+      }
+    }
+    return new IndexedFile(file.getName(), flags, size, lastModified, title, artist, album);
+  }
+
+  /**
+   * Replaces the index of a directory, unless a later scan already updated it.
+   * Scanner threads can race on the same directory, when the phone asks for a
+   * rescan during a full scan for instance.
+   */
+  private void putDirectory(String path, IndexedDirectory directory) {
+    synchronized (updateLock) {
+      IndexedDirectory previous = directories.get(path);
+      if (previous != null && previous.generation > directory.generation) {
+        return;
+      }
+      directories.put(path, directory);
+      // Unchanged files are reused by the scan, so this is how we know that the
+      // directory didn't change.
+      if (previous == null || !Arrays.equals(previous.files, directory.files)) {
+        searchIndex.updateDirectory(path, directory.files);
+      }
+    }
+  }
+
+  /**
+   * Removes a directory from the index, unless a scan that came after
+   * 'generation' saw it again.
+   */
+  private void removeDirectory(String path, int generation) {
+    synchronized (updateLock) {
+      IndexedDirectory previous = directories.get(path);
+      if (previous != null && previous.generation <= generation) {
+        directories.remove(path);
+        searchIndex.removeDirectory(path);
+      }
+    }
+  }
+
+  private static String truncateTag(String tag) {
+    if (tag != null && tag.length() > MAX_TAG_LENGTH) {
+      return tag.substring(0, MAX_TAG_LENGTH);
+    }
+    return tag;
+  }
+
+  /**
+   * Loads the index that was saved by the previous run. Directories that it
+   * holds are checked during the next scan like any other.
+   */
+  private void load() {
+    long startTime = System.currentTimeMillis();
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+    } catch (FileNotFoundException e) {
+      LOGGER.info("No saved media index. One will be created.");
+      return;
+    }
+    try {
+      if (in.readInt() != FILE_FORMAT_VERSION) {
+        LOGGER.info("The saved media index is from another version. It will be recreated.");
+        return;
+      }
+      int directoryCount = in.readInt();
+      for (int i = 0; i < directoryCount; i++) {
+        String path = in.readUTF();
+        long lastModified = in.readLong();
+        IndexedFile[] files = new IndexedFile[in.readInt()];
+        for (int j = 0; j < files.length; j++) {
+          String name = in.readUTF();
+          byte flags = in.readByte();
+          long size = in.readLong();
+          long fileLastModified = in.readLong();
+          String title = null;
+          String artist = null;
+          String album = null;
+          if ((flags & FLAG_HAS_TAGS) != 0) {
+            title = readTag(in);
+            artist = readTag(in);
+            album = readTag(in);
+          }
+          files[j] = new IndexedFile(name, flags, size, fileLastModified, title, artist, album);
+        }
+        putDirectory(path, new IndexedDirectory(lastModified, files, 0));
+      }
+      LOGGER.info("Loaded " + directoryCount + " directories from the media index in "
+          + (System.currentTimeMillis() - startTime) + "ms");
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to load the media index. It will be recreated.", e);
+      synchronized (updateLock) {
+        directories.clear();
+        searchIndex.clear();
+      }
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Saves the index. We write to a temporary file first so that a crash
+   * doesn't leave us with half an index.
+   */
+  private void save() {
+    List<Map.Entry<String, IndexedDirectory>> snapshot =
+        new ArrayList<Map.Entry<String, IndexedDirectory>>(directories.entrySet());
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    try {
+      indexFile.getParentFile().mkdirs();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+          tempFile)));
+      try {
+        out.writeInt(FILE_FORMAT_VERSION);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, IndexedDirectory> entry : snapshot) {
+          IndexedDirectory directory = entry.getValue();
+          out.writeUTF(entry.getKey());
+          out.writeLong(directory.lastModified);
+          out.writeInt(directory.files.length);
+          for (IndexedFile file : directory.files) {
+            out.writeUTF(file.name);
+            out.writeByte(file.flags);
+            out.writeLong(file.size);
+            out.writeLong(file.lastModified);
+            if ((file.flags & FLAG_HAS_TAGS) != 0) {
+              writeTag(out, file.title);
+              writeTag(out, file.artist);
+              writeTag(out, file.album);
+            }
+          }
+        }
+      } finally {
+        out.close();
+      }
+      indexFile.delete();
+      if (!tempFile.renameTo(indexFile)) {
+        throw new IOException("Unable to replace the media index: " + indexFile);
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      tempFile.delete();
+    }
+  }
+
+  private static void writeTag(DataOutputStream out, String tag) throws IOException {
+    out.writeBoolean(tag != null);
+    if (tag != null) {
+      out.writeUTF(tag);
+    }
+  }
+
+  private static String readTag(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * The results of a search, best matches first.
+   */
+  public static class SearchResults {
+    private final FileInfo[] files;
+    private final int totalResults;
+
+    SearchResults(FileInfo[] files, int totalResults) {
+      this.files = files;
+      this.totalResults = totalResults;
+    }
+
+    public FileInfo[] getFiles() {
+      return files;
+    }
+
+    /**
+     * Returns the number of files that matched, including the ones that
+     * weren't returned.
+     */
+    public int getTotalResults() {
+      return totalResults;
+    }
+  }
+
+  /**
+   * A file or directory, as it was when it was last scanned.
+   */
+  static class IndexedFile {
+    final String name;
+    final byte flags;
+    final long size;
+    final long lastModified;
+    final String title;
+    final String artist;
+    final String album;
+
+    IndexedFile(String name, byte flags, long size, long lastModified, String title,
+        String artist, String album) {
+      this.name = name;
+      this.flags = flags;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.title = title;
+      this.artist = artist;
+      this.album = album;
+    }
+
+    boolean isDirectory() {
+      return (flags & FLAG_DIRECTORY) != 0;
+    }
+
+    FileInfo toFileInfo(String directoryPath) {
+      return ServerUtil.instance().fileInfoFromFile(new File(directoryPath, name), isDirectory());
+    }
+  }
+
+  private static class IndexedDirectory {
+    final long lastModified;
+    // Sorted the same way as FileInfo.
+    final IndexedFile[] files;
+    // The scan that last saw this directory.
+    final int generation;
+
+    IndexedDirectory(long lastModified, IndexedFile[] files, int generation) {
+      this.lastModified = lastModified;
+      this.files = files;
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * A scan of the base paths. Directories are scanned in parallel, each one
+   * submitting its sub directories as it finds them.
+   */
+  private class Scan {
+    private final int generation;
+    // Whether files are checked even if their directory didn't change.
+    private final boolean checkAllFiles;
+    // Guarded by 'this'.
+    private int pendingDirectories = 0;
+    // Canonical paths of the directories submitted so far, so that links
+    // can't send us around in circles.
+    private final Set<String> visited = Collections.synchronizedSet(new HashSet<String>());
+
+    final AtomicInteger directoriesScanned = new AtomicInteger();
+    final AtomicInteger filesScanned = new AtomicInteger();
+    final AtomicInteger tagsRead = new AtomicInteger();
+
+    Scan(int generation, boolean checkAllFiles) {
+      this.generation = generation;
+      this.checkAllFiles = checkAllFiles;
+    }
+
+    void submit(final File directory) {
+      try {
+        if (!visited.add(directory.getCanonicalPath())) {
+          return;
+        }
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, e.getMessage(), e);
+        return;
+      }
+
+      synchronized (this) {
+        pendingDirectories++;
+      }
+      scanExecutor.execute(new Runnable() {
+        public void run() {
+          try {
+            scanDirectory(directory, Scan.this);
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+          } finally {
+            directoryDone();
+          }
+        }
+      });
+    }
+
+    private synchronized void directoryDone() {
+      pendingDirectories--;
+      if (pendingDirectories == 0) {
+        notifyAll();
+      }
+    }
+
+    synchronized void await() throws InterruptedException {
+      while (pendingDirectories > 0) {
+        wait();
+      }
+    }
+  }
+}
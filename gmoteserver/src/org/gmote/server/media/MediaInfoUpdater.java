@@ -17,19 +17,16 @@
 package org.gmote.server.media;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.blinkenlights.jid3.MP3File;
-import org.gmote.common.TcpConnection;
 import org.gmote.common.media.MediaMetaInfo;
 import org.gmote.common.packet.AbstractPacket;
 import org.gmote.common.packet.MediaInfoPacket;
 import org.gmote.common.packet.MediaInfoReqPacket;
+import org.gmote.server.SessionRegistry;
+import org.gmote.server.SessionRegistry.Subscription;
 
 /**
  * Periodically polls information about the currently playing media and sends it
@@ -45,12 +42,11 @@ public class MediaInfoUpdater {
   private static final Logger LOGGER = Logger.getLogger(MediaInfoUpdater.class.getName());
   private static MediaInfoUpdater instance = null;
   private static final int MEDIA_INFO_UPDATE_DELAY = 5000;
-  private byte[] lastGeneratedImageData = null;
+  private String lastGeneratedImageHash = null;
   
   Timer pollingTimer = new Timer("MediaInfoTimer");
 
   MediaPlayerInterface mediaPlayer;
-  TcpConnection con = null;
 
   // Private constructor to prevent instantiation.
   private MediaInfoUpdater() {
@@ -64,27 +60,27 @@ public class MediaInfoUpdater {
     return instance;
   }
 
-  public void setClientConnection(TcpConnection con) {
-    this.con = con;
+  /**
+   * Should be called when a client connects, so that we start polling if
+   * needed.
+   */
+  public synchronized void clientConnected() {
     changePollingState();
   }
 
   /**
-   * Sends information about the currently playing media to the client.
+   * Sends information about the currently playing media to every client that
+   * subscribed to it.
    * 
    * @param mediaInfo
    */
   public synchronized void sendMediaUpdate(MediaMetaInfo mediaInfo) {
-    if (mediaInfo == null || con == null) {
+    if (mediaInfo == null || !clientIsConnected()) {
       return;
     } else {
-      try {
-        LOGGER.info("Sending media info update");
-        con.sendPacket(new MediaInfoPacket(mediaInfo));
-      } catch (IOException e) {
-        LOGGER.log(Level.SEVERE, e.getMessage(), e);
-        setClientConnection(null);
-      }
+      LOGGER.info("Sending media info update");
+      AlbumArtCache.instance().storeImage(mediaInfo);
+      SessionRegistry.instance().publish(Subscription.MEDIA_INFO, new MediaInfoPacket(mediaInfo));
     }
   }
 
@@ -98,7 +94,7 @@ public class MediaInfoUpdater {
   }
 
   private boolean clientIsConnected() {
-    return con != null;
+    return SessionRegistry.instance().hasSubscribers(Subscription.MEDIA_INFO);
   }
 
   private void changePollingState() {
@@ -116,6 +112,11 @@ public class MediaInfoUpdater {
   class UpdateTask extends TimerTask {
     @Override
     public synchronized void run() {
+      if (!clientIsConnected()) {
+        // Every client went away. We'll start again when the next one connects.
+        cancel();
+        return;
+      }
       sendMediaUpdate(mediaPlayer.getNewMediaInfo());
     }
   }
@@ -127,20 +128,23 @@ public class MediaInfoUpdater {
    * @param forceImageUpdate 
    */
   public MediaMetaInfo generateMediaMetaInfo(String fileName, boolean forceImageUpdate) {
-    MP3File mp3 = new MP3File(new File(fileName));
-    MediaMetaInfo fileInfo = PlayerUtil.getSongMetaInfo(mp3);
-    byte[] imageData = PlayerUtil.extractEmbeddedImageData(mp3);
+    MediaMetaInfo fileInfo = MediaMetaInfoCache.instance().getSongMetaInfo(new File(fileName));
+    byte[] imageData = fileInfo.getImage();
     if (imageData == null) {
       // In windows, a folder.jpg file often contains the album art
       imageData = PlayerUtil.extractImageFromFolder(fileName);
     }
+    fileInfo.setImage(imageData);
+    AlbumArtCache.instance().storeImage(fileInfo);
     
-    boolean imageIsSame = lastGeneratedImageData != null && imageData != null && Arrays.equals(lastGeneratedImageData, imageData);
+    String imageHash = fileInfo.getImageHash();
+    boolean imageIsSame = imageHash != null && imageHash.equals(lastGeneratedImageHash);
     if (imageIsSame && !forceImageUpdate) {
+      // Phones that don't know about image hashes keep the image they have.
       fileInfo.setImageSameAsPrevious(true);
+      fileInfo.setImage(null);
     } else {
-      lastGeneratedImageData = imageData;
-      fileInfo.setImage(imageData);
+      lastGeneratedImageHash = imageHash;
     }
     
     return fileInfo;
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.blinkenlights.jid3.ID3Exception;
+import org.blinkenlights.jid3.ID3Tag;
+import org.blinkenlights.jid3.MP3File;
+import org.gmote.common.media.MediaMetaInfo;
+
+/**
+ * Remembers the tags and the embedded album art of the songs that were
+ * played recently. The phone asks for the info of the current song every time
+ * it shows the remote, and the media players send it again on every track
+ * change, which used to mean reading the whole ID3 tag of the song each time.
+ * A song is read again whenever its size or modification time changes.
+ */
+public class MediaMetaInfoCache {
+  private static final Logger LOGGER = Logger.getLogger(MediaMetaInfoCache.class.getName());
+
+  // Maximum number of songs that we keep in memory.
+  private static final int MAX_SONGS = 1000;
+  // Maximum number of bytes of album art, across all songs, that we keep in
+  // memory.
+  private static final int MAX_ARTWORK_BYTES = 16 * 1024 * 1024;
+
+  private static MediaMetaInfoCache instance = null;
+
+  // Guarded by 'this'. Ordered from least to most recently used.
+  private final LinkedHashMap<String, Song> songs = new LinkedHashMap<String, Song>(16, 0.75f,
+      true);
+  private long artworkBytes = 0;
+  private int hits = 0;
+  private int misses = 0;
+  private int evictions = 0;
+
+  public static synchronized MediaMetaInfoCache instance() {
+    if (instance == null) {
+      instance = new MediaMetaInfoCache();
+    }
+    return instance;
+  }
+
+  private static class Song {
+    final long size;
+    final long lastModified;
+    final String title;
+    final String artist;
+    final String album;
+    // The first picture embedded in the tags, or null if there isn't any.
+    final byte[] artwork;
+    // The AlbumArtCache hash of the artwork. Computed once here so that
+    // polling the media player doesn't hash the same picture every time.
+    final String artworkHash;
+
+    Song(long size, long lastModified, String title, String artist, String album,
+        byte[] artwork, String artworkHash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.title = title;
+      this.artist = artist;
+      this.album = album;
+      this.artwork = artwork;
+      this.artworkHash = artworkHash;
+    }
+
+    int getArtworkSize() {
+      return artwork == null ? 0 : artwork.length;
+    }
+  }
+
+  /**
+   * Returns the tags of a song, with the song's embedded album art as the
+   * image and its hash as the image hash. The image is null if the song
+   * doesn't have any. The returned object is a new copy that the caller is
+   * free to modify, but the image data is shared and must not be changed.
+   */
+  public MediaMetaInfo getSongMetaInfo(File file) {
+    String key = createKey(file);
+    long size = file.length();
+    long lastModified = file.lastModified();
+    Song song;
+    synchronized (this) {
+      song = songs.get(key);
+      if (song != null && (song.size != size || song.lastModified != lastModified)) {
+        removeSong(key);
+        song = null;
+      }
+      if (song != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+
+    if (song == null) {
+      long startTime = System.currentTimeMillis();
+      song = readSong(file, size, lastModified);
+      LOGGER.info("Read the tags of " + file + " in " + (System.currentTimeMillis() - startTime)
+          + "ms. " + getStatistics());
+      putSong(key, song);
+    }
+    MediaMetaInfo info = new MediaMetaInfo(song.title, song.artist, song.album, song.artwork,
+        true);
+    info.setImageHash(song.artworkHash);
+    return info;
+  }
+
+  /**
+   * Returns the number of hits, misses and evictions since the server started.
+   */
+  public synchronized String getStatistics() {
+    return "Hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", songs: "
+        + songs.size() + ", artwork bytes: " + artworkBytes;
+  }
+
+  private static Song readSong(File file, long size, long lastModified) {
+    MediaMetaInfo info;
+    byte[] artwork = null;
+    String artworkHash = null;
+    try {
+      // Each call to getTags() reads the file again, so only do it once. We
+      // only need a few frames of the tags, so don't decode the others.
+      MP3File mp3File = new MP3File(file);
+      mp3File.setLazyFrameDecoding(true);
+      ID3Tag[] tags = mp3File.getTags();
+      info = PlayerUtil.getSongMetaInfo(tags);
+      ByteBuffer picture = PlayerUtil.extractEmbeddedImage(tags);
+      if (picture != null) {
+        artworkHash = AlbumArtCache.createHash(picture.duplicate());
+        artwork = new byte[picture.remaining()];
+        picture.get(artwork);
+      }
+    } catch (ID3Exception e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      info = new MediaMetaInfo(null, null, null, null, true);
+    }
+    return new Song(size, lastModified, info.getTitle(), info.getArtist(), info.getAlbum(),
+        artwork, artworkHash);
+  }
+
+  private synchronized void putSong(String key, Song song) {
+    if (song.getArtworkSize() > MAX_ARTWORK_BYTES) {
+      return;
+    }
+    removeSong(key);
+    songs.put(key, song);
+    artworkBytes += song.getArtworkSize();
+
+    // Drop the least recently used songs until we are within our budget.
+    Iterator<Song> it = songs.values().iterator();
+    while ((songs.size() > MAX_SONGS || artworkBytes > MAX_ARTWORK_BYTES) && it.hasNext()) {
+      artworkBytes -= it.next().getArtworkSize();
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Must be called while holding the lock on 'this'.
+   */
+  private void removeSong(String key) {
+    Song song = songs.remove(key);
+    if (song != null) {
+      artworkBytes -= song.getArtworkSize();
+    }
+  }
+
+  private static String createKey(File file) {
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException e) {
+      return file.getAbsolutePath();
+    }
+  }
+}
@@ -97,12 +97,12 @@ public class MediaPlayerManager {
    * is only needed if something went wrong with a media player and it should be
    * reloaded.
    */
-  public MediaPlayerInterface reloadMediaPlayer(String mediaPlayerClassName) {
+  public synchronized MediaPlayerInterface reloadMediaPlayer(String mediaPlayerClassName) {
     mediaPlayerInstances.remove(mediaPlayerClassName);
     return getMediaPlayerInstance(mediaPlayerClassName);
   }
 
-  private MediaPlayerInterface getMediaPlayerInstance(String mediaPlayerClassName) {
+  private synchronized MediaPlayerInterface getMediaPlayerInstance(String mediaPlayerClassName) {
     if (!mediaPlayerInstances.containsKey(mediaPlayerClassName)) {
       MediaPlayerInterface mediaPlayer = createNewMediaPlayerInstance(mediaPlayerClassName);
       mediaPlayerInstances.put(mediaPlayerClassName, mediaPlayer);
@@ -24,6 +24,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,7 +36,6 @@ import org.blinkenlights.jid3.MP3File;
 import org.blinkenlights.jid3.v1.ID3V1Tag;
 import org.blinkenlights.jid3.v1.ID3V1_0Tag;
 import org.blinkenlights.jid3.v1.ID3V1_1Tag;
-import org.blinkenlights.jid3.v2.APICID3V2Frame;
 import org.blinkenlights.jid3.v2.ID3V2_3_0Tag;
 import org.gmote.common.Protocol.Command;
 import org.gmote.common.media.MediaMetaInfo;
@@ -126,27 +126,35 @@ public class PlayerUtil {
   }
   
   public static MediaMetaInfo getSongMetaInfo(MP3File mp3) {
-    
+    try {
+      return getSongMetaInfo(mp3.getTags());
+    } catch (ID3Exception e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      return new MediaMetaInfo(null, null, null, null, true);
+    }
+  }
+
+  /**
+   * Returns the title, artist and album found in tags that were already read
+   * from a song.
+   */
+  public static MediaMetaInfo getSongMetaInfo(ID3Tag[] tags) {
     String title = null;
     String artist = null;
     String album = null;
-    try {
-      for (ID3Tag id3Tag : mp3.getTags()) {
-        if (id3Tag instanceof ID3V1_0Tag || id3Tag instanceof ID3V1_1Tag) {
-          ID3V1Tag tag = (ID3V1Tag) id3Tag;
-          title = setIfNull(title, tag.getTitle());
-          artist = setIfNull(artist, tag.getArtist());
-          album = setIfNull(album, tag.getAlbum());
-          
-        } else if (id3Tag instanceof ID3V2_3_0Tag) {
-          ID3V2_3_0Tag tag = (ID3V2_3_0Tag)id3Tag;
-          title = setIfNull(title, tag.getTitle());
-          artist = setIfNull(artist, tag.getArtist());
-          album = setIfNull(album, tag.getAlbum());
-        }
+    for (ID3Tag id3Tag : tags) {
+      if (id3Tag instanceof ID3V1_0Tag || id3Tag instanceof ID3V1_1Tag) {
+        ID3V1Tag tag = (ID3V1Tag) id3Tag;
+        title = setIfNull(title, tag.getTitle());
+        artist = setIfNull(artist, tag.getArtist());
+        album = setIfNull(album, tag.getAlbum());
+        
+      } else if (id3Tag instanceof ID3V2_3_0Tag) {
+        ID3V2_3_0Tag tag = (ID3V2_3_0Tag)id3Tag;
+        title = setIfNull(title, tag.getTitle());
+        artist = setIfNull(artist, tag.getArtist());
+        album = setIfNull(album, tag.getAlbum());
       }
-    } catch (ID3Exception e) {
-      LOGGER.log(Level.SEVERE, e.getMessage(), e);
     }
     
     return new MediaMetaInfo(title, artist, album,null,true);
@@ -157,22 +165,42 @@ public class PlayerUtil {
   }
   
   public static byte[] extractEmbeddedImageData(MP3File mp3) {
-
     try {
-      for (ID3Tag tag : mp3.getTags()) {
+      return extractEmbeddedImageData(mp3.getTags());
+    } catch (ID3Exception e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      return null;
+    }
+  }
 
-        if (tag instanceof ID3V2_3_0Tag) {
-          ID3V2_3_0Tag tag2 = (ID3V2_3_0Tag) tag;
+  /**
+   * Returns a copy of the first picture found in tags that were already read
+   * from a song, or null if there isn't any.
+   */
+  public static byte[] extractEmbeddedImageData(ID3Tag[] tags) {
+    ByteBuffer picture = extractEmbeddedImage(tags);
+    if (picture == null) {
+      return null;
+    }
+    byte[] imageData = new byte[picture.remaining()];
+    picture.get(imageData);
+    return imageData;
+  }
 
-          if (tag2.getAPICFrames() != null && tag2.getAPICFrames().length > 0) {
-            // Simply take the first image that is available.
-            APICID3V2Frame frame = tag2.getAPICFrames()[0];
-            return frame.getPictureData();
-          }
+  /**
+   * Returns the first picture found in tags that were already read from a
+   * song, or null if there isn't any. The buffer is a view of the tag data,
+   * so nothing is copied.
+   */
+  public static ByteBuffer extractEmbeddedImage(ID3Tag[] tags) {
+    for (ID3Tag tag : tags) {
+      if (tag instanceof ID3V2_3_0Tag) {
+        // Simply take the first image that is available.
+        ByteBuffer picture = ((ID3V2_3_0Tag) tag).getFirstPictureData();
+        if (picture != null) {
+          return picture;
         }
       }
-    } catch (ID3Exception e) {
-      LOGGER.log(Level.SEVERE, e.getMessage(), e);
     }
     return null;
   }
@@ -0,0 +1,460 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.gmote.common.FileInfo;
+import org.gmote.server.media.MediaIndex.IndexedFile;
+import org.gmote.server.media.MediaIndex.SearchResults;
+
+/**
+ * Inverted index over the words in the names and tags of the files in the
+ * MediaIndex. Every word of the query has to match a word of the file, either
+ * exactly, as a prefix (so that results show up while the user types) or with
+ * a typo or two. Results are ranked by how well they match.
+ * <p>
+ * The MediaIndex tells us whenever a directory changes. Files that go away
+ * are only marked as removed, and the postings are rebuilt once enough of them
+ * have piled up.
+ * </p>
+ */
+class SearchIndex {
+  private static final int EXACT_SCORE = 4;
+  private static final int PREFIX_SCORE = 2;
+  private static final int TYPO_SCORE = 1;
+
+  // Query words shorter than this must be spelled correctly, since a typo in
+  // a short word matches too many unrelated words.
+  private static final int MIN_TYPO_WORD_LENGTH = 4;
+  // Query words at least this long can have two typos instead of one.
+  private static final int TWO_TYPOS_WORD_LENGTH = 8;
+
+  // Rebuild the postings once this many files were removed, and they make up
+  // at least half of the postings.
+  private static final int MIN_REMOVED_FOR_COMPACTION = 10000;
+
+  private static final int REMOVED = -1;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // Everything below is guarded by 'lock'.
+  // Indexed files, by id. Removed files are null.
+  private final List<Document> documents = new ArrayList<Document>();
+  // Length of the name of each document, or REMOVED. Ranking looks at these
+  // for every match, which is a lot faster than following the documents.
+  private final IntList nameLengths = new IntList();
+  // Ids of the files of each directory.
+  private final Map<String, int[]> directoryDocuments = new HashMap<String, int[]>();
+  // Ids of the files that contain each word.
+  private final TreeMap<String, IntList> postings = new TreeMap<String, IntList>();
+  private int removedDocuments = 0;
+
+  /**
+   * How well a document matched the words of a query that were looked at so
+   * far.
+   */
+  private static class Match {
+    final int id;
+    int score = 0;
+    int matchedWords = 0;
+
+    Match(int id) {
+      this.id = id;
+    }
+  }
+
+  private static class Document {
+    final String directoryPath;
+    final IndexedFile file;
+
+    Document(String directoryPath, IndexedFile file) {
+      this.directoryPath = directoryPath;
+      this.file = file;
+    }
+  }
+
+  /**
+   * Replaces the files of a directory.
+   */
+  void updateDirectory(String directoryPath, IndexedFile[] files) {
+    lock.writeLock().lock();
+    try {
+      removeDocuments(directoryPath);
+      int[] ids = new int[files.length];
+      for (int i = 0; i < files.length; i++) {
+        ids[i] = documents.size();
+        Document document = new Document(directoryPath, files[i]);
+        documents.add(document);
+        nameLengths.add(files[i].name.length());
+        addPostings(ids[i], document);
+      }
+      directoryDocuments.put(directoryPath, ids);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void removeDirectory(String directoryPath) {
+    lock.writeLock().lock();
+    try {
+      removeDocuments(directoryPath);
+      directoryDocuments.remove(directoryPath);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      documents.clear();
+      nameLengths.clear();
+      directoryDocuments.clear();
+      postings.clear();
+      removedDocuments = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the files that match every word of the query, best matches
+   * first.
+   *
+   * @param offset the number of results to skip.
+   * @param limit the maximum number of results to return.
+   */
+  SearchResults search(String query, int offset, int limit) {
+    String[] words = tokenize(query).toArray(new String[0]);
+    if (words.length == 0 || limit <= 0) {
+      return new SearchResults(new FileInfo[0], 0);
+    }
+    offset = Math.max(0, offset);
+
+    lock.readLock().lock();
+    try {
+      // Only the documents that matched the first word can be results, so we
+      // keep track of those rather than of every document.
+      Map<Integer, Match> matches = new HashMap<Integer, Match>();
+
+      // For each word, we go from the best kind of match to the worst, so a
+      // document is scored by the first match that we find for it.
+      for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+        String word = words[wordIndex];
+        int matched = 0;
+        IntList exactMatches = postings.get(word);
+        if (exactMatches != null) {
+          matched += scoreMatches(exactMatches, EXACT_SCORE, wordIndex, matches);
+        }
+        for (Map.Entry<String, IntList> entry : prefixMatches(word).entrySet()) {
+          if (!entry.getKey().equals(word)) {
+            matched += scoreMatches(entry.getValue(), PREFIX_SCORE, wordIndex, matches);
+          }
+        }
+        if (word.length() >= MIN_TYPO_WORD_LENGTH) {
+          int maxTypos = word.length() >= TWO_TYPOS_WORD_LENGTH ? 2 : 1;
+          for (IntList typoMatches : typoMatches(word, maxTypos)) {
+            matched += scoreMatches(typoMatches, TYPO_SCORE, wordIndex, matches);
+          }
+        }
+        if (matched == 0) {
+          return new SearchResults(new FileInfo[0], 0);
+        }
+      }
+
+      return rankResults(matches.values(), words.length, offset, limit);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a score to the documents that matched every previous word of the
+   * query and that don't have a match for this word yet.
+   *
+   * @return the number of documents that were scored.
+   */
+  private int scoreMatches(IntList ids, int score, int wordIndex, Map<Integer, Match> matches) {
+    int scored = 0;
+    for (int i = 0; i < ids.size(); i++) {
+      int id = ids.get(i);
+      Match match = matches.get(id);
+      if (match == null) {
+        if (wordIndex > 0 || nameLengths.get(id) == REMOVED) {
+          continue;
+        }
+        match = new Match(id);
+        matches.put(id, match);
+      } else if (match.matchedWords != wordIndex) {
+        continue;
+      }
+      match.score += score;
+      match.matchedWords++;
+      scored++;
+    }
+    return scored;
+  }
+
+  private SearchResults rankResults(Collection<Match> matches, int wordCount, int offset,
+      int limit) {
+    // Best score first. Ties go to shorter names, since they are closer to
+    // what was typed, and then to the order in which the files were indexed,
+    // which is alphabetical within a directory. Comparing the names themselves
+    // is too slow when a short query matches most of the library.
+    final Comparator<Match> bestFirst = new Comparator<Match>() {
+      public int compare(Match match1, Match match2) {
+        int scoreDifference = match2.score - match1.score;
+        if (scoreDifference != 0) {
+          return scoreDifference;
+        }
+        int lengthDifference = nameLengths.get(match1.id) - nameLengths.get(match2.id);
+        if (lengthDifference != 0) {
+          return lengthDifference;
+        }
+        return match1.id - match2.id;
+      }
+    };
+    // Keep the best offset + limit results in a heap whose head is the worst
+    // of them, so that we don't sort every match.
+    int wanted = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+    PriorityQueue<Match> best = new PriorityQueue<Match>(Math.min(wanted, 1024) + 1,
+        Collections.reverseOrder(bestFirst));
+    int totalResults = 0;
+    for (Match match : matches) {
+      if (match.matchedWords != wordCount) {
+        continue;
+      }
+      totalResults++;
+      if (best.size() < wanted) {
+        best.add(match);
+      } else if (bestFirst.compare(match, best.peek()) < 0) {
+        best.poll();
+        best.add(match);
+      }
+    }
+
+    Match[] ranked = best.toArray(new Match[best.size()]);
+    Arrays.sort(ranked, bestFirst);
+    int resultCount = Math.max(0, ranked.length - offset);
+    FileInfo[] files = new FileInfo[resultCount];
+    for (int i = 0; i < resultCount; i++) {
+      Document document = documents.get(ranked[offset + i].id);
+      files[i] = document.file.toFileInfo(document.directoryPath);
+    }
+    return new SearchResults(files, totalResults);
+  }
+
+  private SortedMap<String, IntList> prefixMatches(String prefix) {
+    return postings.subMap(prefix, prefix + Character.MAX_VALUE);
+  }
+
+  /**
+   * Returns the postings of the words that are within maxTypos edits of the
+   * given word, other than the word itself and the words that it prefixes.
+   * Only words that start with the same letter are considered, which is
+   * rarely where people make typos, and keeps this fast.
+   */
+  private List<IntList> typoMatches(String word, int maxTypos) {
+    List<IntList> matches = new ArrayList<IntList>();
+    String firstLetter = word.substring(0, 1);
+    for (Map.Entry<String, IntList> entry : prefixMatches(firstLetter).entrySet()) {
+      String candidate = entry.getKey();
+      if (Math.abs(candidate.length() - word.length()) > maxTypos
+          || candidate.startsWith(word)) {
+        continue;
+      }
+      if (editDistance(word, candidate, maxTypos) <= maxTypos) {
+        matches.add(entry.getValue());
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Returns the number of insertions, deletions, substitutions and
+   * transpositions needed to go from one word to the other, or maxDistance + 1
+   * if it is more than maxDistance.
+   */
+  static int editDistance(String word1, String word2, int maxDistance) {
+    int[] previousRow = new int[word2.length() + 1];
+    int[] row = new int[word2.length() + 1];
+    int[] nextRow = new int[word2.length() + 1];
+    for (int j = 0; j <= word2.length(); j++) {
+      row[j] = j;
+    }
+    for (int i = 1; i <= word1.length(); i++) {
+      nextRow[0] = i;
+      int rowMinimum = i;
+      for (int j = 1; j <= word2.length(); j++) {
+        int cost = word1.charAt(i - 1) == word2.charAt(j - 1) ? 0 : 1;
+        int distance = Math.min(Math.min(row[j] + 1, nextRow[j - 1] + 1), row[j - 1] + cost);
+        if (i > 1 && j > 1 && word1.charAt(i - 1) == word2.charAt(j - 2)
+            && word1.charAt(i - 2) == word2.charAt(j - 1)) {
+          distance = Math.min(distance, previousRow[j - 2] + 1);
+        }
+        nextRow[j] = distance;
+        rowMinimum = Math.min(rowMinimum, distance);
+      }
+      if (rowMinimum > maxDistance) {
+        return maxDistance + 1;
+      }
+      int[] recycled = previousRow;
+      previousRow = row;
+      row = nextRow;
+      nextRow = recycled;
+    }
+    return Math.min(row[word2.length()], maxDistance + 1);
+  }
+
+  private void removeDocuments(String directoryPath) {
+    int[] ids = directoryDocuments.get(directoryPath);
+    if (ids == null) {
+      return;
+    }
+    for (int id : ids) {
+      documents.set(id, null);
+      nameLengths.set(id, REMOVED);
+    }
+    removedDocuments += ids.length;
+    if (removedDocuments >= MIN_REMOVED_FOR_COMPACTION
+        && removedDocuments * 2 >= documents.size()) {
+      compact();
+    }
+  }
+
+  /**
+   * Renumbers the documents and rebuilds the postings without the removed
+   * documents.
+   */
+  private void compact() {
+    List<Document> liveDocuments = new ArrayList<Document>(documents.size() - removedDocuments);
+    int[] newIds = new int[documents.size()];
+    for (int id = 0; id < documents.size(); id++) {
+      Document document = documents.get(id);
+      if (document != null) {
+        newIds[id] = liveDocuments.size();
+        liveDocuments.add(document);
+      }
+    }
+    for (Map.Entry<String, int[]> entry : directoryDocuments.entrySet()) {
+      int[] ids = entry.getValue();
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = newIds[ids[i]];
+      }
+    }
+
+    documents.clear();
+    documents.addAll(liveDocuments);
+    nameLengths.clear();
+    postings.clear();
+    for (int id = 0; id < documents.size(); id++) {
+      nameLengths.add(documents.get(id).file.name.length());
+      addPostings(id, documents.get(id));
+    }
+    removedDocuments = 0;
+  }
+
+  private void addPostings(int id, Document document) {
+    IndexedFile file = document.file;
+    Set<String> words = new HashSet<String>();
+    String name = file.name;
+    int extensionStart = name.lastIndexOf('.');
+    if (!file.isDirectory() && extensionStart > 0) {
+      name = name.substring(0, extensionStart);
+    }
+    words.addAll(tokenize(name));
+    words.addAll(tokenize(file.title));
+    words.addAll(tokenize(file.artist));
+    words.addAll(tokenize(file.album));
+    for (String word : words) {
+      IntList ids = postings.get(word);
+      if (ids == null) {
+        ids = new IntList();
+        postings.put(word, ids);
+      }
+      ids.add(id);
+    }
+  }
+
+  /**
+   * Splits text into lower case words made of letters and digits.
+   */
+  static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<String>();
+    if (text == null) {
+      return words;
+    }
+    int wordStart = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inWord && wordStart < 0) {
+        wordStart = i;
+      } else if (!inWord && wordStart >= 0) {
+        words.add(text.substring(wordStart, i).toLowerCase());
+        wordStart = -1;
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Growable list of ints, which takes a lot less memory than a list of
+   * Integers for the postings of common words.
+   */
+  private static class IntList {
+    private int[] values = new int[2];
+    private int size = 0;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int get(int index) {
+      return values[index];
+    }
+
+    void set(int index, int value) {
+      values[index] = value;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    int size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.media;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gmote.common.FileInfo;
+import org.gmote.server.media.MediaIndex.IndexedFile;
+import org.gmote.server.media.MediaIndex.SearchResults;
+
+public class SearchIndexTest extends TestCase {
+  private static final String MUSIC = "/music";
+
+  private SearchIndex index;
+
+  @Override
+  protected void setUp() {
+    index = new SearchIndex();
+    index.updateDirectory(MUSIC, new IndexedFile[] {
+        song("01 Yesterday.mp3", "Yesterday", "The Beatles", "Help!"),
+        song("02 Yellow Submarine.mp3", "Yellow Submarine", "The Beatles", "Revolver"),
+        song("03 Yellow.mp3", "Yellow", "Coldplay", "Parachutes"),
+        song("04 Clocks.mp3", "Clocks", "Coldplay", "A Rush of Blood to the Head"),
+        song("05 Paranoid Android.mp3", "Paranoid Android", "Radiohead", "OK Computer")});
+  }
+
+  public void testExactMatch() {
+    assertResults(index.search("clocks", 0, 10), "04 Clocks.mp3");
+  }
+
+  public void testEveryWordMustMatch() {
+    assertResults(index.search("yellow beatles", 0, 10), "02 Yellow Submarine.mp3");
+    assertResults(index.search("clocks beatles", 0, 10));
+  }
+
+  public void testPrefixMatch() {
+    assertResults(index.search("parano", 0, 10), "05 Paranoid Android.mp3");
+    assertResults(index.search("ye", 0, 10), "03 Yellow.mp3", "01 Yesterday.mp3",
+        "02 Yellow Submarine.mp3");
+  }
+
+  public void testFuzzyMatch() {
+    // One typo in a short word, two in a long one.
+    assertResults(index.search("clokcs", 0, 10), "04 Clocks.mp3");
+    assertResults(index.search("radiohaed", 0, 10), "05 Paranoid Android.mp3");
+    assertResults(index.search("paranoyd andriod", 0, 10), "05 Paranoid Android.mp3");
+    // Words shorter than MIN_TYPO_WORD_LENGTH must be spelled right.
+    assertResults(index.search("rkv", 0, 10));
+  }
+
+  public void testExactMatchesRankFirst() {
+    // "yellow" is exact for both songs, but the second one has a shorter name.
+    assertResults(index.search("yellow", 0, 10), "03 Yellow.mp3", "02 Yellow Submarine.mp3");
+    // An exact match beats a prefix match, which beats a typo.
+    index.updateDirectory("/more", new IndexedFile[] {
+        song("Clock.mp3", null, null, null),
+        song("Clockwork.mp3", null, null, null),
+        song("Cluck.mp3", null, null, null)});
+    // The two prefix matches have names of the same length, so they are in the
+    // order in which they were indexed.
+    assertResults(index.search("clock", 0, 10), "Clock.mp3", "04 Clocks.mp3", "Clockwork.mp3",
+        "Cluck.mp3");
+  }
+
+  public void testOffsetAndLimit() {
+    SearchResults results = index.search("ye", 1, 1);
+    assertEquals(3, results.getTotalResults());
+    assertResults(results, "01 Yesterday.mp3");
+    assertResults(index.search("ye", 5, 10));
+  }
+
+  public void testUpdatedAndRemovedDirectories() {
+    index.updateDirectory(MUSIC, new IndexedFile[] {
+        song("06 Karma Police.mp3", "Karma Police", "Radiohead", "OK Computer")});
+    assertResults(index.search("radiohead", 0, 10), "06 Karma Police.mp3");
+    assertResults(index.search("clocks", 0, 10));
+
+    index.removeDirectory(MUSIC);
+    assertResults(index.search("radiohead", 0, 10));
+  }
+
+  public void testEditDistance() {
+    assertEquals(0, SearchIndex.editDistance("yellow", "yellow", 2));
+    assertEquals(1, SearchIndex.editDistance("yellow", "yelow", 2));
+    assertEquals(1, SearchIndex.editDistance("yellow", "yelolw", 2));
+    assertEquals(2, SearchIndex.editDistance("yellow", "yelolww", 2));
+    assertEquals(3, SearchIndex.editDistance("yellow", "submarine", 2));
+  }
+
+  private static IndexedFile song(String name, String title, String artist, String album) {
+    return new IndexedFile(name, (byte) 0, 1000, 1000, title, artist, album);
+  }
+
+  private static void assertResults(SearchResults results, String... expectedNames) {
+    List<String> names = new ArrayList<String>();
+    for (FileInfo file : results.getFiles()) {
+      names.add(file.getFileName());
+    }
+    assertEquals(Arrays.asList(expectedNames), names);
+  }
+}
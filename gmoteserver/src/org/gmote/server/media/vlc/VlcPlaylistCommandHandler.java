@@ -20,10 +20,10 @@ import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.blinkenlights.jid3.MP3File;
 import org.gmote.common.media.MediaMetaInfo;
 import org.gmote.server.media.MediaCommandHandler;
 import org.gmote.server.media.MediaInfoUpdater;
+import org.gmote.server.media.MediaMetaInfoCache;
 import org.gmote.server.media.PlayerUtil;
 import org.videolan.jvlc.Audio;
 import org.videolan.jvlc.JVLC;
@@ -224,11 +224,10 @@ public class VlcPlaylistCommandHandler extends MediaCommandHandler {
     }
     String artworkUrl = media.getMeta(libvlc_meta_t.libvlc_meta_ArtworkURL);
     
-    MP3File mp3 = new MP3File(new File(mediaMrl));
-    MediaMetaInfo fileInfo = PlayerUtil.getSongMetaInfo(mp3);
+    MediaMetaInfo fileInfo = MediaMetaInfoCache.instance().getSongMetaInfo(new File(mediaMrl));
     useVlcMetaInfoIfNull(fileInfo, media);
     
-    byte[] imageData = PlayerUtil.extractEmbeddedImageData(mp3);
+    byte[] imageData = fileInfo.getImage();
     if (imageData == null && artworkUrl != null && artworkUrl.startsWith("file://")) {
       // Try to get the image from file.
       imageData = PlayerUtil.extractImageArtworkFromFile(artworkUrl);
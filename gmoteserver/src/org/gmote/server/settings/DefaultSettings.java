@@ -54,6 +54,7 @@ public class DefaultSettings extends AbstractSettings<DefaultSettingsEnum, Strin
     instance().setSetting(DefaultSettingsEnum.SHOW_ALL_FILES, "false");
     instance().setSetting(DefaultSettingsEnum.UDP_PORT, "9901");
     instance().setSetting(DefaultSettingsEnum.SHUFFLE_SONGS, "false");
+    instance().setSetting(DefaultSettingsEnum.TILE_MAX_FPS, "10");
   }
 
 }
@@ -19,5 +19,6 @@ package org.gmote.server.settings;
 public enum DefaultSettingsEnum {
   // Note: When you add a setting here, make sure to add it to the DefaultSettings.createDefaultFile()
   // Note: PORT is deprecated. Use PreferredPorts. 
-  PORT, PLAYER, LOG_VLC, VOLUME, MONITOR_X, MONITOR_Y, SHOW_ALL_FILES, UDP_PORT, SHUFFLE_SONGS;
+  PORT, PLAYER, LOG_VLC, VOLUME, MONITOR_X, MONITOR_Y, SHOW_ALL_FILES, UDP_PORT, SHUFFLE_SONGS,
+  TILE_MAX_FPS;
 }
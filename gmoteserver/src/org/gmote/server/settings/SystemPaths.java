@@ -27,7 +27,9 @@ public enum SystemPaths {
   STARTUP_SETTINGS("startup_settings.txt"),
   GMOTE_LOG("gmote.log"),
   GMOTE_ERROR_LOG("gmote-error.log"),
-  PREFERED_PORTS("prefered_ports.txt");
+  PREFERED_PORTS("prefered_ports.txt"),
+  THUMBNAIL_CACHE("thumbnails"),
+  MEDIA_INDEX("media_index.dat");
 
   String name;
   public static String ROOT_PATH = null;
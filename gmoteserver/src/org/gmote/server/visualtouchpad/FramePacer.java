@@ -0,0 +1,100 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.visualtouchpad;
+
+/**
+ * Decides how long the tile updater waits between two passes. The updater
+ * backs off to a slow poll while the screen is static and speeds up, to at
+ * most a configurable frame rate, when a large part of the requested tiles
+ * keeps changing, like when a video is playing. A pass is never followed by a
+ * shorter wait than the pass itself took, which keeps the capturing, encoding
+ * and sending to at most half of the time. Since a pass waits for the phones
+ * to receive its tiles, a slow network slows the updater down the same way.
+ */
+public class FramePacer {
+  public static final int DEFAULT_MAX_FRAMES_PER_SECOND = 10;
+
+  // Time between two passes while nothing changes.
+  private static final long IDLE_PERIOD_MILLIS = 1000;
+  // Time between two passes while only a few tiles change, like a blinking
+  // cursor.
+  private static final long ACTIVE_PERIOD_MILLIS = 500;
+  // Part of the tiles that have to be changing for the updater to run at the
+  // maximum frame rate.
+  private static final double FULL_RATE_CHANGE_RATIO = 0.1;
+  private static final double BACK_OFF_FACTOR = 1.5;
+
+  private final long minPeriodMillis;
+
+  // Moving average of the part of the tiles that changed in each pass.
+  private double changeRatio = 0;
+  private long periodMillis = ACTIVE_PERIOD_MILLIS;
+  private long delayMillis = ACTIVE_PERIOD_MILLIS;
+  private long passMillis = 0;
+  private long sendMillis = 0;
+
+  public FramePacer(int maxFramesPerSecond) {
+    minPeriodMillis = 1000 / Math.max(1, maxFramesPerSecond);
+  }
+
+  /**
+   * Records the outcome of a pass of the tile updater.
+   *
+   * @param tiles the number of tiles that were looked at.
+   * @param changedTiles the number of tiles that were sent.
+   * @param passNanos the time that the pass took, from the screen capture to
+   *        the last tile sent.
+   * @param sendNanos the part of that time that was spent waiting for the
+   *        phones to receive the tiles.
+   */
+  public synchronized void passFinished(int tiles, int changedTiles, long passNanos,
+      long sendNanos) {
+    double ratio = (tiles == 0) ? 0 : (double) changedTiles / tiles;
+    changeRatio = (changeRatio + ratio) / 2;
+    if (changedTiles == 0) {
+      periodMillis = Math.min(IDLE_PERIOD_MILLIS, (long) (periodMillis * BACK_OFF_FACTOR));
+    } else {
+      double speed = Math.min(1, changeRatio / FULL_RATE_CHANGE_RATIO);
+      periodMillis = ACTIVE_PERIOD_MILLIS
+          - (long) ((ACTIVE_PERIOD_MILLIS - minPeriodMillis) * speed);
+    }
+    passMillis = passNanos / 1000000;
+    sendMillis = sendNanos / 1000000;
+    delayMillis = Math.max(periodMillis - passMillis, passMillis);
+  }
+
+  /**
+   * Returns the time to wait before the next pass.
+   */
+  public synchronized long getDelayMillis() {
+    return delayMillis;
+  }
+
+  /**
+   * Returns the number of passes per second that the updater currently runs
+   * at.
+   */
+  public synchronized double getFramesPerSecond() {
+    return 1000.0 / Math.max(1, passMillis + delayMillis);
+  }
+
+  public synchronized String getStatistics() {
+    return String.format("%.1f fps, %.0f%% of tiles changing, last pass took %dms (%dms sending)",
+        getFramesPerSecond(), changeRatio * 100, passMillis,
+        sendMillis);
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.visualtouchpad;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A screen shot of part of one screen, taken once per pass of the tile updater
+ * so that every tile on that screen can be cut out of it instead of being
+ * captured on its own.
+ */
+public class ScreenCapture {
+  // Location of the screen shot relative to all screens.
+  private Rectangle bounds;
+  private BufferedImage image;
+
+  public ScreenCapture(Rectangle bounds, BufferedImage image) {
+    this.bounds = bounds;
+    this.image = image;
+  }
+
+  public boolean contains(Rectangle rect) {
+    return bounds.contains(rect);
+  }
+
+  public boolean intersects(Rectangle rect) {
+    return bounds.intersects(rect);
+  }
+
+  /**
+   * Returns the part of the screen shot at the given location, which must be
+   * within the screen shot. The returned image shares its pixels with the
+   * screen shot.
+   */
+  public BufferedImage getSubimage(Rectangle rect) {
+    return image.getSubimage(rect.x - bounds.x, rect.y - bounds.y, rect.width, rect.height);
+  }
+
+  /**
+   * Draws the part of the screen shot that overlaps the given location into an
+   * image which represents that location.
+   */
+  public void drawInto(BufferedImage target, Rectangle targetRect) {
+    Graphics graphics = target.getGraphics();
+    try {
+      graphics.drawImage(image, bounds.x - targetRect.x, bounds.y - targetRect.y, null);
+    } finally {
+      graphics.dispose();
+    }
+  }
+}
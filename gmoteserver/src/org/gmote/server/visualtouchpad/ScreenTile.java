@@ -19,15 +19,19 @@ package org.gmote.server.visualtouchpad;
 import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import javax.imageio.ImageIO;
 
 import org.gmote.common.Protocol.MouseEvent;
+import org.gmote.common.packet.TileUpdatePacket;
 import org.gmote.server.MouseUtil;
 
 /**
@@ -37,16 +41,31 @@ import org.gmote.server.MouseUtil;
  * @author Marc Stogaitis
  */
 public class ScreenTile {
+  // 64 bit FNV-1a constants.
+  private static final long HASH_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long HASH_PRIME = 0x100000001b3L;
+
+  // Number of partial updates of a tile after which the whole tile is sent
+  // again, so that the client's copy can't stay wrong for long.
+  private static final int KEYFRAME_INTERVAL = 30;
+
   private int idX;
   private int idY;
   
   // Location of tile relative to all screens.
   private Rectangle tileRect;
   
-  private List<Rectangle> boundsWithinIndividualScreen = new ArrayList<Rectangle>();
   private List<Screen> screens = new ArrayList<Screen>();
   
-  private byte[] lastImageSeen;
+  // Hash of the pixels of the last image that was sent, or null if the next
+  // image should be sent whether it changed or not.
+  private volatile Long lastImageHash;
+
+  // Pixels of the last image that was sent, to find the part of the tile that
+  // changed. Only kept while partial updates are allowed.
+  private int[] lastPixels;
+  private int[] sparePixels;
+  private int partialUpdatesSinceKeyframe = 0;
   
   public ScreenTile(int idX, int idY, Rectangle tileRect) {
     this.idX = idX;
@@ -62,51 +81,207 @@ public class ScreenTile {
    */
   public void addScreen(Screen screen) {
     screens.add(screen);
-    Rectangle screenBounds = screen.getBounds();
-    Rectangle boundsWithinScreen = new Rectangle(tileRect.x - screenBounds.x, tileRect.y - screenBounds.y, TileHandler.TILE_SIZE, TileHandler.TILE_SIZE);
-    boundsWithinIndividualScreen.add(boundsWithinScreen);
   }
 
   /**
-   * Takes a screen shot at the position on the screen which this tile
-   * represents. Returns null if the image has not changed since the last time
-   * this method was called, or if this is an 'off the screen tile' which can
-   * happen when you have more than one monitor with different sizes.
+   * Cuts the image of this tile out of the screen shots taken by
+   * TileHandler.captureScreens() and returns the update to send for it.
+   * Returns null if the image has not changed since the last time this method
+   * was called, or if this is an 'off the screen tile' which can happen when
+   * you have more than one monitor with different sizes.
    */
-  public byte[] takeImage() throws IOException {
-    // TODO(mstogaitis): handle the case where tiles are part of several
-    // screens.
+  public TileUpdatePacket takeUpdate(List<ScreenCapture> captures, boolean allowPartialUpdate)
+      throws IOException {
     if (screens.size() == 0) {
       return null;
     }
-    Screen screen = screens.get(0);
-    Robot robot = screen.getRobot();
-    BufferedImage bufferedImage = robot.createScreenCapture(boundsWithinIndividualScreen.get(0));
+    BufferedImage image = null;
+    for (ScreenCapture capture : captures) {
+      if (capture.contains(tileRect)) {
+        image = capture.getSubimage(tileRect);
+        break;
+      }
+    }
+    if (image == null) {
+      // The tile is split across screens, or hangs off the edge of one. Put
+      // it together from each part, leaving black where there is no screen.
+      for (ScreenCapture capture : captures) {
+        if (capture.intersects(tileRect)) {
+          if (image == null) {
+            image = new BufferedImage(tileRect.width, tileRect.height,
+                BufferedImage.TYPE_INT_RGB);
+          }
+          capture.drawInto(image, tileRect);
+        }
+      }
+      if (image == null) {
+        return null;
+      }
+    }
+    return createUpdate(image, allowPartialUpdate);
+  }
 
-    ByteArrayOutputStream bas = new ByteArrayOutputStream();
-    ImageIO.write(bufferedImage, "PNG", bas);
-    byte[] imageData = bas.toByteArray();
-    // TODO(mstogaitis): Investigate using a hash here
-    if (Arrays.equals(imageData, lastImageSeen)) {
+  /**
+   * Returns an update with the image encoded as a PNG, or null if its pixels
+   * are the same as those of the last image that was sent. Most tiles don't
+   * change between two screen shots, and hashing the pixels is a lot cheaper
+   * than encoding them just to compare the result.
+   * <p>
+   * When partial updates are allowed, only the rectangle around the pixels
+   * that changed is sent, which is a lot smaller for things like a blinking
+   * cursor or a clock. The whole tile is still sent when the rectangle covers
+   * most of it, or every KEYFRAME_INTERVAL updates.
+   * </p>
+   */
+  TileUpdatePacket createUpdate(BufferedImage image, boolean allowPartialUpdate)
+      throws IOException {
+    long imageHash = hashPixels(image);
+    Long lastHash = lastImageHash;
+    if (lastHash != null && lastHash.longValue() == imageHash) {
       return null;
+    }
+
+    TileUpdatePacket update = null;
+    if (allowPartialUpdate) {
+      int[] pixels = readPixels(image, sparePixels);
+      if (lastHash != null && lastPixels != null
+          && partialUpdatesSinceKeyframe < KEYFRAME_INTERVAL) {
+        Rectangle changed = findChangedRegion(pixels, lastPixels, image.getWidth(), image
+            .getHeight());
+        if (!changed.isEmpty()
+            && changed.width * changed.height * 2 <= image.getWidth() * image.getHeight()) {
+          update = new TileUpdatePacket(idX, idY, changed.x, changed.y, encode(image.getSubimage(
+              changed.x, changed.y, changed.width, changed.height)));
+          partialUpdatesSinceKeyframe++;
+        }
+      }
+      sparePixels = lastPixels;
+      lastPixels = pixels;
     } else {
-      lastImageSeen = imageData;
-      return imageData;
+      sparePixels = null;
+      lastPixels = null;
     }
+    if (update == null) {
+      update = new TileUpdatePacket(idX, idY, encode(image));
+      partialUpdatesSinceKeyframe = 0;
+    }
+    lastImageHash = imageHash;
+    return update;
+  }
+
+  private static byte[] encode(BufferedImage image) throws IOException {
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    ImageIO.write(image, "PNG", bas);
+    return bas.toByteArray();
+  }
+
+  /**
+   * Copies the pixels of the image into the given array, or into a new one if
+   * it is null.
+   */
+  private static int[] readPixels(BufferedImage image, int[] pixels) {
+    WritableRaster raster = image.getRaster();
+    if (raster.getDataBuffer() instanceof DataBufferInt
+        && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+      // Copies whole rows, rather than converting each pixel with getRGB().
+      return (int[]) raster.getDataElements(raster.getMinX(), raster.getMinY(), raster
+          .getWidth(), raster.getHeight(), pixels);
+    }
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
+  }
+
+  /**
+   * Returns the smallest rectangle that contains every pixel which differs
+   * between the two images, or an empty rectangle if they are the same.
+   */
+  private static Rectangle findChangedRegion(int[] pixels, int[] lastPixels, int width,
+      int height) {
+    int minX = width;
+    int minY = height;
+    int maxX = -1;
+    int maxY = -1;
+    for (int y = 0; y < height; y++) {
+      int rowStart = y * width;
+      for (int x = 0; x < width; x++) {
+        if (pixels[rowStart + x] != lastPixels[rowStart + x]) {
+          minX = Math.min(minX, x);
+          maxX = Math.max(maxX, x);
+          minY = Math.min(minY, y);
+          maxY = y;
+        }
+      }
+    }
+    if (maxX < 0) {
+      return new Rectangle();
+    }
+    return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+  }
+
+  /**
+   * Computes a 64 bit FNV-1a hash over the pixels of the image, one pixel at a
+   * time. Each step is a bijection of the hash, so an image that differs from
+   * the previous one by a single pixel always gets a different hash.
+   */
+  static long hashPixels(BufferedImage image) {
+    WritableRaster raster = image.getRaster();
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    DataBuffer dataBuffer = raster.getDataBuffer();
+    long hash = HASH_OFFSET_BASIS;
+    if (dataBuffer instanceof DataBufferInt
+        && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+      // Screen shots are stored one int per pixel, so read them straight from
+      // the array rather than converting each pixel with getRGB(). The raster
+      // may be part of a bigger image.
+      int[] pixels = ((DataBufferInt) dataBuffer).getData();
+      SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster
+          .getSampleModel();
+      int scanlineStride = sampleModel.getScanlineStride();
+      int sampleX = raster.getMinX() - raster.getSampleModelTranslateX();
+      int sampleY = raster.getMinY() - raster.getSampleModelTranslateY();
+      int rowStart = dataBuffer.getOffset() + sampleModel.getOffset(sampleX, sampleY);
+      for (int y = 0; y < height; y++, rowStart += scanlineStride) {
+        for (int i = rowStart; i < rowStart + width; i++) {
+          hash = (hash ^ pixels[i]) * HASH_PRIME;
+        }
+      }
+    } else {
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        image.getRGB(0, y, width, 1, row, 0, width);
+        for (int i = 0; i < width; i++) {
+          hash = (hash ^ row[i]) * HASH_PRIME;
+        }
+      }
+    }
+    return hash;
   }
   
   public void clickMouse(int pixelOffsetX, int pixelOffsetY, MouseEvent mouseEvent) {
     if (screens.size() == 0) {
       return;
     }
+    // Click on the screen that the point is on, in case the tile is split
+    // across screens.
+    int x = tileRect.x + pixelOffsetX;
+    int y = tileRect.y + pixelOffsetY;
     Screen screen = screens.get(0);
+    for (Screen candidate : screens) {
+      if (candidate.getBounds().contains(x, y)) {
+        screen = candidate;
+        break;
+      }
+    }
     Robot robot = screen.getRobot();
-    
-    Rectangle bounds = boundsWithinIndividualScreen.get(0);
-    robot.mouseMove(bounds.x + pixelOffsetX, bounds.y + pixelOffsetY);
+    Rectangle screenBounds = screen.getBounds();
+    robot.mouseMove(x - screenBounds.x, y - screenBounds.y);
     MouseUtil.doMouseEvent(mouseEvent, robot);
   }
   
+  public Rectangle getTileRect() {
+    return tileRect;
+  }
+
   public int getIdX() {
     return idX;
   }
@@ -137,7 +312,7 @@ public class ScreenTile {
   }
 
   public void clearImage() {
-    lastImageSeen = null;
+    lastImageHash = null;
     
   }
 }
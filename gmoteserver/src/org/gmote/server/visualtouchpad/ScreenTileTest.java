@@ -0,0 +1,190 @@
+/**
+ * Copyright 2009 Marc Stogaitis and Mimi Sun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gmote.server.visualtouchpad;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import org.gmote.common.packet.TileUpdatePacket;
+
+/**
+ * Applies the updates of a ScreenTile to a canvas, the way the phone does, and
+ * checks that the canvas always ends up the same as the tile's image.
+ */
+public class ScreenTileTest extends TestCase {
+  private static final int TILE_SIZE = 64;
+  private static final int KEYFRAME_INTERVAL = 30;
+
+  private ScreenTile tile;
+  private BufferedImage image;
+  private BufferedImage canvas;
+
+  @Override
+  protected void setUp() {
+    tile = new ScreenTile(1, 2, new Rectangle(64, 128, TILE_SIZE, TILE_SIZE));
+    image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+    canvas = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+    fill(0, 0, TILE_SIZE, TILE_SIZE, 0x336699);
+  }
+
+  public void testFirstUpdateIsFullTile() throws IOException {
+    TileUpdatePacket update = takeUpdate(true);
+    assertFalse(update.isPartialUpdate());
+    assertEquals(1, update.getTileIdX());
+    assertEquals(2, update.getTileIdY());
+  }
+
+  public void testUnchangedImageSendsNothing() throws IOException {
+    takeUpdate(true);
+    assertNull(tile.createUpdate(image, true));
+    assertNull(tile.createUpdate(image, false));
+  }
+
+  public void testSmallChangeSendsChangedRectangle() throws IOException {
+    takeUpdate(true);
+    fill(10, 20, 5, 3, 0xff0000);
+    image.setRGB(30, 21, 0x00ff00);
+
+    TileUpdatePacket update = takeUpdate(true);
+    assertTrue(update.isPartialUpdate());
+    assertEquals(10, update.getOffsetX());
+    assertEquals(20, update.getOffsetY());
+    BufferedImage changed = decode(update);
+    assertEquals(21, changed.getWidth());
+    assertEquals(3, changed.getHeight());
+  }
+
+  public void testChangeOverHalfTheTileSendsFullTile() throws IOException {
+    takeUpdate(true);
+    // Exactly half of the tile is still sent as a partial update.
+    fill(0, 0, TILE_SIZE, TILE_SIZE / 2, 0xff0000);
+    assertTrue(takeUpdate(true).isPartialUpdate());
+
+    fill(0, 0, TILE_SIZE, TILE_SIZE / 2 + 1, 0x00ff00);
+    assertFalse(takeUpdate(true).isPartialUpdate());
+  }
+
+  public void testWholeTileIsSentEveryKeyframeInterval() throws IOException {
+    takeUpdate(true);
+    for (int i = 0; i < KEYFRAME_INTERVAL; i++) {
+      image.setRGB(i, i, 0xff0000 + i);
+      assertTrue("Update " + i, takeUpdate(true).isPartialUpdate());
+    }
+    image.setRGB(0, TILE_SIZE - 1, 0x00ff00);
+    assertFalse(takeUpdate(true).isPartialUpdate());
+
+    image.setRGB(1, TILE_SIZE - 1, 0x00ff00);
+    assertTrue(takeUpdate(true).isPartialUpdate());
+  }
+
+  public void testClearImageForcesFullTile() throws IOException {
+    takeUpdate(true);
+    tile.clearImage();
+    // The image didn't change, but the phone lost its copy of the tile.
+    assertFalse(takeUpdate(true).isPartialUpdate());
+
+    tile.clearImage();
+    image.setRGB(5, 5, 0xff0000);
+    assertFalse(takeUpdate(true).isPartialUpdate());
+  }
+
+  public void testFullTilesWhenPartialUpdatesAreNotAllowed() throws IOException {
+    takeUpdate(false);
+    image.setRGB(5, 5, 0xff0000);
+    assertFalse(takeUpdate(false).isPartialUpdate());
+
+    // The previous pixels aren't kept, so turning partial updates back on
+    // starts with a whole tile.
+    image.setRGB(6, 6, 0xff0000);
+    assertFalse(takeUpdate(true).isPartialUpdate());
+    image.setRGB(7, 7, 0xff0000);
+    assertTrue(takeUpdate(true).isPartialUpdate());
+  }
+
+  public void testRandomChangesKeepCanvasInSync() throws IOException {
+    // Every update is compared with the pixels kept from the one before, in
+    // buffers that are swapped each time, so a long run catches an update
+    // that is compared with the wrong buffer.
+    Random random = new Random(24);
+    takeUpdate(true);
+    int partialUpdates = 0;
+    for (int i = 0; i < 200; i++) {
+      int width = 1 + random.nextInt(random.nextBoolean() ? 8 : TILE_SIZE);
+      int height = 1 + random.nextInt(random.nextBoolean() ? 8 : TILE_SIZE);
+      fill(random.nextInt(TILE_SIZE - width + 1), random.nextInt(TILE_SIZE - height + 1), width,
+          height, random.nextInt(0x1000000));
+      TileUpdatePacket update = tile.createUpdate(image, true);
+      if (update != null) {
+        apply(update);
+        if (update.isPartialUpdate()) {
+          partialUpdates++;
+        }
+      }
+      assertCanvasMatchesImage();
+    }
+    assertTrue(partialUpdates > 100);
+  }
+
+  /**
+   * Takes an update that must not be null, applies it to the canvas and checks
+   * the canvas.
+   */
+  private TileUpdatePacket takeUpdate(boolean allowPartialUpdate) throws IOException {
+    TileUpdatePacket update = tile.createUpdate(image, allowPartialUpdate);
+    assertNotNull(update);
+    apply(update);
+    assertCanvasMatchesImage();
+    return update;
+  }
+
+  private void apply(TileUpdatePacket update) throws IOException {
+    BufferedImage updateImage = decode(update);
+    if (update.isPartialUpdate()) {
+      canvas.getGraphics().drawImage(updateImage, update.getOffsetX(), update.getOffsetY(), null);
+    } else {
+      assertEquals(TILE_SIZE, updateImage.getWidth());
+      assertEquals(TILE_SIZE, updateImage.getHeight());
+      canvas.getGraphics().drawImage(updateImage, 0, 0, null);
+    }
+  }
+
+  private static BufferedImage decode(TileUpdatePacket update) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(update.getImageData()));
+  }
+
+  private void assertCanvasMatchesImage() {
+    int[] expected = image.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE);
+    int[] actual = canvas.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE);
+    assertTrue(Arrays.equals(expected, actual));
+  }
+
+  private void fill(int x, int y, int width, int height, int rgb) {
+    for (int row = y; row < y + height; row++) {
+      for (int column = x; column < x + width; column++) {
+        image.setRGB(column, row, rgb);
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.awt.Robot;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -34,6 +35,7 @@ public class TileHandler {
   public static final int TILE_SIZE = 128;
 
   private Map<ScreenTile, ScreenTile> tiles = new HashMap<ScreenTile, ScreenTile>();
+  private List<Screen> individualScreens = new ArrayList<Screen>();
   
   // Rectangle that contains the union of all of the screens on the
   // computer.
@@ -41,7 +43,6 @@ public class TileHandler {
   
   public TileHandler() {
     try {
-      List<Screen> individualScreens = new ArrayList<Screen>(); 
       allScreenRect = initScreen(individualScreens);
       initTileList(allScreenRect, individualScreens);
     } catch (AWTException e) {
@@ -61,6 +62,33 @@ public class TileHandler {
   public Rectangle getAllScreenRect() {
     return allScreenRect;
   }
+
+  /**
+   * Takes one screen shot per screen of the area covered by the given tiles,
+   * for the tiles to cut their images out of. This is a lot faster than
+   * asking the windowing system for each tile on its own.
+   */
+  public List<ScreenCapture> captureScreens(List<ScreenTile> tilesToCapture) {
+    List<ScreenCapture> captures = new ArrayList<ScreenCapture>();
+    if (tilesToCapture.isEmpty()) {
+      return captures;
+    }
+    Rectangle area = null;
+    for (ScreenTile tile : tilesToCapture) {
+      area = (area == null) ? tile.getTileRect() : area.union(tile.getTileRect());
+    }
+    for (Screen screen : individualScreens) {
+      Rectangle screenBounds = screen.getBounds();
+      Rectangle captureRect = area.intersection(screenBounds);
+      if (captureRect.isEmpty()) {
+        continue;
+      }
+      BufferedImage image = screen.takeScreenShot(new Rectangle(captureRect.x - screenBounds.x,
+          captureRect.y - screenBounds.y, captureRect.width, captureRect.height));
+      captures.add(new ScreenCapture(captureRect, image));
+    }
+    return captures;
+  }
   
   /**
    * Initialize screen.
@@ -87,8 +115,8 @@ public class TileHandler {
   private void initTileList(Rectangle allScreenRect, List<Screen> individualScreens) {
     int tileIdX = 0;
     int tileIdY = 0;
-    for (int tileY = allScreenRect.y; tileY < allScreenRect.height; tileY += TILE_SIZE) {
-      for (int tileX = allScreenRect.x; tileX < allScreenRect.width; tileX += TILE_SIZE) {
+    for (int tileY = allScreenRect.y; tileY < allScreenRect.y + allScreenRect.height; tileY += TILE_SIZE) {
+      for (int tileX = allScreenRect.x; tileX < allScreenRect.x + allScreenRect.width; tileX += TILE_SIZE) {
 
         Rectangle tileRect = new Rectangle(tileX, tileY, TILE_SIZE, TILE_SIZE);
         ScreenTile tile = new ScreenTile(tileIdX, tileIdY, tileRect);
@@ -20,28 +20,57 @@ import java.awt.Rectangle;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.gmote.common.TcpConnection;
+import org.gmote.common.PacketCodec;
 import org.gmote.common.packet.TileClickReq;
 import org.gmote.common.packet.TileInfoReply;
 import org.gmote.common.packet.TileSetReq;
 import org.gmote.common.packet.TileUpdatePacket;
+import org.gmote.server.SessionRegistry;
+import org.gmote.server.SessionRegistry.Subscription;
+import org.gmote.server.settings.DefaultSettings;
+import org.gmote.server.settings.DefaultSettingsEnum;
 
 public class VisualTouchpad {
   private static final Logger LOGGER = Logger.getLogger(VisualTouchpad.class.getName());
 
+  private static final int ENCODER_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final long STATISTICS_INTERVAL_MILLIS = 30 * 1000;
+  // Longest time that a pass waits for the phones to receive its tiles. A
+  // phone that takes longer falls behind instead of holding up the others.
+  private static final long MAX_DELIVERY_WAIT_MILLIS = 2000;
+
   private static VisualTouchpad instance = null;
 
   private TileHandler tileHandler = new TileHandler();
   private List<ScreenTile> tilesToUpdate = new ArrayList<ScreenTile>();
   private Semaphore tilesToUpdateSemaphore = new Semaphore(0);
 
-  private TcpConnection con;
   private TileUpdaterTask tileUpdater = null;
+  private final ExecutorService tileEncoder = Executors.newFixedThreadPool(ENCODER_THREADS,
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "TileEncoder");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final FramePacer framePacer = new FramePacer(readMaxFramesPerSecond());
 
+  // The tiles that the phones are looking at. There is only one set of tiles
+  // for all the phones, so when several phones show the remote desktop, the
+  // last one to pan or zoom decides which tiles every phone receives.
   private TileSetReq latestTileSet;
   private Semaphore latestTileSemaphore = new Semaphore(0);
 
@@ -66,6 +95,30 @@ public class VisualTouchpad {
     tileHandler.clearTileImages();
   }
 
+  /**
+   * Returns the number of times per second that the tiles are currently being
+   * checked for changes.
+   */
+  public double getFramesPerSecond() {
+    return framePacer.getFramesPerSecond();
+  }
+
+  private static int readMaxFramesPerSecond() {
+    String value = DefaultSettings.instance().getSetting(DefaultSettingsEnum.TILE_MAX_FPS);
+    if (value.length() > 0) {
+      try {
+        return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      }
+    }
+    return FramePacer.DEFAULT_MAX_FRAMES_PER_SECOND;
+  }
+
+  /**
+   * Changes the tiles that are sent to the phones. The set is shared by every
+   * phone that subscribed to tiles.
+   */
   public void tileUpdateRequest(TileSetReq tileSet) {
     
     LOGGER.info("Received tile update request for: " + tileSet);
@@ -141,10 +194,14 @@ public class VisualTouchpad {
   private class TileUpdaterTask extends Thread {
 
     private Boolean threadPaused = false;
+    // Changes every time that the thread is paused, so that the encoders can
+    // tell that the tiles they were given are no longer wanted.
+    private volatile int passGeneration = 0;
 
     @Override
     public void run() {
-      TcpConnection conToSend;
+      SessionRegistry sessions = SessionRegistry.instance();
+      long lastStatisticsTime = System.currentTimeMillis();
       while (true) {
         try {
           if (isThreadPaused()) {
@@ -156,28 +213,19 @@ public class VisualTouchpad {
           LOGGER.log(Level.SEVERE, e1.getMessage(), e1);
         }
 
+        List<ScreenTile> tiles;
         synchronized (tilesToUpdate) {
-          for (ScreenTile tile : tilesToUpdate) {
-            if (isThreadPaused()) {
-              // Leave the for loop if the thread should be paused.
-              LOGGER.info("Leaving for loop since thread going to be paused");
-              break;
-            }
-            try {
-              byte[] imageData = tile.takeImage();
-              if (imageData != null) {
-                LOGGER.info("Sending tile " + tile.getIdX() + " " + tile.getIdY());
-                conToSend = getConnection();
-                conToSend.sendPacket(new TileUpdatePacket(tile.getIdX(), tile.getIdY(), imageData));
-              }
-            } catch (IOException e) {
-              LOGGER.log(Level.SEVERE, e.getMessage(), e);
-              setThreadPaused(true);
-              break;
-            }
+          tiles = new ArrayList<ScreenTile>(tilesToUpdate);
+        }
+        if (updateTiles(tiles, sessions)) {
+          if (System.currentTimeMillis() - lastStatisticsTime > STATISTICS_INTERVAL_MILLIS) {
+            LOGGER.info("Tile updater: " + framePacer.getStatistics());
+            lastStatisticsTime = System.currentTimeMillis();
           }
           try {
-            Thread.sleep(500);
+            // Wait for the next pass, or until a new tile set is requested
+            // which releases the semaphore.
+            tilesToUpdateSemaphore.tryAcquire(framePacer.getDelayMillis(), TimeUnit.MILLISECONDS);
           } catch (InterruptedException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
           }
@@ -185,10 +233,102 @@ public class VisualTouchpad {
       }
       
     }
+
+    /**
+     * Captures the screens once, hashes and encodes the tiles on the encoder
+     * threads, and sends the tiles that changed in the order that they were
+     * requested. Only one pass is ever in flight. Returns false if the pass was
+     * cut short because the thread was paused, in which case the tiles that
+     * were encoded but not sent will be sent again on the next pass.
+     */
+    private boolean updateTiles(List<ScreenTile> tiles, SessionRegistry sessions) {
+      long passStart = System.nanoTime();
+      final int generation = passGeneration;
+      final boolean allowPartialUpdates = sessions.allSubscribersSupport(Subscription.TILES,
+          PacketCodec.TILE_DELTA_VERSION);
+      final List<ScreenCapture> captures = tileHandler.captureScreens(tiles);
+      List<Future<TileUpdatePacket>> results = new ArrayList<Future<TileUpdatePacket>>(tiles
+          .size());
+      for (final ScreenTile tile : tiles) {
+        results.add(tileEncoder.submit(new Callable<TileUpdatePacket>() {
+          public TileUpdatePacket call() throws IOException {
+            if (generation != passGeneration) {
+              // A new tile set was requested, skip the tiles of this one.
+              return null;
+            }
+            return tile.takeUpdate(captures, allowPartialUpdates);
+          }
+        }));
+      }
+
+      boolean completed = true;
+      int changedTiles = 0;
+      long sendNanos = 0;
+      for (int i = 0; i < tiles.size(); i++) {
+        ScreenTile tile = tiles.get(i);
+        if (completed && (isThreadPaused() || generation != passGeneration)) {
+          // Stop sending if the thread should be paused, or was paused and
+          // given new tiles in the meantime.
+          LOGGER.info("Leaving for loop since thread going to be paused");
+          completed = false;
+        }
+        if (completed && !sessions.hasSubscribers(Subscription.TILES)) {
+          // Nobody is looking at the screen anymore. Wait for the next tile
+          // set request.
+          LOGGER.info("No clients left to send tiles to. Pausing tile updater");
+          setThreadPaused(true);
+          completed = false;
+        }
+
+        // Wait for every tile, even once the pass is cut short, so that no
+        // encoder is still working on it when the next pass starts.
+        TileUpdatePacket update = null;
+        try {
+          update = results.get(i).get();
+        } catch (ExecutionException e) {
+          LOGGER.log(Level.SEVERE, e.getMessage(), e.getCause());
+          if (completed) {
+            setThreadPaused(true);
+            completed = false;
+          }
+        } catch (InterruptedException e) {
+          LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        }
+        if (update == null) {
+          continue;
+        }
+        if (completed) {
+          LOGGER.info("Sending tile " + tile.getIdX() + " " + tile.getIdY());
+          sessions.publish(Subscription.TILES, update);
+          changedTiles++;
+        } else {
+          tile.clearImage();
+        }
+      }
+      if (completed && changedTiles > 0) {
+        // The tiles are sent by each phone's own thread. Let the slowest phone
+        // catch up before starting the next pass, within reason.
+        long sendStart = System.nanoTime();
+        try {
+          if (!sessions.awaitDelivery(Subscription.TILES, MAX_DELIVERY_WAIT_MILLIS)) {
+            LOGGER.info("A phone is falling behind on tiles");
+          }
+        } catch (InterruptedException e) {
+          LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        }
+        sendNanos = System.nanoTime() - sendStart;
+      }
+      if (completed) {
+        framePacer.passFinished(tiles.size(), changedTiles, System.nanoTime() - passStart,
+            sendNanos);
+      }
+      return completed;
+    }
     
     public synchronized void setThreadPaused(boolean paused) {
       threadPaused = paused;
       if (paused) {
+        passGeneration++;
         tilesToUpdateSemaphore.drainPermits();
       } else {
         tilesToUpdateSemaphore.release();
@@ -206,13 +346,5 @@ public class VisualTouchpad {
     TileInfoReply reply = new TileInfoReply(rect.width, rect.height, TileHandler.TILE_SIZE);
     return reply;
   }
-
-  public synchronized void setConnection(TcpConnection newConnection) {
-    con = newConnection;
-    
-  }
-  public synchronized TcpConnection getConnection() {
-    return con;
-  }
 }
   
\ No newline at end of file